@@ -88,10 +88,21 @@ public class HikariCPConnectionFactory extends BaseConnectionFactory {
         // NMS-9387: Block indefinitely when waiting for a connection
         config.setConnectionTimeout(0);
         config.setRegisterMbeans(true); // For JMX Monitoring
+        configure(config);
         config.validate();
         m_pool = new HikariDataSource(config);
     }
 
+    /**
+     * Called before the pool is created. Subclasses can override this to
+     * adjust the configuration of their own pools.
+     *
+     * @param config the configuration of the pool
+     */
+    protected void configure(final HikariConfig config) {
+        // Nothing to adjust by default
+    }
+
     /* (non-Javadoc)
      * @see javax.sql.DataSource#getConnection()
      */
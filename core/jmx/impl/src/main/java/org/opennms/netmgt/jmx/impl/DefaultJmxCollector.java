@@ -29,6 +29,7 @@
 package org.opennms.netmgt.jmx.impl;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -39,6 +40,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.Attribute;
 import javax.management.AttributeList;
@@ -63,7 +65,8 @@ import org.opennms.netmgt.jmx.JmxSampleProcessor;
 import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
-import org.opennms.netmgt.jmx.impl.connection.connectors.DefaultConnectionManager;
+import org.opennms.netmgt.jmx.impl.connection.connectors.JmxConnectionPool;
+import org.opennms.netmgt.jmx.impl.connection.connectors.PooledConnectionManager;
 import org.opennms.netmgt.jmx.samples.JmxAttributeSample;
 import org.opennms.netmgt.jmx.samples.JmxCompositeSample;
 import org.slf4j.Logger;
@@ -72,6 +75,9 @@ import org.slf4j.LoggerFactory;
 /**
  * A implementation of the JmxCollector.
  * It iterates over all configured MBeans, collects either attributes or composite members and creates a sample accordingly.
+ * <p/>
+ * The connections are kept open by the {@link JmxConnectionPool} and the <code>ObjectName</code>s wildcards
+ * resolve to are cached for <code>org.opennms.netmgt.jmx.objectNameRefreshInterval</code> ms (default: 5 minutes).
  *
  * @see org.opennms.netmgt.jmx.JmxCollector
  */
@@ -79,23 +85,28 @@ public class DefaultJmxCollector implements JmxCollector {
 
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private static final ObjectNameCache OBJECT_NAME_CACHE = new ObjectNameCache(
+            Long.getLong("org.opennms.netmgt.jmx.objectNameRefreshInterval", TimeUnit.MINUTES.toMillis(5)));
+
     @Override
     public void collect(JmxCollectorConfig config, MBeanServer mBeanServer, JmxSampleProcessor sampleProcessor) throws JmxServerConnectionException {
         Map<String, String> mergedStringMap = new HashMap<>(config.getServiceProperties());
         if (mBeanServer != null) {
             mergedStringMap.putAll(mBeanServer.getParameterMap());
         }
-        JmxConnectionManager connectionManager = new DefaultConnectionManager(config.getRetries());
-        try (JmxServerConnectionWrapper connectionWrapper = connectionManager.connect(config.getConnectionName(), InetAddressUtils.addr(config.getAgentAddress()), mergedStringMap, null)) {
+        final InetAddress agentAddress = InetAddressUtils.addr(config.getAgentAddress());
+        final String agent = JmxConnectionPool.getKey(config.getConnectionName(), agentAddress, mergedStringMap);
+        JmxConnectionManager connectionManager = new PooledConnectionManager(config.getRetries());
+        try (JmxServerConnectionWrapper connectionWrapper = connectionManager.connect(config.getConnectionName(), agentAddress, mergedStringMap, null)) {
             Objects.requireNonNull(connectionWrapper, "connectionWrapper should never be null");
             Objects.requireNonNull(connectionWrapper.getMBeanServerConnection(), "connectionWrapper.getMBeanServerConnection() should never be null");
 
             final MBeanServerConnection concreteConnection = connectionWrapper.getMBeanServerConnection();
-            collect(concreteConnection, config.getJmxCollection(), sampleProcessor);
+            collect(concreteConnection, agent, config.getJmxCollection(), sampleProcessor);
         }
     }
 
-    private void collect(MBeanServerConnection concreteConnection, JmxCollection jmxCollection, JmxSampleProcessor sampleProcessor) {
+    private void collect(MBeanServerConnection concreteConnection, String agent, JmxCollection jmxCollection, JmxSampleProcessor sampleProcessor) {
         if (jmxCollection == null || jmxCollection.getMbeanCount() < 1) {
             logger.info("No MBeans to collect.");
             return;
@@ -105,14 +116,22 @@ public class DefaultJmxCollector implements JmxCollector {
             for (Mbean eachMbean : jmxCollection.getMbeans()) {
                 logger.debug("Collecting MBean (objectname={}, wildcard={})", eachMbean.getObjectname(), isWildcard(eachMbean.getObjectname()));
 
-                final Collection<ObjectName> objectNames = getObjectNames(concreteConnection, eachMbean.getObjectname());
+                final Collection<ObjectName> objectNames = getObjectNames(concreteConnection, agent, eachMbean.getObjectname());
                 for (ObjectName eachObjectName : objectNames) {
                     logger.debug("Collecting ObjectName {}", eachObjectName);
 
-                    boolean collect = canBeCollected(concreteConnection, eachObjectName, eachMbean.getKeyfield(), eachMbean.getExclude());
+                    boolean collect = canBeCollected(eachObjectName, eachMbean.getKeyfield(), eachMbean.getExclude());
                     if (collect) {
                         List<String> attributeNames = extractAttributeNames(eachMbean);
-                        List<Attribute> attributes = getAttributes(concreteConnection, eachObjectName, attributeNames);
+                        final List<Attribute> attributes;
+                        try {
+                            attributes = getAttributes(concreteConnection, eachObjectName, attributeNames);
+                        } catch (InstanceNotFoundException e) {
+                            logger.debug("ObjectName {} is not registered.", eachObjectName);
+                            // The cached ObjectNames are outdated
+                            OBJECT_NAME_CACHE.invalidate(agent, eachMbean.getObjectname());
+                            continue;
+                        }
 
                         for (Attribute eachAttribute : attributes) {
                             if (eachAttribute.getValue() instanceof CompositeData) {
@@ -142,20 +161,16 @@ public class DefaultJmxCollector implements JmxCollector {
 
     /**
      * Checks if a given objectName can be collected.
-     * It cannot be collected if it is excluded or not registered, otherwise it can be collected.
+     * It cannot be collected if it is excluded, otherwise it can be collected.
+     * ObjectNames which are not registered are skipped when their attributes can't be found.
      *
      * @return if it can be collected.
-     * @throws IOException If an error while communicating with the MBeanServer occurs.
      */
-    private boolean canBeCollected(MBeanServerConnection connection, ObjectName objectName, String keyField, String excludeList) throws IOException {
+    private boolean canBeCollected(ObjectName objectName, String keyField, String excludeList) {
         if (isExcluded(objectName, keyField, excludeList)) {
             logger.debug("ObjectName {} with key {} is in excludeList {}.", objectName, keyField, excludeList);
             return false;
         }
-        if (!connection.isRegistered(objectName)) {
-            logger.debug("ObjectName {} is not registered.", objectName);
-            return false;
-        }
         return true;
     }
 
@@ -260,20 +275,26 @@ public class DefaultJmxCollector implements JmxCollector {
     /**
      * Returns an unmodifiable set of <code>ObjectName</code>s according to the given <code>objectName</code>.
      *
+     * @param agent      The key of the agent the server belongs to.
      * @param objectName The objectName to query the server with. May contain wildcards.
      *                   See {@link javax.management.MBeanServer#queryMBeans(javax.management.ObjectName, javax.management.QueryExp)} for details.
      * @return an unmodifiable set of <code>ObjectName</code>s according to the given <code>objectName</code>.
      * @throws MalformedObjectNameException
      * @throws IOException
      */
-    private Set<ObjectName> getObjectNames(MBeanServerConnection mbeanServer, String objectName) throws MalformedObjectNameException, IOException {
+    private Set<ObjectName> getObjectNames(MBeanServerConnection mbeanServer, String agent, String objectName) throws MalformedObjectNameException, IOException {
         Set<ObjectName> objectNames = new HashSet<>();
 
         // if we have a wildcard in the object Name, we have to query the server for
-        // all object names matching that expression
+        // all object names matching that expression, unless we did so recently
         if (isWildcard(objectName)) {
+            final Set<ObjectName> cachedObjectNames = OBJECT_NAME_CACHE.get(agent, objectName);
+            if (cachedObjectNames != null) {
+                return cachedObjectNames;
+            }
             Set<ObjectName> retrievedObjectNames = mbeanServer.queryNames(new ObjectName(objectName), null);
             objectNames.addAll(retrievedObjectNames);
+            OBJECT_NAME_CACHE.put(agent, objectName, Collections.unmodifiableSet(objectNames));
         } else {
             // we do not have a wildcard
             objectNames.add(new ObjectName(objectName));
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
+
+/**
+ * Caches the <code>ObjectName</code>s a wildcard <code>ObjectName</code> resolved to on an agent,
+ * so that the MBeanServer doesn't have to be queried for every collection.
+ * <p/>
+ * Entries are refreshed after the configured interval. A refresh interval of 0 disables the cache.
+ */
+public class ObjectNameCache {
+
+    private static class Key {
+        private final String agent;
+        private final String objectName;
+
+        private Key(String agent, String objectName) {
+            this.agent = agent;
+            this.objectName = objectName;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return Objects.equals(agent, other.agent) && Objects.equals(objectName, other.objectName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(agent, objectName);
+        }
+    }
+
+    private static class Entry {
+        private final Set<ObjectName> objectNames;
+        private final long expires;
+
+        private Entry(Set<ObjectName> objectNames, long expires) {
+            this.objectNames = objectNames;
+            this.expires = expires;
+        }
+    }
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    private final long refreshInterval;
+
+    private volatile long nextSweep;
+
+    /**
+     * @param refreshInterval ms after which the <code>ObjectName</code>s are queried again.
+     */
+    public ObjectNameCache(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+        this.nextSweep = System.currentTimeMillis() + refreshInterval;
+    }
+
+    /**
+     * @return the cached <code>ObjectName</code>s or null if they have to be queried.
+     */
+    public Set<ObjectName> get(String agent, String objectName) {
+        final Entry entry = entries.get(new Key(agent, objectName));
+        if (entry == null || entry.expires <= System.currentTimeMillis()) {
+            return null;
+        }
+        return entry.objectNames;
+    }
+
+    public void put(String agent, String objectName, Set<ObjectName> objectNames) {
+        if (refreshInterval <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (now >= nextSweep) {
+            // Forget about agents which are no longer collected
+            nextSweep = now + refreshInterval;
+            final Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().expires <= now) {
+                    it.remove();
+                }
+            }
+        }
+        entries.put(new Key(agent, objectName), new Entry(objectNames, now + refreshInterval));
+    }
+
+    /**
+     * Forces the <code>ObjectName</code>s to be queried again, e.g. because one of them is no longer registered.
+     */
+    public void invalidate(String agent, String objectName) {
+        entries.remove(new Key(agent, objectName));
+    }
+}
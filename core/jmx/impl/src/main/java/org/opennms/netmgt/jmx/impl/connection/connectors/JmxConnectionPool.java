@@ -0,0 +1,343 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServerConnection;
+
+import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the connections to the JMX servers open between collections and polls.
+ * <p/>
+ * There is at most one connection per agent, which is shared by everybody connecting to
+ * that agent with the same connection properties. A connection that hasn't been used for
+ * a while is checked before it is handed out again, and connections that failed while
+ * being used are replaced. If connecting to an agent fails, no further attempt is made
+ * until an exponentially growing backoff has passed. Idle connections are closed by a
+ * background thread, which is started by the first connect and stopped by {@link #close()}.
+ * <p/>
+ * The pool can be tuned with the following system properties:
+ * <ul>
+ *     <li><code>org.opennms.netmgt.jmx.pool.enabled</code>: whether connections are kept open at all (default: true)</li>
+ *     <li><code>org.opennms.netmgt.jmx.pool.idleTimeout</code>: ms after which an unused connection is closed (default: 15 minutes)</li>
+ *     <li><code>org.opennms.netmgt.jmx.pool.healthCheckInterval</code>: ms a connection may be idle before it is checked (default: 30 seconds)</li>
+ *     <li><code>org.opennms.netmgt.jmx.pool.initialBackoff</code>: ms to wait after the first failed attempt to connect (default: 5 seconds)</li>
+ *     <li><code>org.opennms.netmgt.jmx.pool.maxBackoff</code>: the maximum ms to wait between attempts to connect (default: 1 minute)</li>
+ * </ul>
+ */
+public class JmxConnectionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmxConnectionPool.class);
+
+    /**
+     * The properties which are used to establish a connection, see
+     * {@link org.opennms.netmgt.jmx.connection.JmxConnectionConfigBuilder} and the connectors.
+     * All other properties (e.g. the mbeans to collect or the tests to run) don't make a connection different.
+     */
+    private static final Set<String> CONNECTION_PROPERTIES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "factory", "password", "port", "protocol", "remoteJMX", "rmiServerport", "sunCacao", "timeout",
+            "url", "urlPath", "username", "version")));
+
+    private static final JmxConnectionPool INSTANCE = new JmxConnectionPool(
+            Boolean.parseBoolean(System.getProperty("org.opennms.netmgt.jmx.pool.enabled", "true")),
+            Long.getLong("org.opennms.netmgt.jmx.pool.idleTimeout", TimeUnit.MINUTES.toMillis(15)),
+            Long.getLong("org.opennms.netmgt.jmx.pool.healthCheckInterval", TimeUnit.SECONDS.toMillis(30)),
+            Long.getLong("org.opennms.netmgt.jmx.pool.initialBackoff", TimeUnit.SECONDS.toMillis(5)),
+            Long.getLong("org.opennms.netmgt.jmx.pool.maxBackoff", TimeUnit.MINUTES.toMillis(1)));
+
+    private static class Entry {
+        private final String agent;
+        private JmxServerConnectionWrapper connection;
+        private volatile boolean broken;
+        private boolean removed;
+        private int users;
+        private long lastUsed;
+        private long lastChecked;
+        private int failures;
+        private long retryAfter;
+
+        private Entry(String agent) {
+            this.agent = agent;
+        }
+    }
+
+    private final boolean enabled;
+    private final long idleTimeout;
+    private final long healthCheckInterval;
+    private final long initialBackoff;
+    private final long maxBackoff;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private ScheduledExecutorService sweeper;
+
+    protected JmxConnectionPool(boolean enabled, long idleTimeout, long healthCheckInterval, long initialBackoff, long maxBackoff) {
+        this.enabled = enabled;
+        this.idleTimeout = idleTimeout;
+        this.healthCheckInterval = healthCheckInterval;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * @return the pool shared by the collectors and the monitors.
+     */
+    public static JmxConnectionPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Builds the key identifying the connections to an agent.
+     *
+     * @param connectionName The name of the connector.
+     * @param ipAddress      The address of the agent.
+     * @param properties     The connection properties, properties which are not used to connect are ignored.
+     * @return the key of the agent, which contains a hash of the password instead of the password itself.
+     */
+    public static String getKey(JmxConnectors connectionName, InetAddress ipAddress, Map<String, String> properties) {
+        final Map<String, String> connectionProperties = new TreeMap<>();
+        for (Map.Entry<String, String> eachEntry : properties.entrySet()) {
+            if (CONNECTION_PROPERTIES.contains(eachEntry.getKey())) {
+                connectionProperties.put(eachEntry.getKey(), eachEntry.getValue());
+            }
+        }
+        if (connectionProperties.containsKey("password")) {
+            connectionProperties.put("password", sha256(connectionProperties.get("password")));
+        }
+        return getAgent(connectionName, ipAddress) + "/" + connectionProperties;
+    }
+
+    private static String getAgent(JmxConnectors connectionName, InetAddress ipAddress) {
+        return connectionName + "/" + ipAddress.getHostAddress();
+    }
+
+    private static String sha256(String value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns a connection to the given agent, connecting with the <code>delegate</code> if there is
+     * no usable connection yet. Closing the returned wrapper hands the connection back to the pool.
+     *
+     * @see JmxConnectionManager#connect(JmxConnectors, InetAddress, Map, JmxConnectionManager.RetryCallback)
+     */
+    public JmxServerConnectionWrapper connect(JmxConnectionManager delegate, JmxConnectors connectionName, InetAddress ipAddress, Map<String, String> properties, JmxConnectionManager.RetryCallback retryCallback) throws JmxServerConnectionException {
+        if (!enabled) {
+            return delegate.connect(connectionName, ipAddress, properties, retryCallback);
+        }
+        startSweeper();
+
+        final String key = getKey(connectionName, ipAddress, properties);
+        while (true) {
+            final Entry entry = entries.computeIfAbsent(key, k -> new Entry(getAgent(connectionName, ipAddress)));
+            // Only one thread connects to an agent, all others wait for it and share the connection
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                final long now = System.currentTimeMillis();
+                if (entry.connection != null && (entry.broken || now - entry.lastChecked > healthCheckInterval && !isHealthy(entry.connection))) {
+                    LOG.debug("Connection to {} is no longer usable, reconnecting", ipAddress);
+                    entry.connection.close();
+                    entry.connection = null;
+                }
+                if (entry.connection == null) {
+                    if (now < entry.retryAfter) {
+                        throw new JmxServerConnectionException("Not connecting to " + ipAddress + " for another " + (entry.retryAfter - now) + "ms after " + entry.failures + " failed attempt(s)");
+                    }
+                    try {
+                        entry.connection = Objects.requireNonNull(delegate.connect(connectionName, ipAddress, properties, retryCallback));
+                    } catch (JmxServerConnectionException e) {
+                        entry.failures++;
+                        entry.retryAfter = now + getBackoff(entry.failures);
+                        throw e;
+                    }
+                    entry.broken = false;
+                    entry.failures = 0;
+                    entry.retryAfter = 0;
+                }
+                entry.users++;
+                entry.lastUsed = now;
+                entry.lastChecked = now;
+                return new PooledConnectionWrapper(entry, entry.connection.getMBeanServerConnection());
+            }
+        }
+    }
+
+    /**
+     * Closes all connections which are not in use and stops closing idle connections
+     * in the background, until the next connect.
+     */
+    public void close() {
+        synchronized (this) {
+            if (sweeper != null) {
+                sweeper.shutdown();
+                sweeper = null;
+            }
+        }
+        closeIdleConnections(true);
+    }
+
+    private synchronized void startSweeper() {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "JmxConnectionPool-Sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long interval = Math.max(1, Math.min(idleTimeout, TimeUnit.MINUTES.toMillis(1)));
+        sweeper.scheduleWithFixedDelay(() -> {
+            try {
+                closeIdleConnections(false);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to close idle connections", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void closeIdleConnections(boolean all) {
+        final long now = System.currentTimeMillis();
+        final Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next();
+            synchronized (entry) {
+                if (entry.users == 0 && (all || now - entry.lastUsed > idleTimeout) && now >= entry.retryAfter) {
+                    if (entry.connection != null) {
+                        LOG.debug("Closing idle connection to {}", entry.agent);
+                        entry.connection.close();
+                        entry.connection = null;
+                    }
+                    entry.removed = true;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private long getBackoff(int failures) {
+        long backoff = initialBackoff;
+        for (int i = 1; i < failures && backoff < maxBackoff; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, maxBackoff);
+    }
+
+    private static boolean isHealthy(JmxServerConnectionWrapper connection) {
+        try {
+            connection.getMBeanServerConnection().getMBeanCount();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Health check failed", e);
+            return false;
+        }
+    }
+
+    /**
+     * The connection handed out by the pool. Any {@link IOException} thrown by the
+     * {@link MBeanServerConnection} marks the pooled connection as broken.
+     */
+    private static class PooledConnectionWrapper implements JmxServerConnectionWrapper, InvocationHandler {
+        private final Entry entry;
+        private final MBeanServerConnection connection;
+        private final MBeanServerConnection proxy;
+        private boolean closed;
+
+        private PooledConnectionWrapper(Entry entry, MBeanServerConnection connection) {
+            this.entry = entry;
+            this.connection = connection;
+            this.proxy = (MBeanServerConnection) Proxy.newProxyInstance(MBeanServerConnection.class.getClassLoader(), new Class<?>[] { MBeanServerConnection.class }, this);
+        }
+
+        @Override
+        public MBeanServerConnection getMBeanServerConnection() {
+            return proxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    entry.broken = true;
+                }
+                throw e.getCause();
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (entry) {
+                if (!closed) {
+                    closed = true;
+                    entry.users--;
+                    entry.lastUsed = System.currentTimeMillis();
+                }
+            }
+        }
+    }
+}
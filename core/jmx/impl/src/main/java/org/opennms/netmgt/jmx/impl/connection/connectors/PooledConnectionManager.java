@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import java.net.InetAddress;
+import java.util.Map;
+
+import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+
+/**
+ * A {@link JmxConnectionManager} which reuses the connections kept open by the {@link JmxConnectionPool}.
+ * New connections are established by a {@link DefaultConnectionManager}.
+ */
+public class PooledConnectionManager implements JmxConnectionManager {
+
+    private final JmxConnectionPool pool;
+
+    private final JmxConnectionManager delegate;
+
+    /**
+     * @param retryCount the number of retries used when a new connection has to be established.
+     * @see DefaultConnectionManager#DefaultConnectionManager(int)
+     */
+    public PooledConnectionManager(int retryCount) {
+        this(JmxConnectionPool.getInstance(), new DefaultConnectionManager(retryCount));
+    }
+
+    public PooledConnectionManager(JmxConnectionPool pool, JmxConnectionManager delegate) {
+        this.pool = pool;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public JmxServerConnectionWrapper connect(JmxConnectors connectionName, InetAddress ipAddress, Map<String, String> properties, RetryCallback retryCallback) throws JmxServerConnectionException {
+        return pool.connect(delegate, connectionName, ipAddress, properties, retryCallback);
+    }
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.jmx.impl.connection.connectors;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServerConnection;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
+import org.opennms.netmgt.jmx.connection.JmxConnectors;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
+import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
+
+public class JmxConnectionPoolTest {
+
+    private final AtomicInteger connects = new AtomicInteger();
+    private final AtomicInteger closes = new AtomicInteger();
+    private final AtomicBoolean failing = new AtomicBoolean();
+
+    private final JmxConnectionManager delegate = (connectionName, ipAddress, properties, retryCallback) -> {
+        connects.incrementAndGet();
+        if (failing.get()) {
+            throw new JmxServerConnectionException("Connection refused");
+        }
+        final MBeanServerConnection connection = (MBeanServerConnection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MBeanServerConnection.class }, (proxy, method, args) -> {
+            if (failing.get()) {
+                throw new IOException("Connection reset");
+            }
+            return method.invoke(ManagementFactory.getPlatformMBeanServer(), args);
+        });
+        return new JmxServerConnectionWrapper() {
+            @Override
+            public MBeanServerConnection getMBeanServerConnection() {
+                return connection;
+            }
+
+            @Override
+            public void close() {
+                closes.incrementAndGet();
+            }
+        };
+    };
+
+    private final InetAddress address = InetAddress.getLoopbackAddress();
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(true, 60000, 60000, 60000, 60000);
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("port", "9999");
+        properties.put("beans.test", "java.lang:type=Runtime");
+
+        try (JmxServerConnectionWrapper connection = pool.connect(delegate, JmxConnectors.jsr160, address, properties, null)) {
+            Assert.assertTrue(connection.getMBeanServerConnection().getMBeanCount() > 0);
+        }
+        // Properties which don't affect the connection are ignored
+        properties.remove("beans.test");
+        try (JmxServerConnectionWrapper connection = pool.connect(delegate, JmxConnectors.jsr160, address, properties, null)) {
+            Assert.assertTrue(connection.getMBeanServerConnection().getMBeanCount() > 0);
+        }
+        Assert.assertEquals(1, connects.get());
+
+        // A different port is a different agent
+        properties.put("port", "9998");
+        pool.connect(delegate, JmxConnectors.jsr160, address, properties, null).close();
+        Assert.assertEquals(2, connects.get());
+
+        pool.close();
+        Assert.assertEquals(2, closes.get());
+    }
+
+    @Test
+    public void testBrokenConnectionIsReplaced() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(true, 60000, 60000, 0, 0);
+        final Map<String, String> properties = new HashMap<>();
+
+        try (JmxServerConnectionWrapper connection = pool.connect(delegate, JmxConnectors.jsr160, address, properties, null)) {
+            failing.set(true);
+            connection.getMBeanServerConnection().getMBeanCount();
+            Assert.fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+        failing.set(false);
+        try (JmxServerConnectionWrapper connection = pool.connect(delegate, JmxConnectors.jsr160, address, properties, null)) {
+            Assert.assertTrue(connection.getMBeanServerConnection().getMBeanCount() > 0);
+        }
+        Assert.assertEquals(2, connects.get());
+        Assert.assertEquals(1, closes.get());
+    }
+
+    @Test
+    public void testIdleConnectionIsClosedInTheBackground() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(true, 100, 60000, 60000, 60000);
+        final Map<String, String> properties = new HashMap<>();
+
+        pool.connect(delegate, JmxConnectors.jsr160, address, properties, null).close();
+        // The connection is closed without anybody connecting again
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (closes.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, closes.get());
+        pool.close();
+    }
+
+    @Test
+    public void testKeyDoesNotContainPassword() throws Exception {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("username", "admin");
+        properties.put("password", "secret");
+        final String key = JmxConnectionPool.getKey(JmxConnectors.jsr160, address, properties);
+        Assert.assertFalse(key.contains("secret"));
+        Assert.assertEquals(key, JmxConnectionPool.getKey(JmxConnectors.jsr160, address, properties));
+
+        // A different password is still a different agent
+        properties.put("password", "other");
+        Assert.assertNotEquals(key, JmxConnectionPool.getKey(JmxConnectors.jsr160, address, properties));
+    }
+
+    @Test
+    public void testBackoffAfterFailedConnect() throws Exception {
+        final JmxConnectionPool pool = new JmxConnectionPool(true, 60000, 60000, 60000, 60000);
+        final Map<String, String> properties = new HashMap<>();
+
+        failing.set(true);
+        for (int i = 0; i < 3; i++) {
+            try {
+                pool.connect(delegate, JmxConnectors.jsr160, address, properties, null);
+                Assert.fail("JmxServerConnectionException expected");
+            } catch (JmxServerConnectionException e) {
+                // expected
+            }
+        }
+        // Only the first attempt reached the agent
+        Assert.assertEquals(1, connects.get());
+    }
+}
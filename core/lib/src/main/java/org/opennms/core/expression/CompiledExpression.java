@@ -0,0 +1,639 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.expression;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * An expression compiled by the {@link ExpressionCompiler} into a tree of nodes
+ * that work on primitive doubles.
+ *
+ * The expression can either be evaluated for a single set of values, or over whole
+ * columns at once. Both evaluations give the same results as JEXL, which works on
+ * doubles as soon as one of the operands is a floating point number. Where this
+ * can't be guaranteed, such as for a division by zero, a comparison involving NaN
+ * or a variable without a value, the expression must be evaluated with JEXL instead.
+ */
+public final class CompiledExpression {
+
+    /**
+     * Thrown when an evaluation must be done with JEXL instead.
+     */
+    public static final class FallbackException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private FallbackException() {
+            // Thrown for expected values, don't bother with the stack
+            super(null, null, false, false);
+        }
+    }
+
+    private static final FallbackException FALLBACK = new FallbackException();
+
+    private final Node m_root;
+    private final String[] m_variables;
+
+    CompiledExpression(Node root, String[] variables) {
+        m_root = root;
+        m_variables = variables;
+    }
+
+    /**
+     * Returns the names of the variables referenced by the expression. The value
+     * of the variable at index i goes to index i of the values, or of the columns,
+     * given to the evaluation.
+     *
+     * @return the names of the variables
+     */
+    public String[] getVariables() {
+        return m_variables;
+    }
+
+    /**
+     * Returns false if the value of the expression differs from the one JEXL gives
+     * once it has been converted to a string, as it does for most floats.
+     *
+     * @return true if the value and its string representation are the same
+     */
+    public boolean hasExactStringValue() {
+        return m_root.isExactResult();
+    }
+
+    /**
+     * Evaluates the expression for a single set of values.
+     *
+     * @param values the values of the variables returned by {@link #getVariables()}
+     * @param missing flags the variables that have no value, may be null if they all have one
+     * @return the value of the expression
+     * @throws FallbackException if the expression must be evaluated with JEXL instead
+     */
+    public double evaluate(double[] values, boolean[] missing) throws FallbackException {
+        return m_root.number(values, missing);
+    }
+
+    /**
+     * Evaluates the expression over the first numRows rows of the columns.
+     *
+     * @param columns the values of the variables returned by {@link #getVariables()}
+     * @param numRows the number of rows
+     * @param fallback set to true for the rows that must be evaluated with JEXL instead
+     * @return the values, the values of rows that are flagged in fallback are undefined
+     */
+    public double[] evaluate(double[][] columns, int numRows, boolean[] fallback) {
+        final double[] values = m_root.numbers(columns, numRows, fallback);
+        // Never return one of the columns
+        return m_root instanceof VariableNode ? values.clone() : values;
+    }
+
+    enum Type {
+        DOUBLE, INTEGRAL, BOOLEAN
+    }
+
+    static class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    abstract static class Node {
+        protected final Type m_type;
+
+        protected Node(Type type) {
+            m_type = type;
+        }
+
+        public double number(double[] values, boolean[] missing) throws FallbackException {
+            throw new IllegalStateException();
+        }
+
+        public boolean bool(double[] values, boolean[] missing) throws FallbackException {
+            throw new IllegalStateException();
+        }
+
+        public double[] numbers(double[][] columns, int n, boolean[] fallback) {
+            throw new IllegalStateException();
+        }
+
+        public boolean[] booleans(double[][] columns, int n, boolean[] fallback) {
+            throw new IllegalStateException();
+        }
+
+        /**
+         * Returns false if the value of the node differs from the one JEXL gives when
+         * the node is the result of the expression and it is converted to a string.
+         */
+        public boolean isExactResult() {
+            return true;
+        }
+
+        /**
+         * Returns true if JEXL always gives a Double for this node, and never a Float,
+         * an Integer or a Long.
+         */
+        public boolean isAlwaysDouble() {
+            return false;
+        }
+    }
+
+    private static Type requireNumber(Node node) throws UnsupportedExpressionException {
+        if (node.m_type == Type.BOOLEAN) {
+            throw new UnsupportedExpressionException();
+        }
+        return node.m_type;
+    }
+
+    private static void requireBoolean(Node node) throws UnsupportedExpressionException {
+        if (node.m_type != Type.BOOLEAN) {
+            throw new UnsupportedExpressionException();
+        }
+    }
+
+    /**
+     * JEXL only works on doubles if one of the operands is a floating point number.
+     */
+    private static void requireDouble(Node left, Node right) throws UnsupportedExpressionException {
+        if (requireNumber(left) == Type.INTEGRAL && requireNumber(right) == Type.INTEGRAL) {
+            throw new UnsupportedExpressionException();
+        }
+    }
+
+    /**
+     * Comparisons that JEXL might not decide the same way, NaN is handled with the
+     * boxed values and signed zeros may compare as equal or not.
+     */
+    private static boolean isUndecidable(double a, double b) {
+        return Double.isNaN(a) || Double.isNaN(b)
+                || (a == b && Double.doubleToRawLongBits(a) != Double.doubleToRawLongBits(b));
+    }
+
+    static class VariableNode extends Node {
+        private final int m_index;
+
+        VariableNode(int index, Type type) {
+            super(type);
+            m_index = index;
+        }
+
+        @Override
+        public double number(double[] values, boolean[] missing) throws FallbackException {
+            if (missing != null && missing[m_index]) {
+                // JEXL has its own rules for null values
+                throw FALLBACK;
+            }
+            return values[m_index];
+        }
+
+        @Override
+        public double[] numbers(double[][] columns, int n, boolean[] fallback) {
+            return columns[m_index];
+        }
+
+        @Override
+        public boolean isAlwaysDouble() {
+            return m_type == Type.DOUBLE;
+        }
+    }
+
+    static class ConstantNode extends Node {
+        private final double m_value;
+        private final boolean m_exactResult;
+        private final boolean m_alwaysDouble;
+
+        ConstantNode(Object value) throws UnsupportedExpressionException {
+            super(typeOf(value));
+            m_value = ((Number)value).doubleValue();
+            // JEXL returns the string representation of the value, which differs from the value for most floats
+            m_exactResult = !(value instanceof Float) || m_value == Double.parseDouble(value.toString());
+            m_alwaysDouble = value instanceof Double;
+        }
+
+        private static Type typeOf(Object value) throws UnsupportedExpressionException {
+            if (value instanceof Double || value instanceof Float) {
+                return Type.DOUBLE;
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                return Type.INTEGRAL;
+            }
+            // Undefined variables, strings, big numbers, etc.
+            throw new UnsupportedExpressionException();
+        }
+
+        @Override
+        public double number(double[] values, boolean[] missing) {
+            return m_value;
+        }
+
+        @Override
+        public double[] numbers(double[][] columns, int n, boolean[] fallback) {
+            final double[] values = new double[n];
+            Arrays.fill(values, m_value);
+            return values;
+        }
+
+        @Override
+        public boolean isExactResult() {
+            return m_exactResult;
+        }
+
+        @Override
+        public boolean isAlwaysDouble() {
+            return m_alwaysDouble;
+        }
+    }
+
+    static class BooleanNode extends Node {
+        private final boolean m_value;
+
+        BooleanNode(boolean value) {
+            super(Type.BOOLEAN);
+            m_value = value;
+        }
+
+        @Override
+        public boolean bool(double[] values, boolean[] missing) {
+            return m_value;
+        }
+
+        @Override
+        public boolean[] booleans(double[][] columns, int n, boolean[] fallback) {
+            final boolean[] values = new boolean[n];
+            Arrays.fill(values, m_value);
+            return values;
+        }
+    }
+
+    enum Arithmetic {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO
+    }
+
+    static class ArithmeticNode extends Node {
+        private final Node m_left;
+        private final Node m_right;
+        private final Arithmetic m_op;
+
+        ArithmeticNode(Node left, Node right, Arithmetic op) throws UnsupportedExpressionException {
+            super(Type.DOUBLE);
+            requireDouble(left, right);
+            m_left = left;
+            m_right = right;
+            m_op = op;
+        }
+
+        @Override
+        public double number(double[] values, boolean[] missing) throws FallbackException {
+            final double l = m_left.number(values, missing);
+            final double r = m_right.number(values, missing);
+            switch (m_op) {
+            case ADD:
+                return l + r;
+            case SUBTRACT:
+                return l - r;
+            case MULTIPLY:
+                return l * r;
+            case DIVIDE:
+                if (r == 0.0d) {
+                    throw FALLBACK;
+                }
+                return l / r;
+            default:
+                if (r == 0.0d) {
+                    throw FALLBACK;
+                }
+                return l % r;
+            }
+        }
+
+        @Override
+        public double[] numbers(double[][] columns, int n, boolean[] fallback) {
+            final double[] l = m_left.numbers(columns, n, fallback);
+            final double[] r = m_right.numbers(columns, n, fallback);
+            final double[] values = new double[n];
+            switch (m_op) {
+            case ADD:
+                for (int i = 0; i < n; i++) {
+                    values[i] = l[i] + r[i];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < n; i++) {
+                    values[i] = l[i] - r[i];
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < n; i++) {
+                    values[i] = l[i] * r[i];
+                }
+                break;
+            case DIVIDE:
+                for (int i = 0; i < n; i++) {
+                    if (r[i] == 0.0d) {
+                        fallback[i] = true;
+                    } else {
+                        values[i] = l[i] / r[i];
+                    }
+                }
+                break;
+            case MODULO:
+                for (int i = 0; i < n; i++) {
+                    if (r[i] == 0.0d) {
+                        fallback[i] = true;
+                    } else {
+                        values[i] = l[i] % r[i];
+                    }
+                }
+                break;
+            }
+            return values;
+        }
+
+        @Override
+        public boolean isAlwaysDouble() {
+            return true;
+        }
+    }
+
+    static class NegateNode extends Node {
+        private final Node m_operand;
+
+        NegateNode(Node operand) throws UnsupportedExpressionException {
+            super(requireNumber(operand));
+            m_operand = operand;
+        }
+
+        @Override
+        public double number(double[] values, boolean[] missing) throws FallbackException {
+            return -m_operand.number(values, missing);
+        }
+
+        @Override
+        public double[] numbers(double[][] columns, int n, boolean[] fallback) {
+            final double[] v = m_operand.numbers(columns, n, fallback);
+            final double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = -v[i];
+            }
+            return values;
+        }
+
+        @Override
+        public boolean isExactResult() {
+            return m_operand.isExactResult();
+        }
+
+        @Override
+        public boolean isAlwaysDouble() {
+            return m_operand.isAlwaysDouble();
+        }
+    }
+
+    enum Comparison {
+        EQ, NE, LT, LE, GT, GE
+    }
+
+    static class ComparisonNode extends Node {
+        private final Node m_left;
+        private final Node m_right;
+        private final Comparison m_op;
+
+        ComparisonNode(Node left, Node right, Comparison op) throws UnsupportedExpressionException {
+            super(Type.BOOLEAN);
+            requireDouble(left, right);
+            m_left = left;
+            m_right = right;
+            m_op = op;
+        }
+
+        @Override
+        public boolean bool(double[] values, boolean[] missing) throws FallbackException {
+            final double a = m_left.number(values, missing);
+            final double b = m_right.number(values, missing);
+            if (isUndecidable(a, b)) {
+                throw FALLBACK;
+            }
+            return compare(a, b);
+        }
+
+        @Override
+        public boolean[] booleans(double[][] columns, int n, boolean[] fallback) {
+            final double[] l = m_left.numbers(columns, n, fallback);
+            final double[] r = m_right.numbers(columns, n, fallback);
+            final boolean[] values = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                if (isUndecidable(l[i], r[i])) {
+                    fallback[i] = true;
+                } else {
+                    values[i] = compare(l[i], r[i]);
+                }
+            }
+            return values;
+        }
+
+        private boolean compare(double a, double b) {
+            switch (m_op) {
+            case EQ:
+                return a == b;
+            case NE:
+                return a != b;
+            case LT:
+                return a < b;
+            case LE:
+                return a <= b;
+            case GT:
+                return a > b;
+            default:
+                return a >= b;
+            }
+        }
+    }
+
+    static class LogicalNode extends Node {
+        private final Node m_left;
+        private final Node m_right;
+        private final boolean m_or;
+
+        LogicalNode(Node left, Node right, boolean or) throws UnsupportedExpressionException {
+            super(Type.BOOLEAN);
+            requireBoolean(left);
+            requireBoolean(right);
+            m_left = left;
+            m_right = right;
+            m_or = or;
+        }
+
+        @Override
+        public boolean bool(double[] values, boolean[] missing) throws FallbackException {
+            // Short-circuits like JEXL, the right side may not be evaluable
+            if (m_or) {
+                return m_left.bool(values, missing) || m_right.bool(values, missing);
+            }
+            return m_left.bool(values, missing) && m_right.bool(values, missing);
+        }
+
+        @Override
+        public boolean[] booleans(double[][] columns, int n, boolean[] fallback) {
+            final boolean[] l = m_left.booleans(columns, n, fallback);
+            final boolean[] r = m_right.booleans(columns, n, fallback);
+            final boolean[] values = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = m_or ? l[i] || r[i] : l[i] && r[i];
+            }
+            return values;
+        }
+    }
+
+    static class NotNode extends Node {
+        private final Node m_operand;
+
+        NotNode(Node operand) throws UnsupportedExpressionException {
+            super(Type.BOOLEAN);
+            requireBoolean(operand);
+            m_operand = operand;
+        }
+
+        @Override
+        public boolean bool(double[] values, boolean[] missing) throws FallbackException {
+            return !m_operand.bool(values, missing);
+        }
+
+        @Override
+        public boolean[] booleans(double[][] columns, int n, boolean[] fallback) {
+            final boolean[] v = m_operand.booleans(columns, n, fallback);
+            final boolean[] values = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = !v[i];
+            }
+            return values;
+        }
+    }
+
+    static class TernaryNode extends Node {
+        private final Node m_condition;
+        private final Node m_whenTrue;
+        private final Node m_whenFalse;
+
+        TernaryNode(Node condition, Node whenTrue, Node whenFalse) throws UnsupportedExpressionException {
+            super(requireNumber(whenTrue) == Type.INTEGRAL || requireNumber(whenFalse) == Type.INTEGRAL ? Type.INTEGRAL : Type.DOUBLE);
+            requireBoolean(condition);
+            m_condition = condition;
+            m_whenTrue = whenTrue;
+            m_whenFalse = whenFalse;
+        }
+
+        @Override
+        public double number(double[] values, boolean[] missing) throws FallbackException {
+            return m_condition.bool(values, missing) ? m_whenTrue.number(values, missing) : m_whenFalse.number(values, missing);
+        }
+
+        @Override
+        public double[] numbers(double[][] columns, int n, boolean[] fallback) {
+            final boolean[] c = m_condition.booleans(columns, n, fallback);
+            final double[] t = m_whenTrue.numbers(columns, n, fallback);
+            final double[] f = m_whenFalse.numbers(columns, n, fallback);
+            final double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = c[i] ? t[i] : f[i];
+            }
+            return values;
+        }
+
+        @Override
+        public boolean isExactResult() {
+            return m_whenTrue.isExactResult() && m_whenFalse.isExactResult();
+        }
+
+        @Override
+        public boolean isAlwaysDouble() {
+            return m_whenTrue.isAlwaysDouble() && m_whenFalse.isAlwaysDouble();
+        }
+    }
+
+    static class UnaryFunctionNode extends Node {
+        private final Node m_argument;
+        private final DoubleUnaryOperator m_function;
+
+        UnaryFunctionNode(Node argument, DoubleUnaryOperator function) {
+            super(Type.DOUBLE);
+            m_argument = argument;
+            m_function = function;
+        }
+
+        @Override
+        public double number(double[] values, boolean[] missing) throws FallbackException {
+            return m_function.applyAsDouble(m_argument.number(values, missing));
+        }
+
+        @Override
+        public double[] numbers(double[][] columns, int n, boolean[] fallback) {
+            final double[] a = m_argument.numbers(columns, n, fallback);
+            final double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = m_function.applyAsDouble(a[i]);
+            }
+            return values;
+        }
+
+        @Override
+        public boolean isAlwaysDouble() {
+            return true;
+        }
+    }
+
+    static class BinaryFunctionNode extends Node {
+        private final Node m_first;
+        private final Node m_second;
+        private final DoubleBinaryOperator m_function;
+
+        BinaryFunctionNode(Node first, Node second, DoubleBinaryOperator function) {
+            super(Type.DOUBLE);
+            m_first = first;
+            m_second = second;
+            m_function = function;
+        }
+
+        @Override
+        public double number(double[] values, boolean[] missing) throws FallbackException {
+            return m_function.applyAsDouble(m_first.number(values, missing), m_second.number(values, missing));
+        }
+
+        @Override
+        public double[] numbers(double[][] columns, int n, boolean[] fallback) {
+            final double[] a = m_first.numbers(columns, n, fallback);
+            final double[] b = m_second.numbers(columns, n, fallback);
+            final double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = m_function.applyAsDouble(a[i], b[i]);
+            }
+            return values;
+        }
+
+        @Override
+        public boolean isAlwaysDouble() {
+            return true;
+        }
+    }
+}
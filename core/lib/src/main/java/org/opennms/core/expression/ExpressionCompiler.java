@@ -0,0 +1,649 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.expression;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+
+import org.opennms.core.expression.CompiledExpression.Arithmetic;
+import org.opennms.core.expression.CompiledExpression.ArithmeticNode;
+import org.opennms.core.expression.CompiledExpression.BinaryFunctionNode;
+import org.opennms.core.expression.CompiledExpression.BooleanNode;
+import org.opennms.core.expression.CompiledExpression.Comparison;
+import org.opennms.core.expression.CompiledExpression.ComparisonNode;
+import org.opennms.core.expression.CompiledExpression.ConstantNode;
+import org.opennms.core.expression.CompiledExpression.LogicalNode;
+import org.opennms.core.expression.CompiledExpression.NegateNode;
+import org.opennms.core.expression.CompiledExpression.Node;
+import org.opennms.core.expression.CompiledExpression.NotNode;
+import org.opennms.core.expression.CompiledExpression.TernaryNode;
+import org.opennms.core.expression.CompiledExpression.Type;
+import org.opennms.core.expression.CompiledExpression.UnaryFunctionNode;
+import org.opennms.core.expression.CompiledExpression.UnsupportedExpressionException;
+import org.opennms.core.expression.CompiledExpression.VariableNode;
+
+/**
+ * Compiles JEXL expressions into {@link CompiledExpression}s.
+ *
+ * Only the common subset of the JEXL syntax is supported: numbers, variables,
+ * arithmetic, comparisons, logical operators, the ternary operator and the
+ * functions of {@link Math} and {@link StrictMath} that take doubles, called
+ * either through a namespace (<code>math:abs(x)</code>) or through an object
+ * bound to the context (<code>math.abs(x)</code>). Variables can also be read
+ * from a map bound to the context (<code>datasources['x']</code>). Expressions
+ * outside of this subset are not compiled and must be evaluated with JEXL.
+ *
+ * The compiler is configured with the names the expressions can reference, and
+ * is not thread-safe while it is being configured.
+ */
+public class ExpressionCompiler {
+
+    private static final Map<Class<?>, Map<String, DoubleUnaryOperator>> UNARY_FUNCTIONS = new HashMap<>();
+    private static final Map<Class<?>, Map<String, DoubleBinaryOperator>> BINARY_FUNCTIONS = new HashMap<>();
+
+    static {
+        final Map<String, DoubleUnaryOperator> mathUnary = new HashMap<>();
+        mathUnary.put("abs", Math::abs);
+        mathUnary.put("acos", Math::acos);
+        mathUnary.put("asin", Math::asin);
+        mathUnary.put("atan", Math::atan);
+        mathUnary.put("cbrt", Math::cbrt);
+        mathUnary.put("ceil", Math::ceil);
+        mathUnary.put("cos", Math::cos);
+        mathUnary.put("cosh", Math::cosh);
+        mathUnary.put("exp", Math::exp);
+        mathUnary.put("expm1", Math::expm1);
+        mathUnary.put("floor", Math::floor);
+        mathUnary.put("log", Math::log);
+        mathUnary.put("log10", Math::log10);
+        mathUnary.put("log1p", Math::log1p);
+        mathUnary.put("rint", Math::rint);
+        mathUnary.put("signum", Math::signum);
+        mathUnary.put("sin", Math::sin);
+        mathUnary.put("sinh", Math::sinh);
+        mathUnary.put("sqrt", Math::sqrt);
+        mathUnary.put("tan", Math::tan);
+        mathUnary.put("tanh", Math::tanh);
+        mathUnary.put("toDegrees", Math::toDegrees);
+        mathUnary.put("toRadians", Math::toRadians);
+        UNARY_FUNCTIONS.put(Math.class, mathUnary);
+
+        final Map<String, DoubleBinaryOperator> mathBinary = new HashMap<>();
+        mathBinary.put("atan2", Math::atan2);
+        mathBinary.put("hypot", Math::hypot);
+        mathBinary.put("IEEEremainder", Math::IEEEremainder);
+        mathBinary.put("max", Math::max);
+        mathBinary.put("min", Math::min);
+        mathBinary.put("pow", Math::pow);
+        BINARY_FUNCTIONS.put(Math.class, mathBinary);
+
+        final Map<String, DoubleUnaryOperator> strictMathUnary = new HashMap<>();
+        strictMathUnary.put("abs", StrictMath::abs);
+        strictMathUnary.put("acos", StrictMath::acos);
+        strictMathUnary.put("asin", StrictMath::asin);
+        strictMathUnary.put("atan", StrictMath::atan);
+        strictMathUnary.put("cbrt", StrictMath::cbrt);
+        strictMathUnary.put("ceil", StrictMath::ceil);
+        strictMathUnary.put("cos", StrictMath::cos);
+        strictMathUnary.put("cosh", StrictMath::cosh);
+        strictMathUnary.put("exp", StrictMath::exp);
+        strictMathUnary.put("expm1", StrictMath::expm1);
+        strictMathUnary.put("floor", StrictMath::floor);
+        strictMathUnary.put("log", StrictMath::log);
+        strictMathUnary.put("log10", StrictMath::log10);
+        strictMathUnary.put("log1p", StrictMath::log1p);
+        strictMathUnary.put("rint", StrictMath::rint);
+        strictMathUnary.put("signum", StrictMath::signum);
+        strictMathUnary.put("sin", StrictMath::sin);
+        strictMathUnary.put("sinh", StrictMath::sinh);
+        strictMathUnary.put("sqrt", StrictMath::sqrt);
+        strictMathUnary.put("tan", StrictMath::tan);
+        strictMathUnary.put("tanh", StrictMath::tanh);
+        strictMathUnary.put("toDegrees", StrictMath::toDegrees);
+        strictMathUnary.put("toRadians", StrictMath::toRadians);
+        UNARY_FUNCTIONS.put(StrictMath.class, strictMathUnary);
+
+        final Map<String, DoubleBinaryOperator> strictMathBinary = new HashMap<>();
+        strictMathBinary.put("atan2", StrictMath::atan2);
+        strictMathBinary.put("hypot", StrictMath::hypot);
+        strictMathBinary.put("IEEEremainder", StrictMath::IEEEremainder);
+        strictMathBinary.put("max", StrictMath::max);
+        strictMathBinary.put("min", StrictMath::min);
+        strictMathBinary.put("pow", StrictMath::pow);
+        BINARY_FUNCTIONS.put(StrictMath.class, strictMathBinary);
+    }
+
+    private final Function<String, Object> m_literals;
+    private final Map<String, Class<?>> m_namespaces = new HashMap<>();
+    private final Map<String, Class<?>> m_bindings = new HashMap<>();
+    private final Set<String> m_maps = new LinkedHashSet<>();
+    private Collection<String> m_variables;
+    private Collection<String> m_integralVariables = Collections.emptySet();
+    private Map<String, Object> m_constants = Collections.emptyMap();
+
+    /**
+     * @param literals used to evaluate the numeric literals, so that they have the same type and value as in JEXL
+     */
+    public ExpressionCompiler(Function<String, Object> literals) {
+        m_literals = literals;
+    }
+
+    /**
+     * Makes the functions of the given class available as <code>namespace:function()</code>.
+     *
+     * @param namespace the namespace of the functions
+     * @param functions either {@link Math} or {@link StrictMath}
+     */
+    public void setNamespace(String namespace, Class<?> functions) {
+        m_namespaces.put(namespace, checkFunctions(functions));
+    }
+
+    /**
+     * Makes the functions of the given class available as <code>name.function()</code>,
+     * as if an object that delegates to them was bound to the context.
+     *
+     * @param name the name of the object
+     * @param functions either {@link Math} or {@link StrictMath}
+     */
+    public void setBinding(String name, Class<?> functions) {
+        m_bindings.put(name, checkFunctions(functions));
+    }
+
+    /**
+     * Allows the variables to be referenced as <code>name['variable']</code>
+     * or <code>name.variable</code>, as if a map holding them was bound to the context.
+     *
+     * @param name the name of the map
+     */
+    public void setMap(String name) {
+        m_maps.add(name);
+    }
+
+    /**
+     * @param variables the names of the variables that can be referenced, or null to allow any name
+     */
+    public void setVariables(Collection<String> variables) {
+        m_variables = variables;
+    }
+
+    /**
+     * @param integralVariables the names of the variables that hold integral values, i.e. longs
+     */
+    public void setIntegralVariables(Collection<String> integralVariables) {
+        m_integralVariables = integralVariables;
+    }
+
+    /**
+     * @param constants values that are the same for every evaluation, used for names that aren't variables
+     */
+    public void setConstants(Map<String, Object> constants) {
+        m_constants = constants;
+    }
+
+    private static Class<?> checkFunctions(Class<?> functions) {
+        if (!UNARY_FUNCTIONS.containsKey(functions)) {
+            throw new IllegalArgumentException("Unsupported functions: " + functions);
+        }
+        return functions;
+    }
+
+    /**
+     * Compiles the given expression.
+     *
+     * @param expression the expression
+     * @return the compiled expression, or null if the expression is not supported
+     */
+    public CompiledExpression compile(String expression) {
+        final List<Token> tokens = tokenize(expression);
+        if (tokens == null) {
+            return null;
+        }
+        try {
+            final Parser parser = new Parser(tokens);
+            final Node root = parser.parse();
+            if (root.m_type == Type.BOOLEAN) {
+                return null;
+            }
+            return new CompiledExpression(root, parser.m_variableNames.toArray(new String[parser.m_variableNames.size()]));
+        } catch (UnsupportedExpressionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves the names of the variables referenced by the expression.
+     *
+     * @param expression the expression
+     * @return the names, or null if the expression uses syntax, such as strings or
+     *      property access, that could hide some of them
+     */
+    public static Set<String> getVariables(String expression) {
+        final List<Token> tokens = tokenize(expression);
+        if (tokens == null) {
+            return null;
+        }
+        final Set<String> variables = new LinkedHashSet<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            final Token token = tokens.get(i);
+            if (token.m_kind == TokenKind.STRING || ".".equals(token.m_text) || "[".equals(token.m_text)) {
+                return null;
+            }
+            // Skip the namespace and the name of functions
+            if (token.m_kind == TokenKind.IDENTIFIER && !isNamespaceFunction(tokens, i) && !(i > 1 && isNamespaceFunction(tokens, i - 2))
+                    && !isKeyword(token.m_text) && !"true".equals(token.m_text) && !"false".equals(token.m_text)) {
+                variables.add(token.m_text);
+            }
+        }
+        return variables;
+    }
+
+    private enum TokenKind {
+        NUMBER, IDENTIFIER, STRING, OPERATOR, END
+    }
+
+    private static class Token {
+        private final TokenKind m_kind;
+        private final String m_text;
+        private final boolean m_spaceBefore;
+
+        private Token(TokenKind kind, String text, boolean spaceBefore) {
+            m_kind = kind;
+            m_text = text;
+            m_spaceBefore = spaceBefore;
+        }
+    }
+
+    private static List<Token> tokenize(String expression) {
+        final List<Token> tokens = new ArrayList<>();
+        final int n = expression.length();
+        int i = 0;
+        boolean space = false;
+        while (i < n) {
+            final char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            final int start = i;
+            if (Character.isDigit(c)) {
+                // Numbers, including suffixes and exponents
+                while (i < n && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '.'
+                        || ((expression.charAt(i) == '+' || expression.charAt(i) == '-')
+                                && (expression.charAt(i - 1) == 'e' || expression.charAt(i - 1) == 'E')))) {
+                    i++;
+                }
+                tokens.add(new Token(TokenKind.NUMBER, expression.substring(start, i), space));
+            } else if (Character.isLetter(c) || c == '_' || c == '$') {
+                while (i < n && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '_' || expression.charAt(i) == '$')) {
+                    i++;
+                }
+                tokens.add(new Token(TokenKind.IDENTIFIER, expression.substring(start, i), space));
+            } else if (c == '\'' || c == '"') {
+                // Only plain strings, used for the keys of maps
+                i++;
+                while (i < n && expression.charAt(i) != c) {
+                    if (expression.charAt(i) == '\\') {
+                        return null;
+                    }
+                    i++;
+                }
+                if (i == n) {
+                    return null;
+                }
+                tokens.add(new Token(TokenKind.STRING, expression.substring(start + 1, i), space));
+                i++;
+            } else if ("=!<>&|".indexOf(c) >= 0 && i + 1 < n && "=&|~".indexOf(expression.charAt(i + 1)) >= 0) {
+                i += 2;
+                tokens.add(new Token(TokenKind.OPERATOR, expression.substring(start, i), space));
+            } else if ("+-*/%<>!?:(),.[]".indexOf(c) >= 0) {
+                i++;
+                tokens.add(new Token(TokenKind.OPERATOR, expression.substring(start, i), space));
+            } else {
+                // Bitwise operators, etc.
+                return null;
+            }
+            space = false;
+        }
+        tokens.add(new Token(TokenKind.END, "", space));
+        return tokens;
+    }
+
+    private static boolean isNamespaceFunction(List<Token> tokens, int i) {
+        return i + 3 < tokens.size()
+                && tokens.get(i).m_kind == TokenKind.IDENTIFIER
+                && ":".equals(tokens.get(i + 1).m_text)
+                && tokens.get(i + 2).m_kind == TokenKind.IDENTIFIER
+                && "(".equals(tokens.get(i + 3).m_text);
+    }
+
+    private static boolean isKeyword(String name) {
+        switch (name) {
+        case "null":
+        case "empty":
+        case "size":
+        case "new":
+        case "var":
+        case "if":
+        case "else":
+        case "for":
+        case "foreach":
+        case "while":
+        case "return":
+        case "function":
+        case "or":
+        case "and":
+        case "not":
+        case "eq":
+        case "ne":
+        case "lt":
+        case "le":
+        case "gt":
+        case "ge":
+        case "div":
+        case "mod":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * A recursive descent parser that follows the precedence of the JEXL grammar.
+     */
+    private class Parser {
+        private final List<Token> m_tokens;
+        private final List<String> m_variableNames = new ArrayList<>();
+        private int m_pos = 0;
+
+        private Parser(List<Token> tokens) {
+            m_tokens = tokens;
+        }
+
+        private Node parse() throws UnsupportedExpressionException {
+            final Node node = ternary();
+            if (peek().m_kind != TokenKind.END) {
+                throw new UnsupportedExpressionException();
+            }
+            return node;
+        }
+
+        private Token peek() {
+            return m_tokens.get(m_pos);
+        }
+
+        private boolean accept(String... operators) {
+            final Token token = peek();
+            for (String operator : operators) {
+                if ((token.m_kind == TokenKind.OPERATOR || token.m_kind == TokenKind.IDENTIFIER) && operator.equals(token.m_text)) {
+                    m_pos++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void expect(String operator) throws UnsupportedExpressionException {
+            if (!accept(operator)) {
+                throw new UnsupportedExpressionException();
+            }
+        }
+
+        private Token expect(TokenKind kind) throws UnsupportedExpressionException {
+            final Token token = peek();
+            if (token.m_kind != kind) {
+                throw new UnsupportedExpressionException();
+            }
+            m_pos++;
+            return token;
+        }
+
+        private Node ternary() throws UnsupportedExpressionException {
+            final Node condition = or();
+            if (!accept("?")) {
+                return condition;
+            }
+            if (":".equals(peek().m_text)) {
+                // Elvis operator
+                throw new UnsupportedExpressionException();
+            }
+            final Node whenTrue = ternary();
+            expect(":");
+            final Node whenFalse = ternary();
+            return new TernaryNode(condition, whenTrue, whenFalse);
+        }
+
+        private Node or() throws UnsupportedExpressionException {
+            Node node = and();
+            while (accept("||", "or")) {
+                node = new LogicalNode(node, and(), true);
+            }
+            return node;
+        }
+
+        private Node and() throws UnsupportedExpressionException {
+            Node node = equality();
+            while (accept("&&", "and")) {
+                node = new LogicalNode(node, equality(), false);
+            }
+            return node;
+        }
+
+        private Node equality() throws UnsupportedExpressionException {
+            Node node = relational();
+            while (true) {
+                if (accept("==", "eq")) {
+                    node = new ComparisonNode(node, relational(), Comparison.EQ);
+                } else if (accept("!=", "ne")) {
+                    node = new ComparisonNode(node, relational(), Comparison.NE);
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node relational() throws UnsupportedExpressionException {
+            Node node = additive();
+            while (true) {
+                if (accept("<", "lt")) {
+                    node = new ComparisonNode(node, additive(), Comparison.LT);
+                } else if (accept("<=", "le")) {
+                    node = new ComparisonNode(node, additive(), Comparison.LE);
+                } else if (accept(">", "gt")) {
+                    node = new ComparisonNode(node, additive(), Comparison.GT);
+                } else if (accept(">=", "ge")) {
+                    node = new ComparisonNode(node, additive(), Comparison.GE);
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node additive() throws UnsupportedExpressionException {
+            Node node = multiplicative();
+            while (true) {
+                if (accept("+")) {
+                    node = new ArithmeticNode(node, multiplicative(), Arithmetic.ADD);
+                } else if (accept("-")) {
+                    node = new ArithmeticNode(node, multiplicative(), Arithmetic.SUBTRACT);
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node multiplicative() throws UnsupportedExpressionException {
+            Node node = unary();
+            while (true) {
+                if (accept("*")) {
+                    node = new ArithmeticNode(node, unary(), Arithmetic.MULTIPLY);
+                } else if (accept("/", "div")) {
+                    node = new ArithmeticNode(node, unary(), Arithmetic.DIVIDE);
+                } else if (accept("%", "mod")) {
+                    node = new ArithmeticNode(node, unary(), Arithmetic.MODULO);
+                } else {
+                    return node;
+                }
+            }
+        }
+
+        private Node unary() throws UnsupportedExpressionException {
+            if (accept("-")) {
+                return new NegateNode(unary());
+            } else if (accept("!", "not")) {
+                return new NotNode(unary());
+            }
+            return primary();
+        }
+
+        private Node primary() throws UnsupportedExpressionException {
+            final Token token = peek();
+            if (accept("(")) {
+                final Node node = ternary();
+                expect(")");
+                return node;
+            } else if (token.m_kind == TokenKind.NUMBER) {
+                m_pos++;
+                return literal(token.m_text);
+            } else if (token.m_kind == TokenKind.IDENTIFIER) {
+                if (isNamespaceFunction(m_tokens, m_pos)) {
+                    return namespaceFunction();
+                }
+                m_pos++;
+                final String name = token.m_text;
+                if (m_bindings.containsKey(name) && accept(".")) {
+                    final String function = expect(TokenKind.IDENTIFIER).m_text;
+                    expect("(");
+                    return function(m_bindings.get(name), function);
+                } else if (m_maps.contains(name)) {
+                    // See NMS-5019
+                    if (accept("[")) {
+                        final Token key = expect(TokenKind.STRING);
+                        expect("]");
+                        return variable(key.m_text);
+                    }
+                    expect(".");
+                    return variable(expect(TokenKind.IDENTIFIER).m_text);
+                } else if (".".equals(peek().m_text) || "[".equals(peek().m_text) || "(".equals(peek().m_text)) {
+                    // Property access, method calls, etc.
+                    throw new UnsupportedExpressionException();
+                }
+                return variable(name);
+            }
+            throw new UnsupportedExpressionException();
+        }
+
+        private Node literal(String text) throws UnsupportedExpressionException {
+            final Object value;
+            try {
+                value = m_literals.apply(text);
+            } catch (RuntimeException e) {
+                throw new UnsupportedExpressionException();
+            }
+            return new ConstantNode(value);
+        }
+
+        private Node variable(String name) throws UnsupportedExpressionException {
+            switch (name) {
+            case "true":
+            case "false":
+                return new BooleanNode(Boolean.parseBoolean(name));
+            default:
+                if (isKeyword(name)) {
+                    throw new UnsupportedExpressionException();
+                }
+            }
+            if (m_variables == null || m_variables.contains(name)) {
+                int index = m_variableNames.indexOf(name);
+                if (index < 0) {
+                    index = m_variableNames.size();
+                    m_variableNames.add(name);
+                }
+                return new VariableNode(index, m_integralVariables.contains(name) ? Type.INTEGRAL : Type.DOUBLE);
+            }
+            return new ConstantNode(m_constants.get(name));
+        }
+
+        private Node namespaceFunction() throws UnsupportedExpressionException {
+            final Token namespace = m_tokens.get(m_pos);
+            final Token name = m_tokens.get(m_pos + 2);
+            if (m_tokens.get(m_pos + 1).m_spaceBefore || name.m_spaceBefore) {
+                // Could also be part of a ternary operator
+                throw new UnsupportedExpressionException();
+            }
+            final Class<?> functions = m_namespaces.get(namespace.m_text);
+            if (functions == null) {
+                throw new UnsupportedExpressionException();
+            }
+            m_pos += 4;
+            return function(functions, name.m_text);
+        }
+
+        /**
+         * Parses the arguments of a function, after the opening parenthesis.
+         */
+        private Node function(Class<?> functions, String name) throws UnsupportedExpressionException {
+            final List<Node> arguments = new ArrayList<>();
+            if (!accept(")")) {
+                do {
+                    arguments.add(ternary());
+                } while (accept(","));
+                expect(")");
+            }
+
+            // Leave the overloads for ints, longs and floats to JEXL
+            boolean hasDouble = false;
+            for (Node argument : arguments) {
+                if (argument.m_type == Type.BOOLEAN) {
+                    throw new UnsupportedExpressionException();
+                }
+                hasDouble |= argument.isAlwaysDouble();
+            }
+            if (!hasDouble) {
+                throw new UnsupportedExpressionException();
+            }
+
+            if (arguments.size() == 1 && UNARY_FUNCTIONS.get(functions).containsKey(name)) {
+                return new UnaryFunctionNode(arguments.get(0), UNARY_FUNCTIONS.get(functions).get(name));
+            } else if (arguments.size() == 2 && BINARY_FUNCTIONS.get(functions).containsKey(name)) {
+                return new BinaryFunctionNode(arguments.get(0), arguments.get(1), BINARY_FUNCTIONS.get(functions).get(name));
+            }
+            throw new UnsupportedExpressionException();
+        }
+    }
+}
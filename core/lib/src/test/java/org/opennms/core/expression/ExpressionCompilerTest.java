@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.expression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ExpressionCompilerTest {
+
+    /**
+     * Types the literals like JEXL does for the ones used here.
+     */
+    private static Object literal(String text) {
+        return text.contains(".") ? (Object)Double.valueOf(text) : (Object)Integer.valueOf(text);
+    }
+
+    private static ExpressionCompiler createCompiler() {
+        final ExpressionCompiler compiler = new ExpressionCompiler(ExpressionCompilerTest::literal);
+        compiler.setNamespace("math", Math.class);
+        return compiler;
+    }
+
+    @Test
+    public void testEvaluatesValuesAndColumnsAlike() throws Exception {
+        final CompiledExpression compiled = createCompiler().compile("a > 0.0 and b < 100.0 ? math:max(a * 8.0 / b, 1.0) * 100 : -a % 7 + 0.5");
+        assertNotNull(compiled);
+        assertArrayEquals(new String[] { "a", "b" }, compiled.getVariables());
+
+        final double[][] columns = { { 1.0, 20.0, -3.0, 0.5 }, { 10.0, 50.0, 4.0, 1000.0 } };
+        final boolean[] fallback = new boolean[4];
+        final double[] values = compiled.evaluate(columns, 4, fallback);
+        for (int i = 0; i < 4; i++) {
+            assertFalse(fallback[i]);
+            assertEquals(compiled.evaluate(new double[] { columns[0][i], columns[1][i] }, null), values[i], 0.0);
+        }
+        assertEquals(100.0, values[0], 0.0);
+        assertEquals(320.0, values[1], 0.0);
+        assertEquals(3.5, values[2], 0.0);
+    }
+
+    @Test
+    public void testFallsBack() throws Exception {
+        final CompiledExpression division = createCompiler().compile("a / b");
+        assertFallback(division, new double[] { 1.0, 0.0 }, null);
+
+        final boolean[] fallback = new boolean[2];
+        division.evaluate(new double[][] { { 1.0, 1.0 }, { 0.0, 2.0 } }, 2, fallback);
+        assertTrue(fallback[0]);
+        assertFalse(fallback[1]);
+
+        final CompiledExpression comparison = createCompiler().compile("a == b ? 1.0 : 0.0");
+        assertFallback(comparison, new double[] { Double.NaN, Double.NaN }, null);
+        assertFallback(comparison, new double[] { 0.0, -0.0 }, null);
+        assertEquals(1.0, comparison.evaluate(new double[] { 2.0, 2.0 }, null), 0.0);
+
+        assertFallback(createCompiler().compile("a + 1.0"), new double[] { 1.0 }, new boolean[] { true });
+    }
+
+    @Test
+    public void testManyVariables() throws Exception {
+        final List<String> names = new ArrayList<>();
+        final StringBuilder expression = new StringBuilder("0.5");
+        for (int i = 0; i < 100; i++) {
+            names.add("v" + i);
+            expression.append(" + v").append(i);
+        }
+        final CompiledExpression compiled = createCompiler().compile(expression.toString());
+        assertNotNull(compiled);
+        assertEquals(100, compiled.getVariables().length);
+
+        final double[] values = new double[100];
+        Arrays.fill(values, 1.0);
+        final boolean[] missing = new boolean[100];
+        assertEquals(100.5, compiled.evaluate(values, missing), 0.0);
+
+        missing[99] = true;
+        assertFallback(compiled, values, missing);
+    }
+
+    @Test
+    public void testBindingsAndMaps() throws Exception {
+        final ExpressionCompiler compiler = new ExpressionCompiler(ExpressionCompilerTest::literal);
+        compiler.setBinding("math", Math.class);
+        compiler.setMap("datasources");
+        compiler.setVariables(new LinkedHashSet<>(Arrays.asList("ns-dskTotal", "ns-dskUsed", "a")));
+
+        final CompiledExpression compiled = compiler.compile("math.max(datasources['ns-dskTotal'] - datasources.a, datasources['ns-dskUsed'])");
+        assertNotNull(compiled);
+        assertArrayEquals(new String[] { "ns-dskTotal", "a", "ns-dskUsed" }, compiled.getVariables());
+        assertEquals(7.0, compiled.evaluate(new double[] { 10.0, 3.0, 5.0 }, null), 0.0);
+
+        // Only the given variables can be referenced
+        assertNull(compiler.compile("a + b"));
+    }
+
+    @Test
+    public void testConstants() throws Exception {
+        final ExpressionCompiler compiler = createCompiler();
+        compiler.setVariables(Collections.singleton("t"));
+        compiler.setIntegralVariables(Collections.singleton("t"));
+        compiler.setConstants(Collections.singletonMap("step", (Object)300.0));
+
+        final CompiledExpression compiled = compiler.compile("t / step");
+        assertNotNull(compiled);
+        assertEquals(2.0, compiled.evaluate(new double[] { 600.0 }, null), 0.0);
+
+        // Integral arithmetic is left to JEXL
+        assertNull(compiler.compile("t / 300"));
+        assertNull(compiler.compile("math:abs(t)"));
+    }
+
+    @Test
+    public void testUnsupportedExpressions() {
+        final ExpressionCompiler compiler = createCompiler();
+        assertNull(compiler.compile("1 + 2"));
+        assertNull(compiler.compile("a > 1.0"));
+        assertNull(compiler.compile("a.b + 1.0"));
+        assertNull(compiler.compile("a['b'] + 1.0"));
+        assertNull(compiler.compile("a & b"));
+        assertNull(compiler.compile("a ?: 1.0"));
+        assertNull(compiler.compile("size(a)"));
+        assertNull(compiler.compile("math:round(a)"));
+        assertNull(compiler.compile("other:abs(a)"));
+    }
+
+    @Test
+    public void testGetVariables() {
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(ExpressionCompiler.getVariables("a + math:abs(b) * c > 0 ? a : true")));
+        assertNull(ExpressionCompiler.getVariables("a.b"));
+        assertNull(ExpressionCompiler.getVariables("datasources['a']"));
+        assertNull(ExpressionCompiler.getVariables("a & b"));
+    }
+
+    private static void assertFallback(CompiledExpression compiled, double[] values, boolean[] missing) {
+        try {
+            compiled.evaluate(values, missing);
+            fail("Expected a fallback for " + Arrays.toString(values));
+        } catch (CompiledExpression.FallbackException e) {
+            // Expected
+        }
+    }
+}
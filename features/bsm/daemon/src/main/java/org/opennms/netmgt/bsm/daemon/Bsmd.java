@@ -28,7 +28,10 @@
 
 package org.opennms.netmgt.bsm.daemon;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -84,6 +87,15 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
 
     protected static final String POLL_INTERVAL_KEY = "org.opennms.features.bsm.pollInterval";
 
+    protected static final long DEFAULT_ALARM_BATCH_INTERVAL = 0; // milliseconds
+
+    /**
+     * When set to a value > 0, alarm updates received through the alarm life-cycle events
+     * are coalesced by reduction key and handed to the state machine in a single batch
+     * at this interval (in milliseconds) instead of one at a time.
+     */
+    protected static final String ALARM_BATCH_INTERVAL_KEY = "org.opennms.features.bsm.alarmBatchInterval";
+
     public static final String NAME = "Bsmd";
 
     @Autowired
@@ -109,6 +121,12 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
 
     final ScheduledExecutorService alarmPoller = Executors.newScheduledThreadPool(1);
 
+    // Guarded by m_pendingAlarms
+    private long m_alarmBatchInterval = DEFAULT_ALARM_BATCH_INTERVAL;
+
+    // Pending alarm updates keyed by reduction key, only used when batching is enabled
+    private final Map<String, AlarmWrapper> m_pendingAlarms = new LinkedHashMap<>();
+
     @Override
     public void afterPropertiesSet() throws Exception {
         Objects.requireNonNull(m_stateMachine, "stateMachine cannot be null");
@@ -126,6 +144,52 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
 
         handleConfigurationChanged();
         startAlarmPolling();
+        startAlarmBatching();
+    }
+
+    protected void startAlarmBatching() {
+        final long alarmBatchInterval = getAlarmBatchInterval();
+        synchronized (m_pendingAlarms) {
+            m_alarmBatchInterval = alarmBatchInterval;
+        }
+        if (alarmBatchInterval <= 0) {
+            return;
+        }
+        alarmPoller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushPendingAlarms();
+                } catch (Exception ex) {
+                    LOG.error("Error while handling batched alarms.", ex);
+                }
+            }
+        }, alarmBatchInterval, alarmBatchInterval, TimeUnit.MILLISECONDS);
+    }
+
+    protected void flushPendingAlarms() {
+        final List<AlarmWrapper> alarms;
+        synchronized (m_pendingAlarms) {
+            if (m_pendingAlarms.isEmpty()) {
+                return;
+            }
+            alarms = new ArrayList<>(m_pendingAlarms.values());
+            m_pendingAlarms.clear();
+        }
+        LOG.debug("Handling a batch of {} alarms.", alarms.size());
+        m_stateMachine.handleNewOrUpdatedAlarms(alarms);
+    }
+
+    protected void handleNewOrUpdatedAlarm(AlarmWrapper alarm) {
+        synchronized (m_pendingAlarms) {
+            if (m_alarmBatchInterval > 0) {
+                // Only the latest state of each reduction key is kept until the next flush
+                m_pendingAlarms.remove(alarm.getReductionKey());
+                m_pendingAlarms.put(alarm.getReductionKey(), alarm);
+                return;
+            }
+        }
+        m_stateMachine.handleNewOrUpdatedAlarm(alarm);
     }
 
     private void startAlarmPolling() {
@@ -174,6 +238,22 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
         }
     }
 
+    protected long getAlarmBatchInterval() {
+        final String batchIntervalProperty = System.getProperty(ALARM_BATCH_INTERVAL_KEY, Long.toString(DEFAULT_ALARM_BATCH_INTERVAL));
+        try {
+            long batchInterval = Long.valueOf(batchIntervalProperty);
+            if (batchInterval < 0) {
+                LOG.warn("Defined alarmBatchInterval must be greater than or equal to 0, but was {}. Falling back to default: {}", batchInterval, DEFAULT_ALARM_BATCH_INTERVAL);
+                return DEFAULT_ALARM_BATCH_INTERVAL;
+            }
+            LOG.debug("Using alarm batch interval {}", batchInterval);
+            return batchInterval;
+        } catch (Exception ex) {
+            LOG.warn("The defined alarmBatchInterval {} could not be interpreted as long value. Falling back to default: {}", batchIntervalProperty, DEFAULT_ALARM_BATCH_INTERVAL);
+            return DEFAULT_ALARM_BATCH_INTERVAL;
+        }
+    }
+
     /**
      * Called when the configuration of one or more business services was changed.
      */
@@ -263,7 +343,7 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
                 }
                 final AlarmWrapperImpl alarmWrapper = new AlarmWrapperImpl(alarm);
                 LOG.debug("Handling alarm with id: {}, reduction key: {} and severity: {} and status: {}", alarm.getId(), alarm.getReductionKey(), alarm.getSeverity(), alarmWrapper.getStatus());
-                m_stateMachine.handleNewOrUpdatedAlarm(alarmWrapper);
+                handleNewOrUpdatedAlarm(alarmWrapper);
             }
         });
     }
@@ -277,7 +357,7 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
 
         final String reductionKey = alarmReductionKeyParm.getValue().toString();
         LOG.debug("Handling delete for alarm with id: {} and reduction key: {}", alarmId, reductionKey);
-        m_stateMachine.handleNewOrUpdatedAlarm(new AlarmWrapper() {
+        handleNewOrUpdatedAlarm(new AlarmWrapper() {
             @Override
             public String getReductionKey() {
                 return reductionKey;
@@ -369,7 +449,16 @@ public class Bsmd implements SpringServiceDaemon, BusinessServiceStateChangeHand
     @Override
     public void destroy() throws Exception {
         LOG.info("Stopping bsmd...");
+        // Updates received from now on are handled right away
+        synchronized (m_pendingAlarms) {
+            m_alarmBatchInterval = 0;
+        }
         alarmPoller.shutdown();
+        if (!alarmPoller.awaitTermination(30, TimeUnit.SECONDS)) {
+            LOG.warn("Timed out while waiting for the alarm poller to stop.");
+        }
+        // Don't lose the updates which were batched since the last flush
+        flushPendingAlarms();
     }
 
     public void setAlarmDao(AlarmDao alarmDao) {
@@ -28,8 +28,14 @@
 
 package org.opennms.netmgt.bsm.daemon;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
+import org.opennms.netmgt.bsm.service.internal.DefaultBusinessServiceStateMachine;
+import org.opennms.netmgt.bsm.service.model.AlarmWrapper;
+import org.opennms.netmgt.bsm.service.model.Status;
 
 public class BsmdTest {
 
@@ -47,4 +53,47 @@ public class BsmdTest {
         System.setProperty(Bsmd.POLL_INTERVAL_KEY, "5");
         Assert.assertEquals(5L, bsmd.getPollInterval());
     }
+
+    @Test
+    public void testPendingAlarmsAreFlushedOnDestroy() throws Exception {
+        final List<List<AlarmWrapper>> batches = new ArrayList<>();
+        Bsmd bsmd = new Bsmd();
+        bsmd.setBusinessServiceStateMachine(new DefaultBusinessServiceStateMachine() {
+            @Override
+            public void handleNewOrUpdatedAlarms(List<AlarmWrapper> alarms) {
+                batches.add(alarms);
+            }
+        });
+
+        System.setProperty(Bsmd.ALARM_BATCH_INTERVAL_KEY, "3600000");
+        try {
+            bsmd.startAlarmBatching();
+        } finally {
+            System.clearProperty(Bsmd.ALARM_BATCH_INTERVAL_KEY);
+        }
+        bsmd.handleNewOrUpdatedAlarm(createAlarm("a", Status.MAJOR));
+        bsmd.handleNewOrUpdatedAlarm(createAlarm("b", Status.MINOR));
+        bsmd.handleNewOrUpdatedAlarm(createAlarm("a", Status.CRITICAL));
+        Assert.assertEquals(0, batches.size());
+
+        bsmd.destroy();
+        Assert.assertEquals(1, batches.size());
+        Assert.assertEquals(2, batches.get(0).size());
+        Assert.assertEquals("b", batches.get(0).get(0).getReductionKey());
+        Assert.assertEquals(Status.CRITICAL, batches.get(0).get(1).getStatus());
+    }
+
+    private static AlarmWrapper createAlarm(String reductionKey, Status status) {
+        return new AlarmWrapper() {
+            @Override
+            public String getReductionKey() {
+                return reductionKey;
+            }
+
+            @Override
+            public Status getStatus() {
+                return status;
+            }
+        };
+    }
 }
@@ -95,6 +95,18 @@ public interface BusinessServiceStateMachine {
      */
     void handleNewOrUpdatedAlarm(AlarmWrapper alarm);
 
+    /**
+     * Updates the states of the Business Services using the given list of new or updated alarms.
+     *
+     * All of the changes are propagated through the graph in a single pass, so this is
+     * preferred over multiple calls to {@link #handleNewOrUpdatedAlarm(AlarmWrapper)}
+     * when many alarms change at once. Unlike {@link #handleAllAlarms(List)}, alarms
+     * missing from the list are left untouched.
+     *
+     * @param alarms alarms to process, when several share the same reduction key the last one wins
+     */
+    void handleNewOrUpdatedAlarms(List<AlarmWrapper> alarms);
+
     /**
      * Updates the states of the Business Services using the given list of alarms.
      *
@@ -33,18 +33,19 @@ import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
@@ -91,7 +92,9 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     private final List<BusinessServiceStateChangeHandler> m_handlers = Lists.newArrayList();
     private final ReadWriteLock m_rwLock = new ReentrantReadWriteLock();
-    private BusinessServiceGraph m_g = new BusinessServiceGraphImpl(Collections.emptyList());
+    // Readers only dereference the current graph and read the (volatile) status
+    // of its vertices, so they do not need to acquire the read lock
+    private volatile BusinessServiceGraph m_g = new BusinessServiceGraphImpl(Collections.emptyList());
 
     @Override
     public void setBusinessServices(List<BusinessService> businessServices) {
@@ -102,11 +105,12 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
             // Prime the graph with the state from the previous graph and
             // keep track of the new reductions keys
+            final Map<GraphVertex, Status> newStatuses = new LinkedHashMap<>();
             Set<String> reductionsKeysToLookup = Sets.newHashSet();
             for (String reductionKey : g.getReductionKeys()) {
                 GraphVertex reductionKeyVertex = m_g.getVertexByReductionKey(reductionKey);
                 if (reductionKeyVertex != null) {
-                    updateAndPropagateVertex(g, g.getVertexByReductionKey(reductionKey), reductionKeyVertex.getStatus());
+                    newStatuses.put(g.getVertexByReductionKey(reductionKey), reductionKeyVertex.getStatus());
                 } else {
                     reductionsKeysToLookup.add(reductionKey);
                 }
@@ -121,10 +125,11 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
                 if (reductionsKeysToLookup.size() > 0) {
                     final Map<String, AlarmWrapper> lookup = m_alarmProvider.lookup(reductionsKeysToLookup);
                     for (Entry<String, AlarmWrapper> eachEntry : lookup.entrySet()) {
-                        updateAndPropagateVertex(g, g.getVertexByReductionKey(eachEntry.getKey()), eachEntry.getValue().getStatus());
+                        newStatuses.put(g.getVertexByReductionKey(eachEntry.getKey()), eachEntry.getValue().getStatus());
                     }
                 }
             }
+            updateAndPropagateVertices(g, newStatuses);
             m_g = g;
         } finally {
             m_rwLock.writeLock().unlock();
@@ -133,10 +138,24 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public void handleNewOrUpdatedAlarm(AlarmWrapper alarm) {
+        handleNewOrUpdatedAlarms(Collections.singletonList(alarm));
+    }
+
+    @Override
+    public void handleNewOrUpdatedAlarms(List<AlarmWrapper> alarms) {
         m_rwLock.writeLock().lock();
         try {
-            // Recursively propagate the status
-            updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
+            final BusinessServiceGraph g = m_g;
+            // When the same reduction key is present multiple times, the last alarm wins
+            final Map<GraphVertex, Status> newStatuses = new LinkedHashMap<>();
+            for (AlarmWrapper alarm : alarms) {
+                final GraphVertex vertex = g.getVertexByReductionKey(alarm.getReductionKey());
+                if (vertex != null) {
+                    newStatuses.put(vertex, alarm.getStatus());
+                }
+            }
+            // Propagate all of the changes in a single pass
+            updateAndPropagateVertices(g, newStatuses);
         } finally {
             m_rwLock.writeLock().unlock();
         }
@@ -144,27 +163,71 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
 
     @Override
     public void handleAllAlarms(List<AlarmWrapper> alarms) {
-        final Set<String> reductionKeysFromGivenAlarms = new HashSet<>(alarms.size());
         m_rwLock.writeLock().lock();
         try {
-            for (AlarmWrapper alarm : alarms) {
-                // Recursively propagate the status for all of the given alarms
-                updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(alarm.getReductionKey()), alarm.getStatus());
-                // Keep track of the reduction keys that have been processed
-                reductionKeysFromGivenAlarms.add(alarm.getReductionKey());
-            }
-
-            for (String missingReductionKey : Sets.difference(m_g.getReductionKeys(), reductionKeysFromGivenAlarms)) {
+            final BusinessServiceGraph g = m_g;
+            final Map<GraphVertex, Status> newStatuses = new LinkedHashMap<>();
+            for (String reductionKey : g.getReductionKeys()) {
                 // There is a vertex on the graph that corresponds to this reduction key
-                // but no alarm with this reduction key exists
-                updateAndPropagateVertex(m_g, m_g.getVertexByReductionKey(missingReductionKey), Status.INDETERMINATE);
+                // but if no alarm with this reduction key exists, it is treated as INDETERMINATE
+                newStatuses.put(g.getVertexByReductionKey(reductionKey), Status.INDETERMINATE);
             }
+            for (AlarmWrapper alarm : alarms) {
+                final GraphVertex vertex = g.getVertexByReductionKey(alarm.getReductionKey());
+                if (vertex != null) {
+                    newStatuses.put(vertex, alarm.getStatus());
+                }
+            }
+            // Propagate the status for all of the given alarms in a single pass
+            updateAndPropagateVertices(g, newStatuses);
         } finally {
             m_rwLock.writeLock().unlock();
         }
     }
 
-    private void updateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus) {
+    /**
+     * Updates the status of the given vertices and propagates the changes
+     * up the graph in a single pass.
+     *
+     * Parent vertices always have a lower level than their children, so by
+     * visiting the affected vertices from the highest level to the lowest,
+     * every vertex is reduced at most once, after all of its children have
+     * settled, no matter how many of its descendants were updated.
+     */
+    private void updateAndPropagateVertices(BusinessServiceGraph graph, Map<GraphVertex, Status> newStatuses) {
+        final NavigableMap<Integer, Set<GraphVertex>> verticesToReduceByLevel = new TreeMap<>();
+        for (Entry<GraphVertex, Status> entry : newStatuses.entrySet()) {
+            updateVertex(graph, entry.getKey(), entry.getValue(), verticesToReduceByLevel);
+        }
+
+        Entry<Integer, Set<GraphVertex>> deepest;
+        while ((deepest = verticesToReduceByLevel.pollLastEntry()) != null) {
+            for (GraphVertex vertex : deepest.getValue()) {
+                // Calculate the weighed statuses from the child edges
+                List<StatusWithIndex> statuses = weighEdges(graph.getOutEdges(vertex));
+
+                // Reduce
+                Optional<StatusWithIndices> reducedStatus = vertex.getReductionFunction().reduce(statuses);
+
+                Status newStatus;
+                if (reducedStatus.isPresent()) {
+                    newStatus = reducedStatus.get().getStatus();
+                } else {
+                    newStatus = MIN_SEVERITY;
+                }
+
+                // Update and queue the parents
+                updateVertex(graph, vertex, newStatus, verticesToReduceByLevel);
+            }
+        }
+    }
+
+    /**
+     * Updates the status of a single vertex and the mapped status on its
+     * incoming edges. The parents of the edges that changed are added to the
+     * given map so that they get reduced once all of the updates are applied.
+     */
+    private void updateVertex(BusinessServiceGraph graph, GraphVertex vertex, Status newStatus, Map<Integer, Set<GraphVertex>> verticesToReduceByLevel) {
         if (vertex == null) {
             // Nothing to do here
             return;
@@ -185,7 +248,6 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         onStatusUpdated(graph, vertex, previousStatus);
 
         // Update the edges with the mapped status
-        List<GraphEdge> updatedEges = Lists.newArrayList();
         for (GraphEdge edge : graph.getInEdges(vertex)) {
             Status mappedStatus = newStatus;
             if (newStatus.isGreaterThan(MIN_SEVERITY)) {
@@ -200,38 +262,13 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
                 continue;
             }
 
-            // Update the status and add it to the list of edges to propagate
+            // Update the status and queue the parent for reduction
             edge.setStatus(mappedStatus);
-            updatedEges.add(edge);
-        }
-
-        // Propagate once all of the edges have been updated
-        for (GraphEdge edge : updatedEges) {
-            reduceUpdateAndPropagateVertex(graph, graph.getOpposite(vertex, edge));
-        }
-    }
-
-    private void reduceUpdateAndPropagateVertex(BusinessServiceGraph graph, GraphVertex vertex) {
-        if (vertex == null) {
-            // Nothing to do here
-            return;
-        }
-
-        // Calculate the weighed statuses from the child edges
-        List<StatusWithIndex> statuses = weighEdges(graph.getOutEdges(vertex));
-
-        // Reduce
-        Optional<StatusWithIndices> reducedStatus = vertex.getReductionFunction().reduce(statuses);
-
-        Status newStatus;
-        if (reducedStatus.isPresent()) {
-            newStatus = reducedStatus.get().getStatus();
-        } else {
-            newStatus = MIN_SEVERITY;
+            final GraphVertex parent = graph.getOpposite(vertex, edge);
+            if (parent != null) {
+                verticesToReduceByLevel.computeIfAbsent(parent.getLevel(), l -> new LinkedHashSet<>()).add(parent);
+            }
         }
-
-        // Update and propagate
-        updateAndPropagateVertex(graph, vertex, newStatus);
     }
 
     public static List<StatusWithIndex> weighEdges(Collection<GraphEdge> edges) {
@@ -251,10 +288,17 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
      */
     public static List<StatusWithIndex> weighStatuses(Map<GraphEdge, Status> edgesWithStatus) {
         // Find the greatest common divisor of all the weights
-        int gcd = edgesWithStatus.keySet().stream()
-                .map(e -> e.getWeight())
-                .reduce((a,b) -> BigInteger.valueOf(a).gcd(BigInteger.valueOf(b)).intValue())
-                .orElse(1);
+        int gcd = 0;
+        for (GraphEdge edge : edgesWithStatus.keySet()) {
+            gcd = gcd(gcd, edge.getWeight());
+            if (gcd == 1) {
+                // Can't get any smaller
+                break;
+            }
+        }
+        if (gcd == 0) {
+            gcd = 1;
+        }
 
         // Multiply the statuses based on their relative weight
         List<StatusWithIndex> statuses = Lists.newArrayList();
@@ -270,6 +314,17 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
         return statuses;
     }
 
+    private static int gcd(int a, int b) {
+        a = Math.abs(a);
+        b = Math.abs(b);
+        while (b != 0) {
+            final int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
     private void onStatusUpdated(BusinessServiceGraph graph, GraphVertex vertex, Status previousStatus) {
         BusinessService businessService = vertex.getBusinessService();
         if (businessService == null) {
@@ -296,58 +351,38 @@ public class DefaultBusinessServiceStateMachine implements BusinessServiceStateM
     @Override
     public Status getOperationalStatus(BusinessService businessService) {
         Objects.requireNonNull(businessService);
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByBusinessServiceId(businessService.getId());
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
+        final GraphVertex vertex = m_g.getVertexByBusinessServiceId(businessService.getId());
+        if (vertex != null) {
+            return vertex.getStatus();
         }
+        return null;
     }
 
     @Override
     public Status getOperationalStatus(IpService ipService) {
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByIpServiceId(ipService.getId());
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
+        final GraphVertex vertex = m_g.getVertexByIpServiceId(ipService.getId());
+        if (vertex != null) {
+            return vertex.getStatus();
         }
+        return null;
     }
 
     @Override
     public Status getOperationalStatus(String reductionKey) {
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByReductionKey(reductionKey);
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
+        final GraphVertex vertex = m_g.getVertexByReductionKey(reductionKey);
+        if (vertex != null) {
+            return vertex.getStatus();
         }
+        return null;
     }
 
     @Override
     public Status getOperationalStatus(Edge edge) {
-        m_rwLock.readLock().lock();
-        try {
-            GraphVertex vertex = m_g.getVertexByEdgeId(edge.getId());
-            if (vertex != null) {
-                return vertex.getStatus();
-            }
-            return null;
-        } finally {
-            m_rwLock.readLock().unlock();
+        final GraphVertex vertex = m_g.getVertexByEdgeId(edge.getId());
+        if (vertex != null) {
+            return vertex.getStatus();
         }
+        return null;
     }
 
     public void setAlarmProvider(AlarmProvider alarmProvider) {
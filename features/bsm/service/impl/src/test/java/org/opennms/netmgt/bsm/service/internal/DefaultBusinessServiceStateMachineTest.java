@@ -56,6 +56,7 @@ import org.opennms.netmgt.bsm.service.model.graph.GraphVertex;
 import org.opennms.netmgt.bsm.test.LoggingStateChangeHandler;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public class DefaultBusinessServiceStateMachineTest {
@@ -156,6 +157,51 @@ public class DefaultBusinessServiceStateMachineTest {
         assertEquals(1, stateChangeHandler.getStateChanges().size());
     }
 
+    @Test
+    public void canHandleBatchedAlarmUpdates() {
+        // Create a simple hierarchy
+        MockBusinessServiceHierarchy h = MockBusinessServiceHierarchy.builder()
+                .withBusinessService(1)
+                    .withName("b1")
+                    .withBusinessService(2)
+                        .withName("b2")
+                        .withReductionKey(21, "a1")
+                        .withReductionKey(22, "a2")
+                    .commit()
+                .commit()
+                .build();
+        BusinessService b1 = h.getBusinessServiceById(1);
+        BusinessService b2 = h.getBusinessServiceById(2);
+
+        // Setup the state machine
+        BusinessServiceStateMachine stateMachine = new DefaultBusinessServiceStateMachine();
+        LoggingStateChangeHandler stateChangeHandler = new LoggingStateChangeHandler();
+        stateMachine.addHandler(stateChangeHandler, Maps.newHashMap());
+        stateMachine.setBusinessServices(h.getBusinessServices());
+
+        // Send several updates for the same reduction keys in a single batch
+        stateMachine.handleNewOrUpdatedAlarms(Lists.newArrayList(
+                new MockAlarmWrapper("a1", Status.MINOR),
+                new MockAlarmWrapper("a2", Status.MAJOR),
+                new MockAlarmWrapper("a1", Status.CRITICAL),
+                new MockAlarmWrapper("unknown", Status.CRITICAL)));
+
+        // The last update for each reduction key wins
+        assertEquals(Status.CRITICAL, stateMachine.getOperationalStatus("a1"));
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus("a2"));
+        assertEquals(Status.CRITICAL, stateMachine.getOperationalStatus(b2));
+        assertEquals(Status.CRITICAL, stateMachine.getOperationalStatus(b1));
+
+        // Each business service was only updated once
+        assertEquals(2, stateChangeHandler.getStateChanges().size());
+
+        // Alarms missing from the batch are left untouched
+        stateMachine.handleNewOrUpdatedAlarms(Lists.newArrayList(new MockAlarmWrapper("a1", Status.NORMAL)));
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus("a2"));
+        assertEquals(Status.MAJOR, stateMachine.getOperationalStatus(b1));
+        assertEquals(4, stateChangeHandler.getStateChanges().size());
+    }
+
     @Test
     public void canPerformRootCauseAndImpactAnalysis() {
         // Create a hierarchy using all of the available reduction functions
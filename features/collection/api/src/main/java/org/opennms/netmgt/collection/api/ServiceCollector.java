@@ -29,6 +29,7 @@
 package org.opennms.netmgt.collection.api;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.netmgt.events.api.EventProxy;
 import org.opennms.netmgt.rrd.RrdRepository;
@@ -108,6 +109,32 @@ public interface ServiceCollector {
      */
     CollectionSet collect(CollectionAgent agent, Map<String, Object> parameters) throws CollectionException;
 
+    /**
+     * Invokes a collection on the object without blocking the calling thread
+     * for the duration of the collection.
+     *
+     * Collectors that wait on the network for most of the collection, such as the
+     * SNMP collector, should override this so that the calling thread can be released
+     * while the requests are in flight. The default implementation performs the
+     * collection on the calling thread and returns a completed future.
+     *
+     * Failures are reported by completing the future exceptionally, typically with
+     * a {@link CollectionException}.
+     *
+     * @param agent a {@link org.opennms.netmgt.collectd.CollectionAgent} object.
+     * @param parameters a {@link java.util.Map} object.
+     * @return a future that completes with the collected {@link CollectionSet}
+     */
+    default CompletableFuture<CollectionSet> collectAsync(CollectionAgent agent, Map<String, Object> parameters) {
+        final CompletableFuture<CollectionSet> future = new CompletableFuture<>();
+        try {
+            future.complete(collect(agent, parameters));
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+
     /**
      * Retrieve the {@link RrdRepository} configuration for the given collection.
      *
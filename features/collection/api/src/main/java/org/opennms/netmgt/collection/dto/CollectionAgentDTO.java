@@ -160,6 +160,10 @@ public class CollectionAgentDTO implements CollectionAgent {
         return null;
     }
 
+    List<CollectionAttributeDTO> getAttributes() {
+        return attributes;
+    }
+
     @Override
     public Boolean isStoreByForeignSource() {
         return storeByForeignSource;
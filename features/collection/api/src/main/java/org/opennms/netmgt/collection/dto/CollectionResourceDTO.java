@@ -110,6 +110,10 @@ public class CollectionResourceDTO {
         return resource;
     }
 
+    Resource getUnresolvedResource() {
+        return resource;
+    }
+
     public void setResource(Resource resource) {
         this.resource = resource;
     }
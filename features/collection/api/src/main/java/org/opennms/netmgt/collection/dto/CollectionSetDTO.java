@@ -96,6 +96,27 @@ public class CollectionSetDTO implements CollectionSet {
         }
     }
 
+    CollectionSetDTO(CollectionAgentDTO agent, CollectionStatus status, Date timestamp,
+            List<CollectionResourceDTO> collectionResources, Boolean disableCounterPersistence) {
+        this.agent = agent;
+        this.status = status;
+        this.timestamp = timestamp;
+        this.collectionResources = collectionResources;
+        this.disableCounterPersistence = disableCounterPersistence;
+    }
+
+    CollectionAgentDTO getAgent() {
+        return agent;
+    }
+
+    List<CollectionResourceDTO> getCollectionResources() {
+        return collectionResources;
+    }
+
+    Boolean getDisableCounterPersistence() {
+        return disableCounterPersistence;
+    }
+
     @Override
     public String toString() {
         return String.format("CollectionSetDTO[agent=%s, collectionResources=%s, status=%s, timestamp=%s, disableCounterPersistence=%s]",
@@ -0,0 +1,556 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collection.dto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.collection.api.AttributeType;
+import org.opennms.netmgt.collection.api.CollectionStatus;
+import org.opennms.netmgt.collection.support.builder.Attribute;
+import org.opennms.netmgt.collection.support.builder.DeferredGenericTypeResource;
+import org.opennms.netmgt.collection.support.builder.GenericTypeResource;
+import org.opennms.netmgt.collection.support.builder.InterfaceLevelResource;
+import org.opennms.netmgt.collection.support.builder.NodeLevelResource;
+import org.opennms.netmgt.collection.support.builder.NumericAttribute;
+import org.opennms.netmgt.collection.support.builder.Resource;
+import org.opennms.netmgt.collection.support.builder.StringAttribute;
+import org.opennms.netmgt.model.ResourcePath;
+
+/**
+ * Compact binary encoding for {@link CollectionSetDTO}s.
+ *
+ * Used to reduce the size of the collection sets that are returned by
+ * remote collectors, where the XML representation repeats the same group,
+ * attribute and resource type names for every resource.
+ *
+ * <ul>
+ *   <li>Strings are dictionary encoded: the first occurrence is written
+ *   inline and every subsequent occurrence is written as a reference.</li>
+ *   <li>Integral values are written as variable length deltas against the
+ *   previous value of the attribute with the same name, so that counters
+ *   from the same table are encoded in a few bytes.</li>
+ *   <li>Resource timestamps are written relative to the collection timestamp.</li>
+ * </ul>
+ *
+ * Generic type resources, including resolved {@link GenericTypeResource}s, are
+ * encoded by the name of their type and their instance, the same as in the XML
+ * representation. They are always decoded as {@link DeferredGenericTypeResource}s
+ * and are resolved against the resource type definitions when accessed.
+ */
+public final class CollectionSetDTOCodec {
+
+    private static final int MAGIC = 0xC5;
+    private static final int VERSION = 1;
+
+    private static final int NULL_RESOURCE = 0;
+    private static final int NODE_LEVEL_RESOURCE = 1;
+    private static final int INTERFACE_LEVEL_RESOURCE = 2;
+    private static final int GENERIC_TYPE_RESOURCE = 3;
+
+    private static final int NUMERIC_ATTRIBUTE = 0;
+    private static final int STRING_ATTRIBUTE = 1;
+
+    private static final int NULL_VALUE = 0;
+    private static final int LONG_VALUE = 1;
+    private static final int INTEGER_VALUE = 2;
+    private static final int BIG_INTEGER_DELTA_VALUE = 3;
+    private static final int BIG_INTEGER_VALUE = 4;
+    private static final int DOUBLE_VALUE = 5;
+    private static final int FLOAT_VALUE = 6;
+    private static final int DECIMAL_VALUE = 7;
+
+    private static final int NULL_STRING = 0;
+    private static final int LITERAL_STRING = 1;
+
+    private static final int NULL_BOOLEAN = 0;
+    private static final int FALSE = 1;
+    private static final int TRUE = 2;
+
+    private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private CollectionSetDTOCodec() { }
+
+    /**
+     * @return true if all of the resources of the collection set can be encoded,
+     *         collection sets that can't be encoded have to be marshaled to XML instead
+     */
+    public static boolean canEncode(CollectionSetDTO collectionSet) {
+        for (CollectionResourceDTO resource : collectionSet.getCollectionResources()) {
+            if (!isSupported(resource.getUnresolvedResource())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSupported(Resource resource) {
+        return resource == null
+                || resource instanceof NodeLevelResource
+                || resource instanceof InterfaceLevelResource
+                || resource instanceof DeferredGenericTypeResource;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the collection set contains resources that can't be encoded, see {@link #canEncode(CollectionSetDTO)}
+     */
+    public static byte[] encode(CollectionSetDTO collectionSet) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Encoder encoder = new Encoder(new DataOutputStream(bytes));
+        encoder.writeCollectionSet(collectionSet);
+        encoder.out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static CollectionSetDTO decode(byte[] bytes) throws IOException {
+        final Decoder decoder = new Decoder(new DataInputStream(new ByteArrayInputStream(bytes)));
+        return decoder.readCollectionSet();
+    }
+
+    private static class Encoder {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Integer, Long> previousValues = new HashMap<>();
+        private long baseTimestamp;
+
+        private Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeCollectionSet(CollectionSetDTO collectionSet) throws IOException {
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+
+            final Date timestamp = collectionSet.getCollectionTimestamp();
+            baseTimestamp = timestamp != null ? timestamp.getTime() : 0L;
+            writeString(collectionSet.getStatus() != null ? collectionSet.getStatus().name() : null);
+            writeTimestamp(timestamp, 0L);
+            writeBoolean(collectionSet.getDisableCounterPersistence());
+            writeAgent(collectionSet.getAgent());
+
+            final List<CollectionResourceDTO> resources = collectionSet.getCollectionResources();
+            writeVarLong(resources.size());
+            for (CollectionResourceDTO resource : resources) {
+                // Generic type resources must not be resolved here, the resource types may not be available
+                writeResource(resource.getUnresolvedResource());
+                final List<Attribute<?>> attributes = resource.getAttributes();
+                writeVarLong(attributes.size());
+                for (Attribute<?> attribute : attributes) {
+                    writeAttribute(attribute);
+                }
+            }
+        }
+
+        private void writeAgent(CollectionAgentDTO agent) throws IOException {
+            if (agent == null) {
+                out.writeBoolean(false);
+                return;
+            }
+            out.writeBoolean(true);
+            writeSignedVarLong(agent.getType());
+            // Only the string values are sent, the same as when the agent is marshaled to XML
+            final List<CollectionAttributeDTO> attributes = agent.getAttributes();
+            writeVarLong(attributes.size());
+            for (CollectionAttributeDTO attribute : attributes) {
+                writeString(attribute.getKey());
+                writeString(attribute.getValue());
+            }
+            final InetAddress address = agent.getAddress();
+            if (address == null) {
+                out.writeByte(0);
+            } else {
+                final byte[] addressBytes = address.getAddress();
+                out.writeByte(addressBytes.length);
+                out.write(addressBytes);
+            }
+            writeBoolean(agent.isStoreByForeignSource());
+            writeSignedVarLong(agent.getNodeId());
+            writeString(agent.getNodeLabel());
+            writeString(agent.getForeignSource());
+            writeString(agent.getForeignId());
+            writeString(agent.getLocationName());
+            final ResourcePath storageResourcePath = agent.getStorageResourcePath();
+            writeString(storageResourcePath != null ? ResourcePath.toString(storageResourcePath) : null);
+            writeString(agent.getSysObjectId());
+            writeSignedVarLong(agent.getSavedSysUpTime());
+        }
+
+        private void writeResource(Resource resource) throws IOException {
+            if (resource == null) {
+                out.writeByte(NULL_RESOURCE);
+            } else if (resource instanceof NodeLevelResource) {
+                out.writeByte(NODE_LEVEL_RESOURCE);
+                writeNodeLevelResource((NodeLevelResource)resource);
+            } else if (resource instanceof InterfaceLevelResource) {
+                final InterfaceLevelResource interfaceLevelResource = (InterfaceLevelResource)resource;
+                out.writeByte(INTERFACE_LEVEL_RESOURCE);
+                writeNodeLevelResource(interfaceLevelResource.getParent());
+                writeString(interfaceLevelResource.getIfName());
+                writeTimestamp(interfaceLevelResource.getTimestamp(), baseTimestamp);
+            } else if (resource instanceof DeferredGenericTypeResource) {
+                // Also covers GenericTypeResources, their type definition is looked up again when they are accessed
+                final DeferredGenericTypeResource genericTypeResource = (DeferredGenericTypeResource)resource;
+                out.writeByte(GENERIC_TYPE_RESOURCE);
+                writeNodeLevelResource(genericTypeResource.getParent());
+                writeString(genericTypeResource.getTypeName());
+                writeString(genericTypeResource.getFallbackTypeName());
+                writeString(genericTypeResource.getInstance());
+                writeTimestamp(genericTypeResource.getTimestamp(), baseTimestamp);
+            } else {
+                throw new IllegalArgumentException("Unsupported resource type: " + resource.getClass().getCanonicalName());
+            }
+        }
+
+        private void writeNodeLevelResource(NodeLevelResource resource) throws IOException {
+            writeSignedVarLong(resource.getNodeId());
+            writeString(resource.getPath());
+            writeTimestamp(resource.getTimestamp(), baseTimestamp);
+        }
+
+        private void writeAttribute(Attribute<?> attribute) throws IOException {
+            final boolean isString = attribute instanceof StringAttribute;
+            out.writeByte(isString ? STRING_ATTRIBUTE : NUMERIC_ATTRIBUTE);
+            writeString(attribute.getGroup());
+            final int nameIndex = writeString(attribute.getName());
+            writeString(attribute.getIdentifier());
+            if (isString) {
+                writeString(attribute.getStringValue());
+            } else {
+                writeString(attribute.getType() != null ? attribute.getType().name() : null);
+                writeNumber(nameIndex, attribute.getNumericValue());
+            }
+        }
+
+        private void writeNumber(int nameIndex, Number value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL_VALUE);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG_VALUE);
+                writeDelta(nameIndex, value.longValue());
+            } else if (value instanceof Integer) {
+                out.writeByte(INTEGER_VALUE);
+                writeDelta(nameIndex, value.longValue());
+            } else if (value instanceof BigInteger) {
+                final BigInteger bigInteger = (BigInteger)value;
+                if (bigInteger.compareTo(MIN_LONG) >= 0 && bigInteger.compareTo(MAX_LONG) <= 0) {
+                    out.writeByte(BIG_INTEGER_DELTA_VALUE);
+                    writeDelta(nameIndex, bigInteger.longValue());
+                } else {
+                    out.writeByte(BIG_INTEGER_VALUE);
+                    final byte[] bigIntegerBytes = bigInteger.toByteArray();
+                    writeVarLong(bigIntegerBytes.length);
+                    out.write(bigIntegerBytes);
+                }
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE_VALUE);
+                out.writeDouble(value.doubleValue());
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT_VALUE);
+                out.writeFloat(value.floatValue());
+            } else {
+                out.writeByte(DECIMAL_VALUE);
+                writeString(value.toString());
+            }
+        }
+
+        private void writeDelta(int nameIndex, long value) throws IOException {
+            final Long previousValue = previousValues.put(nameIndex, value);
+            writeSignedVarLong(value - (previousValue != null ? previousValue : 0L));
+        }
+
+        private void writeTimestamp(Date timestamp, long base) throws IOException {
+            if (timestamp == null) {
+                out.writeBoolean(false);
+            } else {
+                out.writeBoolean(true);
+                writeSignedVarLong(timestamp.getTime() - base);
+            }
+        }
+
+        private void writeBoolean(Boolean value) throws IOException {
+            out.writeByte(value == null ? NULL_BOOLEAN : value ? TRUE : FALSE);
+        }
+
+        /**
+         * @return the dictionary index of the string, or -1 if the string is null
+         */
+        private int writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarLong(NULL_STRING);
+                return -1;
+            }
+            final Integer index = strings.get(value);
+            if (index != null) {
+                writeVarLong(index + 2);
+                return index;
+            }
+            final byte[] stringBytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(LITERAL_STRING);
+            writeVarLong(stringBytes.length);
+            out.write(stringBytes);
+            final int newIndex = strings.size();
+            strings.put(value, newIndex);
+            return newIndex;
+        }
+
+        private void writeSignedVarLong(long value) throws IOException {
+            // Zig-zag encode so that small negative values stay small
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int)value);
+        }
+    }
+
+    private static class Decoder {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private final Map<Integer, Long> previousValues = new HashMap<>();
+        private long baseTimestamp;
+        private int lastStringIndex;
+
+        private Decoder(DataInputStream in) {
+            this.in = in;
+        }
+
+        private CollectionSetDTO readCollectionSet() throws IOException {
+            final int magic = in.readUnsignedByte();
+            final int version = in.readUnsignedByte();
+            if (magic != MAGIC || version != VERSION) {
+                throw new IOException(String.format("Unsupported collection set encoding: magic=0x%02x, version=%d", magic, version));
+            }
+
+            final String status = readString();
+            final Date timestamp = readTimestamp(0L);
+            baseTimestamp = timestamp != null ? timestamp.getTime() : 0L;
+            final Boolean disableCounterPersistence = readBoolean();
+            final CollectionAgentDTO agent = readAgent();
+
+            final int numResources = readLength();
+            final List<CollectionResourceDTO> resources = new ArrayList<>(numResources);
+            for (int i = 0; i < numResources; i++) {
+                final Resource resource = readResource();
+                final int numAttributes = readLength();
+                final List<Attribute<?>> attributes = new ArrayList<>(numAttributes);
+                for (int j = 0; j < numAttributes; j++) {
+                    attributes.add(readAttribute());
+                }
+                resources.add(new CollectionResourceDTO(resource, attributes));
+            }
+            return new CollectionSetDTO(agent, status != null ? CollectionStatus.valueOf(status) : null,
+                    timestamp, resources, disableCounterPersistence);
+        }
+
+        private CollectionAgentDTO readAgent() throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+            final CollectionAgentDTO agent = new CollectionAgentDTO();
+            agent.setType((int)readSignedVarLong());
+            final int numAttributes = readLength();
+            for (int i = 0; i < numAttributes; i++) {
+                agent.getAttributes().add(new CollectionAttributeDTO(readString(), readString()));
+            }
+            final int addressLength = in.readUnsignedByte();
+            if (addressLength > 0) {
+                final byte[] addressBytes = new byte[addressLength];
+                in.readFully(addressBytes);
+                agent.setAddress(InetAddress.getByAddress(addressBytes));
+            }
+            agent.setStoreByForeignSource(readBoolean());
+            agent.setNodeId((int)readSignedVarLong());
+            agent.setNodeLabel(readString());
+            agent.setForeignSource(readString());
+            agent.setForeignId(readString());
+            agent.setLocationName(readString());
+            final String storageResourcePath = readString();
+            agent.setStorageResourcePath(storageResourcePath != null ? ResourcePath.fromString(storageResourcePath) : null);
+            agent.setSysObjectId(readString());
+            agent.setSavedSysUpTime(readSignedVarLong());
+            return agent;
+        }
+
+        private Resource readResource() throws IOException {
+            final int kind = in.readUnsignedByte();
+            switch (kind) {
+            case NULL_RESOURCE:
+                return null;
+            case NODE_LEVEL_RESOURCE:
+                return readNodeLevelResource();
+            case INTERFACE_LEVEL_RESOURCE: {
+                final InterfaceLevelResource resource = new InterfaceLevelResource(readNodeLevelResource(), readString());
+                resource.setTimestamp(readTimestamp(baseTimestamp));
+                return resource;
+            }
+            case GENERIC_TYPE_RESOURCE: {
+                final NodeLevelResource node = readNodeLevelResource();
+                final String typeName = readString();
+                final String fallbackTypeName = readString();
+                final String instance = readString();
+                final DeferredGenericTypeResource resource = new DeferredGenericTypeResource(node, typeName, fallbackTypeName, instance);
+                resource.setTimestamp(readTimestamp(baseTimestamp));
+                return resource;
+            }
+            default:
+                throw new IOException("Unsupported resource kind: " + kind);
+            }
+        }
+
+        private NodeLevelResource readNodeLevelResource() throws IOException {
+            final int nodeId = (int)readSignedVarLong();
+            final NodeLevelResource resource = new NodeLevelResource(nodeId, readString());
+            resource.setTimestamp(readTimestamp(baseTimestamp));
+            return resource;
+        }
+
+        private Attribute<?> readAttribute() throws IOException {
+            final int kind = in.readUnsignedByte();
+            final String group = readString();
+            final String name = readString();
+            final int nameIndex = lastStringIndex;
+            final String identifier = readString();
+            if (kind == STRING_ATTRIBUTE) {
+                return new StringAttribute(group, name, readString(), identifier);
+            } else if (kind == NUMERIC_ATTRIBUTE) {
+                final String type = readString();
+                final Number value = readNumber(nameIndex);
+                return new NumericAttribute(group, name, value, type != null ? AttributeType.valueOf(type) : null, identifier);
+            }
+            throw new IOException("Unsupported attribute kind: " + kind);
+        }
+
+        private Number readNumber(int nameIndex) throws IOException {
+            final int kind = in.readUnsignedByte();
+            switch (kind) {
+            case NULL_VALUE:
+                return null;
+            case LONG_VALUE:
+                return readDelta(nameIndex);
+            case INTEGER_VALUE:
+                return (int)readDelta(nameIndex);
+            case BIG_INTEGER_DELTA_VALUE:
+                return BigInteger.valueOf(readDelta(nameIndex));
+            case BIG_INTEGER_VALUE: {
+                final byte[] bigIntegerBytes = new byte[readLength()];
+                in.readFully(bigIntegerBytes);
+                return new BigInteger(bigIntegerBytes);
+            }
+            case DOUBLE_VALUE:
+                return in.readDouble();
+            case FLOAT_VALUE:
+                return in.readFloat();
+            case DECIMAL_VALUE:
+                return new BigDecimal(readString());
+            default:
+                throw new IOException("Unsupported value kind: " + kind);
+            }
+        }
+
+        private long readDelta(int nameIndex) throws IOException {
+            final Long previousValue = previousValues.get(nameIndex);
+            final long value = readSignedVarLong() + (previousValue != null ? previousValue : 0L);
+            previousValues.put(nameIndex, value);
+            return value;
+        }
+
+        private Date readTimestamp(long base) throws IOException {
+            return in.readBoolean() ? new Date(base + readSignedVarLong()) : null;
+        }
+
+        private Boolean readBoolean() throws IOException {
+            final int value = in.readUnsignedByte();
+            return value == NULL_BOOLEAN ? null : value == TRUE;
+        }
+
+        private String readString() throws IOException {
+            final long code = readVarLong();
+            if (code == NULL_STRING) {
+                lastStringIndex = -1;
+                return null;
+            } else if (code == LITERAL_STRING) {
+                final byte[] stringBytes = new byte[readLength()];
+                in.readFully(stringBytes);
+                final String value = new String(stringBytes, StandardCharsets.UTF_8);
+                lastStringIndex = strings.size();
+                strings.add(value);
+                return value;
+            }
+            final long index = code - 2;
+            if (index >= strings.size()) {
+                throw new IOException("Invalid string reference: " + index);
+            }
+            lastStringIndex = (int)index;
+            return strings.get(lastStringIndex);
+        }
+
+        private int readLength() throws IOException {
+            final long length = readVarLong();
+            if (length < 0 || length > in.available()) {
+                throw new EOFException("Invalid length: " + length);
+            }
+            return (int)length;
+        }
+
+        private long readSignedVarLong() throws IOException {
+            final long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = in.readUnsignedByte();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable length integer.");
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.features.collection.dto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.junit.Test;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.collection.api.AttributeType;
+import org.opennms.netmgt.collection.api.ResourceType;
+import org.opennms.netmgt.collection.api.ResourceTypeMapper;
+import org.opennms.netmgt.collection.dto.CollectionAgentDTO;
+import org.opennms.netmgt.collection.dto.CollectionSetDTO;
+import org.opennms.netmgt.collection.dto.CollectionSetDTOCodec;
+import org.opennms.netmgt.collection.support.builder.CollectionSetBuilder;
+import org.opennms.netmgt.collection.support.builder.DeferredGenericTypeResource;
+import org.opennms.netmgt.collection.support.builder.GenericTypeResource;
+import org.opennms.netmgt.collection.support.builder.InterfaceLevelResource;
+import org.opennms.netmgt.collection.support.builder.NodeLevelResource;
+import org.opennms.netmgt.model.ResourcePath;
+
+public class CollectionSetDTOCodecTest {
+
+    @Test
+    public void canEncodeAndDecodeCollectionSets() throws Exception {
+        CollectionAgentDTO agent = new CollectionAgentDTO();
+        agent.setAddress(InetAddress.getByName("192.168.1.1"));
+        agent.setNodeId(1);
+        agent.setNodeLabel("router");
+        agent.setForeignSource("fs");
+        agent.setForeignId("fid");
+        agent.setLocationName("remote");
+        agent.setStoreByForeignSource(true);
+        agent.setStorageResourcePath(ResourcePath.get("fs", "fid"));
+        agent.setSysObjectId(".1.3.6.1.4.1.9");
+        agent.setSavedSysUpTime(1234);
+        agent.setAttribute("key", "value");
+
+        NodeLevelResource node = new NodeLevelResource(1);
+        InterfaceLevelResource eth0 = new InterfaceLevelResource(node, "eth0");
+        eth0.setTimestamp(new Date(999));
+        DeferredGenericTypeResource disk = new DeferredGenericTypeResource(node, "dskIndex", "fallback", "1");
+
+        CollectionSetDTO collectionSet = new CollectionSetBuilder(agent)
+                .withTimestamp(new Date(1000))
+                .withNumericAttribute(node, "ucd-sysstat", "CpuRawIdle", 99, AttributeType.GAUGE)
+                .withNumericAttribute(node, "ucd-sysstat", "load", 0.75d, AttributeType.GAUGE)
+                .withNumericAttribute(eth0, "mib2-X-interfaces", "ifHCInOctets", new BigInteger("18446744073709551615"), AttributeType.COUNTER)
+                .withNumericAttribute(eth0, "mib2-X-interfaces", "ifHCOutOctets", 1001L, AttributeType.COUNTER)
+                .withStringAttribute(eth0, "mib2-X-interfaces", "ifDescr", "LAN")
+                .withIdentifiedNumericAttribute(disk, "net-snmp-disk", "ns-dskTotal", 1024, AttributeType.GAUGE, "some-oid")
+                .build();
+
+        CollectionSetDTO decoded = CollectionSetDTOCodec.decode(CollectionSetDTOCodec.encode(collectionSet));
+        assertEquals(collectionSet, decoded);
+        // Attributes are compared without their values
+        assertEquals(collectionSet.toString(), decoded.toString());
+    }
+
+    @Test
+    public void canEncodeGenericTypeResources() throws Exception {
+        ResourceType rt = mock(ResourceType.class, RETURNS_DEEP_STUBS);
+        when(rt.getName()).thenReturn("dskIndex");
+        when(rt.getStorageStrategy().getClazz()).thenReturn(MockStorageStrategy.class.getCanonicalName());
+        when(rt.getPersistenceSelectorStrategy().getClazz()).thenReturn(MockPersistenceSelectorStrategy.class.getCanonicalName());
+        ResourceTypeMapper.getInstance().setResourceTypeMapper((name) -> rt);
+
+        NodeLevelResource node = new NodeLevelResource(1);
+        GenericTypeResource disk = new GenericTypeResource(node, rt, "1");
+        disk.setTimestamp(new Date(999));
+        CollectionSetDTO collectionSet = new CollectionSetBuilder(new CollectionAgentDTO())
+                .withTimestamp(new Date(1000))
+                .withIdentifiedNumericAttribute(disk, "net-snmp-disk", "ns-dskTotal", 1024, AttributeType.GAUGE, "some-oid")
+                .build();
+        assertTrue(CollectionSetDTOCodec.canEncode(collectionSet));
+
+        // Only the name of the resource type and the instance are sent, the resource
+        // is decoded as a DeferredGenericTypeResource which looks up the definition again
+        CollectionSetDTO decoded = CollectionSetDTOCodec.decode(CollectionSetDTOCodec.encode(collectionSet));
+        assertEquals(decoded, collectionSet);
+    }
+
+    @Test
+    public void isSmallerThanXml() throws Exception {
+        CollectionAgentDTO agent = new CollectionAgentDTO();
+        agent.setNodeId(1);
+        NodeLevelResource node = new NodeLevelResource(1);
+
+        CollectionSetBuilder builder = new CollectionSetBuilder(agent).withTimestamp(new Date(0));
+        for (int i = 0; i < 100; i++) {
+            InterfaceLevelResource resource = new InterfaceLevelResource(node, "eth" + i);
+            builder.withNumericAttribute(resource, "mib2-X-interfaces", "ifHCInOctets", 1000000L + i, AttributeType.COUNTER);
+            builder.withNumericAttribute(resource, "mib2-X-interfaces", "ifHCOutOctets", 2000000L + i, AttributeType.COUNTER);
+        }
+        CollectionSetDTO collectionSet = builder.build();
+
+        byte[] bytes = CollectionSetDTOCodec.encode(collectionSet);
+        assertEquals(collectionSet, CollectionSetDTOCodec.decode(bytes));
+
+        int xmlSize = JaxbUtils.marshal(collectionSet).getBytes(StandardCharsets.UTF_8).length;
+        assertTrue(String.format("binary=%d, xml=%d", bytes.length, xmlSize), bytes.length * 5 < xmlSize);
+    }
+}
@@ -31,11 +31,13 @@ package org.opennms.netmgt.collection.client.rpc;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
 import org.opennms.netmgt.collection.api.CollectionAgent;
+import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.api.ServiceCollector;
 import org.opennms.netmgt.collection.api.ServiceCollectorRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -74,15 +76,18 @@ public class CollectorClientRpcModule extends AbstractXmlRpcModule<CollectorRequ
             throw new IllegalArgumentException("No collector found with class name '" + className + "'.");
         }
 
-        return CompletableFuture.supplyAsync(new Supplier<CollectorResponseDTO>() {
+        // The executor is only used to kick off the collection, collectors that support it
+        // will complete the future from their own threads once the results are in
+        return CompletableFuture.supplyAsync(new Supplier<CompletableFuture<CollectionSet>>() {
             @Override
-            public CollectorResponseDTO get() {
+            public CompletableFuture<CollectionSet> get() {
                 Logging.putPrefix("collectd");
                 final CollectionAgent agent = request.getAgent();
                 final Map<String, Object> parameters = request.getParameters(collector);
-                return new CollectorResponseDTO(collector.collect(agent, parameters));
+                return collector.collectAsync(agent, parameters);
             }
-        }, executor);
+        }, executor).thenCompose(Function.identity())
+                .thenApply(collectionSet -> new CollectorResponseDTO(collectionSet, Boolean.TRUE.equals(request.getCompactCollectionSet())));
     }
 
     public void setServiceCollectorRegistry(ServiceCollectorRegistry serviceCollectorRegistry) {
@@ -42,6 +42,14 @@ import org.opennms.netmgt.dao.api.MonitoringLocationUtils;
 
 public class CollectorRequestBuilderImpl implements CollectorRequestBuilder {
 
+    /**
+     * Used to disable the compact encoding of the collection sets returned
+     * by remote collectors, in which case they are returned as XML.
+     */
+    public static final String COMPACT_COLLECTION_SETS_SYS_PROP = "org.opennms.netmgt.collection.rpc.compactCollectionSets";
+
+    private static final boolean COMPACT_COLLECTION_SETS = Boolean.parseBoolean(System.getProperty(COMPACT_COLLECTION_SETS_SYS_PROP, "true"));
+
     private final LocationAwareCollectorClientImpl client;
 
     private final Map<String, Object> attributes = new HashMap<>();
@@ -127,6 +135,9 @@ public class CollectorRequestBuilderImpl implements CollectorRequestBuilder {
                 request.addAttribute(k, v);
             });
             request.setAttributesNeedUnmarshaling(true);
+            if (COMPACT_COLLECTION_SETS) {
+                request.setCompactCollectionSet(true);
+            }
         }
 
         // Execute the request
@@ -65,6 +65,14 @@ public class CollectorRequestDTO implements RpcRequest {
     @XmlElement(name = "attribute")
     private List<CollectionAttributeDTO> attributes = new ArrayList<>();
 
+    /**
+     * Set when the requester is able to decode collection sets
+     * encoded with the {@link org.opennms.netmgt.collection.dto.CollectionSetDTOCodec}.
+     * Older systems ignore the attribute and respond with XML.
+     */
+    @XmlAttribute(name = "compact-collection-set")
+    private Boolean compactCollectionSet;
+
     private Long timeToLiveMs;
 
     public CollectionAgent getAgent() {
@@ -109,6 +117,14 @@ public class CollectorRequestDTO implements RpcRequest {
         this.attributesNeedUnmarshaling = attributesNeedUnmarshaling;
     }
 
+    public Boolean getCompactCollectionSet() {
+        return compactCollectionSet;
+    }
+
+    public void setCompactCollectionSet(Boolean compactCollectionSet) {
+        this.compactCollectionSet = compactCollectionSet;
+    }
+
     public List<CollectionAttributeDTO> getAttributes() {
         return attributes;
     }
@@ -139,7 +155,7 @@ public class CollectorRequestDTO implements RpcRequest {
 
     @Override
     public int hashCode() {
-        return Objects.hash(agent, location, className, timeToLiveMs, attributesNeedUnmarshaling);
+        return Objects.hash(agent, location, className, timeToLiveMs, attributesNeedUnmarshaling, compactCollectionSet);
     }
 
     @Override
@@ -157,6 +173,7 @@ public class CollectorRequestDTO implements RpcRequest {
                 && Objects.equals(this.className, other.className)
                 && Objects.equals(this.timeToLiveMs, other.timeToLiveMs)
                 && Objects.equals(this.attributes, other.attributes)
-                && Objects.equals(this.attributesNeedUnmarshaling, other.attributesNeedUnmarshaling);
+                && Objects.equals(this.attributesNeedUnmarshaling, other.attributesNeedUnmarshaling)
+                && Objects.equals(this.compactCollectionSet, other.compactCollectionSet);
     }
 }
@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.collection.client.rpc;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Objects;
 
 import javax.xml.bind.annotation.XmlAccessType;
@@ -40,28 +42,64 @@ import org.opennms.core.rpc.api.RemoteExecutionException;
 import org.opennms.core.rpc.api.RpcResponse;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.dto.CollectionSetDTO;
+import org.opennms.netmgt.collection.dto.CollectionSetDTOCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @XmlRootElement(name = "collector-response")
 @XmlAccessorType(XmlAccessType.NONE)
 public class CollectorResponseDTO implements RpcResponse {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CollectorResponseDTO.class);
+
     @XmlAttribute(name="error")
     private String error;
 
     @XmlElement(name = "collection-set", type=CollectionSetDTO.class)
     private CollectionSet collectionSet;
 
+    /**
+     * The collection set encoded with the {@link CollectionSetDTOCodec},
+     * used in place of the collection-set element when requested.
+     */
+    @XmlElement(name = "compact-collection-set")
+    private byte[] compactCollectionSet;
+
     public CollectorResponseDTO() { }
 
     public CollectorResponseDTO(CollectionSet collectionSet) {
         this.collectionSet = collectionSet;
     }
 
+    public CollectorResponseDTO(CollectionSet collectionSet, boolean compact) {
+        this.collectionSet = collectionSet;
+        if (compact && collectionSet instanceof CollectionSetDTO) {
+            if (!CollectionSetDTOCodec.canEncode((CollectionSetDTO)collectionSet)) {
+                LOG.debug("The collection set contains resources without a compact encoding, it will be sent as XML.");
+                return;
+            }
+            try {
+                this.compactCollectionSet = CollectionSetDTOCodec.encode((CollectionSetDTO)collectionSet);
+                this.collectionSet = null;
+            } catch (IOException|RuntimeException e) {
+                LOG.warn("Failed to encode collection set, it will be sent as XML.", e);
+            }
+        }
+    }
+
     public CollectorResponseDTO(Throwable ex) {
         this.error = RemoteExecutionException.toErrorMessage(ex);
     }
 
     public CollectionSet getCollectionSet() {
+        if (collectionSet == null && compactCollectionSet != null) {
+            try {
+                collectionSet = CollectionSetDTOCodec.decode(compactCollectionSet);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to decode the collection set.", e);
+            }
+            compactCollectionSet = null;
+        }
         return collectionSet;
     }
 
@@ -72,7 +110,8 @@ public class CollectorResponseDTO implements RpcResponse {
 
     @Override
     public int hashCode() {
-        return Objects.hash(error, collectionSet);
+        // Don't decode the collection set here, the fields are compared as they are
+        return Objects.hash(error, collectionSet, Arrays.hashCode(compactCollectionSet));
     }
 
     @Override
@@ -86,7 +125,8 @@ public class CollectorResponseDTO implements RpcResponse {
         }
         CollectorResponseDTO other = (CollectorResponseDTO) obj;
         return Objects.equals(this.error, other.error)
-                && Objects.equals(this.collectionSet, other.collectionSet);
+                && Objects.equals(this.collectionSet, other.collectionSet)
+                && Arrays.equals(this.compactCollectionSet, other.compactCollectionSet);
     }
 
 
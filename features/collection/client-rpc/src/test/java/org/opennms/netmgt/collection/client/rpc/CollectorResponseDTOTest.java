@@ -28,18 +28,26 @@
 
 package org.opennms.netmgt.collection.client.rpc;
 
+import static org.junit.Assert.assertEquals;
+
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 
+import org.junit.Test;
 import org.junit.runners.Parameterized.Parameters;
 import org.opennms.core.test.xml.XmlTestNoCastor;
 import org.opennms.core.utils.StringUtils;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.collection.api.AttributeType;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.dto.CollectionAgentDTO;
 import org.opennms.netmgt.collection.support.builder.CollectionSetBuilder;
+import org.opennms.netmgt.collection.support.builder.DeferredGenericTypeResource;
+import org.opennms.netmgt.collection.support.builder.InterfaceLevelResource;
+import org.opennms.netmgt.collection.support.builder.NodeLevelResource;
 
 public class CollectorResponseDTOTest extends XmlTestNoCastor<CollectorResponseDTO> {
 
@@ -65,4 +73,31 @@ public class CollectorResponseDTOTest extends XmlTestNoCastor<CollectorResponseD
             }
         });
     }
+
+    @Test
+    public void canMarshalAndUnmarshalCompactCollectionSets() {
+        CollectionAgentDTO agent = new CollectionAgentDTO();
+        agent.setNodeId(1);
+        NodeLevelResource node = new NodeLevelResource(1);
+        InterfaceLevelResource eth0 = new InterfaceLevelResource(node, "eth0");
+        DeferredGenericTypeResource disk = new DeferredGenericTypeResource(node, "dskIndex", "1");
+        CollectionSet collectionSet = new CollectionSetBuilder(agent)
+                .withTimestamp(new Date(0))
+                .withNumericAttribute(node, "ucd-sysstat", "CpuRawIdle", 99, AttributeType.GAUGE)
+                .withNumericAttribute(eth0, "mib2-X-interfaces", "ifHCInOctets", 1001L, AttributeType.COUNTER)
+                .withStringAttribute(eth0, "mib2-X-interfaces", "ifDescr", "LAN")
+                .withIdentifiedNumericAttribute(disk, "net-snmp-disk", "ns-dskTotal", 1024, AttributeType.GAUGE, "some-oid")
+                .build();
+
+        for (boolean compact : new boolean[] { false, true }) {
+            String xml = JaxbUtils.marshal(new CollectorResponseDTO(collectionSet, compact));
+            assertEquals(xml, compact, xml.contains("<compact-collection-set>"));
+            assertEquals(xml, !compact, xml.contains("<collection-set "));
+
+            CollectorResponseDTO response = JaxbUtils.unmarshal(CollectorResponseDTO.class, xml);
+            // Responses are compared as they were received, without decoding them
+            assertEquals(new CollectorResponseDTO(collectionSet, compact), response);
+            assertEquals(collectionSet, response.getCollectionSet());
+        }
+    }
 }
@@ -39,6 +39,8 @@ import org.opennms.netmgt.collection.api.PersistException;
 import org.opennms.netmgt.collection.api.ServiceParameters;
 import org.opennms.netmgt.dao.api.ResourceStorageDao;
 import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.rrd.PersistedResourceRegistry;
+import org.opennms.netmgt.rrd.RrdResourceIndex;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.slf4j.Logger;
@@ -57,6 +59,8 @@ public class BasePersister extends AbstractPersister {
     private final RrdStrategy<?, ?> m_rrdStrategy;
     protected final ResourceStorageDao m_resourceStorageDao;
     private boolean m_dontReorderAttributes = false;
+    private PersistedResourceRegistry m_persistedResourceRegistry;
+    private RrdResourceIndex m_resourceIndex;
 
     /**
      * <p>Constructor for BasePersister.</p>
@@ -82,6 +86,8 @@ public class BasePersister extends AbstractPersister {
         if (resource.getTimeKeeper() != null) {
             builder.setTimeKeeper(resource.getTimeKeeper());
         }
+        builder.setPersistedResourceRegistry(m_persistedResourceRegistry);
+        builder.setResourceIndex(m_resourceIndex);
         for (Iterator<CollectionAttributeType> iter = attributeTypes.iterator(); iter.hasNext();) {
             CollectionAttributeType attrType = iter.next();
             if (attrType instanceof NumericCollectionAttributeType) {
@@ -115,4 +121,20 @@ public class BasePersister extends AbstractPersister {
     public boolean getDontReorderAttributes() {
         return m_dontReorderAttributes;
     }
+
+    public void setPersistedResourceRegistry(PersistedResourceRegistry persistedResourceRegistry) {
+        m_persistedResourceRegistry = persistedResourceRegistry;
+    }
+
+    public PersistedResourceRegistry getPersistedResourceRegistry() {
+        return m_persistedResourceRegistry;
+    }
+
+    public void setResourceIndex(RrdResourceIndex resourceIndex) {
+        m_resourceIndex = resourceIndex;
+    }
+
+    public RrdResourceIndex getResourceIndex() {
+        return m_resourceIndex;
+    }
 }
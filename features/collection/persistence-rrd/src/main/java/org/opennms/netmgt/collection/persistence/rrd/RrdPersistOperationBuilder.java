@@ -35,6 +35,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -54,10 +55,12 @@ import org.opennms.netmgt.collection.api.TimeKeeper;
 import org.opennms.netmgt.collection.support.DefaultTimeKeeper;
 import org.opennms.netmgt.rrd.RrdAttributeType;
 import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.rrd.PersistedResourceRegistry;
 import org.opennms.netmgt.rrd.RrdDataSource;
 import org.opennms.netmgt.rrd.RrdException;
 import org.opennms.netmgt.rrd.RrdMetaDataUtils;
 import org.opennms.netmgt.rrd.RrdRepository;
+import org.opennms.netmgt.rrd.RrdResourceIndex;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -79,10 +82,15 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
     private final Map<CollectionAttributeType, Number> m_declarations;
     private final Map<String, String> m_metaData = new LinkedHashMap<String, String>();
     private TimeKeeper m_timeKeeper = new DefaultTimeKeeper();
+    private PersistedResourceRegistry m_registry;
+    private RrdResourceIndex m_resourceIndex;
 
     /** Constant <code>MAX_DS_NAME_LENGTH=19</code> */
     public static final int MAX_DS_NAME_LENGTH = 19;
 
+    // Integers up to 2^53 can be represented exactly as a double
+    private static final double MAX_EXACT_INTEGER = 0x1p53;
+
     public RrdPersistOperationBuilder(RrdStrategy<?, ?> rrdStrategy,
                                       RrdRepository repository,
                                       ResourceIdentifier resource,
@@ -103,6 +111,26 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         return m_rrdStrategy;
     }
 
+    /**
+     * Sets the registry used to remember which files have already been
+     * written. Without a registry the files are checked on every commit.
+     *
+     * @param registry a {@link org.opennms.netmgt.rrd.PersistedResourceRegistry} object.
+     */
+    public void setPersistedResourceRegistry(PersistedResourceRegistry registry) {
+        m_registry = registry;
+    }
+
+    /**
+     * Sets the index of the RRD directory, which is told about the files
+     * created by this builder. Without an index nothing is reported.
+     *
+     * @param resourceIndex a {@link org.opennms.netmgt.rrd.RrdResourceIndex} object.
+     */
+    public void setResourceIndex(RrdResourceIndex resourceIndex) {
+        m_resourceIndex = resourceIndex;
+    }
+
     /**
      * <p>getRepository</p>
      *
@@ -201,12 +229,35 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
             final String ownerName = m_resource.getOwnerName();
             final String absolutePath = getResourceDir(m_resource);
 
-            RrdMetaDataUtils.createMetaDataFile(absolutePath, m_rrdName, m_metaData);
+            // Only touch the filesystem if we haven't written these files with the same layout before
+            if (m_registry == null || !m_registry.isMetaDataWritten(absolutePath, m_rrdName, m_metaData)) {
+                RrdMetaDataUtils.createMetaDataFile(absolutePath, m_rrdName, m_metaData);
+                if (m_registry != null) {
+                    m_registry.metaDataWritten(absolutePath, m_rrdName, m_metaData);
+                }
+            }
 
             List<RrdDataSource> dataSources = getDataSources();
             if (dataSources != null && dataSources.size() > 0) {
-                createRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, getRepository().getStep(), dataSources, getRepository().getRraList());
-                updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), getValues());
+                if (m_registry == null || !m_registry.isCreated(absolutePath, m_rrdName, dataSources)) {
+                    createRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, getRepository().getStep(), dataSources, getRepository().getRraList());
+                    if (m_resourceIndex != null) {
+                        m_resourceIndex.fileCreated(absolutePath);
+                    }
+                    if (m_registry != null) {
+                        m_registry.created(absolutePath, m_rrdName, dataSources);
+                    }
+                }
+                try {
+                    update(ownerName, absolutePath);
+                } catch (RrdException e) {
+                    // Deleted resources are invalidated by the resource storage, but if the file went missing
+                    // some other way, make sure that it's created again with the next collection
+                    if (m_registry != null) {
+                        m_registry.invalidate(absolutePath, m_rrdName);
+                    }
+                    throw e;
+                }
             }
         } catch (FileNotFoundException e) {
             LoggerFactory.getLogger(getClass()).warn("Could not get resource directory: " + e.getMessage(), e);
@@ -216,6 +267,15 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         }
     }
 
+    private void update(final String ownerName, final String absolutePath) throws RrdException {
+        final double[] values = getNumericValues();
+        if (values != null) {
+            updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), values);
+        } else {
+            updateRRD(m_rrdStrategy, ownerName, absolutePath, m_rrdName, m_timeKeeper.getCurrentTime(), getValues());
+        }
+    }
+
     private String getValues() {
         boolean first = true;
         StringBuffer values = new StringBuffer();
@@ -232,6 +292,26 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         return values.toString();
     }
 
+    /**
+     * Returns the values as doubles, or null if one of them is an integer that
+     * can't be represented exactly as a double (i.e. a counter above 2^53) and
+     * has to be passed on as a string instead.
+     */
+    private double[] getNumericValues() {
+        final double[] values = new double[m_declarations.size()];
+        int i = 0;
+        for (Number value : m_declarations.values()) {
+            double doubleValue = value == null ? Double.NaN : value.doubleValue();
+            if (!Double.isFinite(doubleValue)) {
+                doubleValue = Double.NaN;
+            } else if (Math.abs(doubleValue) > MAX_EXACT_INTEGER && !(value instanceof Double || value instanceof Float)) {
+                return null;
+            }
+            values[i++] = doubleValue;
+        }
+        return values;
+    }
+
     private List<RrdDataSource> getDataSources() {
         List<RrdDataSource> dataSources = new ArrayList<RrdDataSource>(m_declarations.size());
         for (CollectionAttributeType attrDef : m_declarations.keySet()) {
@@ -328,6 +408,46 @@ public class RrdPersistOperationBuilder implements PersistOperationBuilder {
         LOG.debug("updateRRD: RRD update command completed.");
     }
 
+    /**
+     * Add datapoints to a round robin database.
+     *
+     * @param owner the owner of the file. This is used in log messages
+     * @param repositoryDir the directory the file resides in
+     * @param rrdName the name for the rrd file.
+     * @param timestamp the timestamp in millis to use for the rrd update (this
+     * gets rounded to the nearest second)
+     * @param values the values for the datasources of this rrd
+     * @throws org.opennms.netmgt.rrd.RrdException if any.
+     */
+    private static void updateRRD(RrdStrategy<?, ?> rrdStrategy, String owner, String repositoryDir, String rrdName, long timestamp, double[] values) throws RrdException {
+        // Issue the RRD update
+        String rrdFile = repositoryDir + File.separator + rrdName + rrdStrategy.getDefaultFileExtension();
+        long time = (timestamp + 500L) / 1000L;
+
+        LOG.info("updateRRD: updating RRD file {} at {} with values {}", rrdFile, time, values);
+
+        RrdStrategy<Object, Object> strategy = toGenericType(rrdStrategy);
+        Object rrd = null;
+        try {
+            rrd = strategy.openFile(rrdFile);
+            strategy.updateFile(rrd, owner, time, values);
+        } catch (Throwable e) {
+            LOG.error("updateRRD: Error updating RRD file {} at {} with values {}", rrdFile, time, values, e);
+            throw new org.opennms.netmgt.rrd.RrdException("Error updating RRD file " + rrdFile + " at " + time + " with values " + Arrays.toString(values) + ": " + e, e);
+        } finally {
+            try {
+                if (rrd != null) {
+                    strategy.closeFile(rrd);
+                }
+            } catch (Throwable e) {
+                LOG.error("updateRRD: Exception closing RRD file {}", rrdFile, e);
+                throw new org.opennms.netmgt.rrd.RrdException("Exception closing RRD file " + rrdFile + ": " + e, e);
+            }
+        }
+
+        LOG.debug("updateRRD: RRD update command completed.");
+    }
+
     @SuppressWarnings("unchecked")
     private static RrdStrategy<Object, Object> toGenericType(RrdStrategy<?, ?> rrdStrategy) {
         Assert.notNull(rrdStrategy);
@@ -33,7 +33,9 @@ import org.opennms.netmgt.collection.api.PersisterFactory;
 import org.opennms.netmgt.collection.api.ServiceParameters;
 import org.opennms.netmgt.dao.api.ResourceStorageDao;
 import org.opennms.netmgt.model.ResourceTypeUtils;
+import org.opennms.netmgt.rrd.PersistedResourceRegistry;
 import org.opennms.netmgt.rrd.RrdRepository;
+import org.opennms.netmgt.rrd.RrdResourceIndex;
 import org.opennms.netmgt.rrd.RrdStrategy;
 
 public class RrdPersisterFactory implements PersisterFactory {
@@ -42,6 +44,10 @@ public class RrdPersisterFactory implements PersisterFactory {
 
     private ResourceStorageDao m_resourceStorageDao;
 
+    private PersistedResourceRegistry m_persistedResourceRegistry;
+
+    private RrdResourceIndex m_resourceIndex;
+
     public Persister createPersister(ServiceParameters params, RrdRepository repository) {
         return createPersister(params, repository, false, false, false);
     }
@@ -61,6 +67,8 @@ public class RrdPersisterFactory implements PersisterFactory {
         GroupPersister persister = new GroupPersister(params, repository, m_rrdStrategy, m_resourceStorageDao);
         persister.setIgnorePersist(dontPersistCounters);
         persister.setDontReorderAttributes(dontReorderAttributes);
+        persister.setPersistedResourceRegistry(m_persistedResourceRegistry);
+        persister.setResourceIndex(m_resourceIndex);
         return persister;
     }
 
@@ -69,6 +77,8 @@ public class RrdPersisterFactory implements PersisterFactory {
         OneToOnePersister persister = new OneToOnePersister(params, repository, m_rrdStrategy, m_resourceStorageDao);
         persister.setIgnorePersist(dontPersistCounters);
         persister.setDontReorderAttributes(dontReorderAttributes);
+        persister.setPersistedResourceRegistry(m_persistedResourceRegistry);
+        persister.setResourceIndex(m_resourceIndex);
         return persister;
     }
 
@@ -87,5 +97,21 @@ public class RrdPersisterFactory implements PersisterFactory {
     public void setResourceStorageDao(ResourceStorageDao resourceStorageDao) {
         m_resourceStorageDao = resourceStorageDao;
     }
+
+    public PersistedResourceRegistry getPersistedResourceRegistry() {
+        return m_persistedResourceRegistry;
+    }
+
+    public void setPersistedResourceRegistry(PersistedResourceRegistry persistedResourceRegistry) {
+        m_persistedResourceRegistry = persistedResourceRegistry;
+    }
+
+    public RrdResourceIndex getResourceIndex() {
+        return m_resourceIndex;
+    }
+
+    public void setResourceIndex(RrdResourceIndex resourceIndex) {
+        m_resourceIndex = resourceIndex;
+    }
 }
 
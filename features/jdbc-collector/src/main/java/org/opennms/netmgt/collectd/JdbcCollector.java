@@ -35,16 +35,25 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import org.opennms.core.db.DataSourceFactory;
 import org.opennms.core.spring.BeanUtils;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.netmgt.collectd.jdbc.JdbcAgentState;
+import org.opennms.netmgt.collectd.jdbc.JdbcCollectorException;
 import org.opennms.netmgt.collection.api.AbstractRemoteServiceCollector;
 import org.opennms.netmgt.collection.api.AttributeType;
 import org.opennms.netmgt.collection.api.CollectionAgent;
@@ -72,6 +81,49 @@ public class JdbcCollector extends AbstractRemoteServiceCollector {
             new SimpleEntry<>(JDBC_COLLECTION_KEY, JdbcDataCollection.class))
             .collect(Collectors.toMap((e) -> e.getKey(), (e) -> e.getValue())));
 
+    private static final AtomicInteger s_queryThreadCount = new AtomicInteger();
+
+    /**
+     * The maximum number of threads which help the collecting threads with their queries.
+     * Helpers which can't get a thread are skipped, and the collecting thread runs the
+     * queries on its own.
+     */
+    private static final int MAX_QUERY_THREADS = Integer.getInteger("org.opennms.netmgt.collectd.JdbcCollector.maxQueryThreads",
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+    // Runs the queries of a collection in parallel to the collecting thread, idle threads are released after a minute
+    private static final ThreadPoolExecutor QUERY_EXECUTOR = new ThreadPoolExecutor(MAX_QUERY_THREADS, MAX_QUERY_THREADS,
+            1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), r -> {
+        final Thread thread = new Thread(r, "JdbcCollector-Query-" + s_queryThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        QUERY_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The values read from a row of a query.
+     */
+    private static class JdbcRow {
+        private final String m_instance;
+        private final String[] m_values;
+
+        private JdbcRow(String instance, String[] values) {
+            m_instance = instance;
+            m_values = values;
+        }
+
+        public String getInstance() {
+            return m_instance;
+        }
+
+        public String[] getValues() {
+            return m_values;
+        }
+    }
+
     private JdbcDataCollectionConfigDao m_jdbcCollectionDao;
 
     public JdbcCollector() {
@@ -87,10 +139,6 @@ public class JdbcCollector extends AbstractRemoteServiceCollector {
         }
     }
 
-    private static void initDatabaseConnectionFactory(String dataSourceName) {
-        DataSourceFactory.init(dataSourceName);
-    }
-
     @Override
     public Map<String, Object> getRuntimeAttributes(CollectionAgent agent, Map<String, Object> parameters) {
         final Map<String, Object> runtimeAttributes = new HashMap<>();
@@ -110,122 +158,192 @@ public class JdbcCollector extends AbstractRemoteServiceCollector {
     @Override
     public CollectionSet collect(CollectionAgent agent, Map<String, Object> parameters) throws CollectionException {
         final JdbcDataCollection collection = (JdbcDataCollection)parameters.get(JDBC_COLLECTION_KEY);
-        
-        JdbcAgentState agentState = null;
-        Connection con = null;
-        ResultSet results = null;
-        Statement stmt = null;
-        try {
-            agentState = createAgentState(agent.getAddress(), parameters);
-            agentState.setupDatabaseConnections(parameters);
-
-            // Create a new collection set.
-            CollectionSetBuilder builder = new CollectionSetBuilder(agent);
-
-            // Creating a single resource object, because all node-level metric must belong to the exact same resource.
-            final NodeLevelResource nodeResource = new NodeLevelResource(agent.getNodeId());
-
-            // Cycle through all of the queries for this collection
-            for(JdbcQuery query : collection.getQueries()) {
-                // Verify if we should check for availability of a query.
-                if (agentState.shouldCheckAvailability(query.getQueryName(), query.getRecheckInterval())) {
-                    // Check to see if the query is available.
-                    if (!isGroupAvailable(agentState, query)) {
-                        LOG.warn("Group is not available.");
+
+        final JdbcAgentState agentState = createAgentState(agent.getAddress(), parameters);
+        agentState.setupDatabaseConnections(parameters);
+
+        // Create a new collection set.
+        CollectionSetBuilder builder = new CollectionSetBuilder(agent);
+
+        // Creating a single resource object, because all node-level metric must belong to the exact same resource.
+        final NodeLevelResource nodeResource = new NodeLevelResource(agent.getNodeId());
+
+        // Determine which queries are available, all of them go to the same database so it only has to be checked once
+        final List<JdbcQuery> queries = new ArrayList<>();
+        Boolean available = null;
+        for(JdbcQuery query : collection.getQueries()) {
+            // Verify if we should check for availability of a query.
+            if (agentState.shouldCheckAvailability(query.getQueryName(), query.getRecheckInterval())) {
+                // Check to see if the query is available.
+                if (available == null) {
+                    available = isGroupAvailable(agentState, query);
+                } else {
+                    agentState.setGroupIsAvailable(query.getQueryName(), available);
+                }
+                if (!available) {
+                    LOG.warn("Group is not available.");
+                    continue;
+                }
+            }
+            // If the query is available, lets collect it.
+            if (agentState.groupIsAvailable(query.getQueryName())) {
+                queries.add(query);
+            }
+        }
+
+        final List<List<JdbcRow>> results = executeQueries(agentState, queries);
+        for (int i = 0; i < queries.size(); i++) {
+            final JdbcQuery query = queries.get(i);
+            final List<JdbcRow> rows = results.get(i);
+            if (rows == null) {
+                continue;
+            }
+
+            // Determine if there were any results for this query to
+            if (rows.isEmpty()) {
+                LOG.warn("Query '{}' returned no results.", query.getQueryName());
+                continue;
+            }
+
+            // Determine if there are results and how many.
+            boolean singleInstance = (rows.size()==1)?true:false;
+            if (!singleInstance && query.getInstanceColumn() == null) {
+                LOG.warn("Query '{}' returned multiple rows, but has no instance column. Please review the configuration.", query.getQueryName());
+                continue;
+            }
+
+            // Iterate through each row.
+            for (JdbcRow row : rows) {
+                Resource resource = null;
+
+                // Create the appropriate resource container.
+                if(singleInstance) {
+                    resource = nodeResource;
+                } else {
+                    resource = new DeferredGenericTypeResource(nodeResource, query.getResourceType(), row.getInstance());
+                }
+
+                final List<JdbcColumn> columns = query.getJdbcColumns();
+                for (int j = 0; j < columns.size(); j++) {
+                    final JdbcColumn curColumn = columns.get(j);
+                    final AttributeType type = curColumn.getDataType();
+
+                    String columnValue = row.getValues()[j];
+                    if (columnValue == null) {
+                        LOG.debug("Skipping column named '{}' with null value.", curColumn.getColumnName());
                         continue;
                     }
-                }
 
-                try {
-                    // If the query is available, lets collect it.
-                    if (agentState.groupIsAvailable(query.getQueryName())) {
-                        if(agentState.getUseDataSourceName()) {
-                            initDatabaseConnectionFactory(agentState.getDataSourceName());
-                            con = DataSourceFactory.getInstance(agentState.getDataSourceName()).getConnection();
-                        } else {
-                            con = agentState.getJdbcConnection();
-                        }
-                        stmt = agentState.createStatement(con);
-                        results = agentState.executeJdbcQuery(stmt, query);
-                    
-                        // Determine if there were any results for this query to                    
-                        if (results.isBeforeFirst() && results.isAfterLast()) {
-                            LOG.warn("Query '{}' returned no results.", query.getQueryName());
-                            // Close the statement, but retain the connection.
-                            agentState.closeResultSet(results);
-                            agentState.closeStmt(stmt);
+                    if (type.isNumeric()) {
+                        Double numericValue = Double.NaN;
+                        try {
+                            numericValue = Double.parseDouble(columnValue);
+                        } catch (NumberFormatException e) {
+                            LOG.warn("Value '{}' for column named '{}' cannot be converted to a number. Skipping.", columnValue, curColumn.getColumnName());
                             continue;
                         }
-                        
-                        // Determine if there are results and how many.
-                        results.last();
-                        boolean singleInstance = (results.getRow()==1)?true:false;
-                        results.beforeFirst();
-
-                        // Iterate through each row.
-                        while(results.next() ) {
-                            Resource resource = null;
-
-                            // Create the appropriate resource container.
-                            if(singleInstance) {
-                                resource = nodeResource;
-                            } else {
-                                // Retrieve the name of the column to use as the instance key for multi-row queries.
-                                String instance = results.getString(query.getInstanceColumn());
-                                resource = new DeferredGenericTypeResource(nodeResource, query.getResourceType(), instance);
-                            }
-
-                            for(JdbcColumn curColumn : query.getJdbcColumns()) {
-                                final AttributeType type = curColumn.getDataType();
-
-                                String columnName = null;
-                                if(curColumn.getDataSourceName() != null && curColumn.getDataSourceName().length() != 0) {
-                                    columnName = curColumn.getDataSourceName();
-                                } else {
-                                    columnName = curColumn.getColumnName();
-                                }
-
-                                String columnValue = results.getString(columnName);
-                                if (columnValue == null) {
-                                    LOG.debug("Skipping column named '{}' with null value.", curColumn.getColumnName());
-                                    continue;
-                                }
-
-                                if (type.isNumeric()) {
-                                    Double numericValue = Double.NaN;
-                                    try {
-                                        numericValue = Double.parseDouble(columnValue);
-                                    } catch (NumberFormatException e) {
-                                        LOG.warn("Value '{}' for column named '{}' cannot be converted to a number. Skipping.", columnValue, curColumn.getColumnName());
-                                        continue;
-                                    }
-                                    builder.withNumericAttribute(resource, query.getQueryName(), curColumn.getAlias(), numericValue, type);
-                                } else {
-                                    builder.withStringAttribute(resource, query.getQueryName(), curColumn.getAlias(), columnValue);
-                                }
-                            }
-                        }
+                        builder.withNumericAttribute(resource, query.getQueryName(), curColumn.getAlias(), numericValue, type);
+                    } else {
+                        builder.withStringAttribute(resource, query.getQueryName(), curColumn.getAlias(), columnValue);
                     }
-                } catch(SQLException e) {
-                    // Close the statement but retain the connection, log the exception and continue to the next query.
-                    LOG.warn("There was a problem executing query '{}' Please review the query or configuration. Reason: {}", query.getQueryName(), e.getMessage());
-                    continue;
-                } finally {
-                    agentState.closeResultSet(results);
-                    agentState.closeStmt(stmt);
-                    agentState.closeConnection(con);
                 }
             }
-            builder.withStatus(CollectionStatus.SUCCEEDED);
-            return builder.build();
+        }
+        builder.withStatus(CollectionStatus.SUCCEEDED);
+        return builder.build();
+    }
+
+    /**
+     * Runs the given queries, up to {@link JdbcAgentState#getMaxConnections()} of them in parallel.
+     *
+     * @return the rows of every query in the same order as the queries, or null for the queries which failed
+     */
+    private static List<List<JdbcRow>> executeQueries(JdbcAgentState agentState, List<JdbcQuery> queries) {
+        final AtomicReferenceArray<List<JdbcRow>> results = new AtomicReferenceArray<>(queries.size());
+        final AtomicInteger nextQuery = new AtomicInteger();
+        final int workers = Math.min(queries.size(), Math.max(1, agentState.getMaxConnections()));
+
+        final List<Future<?>> futures = new ArrayList<>(workers);
+        for (int i = 1; i < workers; i++) {
+            futures.add(QUERY_EXECUTOR.submit(() -> executeQueries(agentState, queries, nextQuery, results)));
+        }
+        // The collecting thread works on the queries as well
+        executeQueries(agentState, queries, nextQuery, results);
+        for (Future<?> future : futures) {
+            // Every query has been picked up by now, so the helpers which are still waiting for a thread have nothing left to do
+            if (future.cancel(false)) {
+                continue;
+            }
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JdbcCollectorException("Interrupted while waiting for the queries", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
+                }
+                throw new JdbcCollectorException("Unable to execute queries", e.getCause());
+            }
+        }
+
+        final List<List<JdbcRow>> rows = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            rows.add(results.get(i));
+        }
+        return rows;
+    }
+
+    private static void executeQueries(JdbcAgentState agentState, List<JdbcQuery> queries, AtomicInteger nextQuery, AtomicReferenceArray<List<JdbcRow>> results) {
+        // Every worker keeps its connection for all of the queries it runs
+        Connection con = null;
+        try {
+            int i;
+            while ((i = nextQuery.getAndIncrement()) < queries.size()) {
+                if (con == null) {
+                    con = agentState.getConnection();
+                }
+                results.set(i, executeQuery(agentState, con, queries.get(i)));
+            }
         } finally {
-            if(agentState != null) {
-                // Make sure that when we're done we close all results, statements and connections.
-                agentState.closeResultSet(results);
-                agentState.closeStmt(stmt);
-                agentState.closeConnection(con);
-                //agentState.closeAgentConnection();
+            agentState.closeConnection(con);
+        }
+    }
+
+    private static List<JdbcRow> executeQuery(JdbcAgentState agentState, Connection con, JdbcQuery query) {
+        ResultSet results = null;
+        Statement stmt = null;
+        try {
+            stmt = agentState.createStatement(con, query);
+            results = agentState.executeJdbcQuery(stmt, query);
+
+            final List<JdbcColumn> columns = query.getJdbcColumns();
+            final List<JdbcRow> rows = new ArrayList<>();
+            while(results.next()) {
+                // Retrieve the name of the column to use as the instance key for multi-row queries.
+                String instance = query.getInstanceColumn() == null ? null : results.getString(query.getInstanceColumn());
+
+                final String[] values = new String[columns.size()];
+                for (int j = 0; j < values.length; j++) {
+                    final JdbcColumn curColumn = columns.get(j);
+                    String columnName = null;
+                    if(curColumn.getDataSourceName() != null && curColumn.getDataSourceName().length() != 0) {
+                        columnName = curColumn.getDataSourceName();
+                    } else {
+                        columnName = curColumn.getColumnName();
+                    }
+                    values[j] = results.getString(columnName);
+                }
+                rows.add(new JdbcRow(instance, values));
             }
+            return rows;
+        } catch(SQLException e) {
+            // Close the statement but retain the connection, log the exception and continue to the next query.
+            LOG.warn("There was a problem executing query '{}' Please review the query or configuration. Reason: {}", query.getQueryName(), e.getMessage());
+            return null;
+        } finally {
+            agentState.closeResultSet(results);
+            agentState.closeStmt(stmt);
         }
     }
 
@@ -237,13 +355,8 @@ public class JdbcCollector extends AbstractRemoteServiceCollector {
         Connection con = null;
         
         try {
-            if(agentState.getUseDataSourceName()) {
-                initDatabaseConnectionFactory(agentState.getDataSourceName());
-                con = DataSourceFactory.getInstance(agentState.getDataSourceName()).getConnection();
-            } else {
-                con = agentState.getJdbcConnection();
-            }
-            
+            con = agentState.getConnection();
+
             DatabaseMetaData metadata = con.getMetaData();
             resultset = metadata.getCatalogs();
             while (resultset.next()) {
@@ -254,7 +367,7 @@ public class JdbcCollector extends AbstractRemoteServiceCollector {
             if (resultset != null) {
                 status = true;
             }
-        } catch(SQLException sqlEx) {
+        } catch(SQLException | JdbcCollectorException sqlEx) {
             LOG.warn("Error checking group ({}) availability", query.getQueryName(), sqlEx);
             agentState.setGroupIsAvailable(query.getQueryName(), status);
             status=false;
@@ -31,6 +31,7 @@ package org.opennms.netmgt.collectd.jdbc;
 import java.net.InetAddress;
 import java.sql.Connection;
 import java.sql.Driver;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -39,6 +40,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
+import org.opennms.core.db.DataSourceFactory;
 import org.opennms.core.utils.DBTools;
 import org.opennms.core.utils.ParameterMap;
 import org.opennms.netmgt.config.jdbc.JdbcQuery;
@@ -49,6 +51,8 @@ public class JdbcAgentState {
     private static final Logger LOG = LoggerFactory.getLogger(JdbcAgentState.class);
 
     private static final String JAS_NO_DATASOURCE_FOUND = "NO_DATASOURCE_FOUND";
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 2;
     
     private boolean m_useDataSourceName;
     private String m_dataSourceName;
@@ -57,6 +61,8 @@ public class JdbcAgentState {
     
     Driver m_driver = null;
     Properties m_dbProps = null;
+
+    private int m_maxConnections = DEFAULT_MAX_CONNECTIONS;
     
     private String m_address;
     private Map<String, JdbcGroupState> m_groupStates = new HashMap<String, JdbcGroupState>();
@@ -74,6 +80,9 @@ public class JdbcAgentState {
     }
     
     public void setupDatabaseConnections(Map<String, Object> parameters) {
+        // The number of connections kept open to the database, which is also the number of queries run in parallel
+        m_maxConnections = Math.max(1, ParameterMap.getKeyedInteger(parameters, "max-connections", DEFAULT_MAX_CONNECTIONS));
+
         String dataSourceName = ParameterMap.getKeyedString(parameters, "data-source", JAS_NO_DATASOURCE_FOUND);
         if(dataSourceName.equals(JAS_NO_DATASOURCE_FOUND)) {
             // No 'data-source' parameter was set in the configuration file.
@@ -117,7 +126,7 @@ public class JdbcAgentState {
         }
 
         try {
-            final Connection con = m_driver.connect(m_dbUrl, m_dbProps);
+            final Connection con = JdbcDataSourceCache.getInstance().getDataSource(m_driver, m_dbUrl, m_dbProps, m_maxConnections).getConnection();
             if (con == null) {
                 throw new SQLException("Driver returned null!");
             }
@@ -127,17 +136,40 @@ public class JdbcAgentState {
         }
     }
     
-    public Statement createStatement(Connection con) {
+    /**
+     * Returns a connection to the database, either from the configured data source
+     * or from the pool kept for the JDBC URL.
+     */
+    public Connection getConnection() throws JdbcCollectorException {
+        if (m_useDataSourceName) {
+            DataSourceFactory.init(m_dataSourceName);
+            try {
+                return DataSourceFactory.getInstance(m_dataSourceName).getConnection();
+            } catch (SQLException e) {
+                throw new JdbcCollectorException("Unable to connect to data source: '" + m_dataSourceName + "'", e);
+            }
+        }
+        return getJdbcConnection();
+    }
+
+    /**
+     * Prepares the statement of the query. Drivers which cache prepared statements
+     * per connection only have to parse it once per pooled connection.
+     */
+    public Statement createStatement(Connection con, JdbcQuery query) {
         try {
-            return con.createStatement(ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_READ_ONLY);
+            return con.prepareStatement(query.getJdbcStatement().getJdbcQuery(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
         } catch(SQLException e) {
-            LOG.warn("Unable to create SQL statement: {}", e.getMessage());
-            throw new JdbcCollectorException("Unable to create SQL statement: " + e.getMessage(), e);
+            LOG.warn("Unable to prepare SQL statement: {}", e.getMessage());
+            throw new JdbcCollectorException("Unable to prepare SQL statement: " + e.getMessage(), e);
         }
     }
-    
+
     public ResultSet executeJdbcQuery(Statement stmt, JdbcQuery query) {
         try {
+            if (stmt instanceof PreparedStatement) {
+                return ((PreparedStatement)stmt).executeQuery();
+            }
             return stmt.executeQuery(query.getJdbcStatement().getJdbcQuery());
         } catch(SQLException e) {
             //closeAgentConnection();
@@ -231,6 +263,10 @@ public class JdbcAgentState {
         m_dataSourceName = dataSourceName;
     }
 
+    public int getMaxConnections() {
+        return m_maxConnections;
+    }
+
     public boolean getUseDataSourceName() {
         return m_useDataSourceName;
     }
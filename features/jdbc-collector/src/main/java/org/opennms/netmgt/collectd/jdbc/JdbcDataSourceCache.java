@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd.jdbc;
+
+import java.beans.PropertyVetoException;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.opennms.core.db.ClosableDataSource;
+import org.opennms.core.db.HikariCPConnectionFactory;
+import org.opennms.netmgt.config.opennmsDataSources.JdbcDataSource;
+import org.opennms.netmgt.config.opennmsDataSources.Param;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.zaxxer.hikari.HikariConfig;
+
+/**
+ * Keeps a pooled data source per database collected with a JDBC URL, so that
+ * collections don't have to establish new connections every time.
+ *
+ * <p>Idle connections are closed by the pool after
+ * <code>org.opennms.netmgt.collectd.jdbc.connectionIdleTimeout</code> ms (default: 10 minutes)
+ * and pools which haven't been used for
+ * <code>org.opennms.netmgt.collectd.jdbc.poolIdleTimeout</code> ms (default: 30 minutes)
+ * are closed altogether.</p>
+ */
+public class JdbcDataSourceCache {
+    private static final Logger LOG = LoggerFactory.getLogger(JdbcDataSourceCache.class);
+
+    private static final long CONNECTION_IDLE_TIMEOUT = Long.getLong("org.opennms.netmgt.collectd.jdbc.connectionIdleTimeout", TimeUnit.MINUTES.toMillis(10));
+
+    private static final long CONNECTION_TIMEOUT = Long.getLong("org.opennms.netmgt.collectd.jdbc.connectionTimeout", TimeUnit.SECONDS.toMillis(30));
+
+    private static final JdbcDataSourceCache INSTANCE = new JdbcDataSourceCache(Long.getLong("org.opennms.netmgt.collectd.jdbc.poolIdleTimeout", TimeUnit.MINUTES.toMillis(30)));
+
+    private static final AtomicInteger s_poolCount = new AtomicInteger();
+
+    private static class Entry {
+        private ClosableDataSource m_dataSource;
+        private volatile long m_lastUsed = System.currentTimeMillis();
+        private boolean m_closed = false;
+    }
+
+    private final Map<String, Entry> m_entries = new ConcurrentHashMap<>();
+
+    private final long m_poolIdleTimeout;
+
+    private volatile long m_lastSweep = System.currentTimeMillis();
+
+    protected JdbcDataSourceCache(long poolIdleTimeout) {
+        m_poolIdleTimeout = poolIdleTimeout;
+    }
+
+    public static JdbcDataSourceCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the pooled data source for the given database, creating it if necessary.
+     *
+     * @param driver the JDBC driver
+     * @param url the JDBC URL
+     * @param properties the connection properties, i.e. the user and the password
+     * @param maxConnections the maximum number of connections to the database
+     * @return the pooled data source
+     * @throws SQLException if the pool can't be created
+     */
+    public DataSource getDataSource(Driver driver, String url, Properties properties, int maxConnections) throws SQLException {
+        closeIdleDataSources();
+
+        final String user = properties.getProperty("user");
+        final String password = properties.getProperty("password");
+        final String key = driver.getClass().getName() + "|" + url + "|" + user + "|" + Objects.hashCode(password) + "|" + maxConnections;
+        while (true) {
+            final Entry entry = m_entries.computeIfAbsent(key, k -> new Entry());
+            // Only one thread creates the pool of a database, all others wait for it
+            synchronized (entry) {
+                if (entry.m_closed) {
+                    continue;
+                }
+                entry.m_lastUsed = System.currentTimeMillis();
+                if (entry.m_dataSource == null) {
+                    entry.m_dataSource = createDataSource(driver, url, user, password, maxConnections);
+                }
+                return entry.m_dataSource;
+            }
+        }
+    }
+
+    /**
+     * Creates the pool of a database.
+     */
+    protected ClosableDataSource createDataSource(Driver driver, String url, String user, String password, int maxConnections) throws SQLException {
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setName("jdbc-collector-" + s_poolCount.incrementAndGet());
+        dataSource.setClassName(driver.getClass().getName());
+        dataSource.setUrl(url);
+        dataSource.setUserName(user);
+        dataSource.setPassword(password);
+        dataSource.addParam(new Param("maximumPoolSize", Integer.toString(maxConnections)));
+        dataSource.addParam(new Param("minimumIdle", "0"));
+        dataSource.addParam(new Param("idleTimeout", Long.toString(CONNECTION_IDLE_TIMEOUT)));
+
+        LOG.debug("Creating connection pool {} for JDBC url: {}", dataSource.getName(), url);
+        // Load the driver the same way the collector did
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(driver.getClass().getClassLoader());
+        try {
+            return new HikariCPConnectionFactory(dataSource) {
+                @Override
+                protected void configure(final HikariConfig config) {
+                    // Unlike the pools of opennms-datasources.xml (NMS-9387), don't wait forever for an unreachable database
+                    config.setConnectionTimeout(CONNECTION_TIMEOUT);
+                }
+            };
+        } catch (PropertyVetoException | RuntimeException e) {
+            throw new SQLException("Unable to create connection pool for JDBC url: " + url, e);
+        } finally {
+            Thread.currentThread().setContextClassLoader(contextClassLoader);
+        }
+    }
+
+    private void closeIdleDataSources() {
+        final long now = System.currentTimeMillis();
+        if (now - m_lastSweep < Math.min(m_poolIdleTimeout, TimeUnit.MINUTES.toMillis(1))) {
+            return;
+        }
+        m_lastSweep = now;
+
+        final Iterator<Entry> it = m_entries.values().iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next();
+            synchronized (entry) {
+                if (now - entry.m_lastUsed > m_poolIdleTimeout) {
+                    entry.m_closed = true;
+                    it.remove();
+                    if (entry.m_dataSource != null) {
+                        entry.m_dataSource.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes all pools.
+     */
+    public void close() {
+        final Iterator<Entry> it = m_entries.values().iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next();
+            synchronized (entry) {
+                entry.m_closed = true;
+                it.remove();
+                if (entry.m_dataSource != null) {
+                    entry.m_dataSource.close();
+                }
+            }
+        }
+    }
+}
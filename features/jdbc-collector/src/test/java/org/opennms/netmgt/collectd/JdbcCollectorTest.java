@@ -29,6 +29,8 @@
 package org.opennms.netmgt.collectd;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Mockito.mock;
@@ -36,10 +38,15 @@ import static org.mockito.Mockito.when;
 
 import java.net.InetAddress;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -47,8 +54,10 @@ import org.junit.rules.TemporaryFolder;
 import org.opennms.core.collection.test.CollectionSetUtils;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.collectd.jdbc.JdbcAgentState;
+import org.opennms.netmgt.collectd.jdbc.JdbcCollectorException;
 import org.opennms.netmgt.collection.api.AttributeType;
 import org.opennms.netmgt.collection.api.CollectionAgent;
+import org.opennms.netmgt.collection.api.CollectionAttribute;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.api.CollectionStatus;
 import org.opennms.netmgt.collection.api.ResourceTypeMapper;
@@ -162,11 +171,123 @@ public class JdbcCollectorTest {
                     collectionSetKeys);
     }
 
+    @Test
+    public void canRunQueriesInParallel() throws Exception {
+        final int numQueries = 4;
+        final JdbcDataCollection collection = new JdbcDataCollection();
+        final Map<String, ResultSet> resultSets = new HashMap<>();
+        for (int i = 0; i < numQueries; i++) {
+            collection.addQuery(createQuery(i));
+            resultSets.put("q" + i, createResultSet(i));
+        }
+
+        // Every query waits for all others, so they only complete if all of them run at the same time
+        final CountDownLatch running = new CountDownLatch(numQueries);
+        final AtomicBoolean parallel = new AtomicBoolean(true);
+        final JdbcAgentState jdbcAgentState = createAgentState(numQueries);
+        when(jdbcAgentState.executeJdbcQuery(anyObject(), anyObject())).thenAnswer(invocation -> {
+            running.countDown();
+            if (!running.await(10, TimeUnit.SECONDS)) {
+                parallel.set(false);
+            }
+            return resultSets.get(((JdbcQuery)invocation.getArguments()[1]).getQueryName());
+        });
+
+        // The rows of every query end up in its own group
+        final CollectionSet collectionSet = collect(collection, jdbcAgentState);
+        assertEquals(CollectionStatus.SUCCEEDED, collectionSet.getStatus());
+        assertTrue("Queries didn't run in parallel", parallel.get());
+        final Map<String, CollectionAttribute> attributes = CollectionSetUtils.getAttributesByName(collectionSet);
+        assertEquals(numQueries, attributes.size());
+        for (int i = 0; i < numQueries; i++) {
+            assertEquals("q" + i, attributes.get("a" + i).getAttributeType().getGroupType().getName());
+            assertEquals(Double.valueOf(i), attributes.get("a" + i).getNumericValue());
+        }
+    }
+
+    @Test
+    public void canSkipFailedQueries() throws Exception {
+        final JdbcDataCollection collection = new JdbcDataCollection();
+        final Map<String, ResultSet> resultSets = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            collection.addQuery(createQuery(i));
+            resultSets.put("q" + i, createResultSet(i));
+        }
+        when(resultSets.get("q1").next()).thenThrow(new SQLException("failed"));
+
+        final JdbcAgentState jdbcAgentState = createAgentState(2);
+        when(jdbcAgentState.executeJdbcQuery(anyObject(), anyObject())).thenAnswer(invocation ->
+            resultSets.get(((JdbcQuery)invocation.getArguments()[1]).getQueryName()));
+
+        // The failed query is skipped, the others are collected
+        final CollectionSet collectionSet = collect(collection, jdbcAgentState);
+        assertEquals(CollectionStatus.SUCCEEDED, collectionSet.getStatus());
+        final Map<String, CollectionAttribute> attributes = CollectionSetUtils.getAttributesByName(collectionSet);
+        assertEquals(Double.valueOf(0), attributes.get("a0").getNumericValue());
+        assertFalse(attributes.containsKey("a1"));
+        assertEquals(Double.valueOf(2), attributes.get("a2").getNumericValue());
+    }
+
+    @Test(expected=JdbcCollectorException.class)
+    public void canPropagateExceptionsOfQueryThreads() throws Exception {
+        final JdbcDataCollection collection = new JdbcDataCollection();
+        collection.addQuery(createQuery(0));
+        collection.addQuery(createQuery(1));
+        final ResultSet resultSet = createResultSet(0);
+
+        // Both threads take one of the queries, the query thread fails
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final JdbcAgentState jdbcAgentState = createAgentState(2);
+        when(jdbcAgentState.executeJdbcQuery(anyObject(), anyObject())).thenAnswer(invocation -> {
+            barrier.await(10, TimeUnit.SECONDS);
+            if (Thread.currentThread().getName().startsWith("JdbcCollector-Query-")) {
+                throw new JdbcCollectorException("failed");
+            }
+            return resultSet;
+        });
+
+        collect(collection, jdbcAgentState);
+    }
+
+    private static JdbcQuery createQuery(int i) {
+        final JdbcQuery query = new JdbcQuery();
+        query.setIfType("ignore");
+        query.setQueryName("q" + i);
+
+        final JdbcColumn column = new JdbcColumn();
+        column.setColumnName("c" + i);
+        column.setAlias("a" + i);
+        column.setDataType(AttributeType.GAUGE);
+        query.addJdbcColumn(column);
+        return query;
+    }
+
+    private static ResultSet createResultSet(int i) throws SQLException {
+        final ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getString("c" + i)).thenReturn(Integer.toString(i));
+        when(resultSet.next()).thenReturn(true).thenReturn(false);
+        return resultSet;
+    }
+
+    private static JdbcAgentState createAgentState(int maxConnections) {
+        final JdbcAgentState jdbcAgentState = mock(JdbcAgentState.class);
+        when(jdbcAgentState.groupIsAvailable(any(String.class))).thenReturn(true);
+        when(jdbcAgentState.getMaxConnections()).thenReturn(maxConnections);
+        return jdbcAgentState;
+    }
+
     public CollectionSet collect(JdbcDataCollection collection) throws Exception {
-        return collect(collection, null);
+        return collect(collection, (ResultSet)null);
     }
 
     public CollectionSet collect(JdbcDataCollection collection, ResultSet resultSet, ResourceType...resourceTypes) throws Exception {
+        JdbcAgentState jdbcAgentState = mock(JdbcAgentState.class);
+        when(jdbcAgentState.groupIsAvailable(any(String.class))).thenReturn(true);
+        when(jdbcAgentState.executeJdbcQuery(anyObject(), anyObject())).thenReturn(resultSet);
+        return collect(collection, jdbcAgentState, resourceTypes);
+    }
+
+    public CollectionSet collect(JdbcDataCollection collection, JdbcAgentState jdbcAgentState, ResourceType...resourceTypes) throws Exception {
         final int nodeId = 1;
 
         JdbcDataCollectionConfig config = new JdbcDataCollectionConfig();
@@ -194,9 +315,6 @@ public class JdbcCollectorTest {
         when(agent.getAddress()).thenReturn(InetAddressUtils.ONE_TWENTY_SEVEN);
         when(agent.getStorageResourcePath()).thenReturn(ResourcePath.get("snmp", Integer.toString(nodeId)));
 
-        JdbcAgentState jdbcAgentState = mock(JdbcAgentState.class);
-        when(jdbcAgentState.groupIsAvailable(any(String.class))).thenReturn(true);
-        when(jdbcAgentState.executeJdbcQuery(anyObject(), anyObject())).thenReturn(resultSet);
         jdbcCollector.setJdbcAgentState(jdbcAgentState);
 
         Map<String, Object> params = new HashMap<>();
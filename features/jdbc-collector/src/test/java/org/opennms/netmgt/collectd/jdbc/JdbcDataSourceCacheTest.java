@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.sql.Driver;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.opennms.core.db.ClosableDataSource;
+
+public class JdbcDataSourceCacheTest {
+
+    private final Driver m_driver = mock(Driver.class);
+
+    @Test
+    public void canReuseDataSources() throws Exception {
+        final MockDataSourceCache cache = new MockDataSourceCache(60000);
+        final DataSource dataSource = cache.getDataSource(m_driver, "jdbc:mock://host1/db", getProperties("user", "pass"), 2);
+        assertSame(dataSource, cache.getDataSource(m_driver, "jdbc:mock://host1/db", getProperties("user", "pass"), 2));
+        assertEquals(1, cache.getDataSources().size());
+    }
+
+    @Test
+    public void canKeyDataSourcesByDatabase() throws Exception {
+        final MockDataSourceCache cache = new MockDataSourceCache(60000);
+        final DataSource dataSource = cache.getDataSource(m_driver, "jdbc:mock://host1/db", getProperties("user", "pass"), 2);
+        assertNotSame(dataSource, cache.getDataSource(m_driver, "jdbc:mock://host2/db", getProperties("user", "pass"), 2));
+        assertNotSame(dataSource, cache.getDataSource(m_driver, "jdbc:mock://host1/db", getProperties("other", "pass"), 2));
+        assertNotSame(dataSource, cache.getDataSource(m_driver, "jdbc:mock://host1/db", getProperties("user", "other"), 2));
+        assertNotSame(dataSource, cache.getDataSource(m_driver, "jdbc:mock://host1/db", getProperties("user", "pass"), 4));
+        assertSame(dataSource, cache.getDataSource(m_driver, "jdbc:mock://host1/db", getProperties("user", "pass"), 2));
+        assertEquals(5, cache.getDataSources().size());
+    }
+
+    @Test
+    public void canCloseIdleDataSources() throws Exception {
+        final MockDataSourceCache cache = new MockDataSourceCache(200);
+        final DataSource idle = cache.getDataSource(m_driver, "jdbc:mock://host1/db", getProperties("user", "pass"), 2);
+        Thread.sleep(400);
+
+        // Getting any pool closes the ones which haven't been used in a while
+        final DataSource active = cache.getDataSource(m_driver, "jdbc:mock://host2/db", getProperties("user", "pass"), 2);
+        verify((ClosableDataSource)idle).close();
+        verify((ClosableDataSource)active, never()).close();
+
+        // The closed pool is created again when needed
+        assertNotSame(idle, cache.getDataSource(m_driver, "jdbc:mock://host1/db", getProperties("user", "pass"), 2));
+        assertEquals(3, cache.getDataSources().size());
+    }
+
+    @Test
+    public void canCloseAllDataSources() throws Exception {
+        final MockDataSourceCache cache = new MockDataSourceCache(60000);
+        cache.getDataSource(m_driver, "jdbc:mock://host1/db", getProperties("user", "pass"), 2);
+        cache.getDataSource(m_driver, "jdbc:mock://host2/db", getProperties("user", "pass"), 2);
+        cache.close();
+        for (ClosableDataSource dataSource : cache.getDataSources()) {
+            verify(dataSource).close();
+        }
+    }
+
+    private static Properties getProperties(String user, String password) {
+        final Properties properties = new Properties();
+        properties.setProperty("user", user);
+        properties.setProperty("password", password);
+        return properties;
+    }
+
+    private static class MockDataSourceCache extends JdbcDataSourceCache {
+        private final List<ClosableDataSource> m_dataSources = new ArrayList<>();
+
+        private MockDataSourceCache(long poolIdleTimeout) {
+            super(poolIdleTimeout);
+        }
+
+        @Override
+        protected ClosableDataSource createDataSource(Driver driver, String url, String user, String password, int maxConnections) {
+            final ClosableDataSource dataSource = mock(ClosableDataSource.class);
+            m_dataSources.add(dataSource);
+            return dataSource;
+        }
+
+        public List<ClosableDataSource> getDataSources() {
+            return m_dataSources;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.api;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.RowSortedTable;
+
+/**
+ * The results of a query as primitive columns, used by {@link ColumnarFilter}.
+ *
+ * All of the columns have one value per timestamp, missing values are NaNs.
+ */
+public class ColumnarTable {
+
+    private long[] m_timestamps;
+
+    private final Map<String, double[]> m_columns;
+
+    public ColumnarTable(final long[] timestamps, final Map<String, double[]> columns) {
+        Preconditions.checkNotNull(timestamps, "timestamps argument");
+        Preconditions.checkNotNull(columns, "columns argument");
+        m_timestamps = timestamps;
+        m_columns = Maps.newLinkedHashMap(); // preserve ordering
+        for (Map.Entry<String, double[]> column : columns.entrySet()) {
+            putColumn(column.getKey(), column.getValue());
+        }
+    }
+
+    public int getRowCount() {
+        return m_timestamps.length;
+    }
+
+    public long[] getTimestamps() {
+        return m_timestamps;
+    }
+
+    public Map<String, double[]> getColumns() {
+        return m_columns;
+    }
+
+    public Set<String> getColumnNames() {
+        return m_columns.keySet();
+    }
+
+    public boolean containsColumn(final String name) {
+        return m_columns.containsKey(name);
+    }
+
+    /**
+     * @return the values of the column, or null if there is no such column
+     */
+    public double[] getColumn(final String name) {
+        return m_columns.get(name);
+    }
+
+    /**
+     * Retrieves the values of the given column, adding a column
+     * filled with NaNs if there is no such column.
+     */
+    public double[] getOrCreateColumn(final String name) {
+        double[] values = m_columns.get(name);
+        if (values == null) {
+            values = new double[m_timestamps.length];
+            Arrays.fill(values, Double.NaN);
+            m_columns.put(name, values);
+        }
+        return values;
+    }
+
+    public void putColumn(final String name, final double[] values) {
+        Preconditions.checkArgument(!Filter.TIMESTAMP_COLUMN_NAME.equals(name), "the timestamps are not a column");
+        Preconditions.checkArgument(values.length == m_timestamps.length, "column %s has %s values, expected %s",
+                name, values.length, m_timestamps.length);
+        m_columns.put(name, values);
+    }
+
+    public void removeColumn(final String name) {
+        m_columns.remove(name);
+    }
+
+    /**
+     * Only keeps the rows from the given index, inclusive, to the given index, exclusive.
+     */
+    public void retainRows(final int from, final int to) {
+        Preconditions.checkPositionIndexes(from, to, m_timestamps.length);
+        if (from == 0 && to == m_timestamps.length) {
+            return;
+        }
+        m_timestamps = Arrays.copyOfRange(m_timestamps, from, to);
+        for (Map.Entry<String, double[]> column : m_columns.entrySet()) {
+            column.setValue(Arrays.copyOfRange(column.getValue(), from, to));
+        }
+    }
+
+    /**
+     * Builds a columnar table from the given table, with one row for
+     * every row of the table. Missing values are set to NaN.
+     */
+    public static ColumnarTable fromRowSortedTable(final RowSortedTable<Long, String, Double> table) {
+        final int numRows = table.rowKeySet().size();
+        final long[] timestamps = new long[numRows];
+        final Map<String, double[]> columns = Maps.newLinkedHashMap();
+        for (String columnName : table.columnKeySet()) {
+            if (!Filter.TIMESTAMP_COLUMN_NAME.equals(columnName)) {
+                final double[] values = new double[numRows];
+                Arrays.fill(values, Double.NaN);
+                columns.put(columnName, values);
+            }
+        }
+
+        int k = 0;
+        for (Map<String, Double> row : table.rowMap().values()) {
+            for (Map.Entry<String, Double> cell : row.entrySet()) {
+                if (cell.getValue() == null) {
+                    continue;
+                }
+                if (Filter.TIMESTAMP_COLUMN_NAME.equals(cell.getKey())) {
+                    timestamps[k] = cell.getValue().longValue();
+                } else {
+                    columns.get(cell.getKey())[k] = cell.getValue();
+                }
+            }
+            k++;
+        }
+        return new ColumnarTable(timestamps, columns);
+    }
+
+    /**
+     * Replaces the contents of the given table with the contents of this
+     * one, using the row index as key.
+     *
+     * @param includeTimestamps whether or not to add the timestamp column
+     */
+    public void copyTo(final RowSortedTable<Long, String, Double> table, final boolean includeTimestamps) {
+        table.clear();
+        for (int i = 0; i < m_timestamps.length; i++) {
+            final Long rowKey = Long.valueOf(i);
+            if (includeTimestamps) {
+                table.put(rowKey, Filter.TIMESTAMP_COLUMN_NAME, (double)m_timestamps[i]);
+            }
+            for (Map.Entry<String, double[]> column : m_columns.entrySet()) {
+                table.put(rowKey, column.getKey(), column.getValue()[i]);
+            }
+        }
+    }
+}
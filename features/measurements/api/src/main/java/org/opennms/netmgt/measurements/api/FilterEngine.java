@@ -41,7 +41,7 @@ import org.opennms.netmgt.measurements.model.FilterMetaData;
 import org.springframework.stereotype.Component;
 
 /**
- * Used to apply a series of {@link Filter} to a {@link RowSortedTable}. 
+ * Used to apply a series of {@link Filter} to a {@link RowSortedTable} or to {@link FetchResults}.
  *
  * @author jwhite
  */
@@ -82,6 +82,41 @@ public class FilterEngine {
         }
     }
 
+    /**
+     * Successively applies all of the filters to the given results.
+     *
+     * The {@link ColumnarFilter}s are applied to the columns directly, the results
+     * are only converted to a {@link RowSortedTable} for the other filters.
+     *
+     * @return the filtered results
+     */
+    public FetchResults filter(final List<FilterDef> filterDefinitions, final FetchResults results) throws FilterException {
+        Preconditions.checkNotNull(filterDefinitions, "filterDefinitions argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        ColumnarTable table = new ColumnarTable(results.getTimestamps(), results.getColumns());
+        for (FilterDef filterDef : filterDefinitions) {
+            Filter filter = getFilter(filterDef);
+            if (filter == null) {
+                throw new FilterException("No filter implementation found for {}", filterDef.getName());
+            }
+            try {
+                if (filter instanceof ColumnarFilter) {
+                    ((ColumnarFilter)filter).filter(table);
+                } else {
+                    final RowSortedTable<Long, String, Double> rowSortedTable = new FetchResults(table.getTimestamps(),
+                            table.getColumns(), results.getStep(), results.getConstants()).asRowSortedTable();
+                    filter.filter(rowSortedTable);
+                    final FetchResults filtered = new FetchResults(rowSortedTable, results.getStep(), results.getConstants());
+                    table = new ColumnarTable(filtered.getTimestamps(), filtered.getColumns());
+                }
+            } catch (Throwable t) {
+                throw new FilterException(t, "An error occurred while applying filter {}", t.getMessage());
+            }
+        }
+        return new FetchResults(table.getTimestamps(), table.getColumns(), results.getStep(), results.getConstants());
+    }
+
     /**
      * Retrieves a {@link Filter} that supports the given filter definition.
      *
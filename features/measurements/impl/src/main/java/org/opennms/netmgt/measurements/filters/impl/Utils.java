@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.measurements.filters.impl;
 
+import org.opennms.netmgt.measurements.api.ColumnarTable;
+
 import com.google.common.collect.Table;
 
 /**
@@ -59,4 +61,30 @@ public class Utils {
 
         return limits;
     }
+
+    public static TableLimits getRowsWithValues(ColumnarTable table, String... columnNames) {
+        TableLimits limits = new TableLimits();
+        for (String columnName : columnNames) {
+            double[] values = table.getColumn(columnName);
+            if (values == null) {
+                continue;
+            }
+            int first = 0;
+            while (first < values.length && Double.isNaN(values[first])) {
+                first++;
+            }
+            if (first == values.length) {
+                continue;
+            }
+            int last = values.length - 1;
+            while (Double.isNaN(values[last])) {
+                last--;
+            }
+            if (limits.firstRowWithValues < 0 || first < limits.firstRowWithValues) {
+                limits.firstRowWithValues = first;
+            }
+            limits.lastRowWithValues = Math.max(limits.lastRowWithValues, last);
+        }
+        return limits;
+    }
 }
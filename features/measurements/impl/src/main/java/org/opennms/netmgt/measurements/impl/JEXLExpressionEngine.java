@@ -28,16 +28,24 @@
 
 package org.opennms.netmgt.measurements.impl;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
 import org.apache.commons.jexl2.JexlException;
 import org.apache.commons.jexl2.MapContext;
+import org.opennms.core.expression.CompiledExpression;
+import org.opennms.core.expression.ExpressionCompiler;
 import org.opennms.netmgt.measurements.api.ExpressionEngine;
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
@@ -63,12 +71,23 @@ public class JEXLExpressionEngine implements ExpressionEngine {
      */
     private final JexlEngine jexl = new JexlEngine();
 
+    /**
+     * Names of the values that are added to the context for every query.
+     */
+    private static final Set<String> RESERVED_NAMES = ImmutableSet.of("timestamp", "__inf", "__neg_inf", "NaN", "__diff_time");
+
+    private static final Set<String> INTEGRAL_COLUMNS = ImmutableSet.of("timestamp");
+
+    private static final JexlContext EMPTY_CONTEXT = new MapContext();
+
+    /**
+     * Additional functions, by namespace.
+     */
+    private static final Map<String, Class<?>> FUNCTIONS = ImmutableMap.of("math", Math.class, "strictmath", StrictMath.class);
+
     public JEXLExpressionEngine() {
         // Add additional functions to the engine
-        Map<String, Object> functions = Maps.newHashMap();
-        functions.put("math", Math.class);
-        functions.put("strictmath", StrictMath.class);
-        jexl.setFunctions(functions);
+        jexl.setFunctions(Maps.<String, Object>newHashMap(FUNCTIONS));
     }
 
     /**
@@ -130,9 +149,144 @@ public class JEXLExpressionEngine implements ExpressionEngine {
         // Calculate the time span
         jexlValues.put("__diff_time", numRows < 1 ? 0d : timestamps[numRows-1] - timestamps[0]);
 
-        final double expressionValues[][] = new double[numNonTransientExpression][numRows];
+        final double expressionValues[][] = new double[numNonTransientExpression][];
+
+        if (canEvaluateByColumn(request, results)) {
+            evaluateByColumn(request, expressions, transientFlags, results, jexlValues, context, expressionValues);
+        } else {
+            evaluateByRow(expressions, transientFlags, results, jexlValues, context, expressionValues);
+        }
+
+        // Store the results
+        j = k = 0;
+        for (final String expressionLabel : expressions.keySet()) {
+            if (!transientFlags[j++]) {
+                columns.put(expressionLabel, expressionValues[k++]);
+            }
+        }
+    }
+
+    /**
+     * The expressions can be evaluated column by column, unless they reference
+     * themselves, expressions that follow them, or the labels of the expressions
+     * shadow other values. When evaluated row by row, these would see the values
+     * from the previous row.
+     */
+    private static boolean canEvaluateByColumn(final QueryRequest request, final FetchResults results) {
+        final Set<String> labels = Sets.newHashSet();
+        for (final Expression e : request.getExpressions()) {
+            if (!labels.add(e.getLabel())
+                    || RESERVED_NAMES.contains(e.getLabel())
+                    || results.getColumns().containsKey(e.getLabel())
+                    || results.getConstants().containsKey(e.getLabel())) {
+                return false;
+            }
+        }
+
+        final Set<String> followingLabels = Sets.newHashSet(labels);
+        for (final Expression e : request.getExpressions()) {
+            final Set<String> variables = ExpressionCompiler.getVariables(e.getExpression());
+            if (variables == null || !Collections.disjoint(variables, followingLabels)) {
+                return false;
+            }
+            followingLabels.remove(e.getLabel());
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the expressions one at a time, over all of the rows at once.
+     *
+     * The expressions are compiled with the {@link ExpressionCompiler} that thresholding
+     * uses as well. The expressions that can't be compiled, and the rows where the compiled
+     * expression can't decide the result, are evaluated with JEXL.
+     */
+    private void evaluateByColumn(final QueryRequest request, final Map<String, org.apache.commons.jexl2.Expression> expressions,
+            final boolean transientFlags[], final FetchResults results, final Map<String, Object> jexlValues,
+            final JexlContext context, final double expressionValues[][]) throws ExpressionException {
+        final long timestamps[] = results.getTimestamps();
+        final Map<String, double[]> columns = results.getColumns();
+        final int numRows = timestamps.length;
+
+        final double timestampValues[] = new double[numRows];
+        for (int i = 0; i < numRows; i++) {
+            timestampValues[i] = timestamps[i];
+        }
+
+        // The values that are the same for every row
+        final Map<String, Object> constants = Maps.newHashMap(jexlValues);
+
+        // The columns that can be referenced, the values of expressions are added as they are evaluated
+        final Map<String, double[]> availableColumns = Maps.newHashMap(columns);
+        availableColumns.put("timestamp", timestampValues);
+
+        final ExpressionCompiler compiler = new ExpressionCompiler(this::evaluateLiteral);
+        for (final Map.Entry<String, Class<?>> namespace : FUNCTIONS.entrySet()) {
+            compiler.setNamespace(namespace.getKey(), namespace.getValue());
+        }
+        compiler.setVariables(availableColumns.keySet());
+        compiler.setIntegralVariables(INTEGRAL_COLUMNS);
+        compiler.setConstants(constants);
+
+        int j = 0, k = 0;
+        for (final Expression e : request.getExpressions()) {
+            final org.apache.commons.jexl2.Expression expression = expressions.get(e.getLabel());
+            final CompiledExpression compiled = compiler.compile(e.getExpression());
+
+            final boolean fallback[] = new boolean[numRows];
+            final double values[];
+            if (compiled != null) {
+                final String variables[] = compiled.getVariables();
+                final double variableColumns[][] = new double[variables.length][];
+                for (int i = 0; i < variables.length; i++) {
+                    variableColumns[i] = availableColumns.get(variables[i]);
+                }
+                values = compiled.evaluate(variableColumns, numRows, fallback);
+            } else {
+                LOG.debug("Evaluating expression with label '{}' row by row.", e.getLabel());
+                values = new double[numRows];
+                Arrays.fill(fallback, true);
+            }
+
+            for (int i = 0; i < numRows; i++) {
+                if (!fallback[i]) {
+                    continue;
+                }
+                // Add all of the values from the row to the context, including
+                // the ones from the expressions that were already evaluated
+                jexlValues.put("timestamp", timestamps[i]);
+                for (final String label : availableColumns.keySet()) {
+                    if (!"timestamp".equals(label)) {
+                        jexlValues.put(label, availableColumns.get(label)[i]);
+                    }
+                }
+                values[i] = evaluate(e.getLabel(), expression, context);
+            }
+
+            // Store the results so that they can be referenced by subsequent expressions
+            availableColumns.put(e.getLabel(), values);
+            if (!transientFlags[j++]) {
+                expressionValues[k++] = values;
+            }
+        }
+    }
+
+    /**
+     * Evaluates the expressions row by row, in the same order as which they appeared in the query.
+     */
+    private static void evaluateByRow(final Map<String, org.apache.commons.jexl2.Expression> expressions,
+            final boolean transientFlags[], final FetchResults results, final Map<String, Object> jexlValues,
+            final JexlContext context, final double expressionValues[][]) throws ExpressionException {
+        final long timestamps[] = results.getTimestamps();
+        final Map<String, double[]> columns = results.getColumns();
+        final int numRows = timestamps.length;
+
+        for (int k = 0; k < expressionValues.length; k++) {
+            expressionValues[k] = new double[numRows];
+        }
 
         // Iterate through all of the rows, apply the expressions
+        int j, k;
         for (int i = 0; i < numRows; i++) {
             // Evaluate every expression, in the same order as which they appeared in the query
             j = k = 0;
@@ -147,34 +301,38 @@ public class JEXLExpressionEngine implements ExpressionEngine {
                 }
 
                 // Evaluate the expression
-                try {
-                    Object derived = expressionEntry.getValue().evaluate(context);
-                    double derivedAsDouble = Utils.toDouble(derived);
-
-                    // Only store the values for non-transient expressions
-                    if (!transientFlags[j++]) {
-                        expressionValues[k++][i] = derivedAsDouble;
-                    }
+                double derivedAsDouble = evaluate(expressionEntry.getKey(), expressionEntry.getValue(), context);
 
-                    // Store the result back in the context, so that it can be referenced
-                    // by subsequent expression in the row
-                    jexlValues.put(expressionEntry.getKey(), derivedAsDouble);
-                } catch (NullPointerException|NumberFormatException e) {
-                    throw new ExpressionException(e, "The return value from expression with label '" +
-                            expressionEntry.getKey() + "' could not be cast to a Double.");
-                } catch (JexlException e) {
-                    throw new ExpressionException(e, "Failed to evaluate expression with label '" +
-                            expressionEntry.getKey() + "'.");
+                // Only store the values for non-transient expressions
+                if (!transientFlags[j++]) {
+                    expressionValues[k++][i] = derivedAsDouble;
                 }
+
+                // Store the result back in the context, so that it can be referenced
+                // by subsequent expression in the row
+                jexlValues.put(expressionEntry.getKey(), derivedAsDouble);
             }
         }
+    }
 
-        // Store the results
-        j = k = 0;
-        for (final String expressionLabel : expressions.keySet()) {
-            if (!transientFlags[j++]) {
-                columns.put(expressionLabel, expressionValues[k++]);
-            }
+    private static double evaluate(final String label, final org.apache.commons.jexl2.Expression expression,
+            final JexlContext context) throws ExpressionException {
+        try {
+            Object derived = expression.evaluate(context);
+            return Utils.toDouble(derived);
+        } catch (NullPointerException|NumberFormatException e) {
+            throw new ExpressionException(e, "The return value from expression with label '" +
+                    label + "' could not be cast to a Double.");
+        } catch (JexlException e) {
+            throw new ExpressionException(e, "Failed to evaluate expression with label '" +
+                    label + "'.");
         }
     }
+
+    /**
+     * Uses JEXL to evaluate numeric literals, so that compiled expressions use the same types.
+     */
+    private Object evaluateLiteral(final String literal) {
+        return jexl.createExpression(literal).evaluate(EMPTY_CONTEXT);
+    }
 }
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.filters.impl;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.model.FilterDef;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ColumnarFilterTest extends AnalyticsFilterTest {
+
+    @Test
+    public void canMixColumnarAndTableFilters() throws Exception {
+        final int N = 100;
+        long timestamps[] = new long[N];
+        double xValues[] = new double[N];
+        for (int k = 0; k < N; k++) {
+            timestamps[k] = k * 1000;
+            // Leading and trailing NaNs
+            xValues[k] = k < 10 || k >= 90 ? Double.NaN : k * k;
+        }
+        Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("X", xValues);
+        FetchResults results = new FetchResults(timestamps, columns, 1000, Maps.newHashMap());
+
+        // Chomp and Derivative work on the columns, JEXL on a table
+        results = getFilterEngine().filter(Lists.newArrayList(
+                new FilterDef("Chomp", "stripNaNs", "true"),
+                new FilterDef("JEXL", "expression", "for (k : table.rowKeySet()) {table.put(k, \"Z\", table.get(k, \"X\") * 2);}"),
+                new FilterDef("Derivative", "inputColumn", "Z", "outputColumn", "Y")), results);
+
+        Assert.assertEquals(80, results.getTimestamps().length);
+        Assert.assertEquals(1000, results.getStep());
+        for (int k = 0; k < 80; k++) {
+            final int i = k + 10;
+            Assert.assertEquals(i * 1000, results.getTimestamps()[k]);
+            Assert.assertEquals(i * i, results.getColumns().get("X")[k], 0.0001);
+            Assert.assertEquals(2 * i * i, results.getColumns().get("Z")[k], 0.0001);
+            if (k == 0) {
+                Assert.assertTrue(Double.isNaN(results.getColumns().get("Y")[k]));
+            } else {
+                Assert.assertEquals(2 * (i * i - (i - 1) * (i - 1)), results.getColumns().get("Y")[k], 0.0001);
+            }
+        }
+    }
+
+    @Test
+    public void canChompAllRows() throws Exception {
+        Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("X", new double[] { Double.NaN, Double.NaN });
+        FetchResults results = new FetchResults(new long[] { 0, 1000 }, columns, 1000, Maps.newHashMap());
+
+        results = getFilterEngine().filter(Lists.newArrayList(new FilterDef("Chomp", "stripNaNs", "true")), results);
+
+        Assert.assertEquals(0, results.getTimestamps().length);
+        Assert.assertEquals(0, results.getColumns().get("X").length);
+    }
+}
@@ -32,6 +32,8 @@ import static org.junit.Assert.assertEquals;
 
 import java.util.Map;
 
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.MapContext;
 import org.junit.Test;
 import org.opennms.netmgt.measurements.api.ExpressionEngine;
 import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
@@ -39,6 +41,7 @@ import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.model.Expression;
 import org.opennms.netmgt.measurements.model.QueryRequest;
 import org.opennms.netmgt.measurements.model.Source;
+import org.opennms.netmgt.measurements.utils.Utils;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -384,6 +387,111 @@ public class JEXLExpressionEngineTest {
         assertEquals(99000.0, results[0], 0.0001);
     }
 
+    @Test
+    public void canReferencePreviousExpressions() throws ExpressionException {
+        QueryRequest request = new QueryRequest();
+        Source source = new Source();
+        source.setLabel("x");
+        request.setSources(Lists.newArrayList(source));
+
+        Expression bits = new Expression();
+        bits.setLabel("bits");
+        bits.setExpression("x * 8");
+        bits.setTransient(true);
+        Expression kbits = new Expression();
+        kbits.setLabel("kbits");
+        kbits.setExpression("bits / 1000.0d");
+        Expression mbits = new Expression();
+        mbits.setLabel("mbits");
+        mbits.setExpression("kbits / 1000");
+        request.setExpressions(Lists.newArrayList(bits, kbits, mbits));
+
+        Map<String, double[]> values = Maps.newHashMap();
+        values.put("x", new double[] { 1000, 2000 });
+        FetchResults results = new FetchResults(new long[] { 0, 1000 }, values, 1, Maps.newHashMap());
+        jexlExpressionEngine.applyExpressions(request, results);
+
+        assertEquals(false, results.getColumns().containsKey("bits"));
+        assertEquals(16.0, results.getColumns().get("kbits")[1], DELTA);
+        assertEquals(0.016, results.getColumns().get("mbits")[1], DELTA);
+    }
+
+    /**
+     * The expressions are evaluated over whole columns when possible, verify that
+     * the results match the ones from JEXL, including the edge cases.
+     */
+    @Test
+    public void columnEvaluationMatchesJexl() throws ExpressionException {
+        final double values[] = new double[] { 1.0, -2.5, 0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 42.0 };
+        final String expressions[] = new String[] {
+                "x * 5 + 7",
+                "x / z",
+                "z % x",
+                "-x - z",
+                "(x == NaN) ? z : x",
+                "x != z ? x : 1",
+                "(x < z) || (x >= 1) ? math:max(x, z) : math:min(x, z)",
+                "!(x > 0) && z <= 0 ? strictmath:sqrt(z) : math:pow(x, 2)",
+                "x eq 0 ? 0 : 1.5",
+                "timestamp / 1000.0d + x",
+                "speed / 0.62137 * x",
+                "(x + __inf) * __diff_time",
+        };
+
+        final JexlEngine jexl = new JexlEngine();
+        final Map<String, Object> functions = Maps.newHashMap();
+        functions.put("math", Math.class);
+        functions.put("strictmath", StrictMath.class);
+        jexl.setFunctions(functions);
+
+        for (String expression : expressions) {
+            QueryRequest request = new QueryRequest();
+            Source x = new Source();
+            x.setLabel("x");
+            Source z = new Source();
+            z.setLabel("z");
+            request.setSources(Lists.newArrayList(x, z));
+            Expression exp = new Expression();
+            exp.setLabel("y");
+            exp.setExpression(expression);
+            request.setExpressions(Lists.newArrayList(exp));
+
+            // Every combination of values
+            final int N = values.length * values.length;
+            long timestamps[] = new long[N];
+            double xValues[] = new double[N];
+            double zValues[] = new double[N];
+            for (int i = 0; i < N; i++) {
+                timestamps[i] = i * 1000;
+                xValues[i] = values[i / values.length];
+                zValues[i] = values[i % values.length];
+            }
+            Map<String, double[]> columns = Maps.newHashMap();
+            columns.put("x", xValues);
+            columns.put("z", zValues);
+            Map<String, Object> constants = Maps.newHashMap();
+            constants.put("speed", 65);
+            FetchResults results = new FetchResults(timestamps, columns, 1, constants);
+            jexlExpressionEngine.applyExpressions(request, results);
+            double actual[] = results.getColumns().get("y");
+
+            org.apache.commons.jexl2.Expression jexlExpression = jexl.createExpression(expression);
+            for (int i = 0; i < N; i++) {
+                Map<String, Object> context = Maps.newHashMap();
+                context.put("speed", 65);
+                context.put("__inf", Double.POSITIVE_INFINITY);
+                context.put("NaN", Double.NaN);
+                context.put("__diff_time", (double)(timestamps[N - 1] - timestamps[0]));
+                context.put("timestamp", timestamps[i]);
+                context.put("x", xValues[i]);
+                context.put("z", zValues[i]);
+                double expected = Utils.toDouble(jexlExpression.evaluate(new MapContext(context)));
+                assertEquals(String.format("%s with x=%s and z=%s", expression, xValues[i], zValues[i]),
+                        expected, actual[i], 0.0d);
+            }
+        }
+    }
+
     private double[] performExpression(String expression) throws ExpressionException {
         Map<String, Object> constants = Maps.newHashMap();
         return performExpression(expression, constants);
@@ -28,11 +28,14 @@
 
 package org.opennms.netmgt.newts;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -50,18 +53,20 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 import com.google.common.math.DoubleMath;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lmax.disruptor.BatchEventProcessor;
 import com.lmax.disruptor.EventTranslatorOneArg;
 import com.lmax.disruptor.FatalExceptionHandler;
 import com.lmax.disruptor.RingBuffer;
-import com.lmax.disruptor.WorkHandler;
-import com.lmax.disruptor.WorkerPool;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceReportingEventHandler;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
 
 /**
@@ -70,9 +75,20 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * A single consumer takes the samples off of the ring buffer and merges
+ * them into batches of up to max_batch_size samples, so that many small
+ * lists of samples result in few, larger writes. The batches are written
+ * by a pool of writer threads. The number of concurrent writes is adapted
+ * to the observed write latency by a {@link WriteConcurrencyLimiter}, up to
+ * the configured number of writer threads.
+ *
+ * When the ring buffer is full, the samples are dropped right away, or
+ * after waiting for up to the configured publish timeout for space to
+ * become available.
+ *
  * @author jwhite
  */
-public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
+public class NewtsWriter implements SequenceReportingEventHandler<SampleBatchEvent>, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(NewtsWriter.class);
 
@@ -81,43 +97,81 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
             .maxRate(5).every(Duration.standardSeconds(30))
             .build();
 
+    private static final long PUBLISH_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final long DESTROY_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+
     @Autowired
     private SampleRepository m_sampleRepository;
 
     @Autowired
     private Indexer m_indexer;
 
-    private WorkerPool<SampleBatchEvent> m_workerPool;
+    private BatchEventProcessor<SampleBatchEvent> m_processor;
+
+    private Thread m_dispatcher;
 
     private RingBuffer<SampleBatchEvent> m_ringBuffer;
 
+    /**
+     * Used to release the slots of the ring buffer as soon as their samples
+     * were handed to a writer, instead of at the end of the consumer's batch.
+     */
+    private Sequence m_sequenceCallback;
+
+    private ExecutorService m_writerExecutor;
+
+    private final WriteConcurrencyLimiter m_concurrencyLimiter;
+
     private final int m_maxBatchSize;
 
     private final int m_ringBufferSize;
 
     private final int m_numWriterThreads;
 
+    private final long m_publishTimeoutMs;
+
     private final Meter m_droppedSamples;
 
+    private final Timer m_writeLatency;
+
+    private final Histogram m_batchSizes;
+
+    /**
+     * Samples that were taken off of the ring buffer but are not part of a
+     * full batch yet. Only used by the consumer thread.
+     */
+    private List<Sample> m_pendingInserts = new ArrayList<>();
+
+    private List<Sample> m_pendingIndexes = new ArrayList<>();
+
     /**
      * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
      * of elements that are currently "queued", so we keep track of them with this atomic counter.
      */
     private final AtomicLong m_numEntriesOnRingBuffer = new AtomicLong();
 
+    public NewtsWriter(Integer maxBatchSize, Integer ringBufferSize, Integer numWriterThreads, MetricRegistry registry) {
+        this(maxBatchSize, ringBufferSize, numWriterThreads, 0L, registry);
+    }
+
     @Inject
     public NewtsWriter(@Named("newts.max_batch_size") Integer maxBatchSize, @Named("newts.ring_buffer_size") Integer ringBufferSize,
-            @Named("newts.writer_threads") Integer numWriterThreads, MetricRegistry registry) {
+            @Named("newts.writer_threads") Integer numWriterThreads, @Named("newts.publish_timeout_ms") Long publishTimeoutMs,
+            MetricRegistry registry) {
         Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be strictly positive");
         Preconditions.checkArgument(ringBufferSize > 0, "ringBufferSize must be positive");
         Preconditions.checkArgument(DoubleMath.isMathematicalInteger(Math.log(ringBufferSize) / Math.log(2)), "ringBufferSize must be a power of two");
         Preconditions.checkArgument(numWriterThreads > 0, "numWriterThreads must be positive");
+        Preconditions.checkArgument(publishTimeoutMs >= 0, "publishTimeoutMs must be positive or zero");
         Preconditions.checkNotNull(registry, "metric registry");
 
         m_maxBatchSize = maxBatchSize;
         m_ringBufferSize = ringBufferSize;
         m_numWriterThreads = numWriterThreads;
+        m_publishTimeoutMs = publishTimeoutMs;
         m_numEntriesOnRingBuffer.set(0L);
+        m_concurrencyLimiter = new WriteConcurrencyLimiter(1, m_numWriterThreads);
 
         registry.register(MetricRegistry.name("ring-buffer", "size"),
                 new Gauge<Long>() {
@@ -133,40 +187,62 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                         return Long.valueOf(m_ringBufferSize);
                     }
                 });
+        registry.register(MetricRegistry.name("writer", "concurrency-limit"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return m_concurrencyLimiter.getLimit();
+                    }
+                });
+        registry.register(MetricRegistry.name("writer", "in-flight"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return m_concurrencyLimiter.getInFlight();
+                    }
+                });
 
         m_droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
+        m_writeLatency = registry.timer(MetricRegistry.name("writer", "write-latency"));
+        m_batchSizes = registry.histogram(MetricRegistry.name("writer", "batch-size"));
 
-        LOG.debug("Using max_batch_size: {} and ring_buffer_size: {}", maxBatchSize, m_ringBufferSize);
-        setUpWorkerPool();
+        LOG.debug("Using max_batch_size: {}, ring_buffer_size: {} and publish_timeout_ms: {}", maxBatchSize, m_ringBufferSize, m_publishTimeoutMs);
+        setUpProcessor();
     }
 
-    private void setUpWorkerPool() {
-        // Executor that will be used to construct new threads for consumers
+    private void setUpProcessor() {
+        // Executor that will be used to construct new threads for writers
         final ThreadFactory namedThreadFactory = new ThreadFactoryBuilder()
                 .setNameFormat("NewtsWriter-Consumer-%d").build();
-        final Executor executor = Executors.newCachedThreadPool(namedThreadFactory);
-
-        @SuppressWarnings("unchecked")
-        final WorkHandler<SampleBatchEvent> handlers[] = new WorkHandler[m_numWriterThreads];
-        for (int i = 0; i < m_numWriterThreads; i++) {
-            handlers[i] = this;
-        }
+        m_writerExecutor = Executors.newCachedThreadPool(namedThreadFactory);
 
         m_ringBuffer = RingBuffer.createMultiProducer(SampleBatchEvent::new, m_ringBufferSize);
-        m_workerPool = new WorkerPool<SampleBatchEvent>(
-                m_ringBuffer,
-                m_ringBuffer.newBarrier(),
-                new FatalExceptionHandler(),
-                handlers);
-        m_ringBuffer.addGatingSequences(m_workerPool.getWorkerSequences());
-
-        m_workerPool.start(executor);
+        m_processor = new BatchEventProcessor<SampleBatchEvent>(m_ringBuffer, m_ringBuffer.newBarrier(), this);
+        m_processor.setExceptionHandler(new FatalExceptionHandler());
+        m_ringBuffer.addGatingSequences(m_processor.getSequence());
+
+        m_dispatcher = new ThreadFactoryBuilder()
+                .setNameFormat("NewtsWriter-Dispatcher-%d").setDaemon(true).build().newThread(m_processor);
+        m_dispatcher.start();
     }
 
     @Override
     public void destroy() throws Exception {
-        if (m_workerPool != null) {
-            m_workerPool.drainAndHalt();
+        if (m_processor != null) {
+            // Wait for the consumer to take everything off of the ring buffer, unless it died
+            final long deadline = System.currentTimeMillis() + DESTROY_TIMEOUT_MS;
+            while (m_dispatcher.isAlive() && m_processor.getSequence().get() < m_ringBuffer.getCursor()) {
+                if (System.currentTimeMillis() >= deadline) {
+                    LOG.warn("Timed out waiting for the ring buffer to drain. {} entries will be dropped.", m_numEntriesOnRingBuffer.get());
+                    break;
+                }
+                Thread.sleep(1);
+            }
+            m_processor.halt();
+            if (!m_concurrencyLimiter.awaitIdle(DESTROY_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Timed out waiting for the writer threads to complete.");
+            }
+            m_writerExecutor.shutdown();
         }
     }
 
@@ -180,7 +256,7 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private void pushToRingBuffer(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
         // Add the samples to the ring buffer
-        if (!m_ringBuffer.tryPublishEvent(translator, samples)) {
+        if (!tryPublish(samples, translator)) {
             RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
                     samples.size(), new Object() {
                         @Override
@@ -200,19 +276,87 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         m_numEntriesOnRingBuffer.incrementAndGet();
     }
 
+    private boolean tryPublish(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
+        if (m_ringBuffer.tryPublishEvent(translator, samples)) {
+            return true;
+        }
+        if (m_publishTimeoutMs <= 0) {
+            return false;
+        }
+        // Wait for the consumer to make room, up to the timeout
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_publishTimeoutMs);
+        while (System.nanoTime() < deadline) {
+            LockSupport.parkNanos(PUBLISH_RETRY_NANOS);
+            if (m_ringBuffer.tryPublishEvent(translator, samples)) {
+                return true;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        return false;
+    }
+
     @Override
-    public void onEvent(SampleBatchEvent event) throws Exception {
+    public void setSequenceCallback(Sequence sequenceCallback) {
+        m_sequenceCallback = sequenceCallback;
+    }
+
+    @Override
+    public void onEvent(SampleBatchEvent event, long sequence, boolean endOfBatch) throws Exception {
         // We'd expect the logs from this thread to be in collectd.log
         Logging.putPrefix("collectd");
 
-        List<Sample> samples = event.getSamples();
+        final List<Sample> samples = event.getSamples();
+        final boolean indexOnly = event.isIndexOnly();
+        // Don't hold on to the samples until the slot is reused
+        event.setSamples(null);
         // Decrement our entry counter
         m_numEntriesOnRingBuffer.decrementAndGet();
 
-        // Partition the samples into collections smaller then max_batch_size
-        for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
+        // Merge the samples with those of the previous events into batches of max_batch_size
+        List<Sample> pending = indexOnly ? m_pendingIndexes : m_pendingInserts;
+        pending.addAll(samples);
+        while (pending.size() >= m_maxBatchSize) {
+            final List<Sample> remainder = new ArrayList<>(pending.subList(m_maxBatchSize, pending.size()));
+            pending.subList(m_maxBatchSize, pending.size()).clear();
+            write(pending, indexOnly);
+            pending = remainder;
+        }
+        if (indexOnly) {
+            m_pendingIndexes = pending;
+        } else {
+            m_pendingInserts = pending;
+        }
+
+        // Don't hold back partial batches once the ring buffer has been drained
+        if (endOfBatch) {
+            if (!m_pendingInserts.isEmpty()) {
+                write(m_pendingInserts, false);
+                m_pendingInserts = new ArrayList<>();
+            }
+            if (!m_pendingIndexes.isEmpty()) {
+                write(m_pendingIndexes, true);
+                m_pendingIndexes = new ArrayList<>();
+            }
+        }
+
+        // The samples of the event were merged or handed to a writer, so the slot can be reused
+        m_sequenceCallback.set(sequence);
+    }
+
+    /**
+     * Hands the batch to a writer thread, waiting for one to become available.
+     * While we wait, new samples accumulate on the ring buffer.
+     */
+    private void write(final List<Sample> batch, final boolean indexOnly) throws InterruptedException {
+        m_concurrencyLimiter.acquire();
+        m_batchSizes.update(batch.size());
+        m_writerExecutor.execute(() -> {
+            Logging.putPrefix("collectd");
+            final long start = System.nanoTime();
             try {
-                if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
+                if (indexOnly && !NewtsUtils.DISABLE_INDEXING) {
                     LOG.debug("Indexing {} samples", batch.size());
                     m_indexer.update(batch);
                 } else {
@@ -229,8 +373,12 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
                 }
             } catch (Throwable t) {
                 RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+            } finally {
+                final long latency = System.nanoTime() - start;
+                m_writeLatency.update(latency, TimeUnit.NANOSECONDS);
+                m_concurrencyLimiter.release(latency);
             }
-        }
+        });
     }
 
     private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> TRANSLATOR =
@@ -258,4 +406,9 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     public void setIndexer(Indexer indexer) {
         m_indexer = indexer;
     }
+
+    @VisibleForTesting
+    public WriteConcurrencyLimiter getConcurrencyLimiter() {
+        return m_concurrencyLimiter;
+    }
 }
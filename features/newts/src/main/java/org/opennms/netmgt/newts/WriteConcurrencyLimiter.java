@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Limits the number of concurrent writes to the {@link org.opennms.newts.api.SampleRepository}
+ * and adapts the limit to the observed write latency.
+ *
+ * The limit starts at the maximum. While the smoothed latency stays close to the
+ * lowest latency seen recently and all of the permits are in use, the limit is
+ * increased by one. When the smoothed latency grows well beyond that baseline,
+ * the limit is decreased by a quarter. The limit is changed at most once
+ * per limit writes, so every change gets to show its effect.
+ */
+public class WriteConcurrencyLimiter {
+
+    private static final double SMOOTHING = 0.2;
+    private static final double BASELINE_DRIFT = 0.01;
+    private static final double INCREASE_THRESHOLD = 1.5;
+    private static final double DECREASE_THRESHOLD = 2.0;
+    private static final double DECREASE_FACTOR = 0.75;
+
+    private final int m_minLimit;
+    private final int m_maxLimit;
+
+    private int m_limit;
+    private int m_inFlight = 0;
+    private int m_completedSinceChange = 0;
+    private double m_smoothedLatency = Double.NaN;
+    private double m_baselineLatency = Double.NaN;
+
+    public WriteConcurrencyLimiter(int minLimit, int maxLimit) {
+        Preconditions.checkArgument(minLimit > 0, "minLimit must be strictly positive");
+        Preconditions.checkArgument(maxLimit >= minLimit, "maxLimit must be greater than or equal to minLimit");
+        m_minLimit = minLimit;
+        m_maxLimit = maxLimit;
+        m_limit = maxLimit;
+    }
+
+    /**
+     * Waits until a write may be started.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (m_inFlight >= m_limit) {
+            wait();
+        }
+        m_inFlight++;
+    }
+
+    /**
+     * Records that a write has completed and adjusts the limit.
+     *
+     * @param latencyNanos the time the write took
+     */
+    public synchronized void release(long latencyNanos) {
+        final boolean saturated = m_inFlight >= m_limit;
+        m_inFlight--;
+
+        if (Double.isNaN(m_smoothedLatency)) {
+            m_smoothedLatency = latencyNanos;
+            m_baselineLatency = latencyNanos;
+        } else {
+            m_smoothedLatency += SMOOTHING * (latencyNanos - m_smoothedLatency);
+            // Let the baseline follow the latency up slowly, so we adapt to a cluster that has become slower for good
+            m_baselineLatency = Math.min(latencyNanos, m_baselineLatency + BASELINE_DRIFT * (m_smoothedLatency - m_baselineLatency));
+        }
+
+        if (++m_completedSinceChange >= m_limit) {
+            if (m_smoothedLatency > DECREASE_THRESHOLD * m_baselineLatency && m_limit > m_minLimit) {
+                m_limit = Math.max(m_minLimit, (int) (m_limit * DECREASE_FACTOR));
+                m_completedSinceChange = 0;
+            } else if (saturated && m_smoothedLatency <= INCREASE_THRESHOLD * m_baselineLatency && m_limit < m_maxLimit) {
+                m_limit++;
+                m_completedSinceChange = 0;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Waits until all of the writes have completed.
+     *
+     * @return false if there were still writes in flight when the timeout expired
+     */
+    public synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (m_inFlight > 0) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    public synchronized int getLimit() {
+        return m_limit;
+    }
+
+    public synchronized int getInFlight() {
+        return m_inFlight;
+    }
+}
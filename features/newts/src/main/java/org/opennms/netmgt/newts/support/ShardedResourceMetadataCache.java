@@ -0,0 +1,747 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.cassandra.search.ResourceIdSplitter;
+import org.opennms.newts.cassandra.search.ResourceMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * A searchable cache for the {@link org.opennms.newts.cassandra.search.ResourceMetadata} that is
+ * bounded by its estimated size in memory instead of by the number of entries.
+ *
+ * Resource ids are split into their elements and every distinct element is only stored once, so
+ * a resource id is kept as an array of ints. The metadata is stored serialized with FST, like in
+ * the {@link RedisResourceMetadataCache}, in a fixed number of shards. Each shard is an open
+ * addressing hash table keyed by a 64-bit hash of the encoded resource id, with the entries held
+ * in parallel arrays. When a shard grows beyond its share of the memory bound, entries are evicted
+ * in CLOCK order. The most recently used metadata of each shard is also kept deserialized, so the
+ * indexer doesn't deserialize the metadata for every sample of the same resource.
+ *
+ * Searching by prefix is supported by a tree of the resource id elements, where the last element
+ * of every resource id is stored in a sorted array of its parent.
+ *
+ * The elements are shared by many resources, so the dictionary counts the entries that use every
+ * element and only removes it along with the last one. The size of the dictionary is part of the
+ * memory bound, every shard accounts for its share of it.
+ */
+public class ShardedResourceMetadataCache implements SearchableResourceMetadataCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedResourceMetadataCache.class);
+
+    private static final FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+
+    private static final int NUM_SHARDS = 16;
+
+    /**
+     * Rough size of the bookkeeping for one entry: the slots in the hash table, the hash,
+     * the references to the key and the value and the object headers of both arrays.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 80;
+
+    private final ResourceIdSplitter m_resourceIdSplitter;
+    private final SegmentDictionary m_dictionary = new SegmentDictionary();
+    private final PrefixIndex m_prefixIndex = new PrefixIndex();
+    private final Shard[] m_shards = new Shard[NUM_SHARDS];
+    private final long m_maxBytes;
+    private final Meter m_evictions;
+
+    @Inject
+    public ShardedResourceMetadataCache(@Named("search.resourceMetadata.maxCacheBytes") Long maxBytes, MetricRegistry registry, ResourceIdSplitter resourceIdSplitter) {
+        Preconditions.checkArgument(maxBytes > 0, "maxBytes must be strictly positive");
+        Preconditions.checkNotNull(registry, "registry argument");
+        m_resourceIdSplitter = Preconditions.checkNotNull(resourceIdSplitter, "resourceIdSplitter argument");
+        m_maxBytes = maxBytes;
+
+        LOG.info("Initializing resource metadata cache ({} max bytes)", maxBytes);
+        for (int i = 0; i < NUM_SHARDS; i++) {
+            m_shards[i] = new Shard(maxBytes / NUM_SHARDS);
+        }
+
+        m_evictions = registry.meter(MetricRegistry.name("cache", "evictions"));
+        registry.register(MetricRegistry.name("cache", "size"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return size();
+                    }
+                });
+        registry.register(MetricRegistry.name("cache", "bytes"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return getEstimatedBytes();
+                    }
+                });
+        registry.register(MetricRegistry.name("cache", "max-bytes"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return m_maxBytes;
+                    }
+                });
+        registry.register(MetricRegistry.name("cache", "segments"),
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        return m_dictionary.size();
+                    }
+                });
+    }
+
+    @Override
+    public Optional<ResourceMetadata> get(Context context, Resource resource) {
+        final int[] key = lookupKey(context.getId(), resource.getId());
+        if (key == null) {
+            return Optional.absent();
+        }
+        final ResourceMetadata metadata = shardFor(key).get(key);
+        return (metadata != null) ? Optional.of(metadata) : Optional.absent();
+    }
+
+    @Override
+    public void merge(Context context, Resource resource, ResourceMetadata metadata) {
+        final int[] key = internKey(context.getId(), resource.getId());
+        if (!shardFor(key).merge(key, metadata)) {
+            // The entry already holds the elements of its key
+            m_dictionary.release(key);
+        }
+    }
+
+    @Override
+    public void delete(Context context, Resource resource) {
+        final int[] key = lookupKey(context.getId(), resource.getId());
+        if (key != null) {
+            shardFor(key).delete(key);
+        }
+    }
+
+    @Override
+    public List<String> getResourceIdsWithPrefix(Context context, String resourceIdPrefix) {
+        final int[] prefix = lookupKey(context.getId(), resourceIdPrefix);
+        if (prefix == null) {
+            return Collections.emptyList();
+        }
+        final List<String> resourceIds = new ArrayList<>();
+        for (int[] key : m_prefixIndex.getKeysStartingWith(prefix)) {
+            final List<String> elements = new ArrayList<>(key.length - 1);
+            for (int i = 1; i < key.length; i++) {
+                final String element = m_dictionary.getSegment(key[i]);
+                if (element == null) {
+                    // The entry was removed in the meantime
+                    break;
+                }
+                elements.add(element);
+            }
+            if (elements.size() == key.length - 1) {
+                resourceIds.add(m_resourceIdSplitter.joinElementsToId(elements));
+            }
+        }
+        return resourceIds;
+    }
+
+    public long size() {
+        long size = 0;
+        for (Shard shard : m_shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public long getEstimatedBytes() {
+        long bytes = m_dictionary.bytes();
+        for (Shard shard : m_shards) {
+            bytes += shard.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes the resource id without adding new elements to the dictionary.
+     *
+     * @return the key, or null if one of the elements is unknown, in which case
+     *         no resource with this id or prefix can be in the cache
+     */
+    private int[] lookupKey(String contextId, String resourceId) {
+        final List<String> elements = m_resourceIdSplitter.splitIdIntoElements(resourceId);
+        final int[] key = new int[elements.size() + 1];
+        key[0] = m_dictionary.lookup(contextId);
+        if (key[0] < 0) {
+            return null;
+        }
+        for (int i = 0; i < elements.size(); i++) {
+            key[i + 1] = m_dictionary.lookup(elements.get(i));
+            if (key[i + 1] < 0) {
+                return null;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Encodes the resource id, adding the elements to the dictionary as needed. The elements are
+     * referenced by the returned key, which must either be stored in an entry or released.
+     */
+    private int[] internKey(String contextId, String resourceId) {
+        final List<String> elements = m_resourceIdSplitter.splitIdIntoElements(resourceId);
+        final int[] key = new int[elements.size() + 1];
+        key[0] = m_dictionary.intern(contextId);
+        for (int i = 0; i < elements.size(); i++) {
+            key[i + 1] = m_dictionary.intern(elements.get(i));
+        }
+        return key;
+    }
+
+    private Shard shardFor(int[] key) {
+        return m_shards[(int) (hash(key) >>> 60)];
+    }
+
+    private static long hash(int[] key) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (int k : key) {
+            h = (h ^ k) * 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 32;
+        }
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 29);
+    }
+
+    private static long estimateBytes(int[] key, byte[] value) {
+        return ENTRY_OVERHEAD_BYTES + 4L * key.length + value.length;
+    }
+
+    /**
+     * Assigns a unique int to every element of the resource ids, for as long as
+     * there are keys that reference it.
+     */
+    private static class SegmentDictionary {
+        /**
+         * Rough size of one element besides its characters: the String and its array,
+         * the map node and the reference count.
+         */
+        private static final int SEGMENT_OVERHEAD_BYTES = 120;
+
+        private static class Segment {
+            private final int m_id;
+            // Zero once the segment is being removed, guarded by the dictionary when it is or was zero
+            private final AtomicInteger m_references = new AtomicInteger(1);
+
+            private Segment(int id) {
+                m_id = id;
+            }
+        }
+
+        private final ConcurrentMap<String, Segment> m_ids = new ConcurrentHashMap<>();
+        private volatile String[] m_segments = new String[1024];
+        private int[] m_freeIds = new int[0];
+        private int m_freeCount = 0;
+        private int m_nextId = 0;
+        private int m_size = 0;
+        private final AtomicLong m_bytes = new AtomicLong();
+
+        public int lookup(String segment) {
+            final Segment entry = m_ids.get(segment);
+            return entry != null ? entry.m_id : -1;
+        }
+
+        /**
+         * Adds a reference to the segment, adding it to the dictionary if needed.
+         */
+        public int intern(String segment) {
+            final Segment entry = m_ids.get(segment);
+            if (entry != null) {
+                for (int references = entry.m_references.get(); references > 0; references = entry.m_references.get()) {
+                    if (entry.m_references.compareAndSet(references, references + 1)) {
+                        return entry.m_id;
+                    }
+                }
+            }
+            synchronized (this) {
+                final Segment existing = m_ids.get(segment);
+                if (existing != null) {
+                    // Keep it, even if its last reference was just released
+                    existing.m_references.incrementAndGet();
+                    return existing.m_id;
+                }
+                final int newId;
+                if (m_freeCount > 0) {
+                    newId = m_freeIds[--m_freeCount];
+                } else {
+                    if (m_nextId == m_segments.length) {
+                        m_segments = Arrays.copyOf(m_segments, m_nextId * 2);
+                    }
+                    newId = m_nextId++;
+                }
+                m_segments[newId] = segment;
+                m_size++;
+                m_bytes.addAndGet(estimateBytes(segment));
+                // Only publish the id once the segment can be resolved
+                m_ids.put(segment, new Segment(newId));
+                return newId;
+            }
+        }
+
+        /**
+         * Releases one reference to each of the elements of the key.
+         */
+        public void release(int[] key) {
+            for (int id : key) {
+                final String segment = m_segments[id];
+                final Segment entry = m_ids.get(segment);
+                if (entry.m_references.decrementAndGet() == 0) {
+                    remove(segment, entry);
+                }
+            }
+        }
+
+        private synchronized void remove(String segment, Segment entry) {
+            // The segment may have been interned again, or removed by the release that followed it
+            if (entry.m_references.get() != 0 || !m_ids.remove(segment, entry)) {
+                return;
+            }
+            m_segments[entry.m_id] = null;
+            if (m_freeCount == m_freeIds.length) {
+                m_freeIds = Arrays.copyOf(m_freeIds, Math.max(16, m_freeCount * 2));
+            }
+            m_freeIds[m_freeCount++] = entry.m_id;
+            m_size--;
+            m_bytes.addAndGet(-estimateBytes(segment));
+        }
+
+        public String getSegment(int id) {
+            return m_segments[id];
+        }
+
+        public synchronized int size() {
+            return m_size;
+        }
+
+        public long bytes() {
+            return m_bytes.get();
+        }
+
+        private static long estimateBytes(String segment) {
+            return SEGMENT_OVERHEAD_BYTES + 2L * segment.length();
+        }
+    }
+
+    /**
+     * A tree of the encoded resource ids. Every node has the last elements of the keys
+     * that end right below it, and the nodes for the keys that continue, in sorted arrays.
+     */
+    private static class PrefixIndex {
+        private static final int[] NO_INTS = new int[0];
+        private static final Node[] NO_NODES = new Node[0];
+
+        private static class Node {
+            private int[] m_leaves = NO_INTS;
+            private int m_leafCount = 0;
+            private int[] m_childSegments = NO_INTS;
+            private Node[] m_children = NO_NODES;
+            private int m_childCount = 0;
+
+            private Node getChild(int segment) {
+                final int idx = Arrays.binarySearch(m_childSegments, 0, m_childCount, segment);
+                return idx >= 0 ? m_children[idx] : null;
+            }
+
+            private Node getOrCreateChild(int segment) {
+                int idx = Arrays.binarySearch(m_childSegments, 0, m_childCount, segment);
+                if (idx >= 0) {
+                    return m_children[idx];
+                }
+                idx = -(idx + 1);
+                if (m_childCount == m_childSegments.length) {
+                    final int capacity = Math.max(2, m_childCount * 2);
+                    m_childSegments = Arrays.copyOf(m_childSegments, capacity);
+                    m_children = Arrays.copyOf(m_children, capacity);
+                }
+                System.arraycopy(m_childSegments, idx, m_childSegments, idx + 1, m_childCount - idx);
+                System.arraycopy(m_children, idx, m_children, idx + 1, m_childCount - idx);
+                final Node child = new Node();
+                m_childSegments[idx] = segment;
+                m_children[idx] = child;
+                m_childCount++;
+                return child;
+            }
+
+            private void removeChild(int segment) {
+                final int idx = Arrays.binarySearch(m_childSegments, 0, m_childCount, segment);
+                if (idx >= 0) {
+                    System.arraycopy(m_childSegments, idx + 1, m_childSegments, idx, m_childCount - idx - 1);
+                    System.arraycopy(m_children, idx + 1, m_children, idx, m_childCount - idx - 1);
+                    m_childCount--;
+                    m_children[m_childCount] = null;
+                }
+            }
+
+            private boolean hasLeaf(int segment) {
+                return Arrays.binarySearch(m_leaves, 0, m_leafCount, segment) >= 0;
+            }
+
+            private void addLeaf(int segment) {
+                int idx = Arrays.binarySearch(m_leaves, 0, m_leafCount, segment);
+                if (idx >= 0) {
+                    return;
+                }
+                idx = -(idx + 1);
+                if (m_leafCount == m_leaves.length) {
+                    m_leaves = Arrays.copyOf(m_leaves, Math.max(2, m_leafCount * 2));
+                }
+                System.arraycopy(m_leaves, idx, m_leaves, idx + 1, m_leafCount - idx);
+                m_leaves[idx] = segment;
+                m_leafCount++;
+            }
+
+            private void removeLeaf(int segment) {
+                final int idx = Arrays.binarySearch(m_leaves, 0, m_leafCount, segment);
+                if (idx >= 0) {
+                    System.arraycopy(m_leaves, idx + 1, m_leaves, idx, m_leafCount - idx - 1);
+                    m_leafCount--;
+                }
+            }
+
+            private boolean isEmpty() {
+                return m_leafCount == 0 && m_childCount == 0;
+            }
+        }
+
+        private final Node m_root = new Node();
+
+        public synchronized void add(int[] key) {
+            Node node = m_root;
+            for (int i = 0; i < key.length - 1; i++) {
+                node = node.getOrCreateChild(key[i]);
+            }
+            node.addLeaf(key[key.length - 1]);
+        }
+
+        public synchronized void remove(int[] key) {
+            final Node[] path = new Node[key.length];
+            Node node = m_root;
+            for (int i = 0; i < key.length - 1; i++) {
+                path[i] = node;
+                node = node.getChild(key[i]);
+                if (node == null) {
+                    return;
+                }
+            }
+            node.removeLeaf(key[key.length - 1]);
+            // Prune the nodes that no longer lead to any key
+            for (int i = key.length - 2; i >= 0 && node.isEmpty(); i--) {
+                path[i].removeChild(key[i]);
+                node = path[i];
+            }
+        }
+
+        public synchronized List<int[]> getKeysStartingWith(int[] prefix) {
+            final List<int[]> keys = new ArrayList<>();
+            Node parent = m_root;
+            for (int i = 0; i < prefix.length - 1 && parent != null; i++) {
+                parent = parent.getChild(prefix[i]);
+            }
+            if (parent == null) {
+                return keys;
+            }
+            final int last = prefix[prefix.length - 1];
+            if (parent.hasLeaf(last)) {
+                keys.add(prefix);
+            }
+            final Node node = parent.getChild(last);
+            if (node != null) {
+                collect(node, prefix, keys);
+            }
+            return keys;
+        }
+
+        private static void collect(Node node, int[] prefix, List<int[]> keys) {
+            for (int i = 0; i < node.m_leafCount; i++) {
+                final int[] key = Arrays.copyOf(prefix, prefix.length + 1);
+                key[prefix.length] = node.m_leaves[i];
+                keys.add(key);
+            }
+            for (int i = 0; i < node.m_childCount; i++) {
+                final int[] childPrefix = Arrays.copyOf(prefix, prefix.length + 1);
+                childPrefix[prefix.length] = node.m_childSegments[i];
+                collect(node.m_children[i], childPrefix, keys);
+            }
+        }
+    }
+
+    /**
+     * One part of the cache, all access is synchronized on the shard.
+     */
+    private class Shard {
+        private static final int HOT_SIZE = 64;
+
+        private final long m_maxBytes;
+
+        // Open addressing table with linear probing, holds the entry index + 1 and 0 for free slots
+        private int[] m_table = new int[64];
+
+        // The entries, a free entry has no key
+        private long[] m_hashes = new long[32];
+        private int[][] m_keys = new int[32][];
+        private byte[][] m_values = new byte[32][];
+        private boolean[] m_referenced = new boolean[32];
+        private int[] m_freeEntries = new int[32];
+        private int m_freeCount = 0;
+        private int m_entryCount = 0;
+
+        // Deserialized metadata of recently used entries, indexed by hash
+        private final int[] m_hotEntries = new int[HOT_SIZE];
+        private final ResourceMetadata[] m_hotValues = new ResourceMetadata[HOT_SIZE];
+
+        private int m_size = 0;
+        private long m_bytes = 0;
+        private int m_clockHand = 0;
+
+        private Shard(long maxBytes) {
+            m_maxBytes = maxBytes;
+        }
+
+        public synchronized ResourceMetadata get(int[] key) {
+            final long hash = hash(key);
+            final int slot = findSlot(hash, key);
+            if (m_table[slot] == 0) {
+                return null;
+            }
+            final int entry = m_table[slot] - 1;
+            m_referenced[entry] = true;
+            return getValue(entry, hash);
+        }
+
+        /**
+         * @return true if a new entry was added for the key
+         */
+        public synchronized boolean merge(int[] key, ResourceMetadata metadata) {
+            final long hash = hash(key);
+            final int slot = findSlot(hash, key);
+            if (m_table[slot] == 0) {
+                final ResourceMetadata newMetadata = new ResourceMetadata();
+                newMetadata.merge(metadata);
+                final int entry = insert(slot, hash, key, conf.asByteArray(newMetadata));
+                setHot(entry, hash, newMetadata);
+                m_prefixIndex.add(key);
+                evictIfNeeded(entry);
+                return true;
+            }
+
+            final int entry = m_table[slot] - 1;
+            m_referenced[entry] = true;
+            final ResourceMetadata existing = getValue(entry, hash);
+            if (existing.merge(metadata)) {
+                // Update the value stored in the cache if it was changed as a result of the merge
+                final byte[] value = conf.asByteArray(existing);
+                m_bytes += value.length - m_values[entry].length;
+                m_values[entry] = value;
+                evictIfNeeded(entry);
+            }
+            return false;
+        }
+
+        public synchronized void delete(int[] key) {
+            final long hash = hash(key);
+            final int slot = findSlot(hash, key);
+            if (m_table[slot] != 0) {
+                remove(slot);
+            }
+        }
+
+        public synchronized int size() {
+            return m_size;
+        }
+
+        public synchronized long bytes() {
+            return m_bytes;
+        }
+
+        private ResourceMetadata getValue(int entry, long hash) {
+            final int hot = (int) hash & (HOT_SIZE - 1);
+            if (m_hotEntries[hot] == entry + 1) {
+                return m_hotValues[hot];
+            }
+            final ResourceMetadata metadata = (ResourceMetadata) conf.asObject(m_values[entry]);
+            setHot(entry, hash, metadata);
+            return metadata;
+        }
+
+        private void setHot(int entry, long hash, ResourceMetadata metadata) {
+            final int hot = (int) hash & (HOT_SIZE - 1);
+            m_hotEntries[hot] = entry + 1;
+            m_hotValues[hot] = metadata;
+        }
+
+        /**
+         * @return the slot that holds the key, or the free slot where it would be inserted
+         */
+        private int findSlot(long hash, int[] key) {
+            final int mask = m_table.length - 1;
+            int slot = home(hash, mask);
+            while (m_table[slot] != 0) {
+                final int entry = m_table[slot] - 1;
+                if (m_hashes[entry] == hash && Arrays.equals(m_keys[entry], key)) {
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private int home(long hash, int mask) {
+            // The top bits select the shard, use the lower ones here
+            return (int) hash & mask;
+        }
+
+        private int insert(int slot, long hash, int[] key, byte[] value) {
+            final int entry;
+            if (m_freeCount > 0) {
+                entry = m_freeEntries[--m_freeCount];
+            } else {
+                if (m_entryCount == m_keys.length) {
+                    final int capacity = m_entryCount * 2;
+                    m_hashes = Arrays.copyOf(m_hashes, capacity);
+                    m_keys = Arrays.copyOf(m_keys, capacity);
+                    m_values = Arrays.copyOf(m_values, capacity);
+                    m_referenced = Arrays.copyOf(m_referenced, capacity);
+                    m_freeEntries = Arrays.copyOf(m_freeEntries, capacity);
+                }
+                entry = m_entryCount++;
+            }
+            m_hashes[entry] = hash;
+            m_keys[entry] = key;
+            m_values[entry] = value;
+            m_referenced[entry] = true;
+            m_table[slot] = entry + 1;
+            m_size++;
+            m_bytes += estimateBytes(key, value);
+
+            // Keep the table at most half full
+            if (m_size * 2 > m_table.length) {
+                rehash(m_table.length * 2);
+            }
+            return entry;
+        }
+
+        private void rehash(int capacity) {
+            m_table = new int[capacity];
+            final int mask = capacity - 1;
+            for (int entry = 0; entry < m_entryCount; entry++) {
+                if (m_keys[entry] == null) {
+                    continue;
+                }
+                int slot = home(m_hashes[entry], mask);
+                while (m_table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                m_table[slot] = entry + 1;
+            }
+        }
+
+        private void remove(int slot) {
+            final int entry = m_table[slot] - 1;
+            final int[] key = m_keys[entry];
+            m_bytes -= estimateBytes(key, m_values[entry]);
+            m_size--;
+            m_keys[entry] = null;
+            m_values[entry] = null;
+            m_freeEntries[m_freeCount++] = entry;
+            final int hot = (int) m_hashes[entry] & (HOT_SIZE - 1);
+            if (m_hotEntries[hot] == entry + 1) {
+                m_hotEntries[hot] = 0;
+                m_hotValues[hot] = null;
+            }
+            m_prefixIndex.remove(key);
+            m_dictionary.release(key);
+
+            // Shift the following slots back, so that lookups don't stop at the freed slot
+            final int mask = m_table.length - 1;
+            int free = slot;
+            int next = slot;
+            m_table[free] = 0;
+            while (true) {
+                next = (next + 1) & mask;
+                if (m_table[next] == 0) {
+                    return;
+                }
+                final int home = home(m_hashes[m_table[next] - 1], mask);
+                final boolean inRange = free <= next ? free < home && home <= next : free < home || home <= next;
+                if (!inRange) {
+                    m_table[free] = m_table[next];
+                    m_table[next] = 0;
+                    free = next;
+                }
+            }
+        }
+
+        /**
+         * Evicts entries in CLOCK order until the shard and its share of the dictionary fit
+         * into its share of the memory, without evicting the entry that was just written.
+         */
+        private void evictIfNeeded(int keep) {
+            while (m_bytes + m_dictionary.bytes() / NUM_SHARDS > m_maxBytes && m_size > 1) {
+                if (m_clockHand >= m_entryCount) {
+                    m_clockHand = 0;
+                }
+                final int entry = m_clockHand++;
+                if (m_keys[entry] == null || entry == keep) {
+                    continue;
+                }
+                if (m_referenced[entry]) {
+                    m_referenced[entry] = false;
+                    continue;
+                }
+                remove(findSlot(m_hashes[entry], m_keys[entry]));
+                m_evictions.mark();
+            }
+        }
+    }
+}
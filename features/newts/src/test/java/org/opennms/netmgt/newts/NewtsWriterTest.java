@@ -29,11 +29,14 @@
 package org.opennms.netmgt.newts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.junit.Test;
@@ -49,6 +52,8 @@ import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.SampleSelectCallback;
 import org.opennms.newts.api.Timestamp;
 import org.opennms.newts.api.query.ResultDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Optional;
@@ -57,6 +62,8 @@ import com.google.common.collect.Lists;
 
 public class NewtsWriterTest {
 
+    private static final Logger LOG = LoggerFactory.getLogger(NewtsWriterTest.class);
+
     /**
      * Uses a latch to verify that multiple that multiple threads
      * are used to concurrently insert samples into the SampleRepository.
@@ -104,8 +111,10 @@ public class NewtsWriterTest {
         Thread.sleep(250);
         assertEquals(numWriterThreads, sampleRepo.getNumThreadsLocked());
 
-        // Attempt to insert another batch of samples
-        for (int i = 0; i < 8; i++) {
+        // Attempt to insert another batch of samples, only the slots of the samples
+        // which were handed to the writer threads are available again
+        int numExtraSamples = numWriterThreads * 2;
+        for (int i = 0; i < numExtraSamples; i++) {
             Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
             writer.insert(Lists.newArrayList(s));
         };
@@ -114,9 +123,145 @@ public class NewtsWriterTest {
         lock.unlock();
         writer.destroy();
 
-        // Verify the number of inserted samples
+        // Verify the number of inserted and dropped samples
         assertEquals(0, sampleRepo.getNumThreadsLocked());
-        assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
+        assertEquals(ringBufferSize + numWriterThreads, sampleRepo.getNumSamplesInserted());
+        assertEquals(numExtraSamples - numWriterThreads, registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples")).getCount());
+    }
+
+    /**
+     * Verifies that many small lists of samples are merged into
+     * batches of up to max_batch_size samples without losing any.
+     */
+    @Test
+    public void smallSampleListsAreMergedIntoLargerBatches() throws Exception {
+        int maxBatchSize = 16;
+        int numSampleLists = 2000;
+
+        Lock lock = new ReentrantLock();
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(maxBatchSize, 4096, 1, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        // Hold the only writer thread so the lists pile up on the ring buffer
+        lock.lock();
+        Resource x = new Resource("x");
+        for (int i = 0; i < numSampleLists; i++) {
+            writer.insert(Lists.newArrayList(
+                    new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i)),
+                    new Sample(Timestamp.now(), x, "z", MetricType.COUNTER, new Counter(i))));
+        }
+        lock.unlock();
+        writer.destroy();
+
+        assertEquals(numSampleLists * 2, sampleRepo.getNumSamplesInserted());
+        assertTrue(sampleRepo.getMaxBatchSize() <= maxBatchSize);
+        // Apart from the first write, everything was queued up behind it and should be merged
+        assertTrue(sampleRepo.getNumBatchesInserted() < numSampleLists / 4);
+        assertEquals(sampleRepo.getNumBatchesInserted(), registry.histogram(MetricRegistry.name("writer", "batch-size")).getCount());
+        assertEquals(sampleRepo.getNumBatchesInserted(), registry.timer(MetricRegistry.name("writer", "write-latency")).getCount());
+    }
+
+    /**
+     * Verifies that callers wait for room in the ring buffer, instead of
+     * dropping samples right away, when a publish timeout is set.
+     */
+    @Test
+    public void insertWaitsForRoomWhenPublishTimeoutIsSet() throws Exception {
+        Resource x = new Resource("x");
+        int ringBufferSize = 8;
+
+        Lock lock = new ReentrantLock();
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(1, ringBufferSize, 1, 10000L, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        // Release the writer thread while the producer is waiting
+        lock.lock();
+        new Thread(() -> {
+            try {
+                Thread.sleep(250);
+            } catch (InterruptedException e) {
+                // pass
+            }
+            lock.unlock();
+        }).start();
+
+        for (int i = 0; i < ringBufferSize * 4; i++) {
+            Sample s = new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i));
+            writer.insert(Lists.newArrayList(s));
+        }
+        writer.destroy();
+
+        assertEquals(0, registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples")).getCount());
+        assertEquals(ringBufferSize * 4, sampleRepo.getNumSamplesInserted());
+    }
+
+    /**
+     * Compares the throughput of small sample lists when the writes
+     * have a fixed cost, as they do with Cassandra, against an in-process
+     * repository.
+     */
+    @Test
+    public void canMergeSamplesUnderLoad() throws Exception {
+        int numSampleLists = 20000;
+        DelayedSampleRepository sampleRepo = new DelayedSampleRepository(TimeUnit.MICROSECONDS.toNanos(500));
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(16, 8192, 4, 60000L, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        Resource x = new Resource("x");
+        long start = System.nanoTime();
+        for (int i = 0; i < numSampleLists; i++) {
+            writer.insert(Lists.newArrayList(new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i))));
+        }
+        writer.destroy();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(numSampleLists, sampleRepo.getNumSamplesInserted());
+        assertEquals(0, registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples")).getCount());
+        LOG.info("Inserted {} samples in {} batches in {}ms, average batch size: {}, write concurrency limit: {}",
+                numSampleLists, sampleRepo.getNumBatchesInserted(), elapsedMs,
+                registry.histogram(MetricRegistry.name("writer", "batch-size")).getSnapshot().getMean(),
+                writer.getConcurrencyLimiter().getLimit());
+    }
+
+    @Test
+    public void concurrencyLimitAdaptsToLatency() throws Exception {
+        WriteConcurrencyLimiter limiter = new WriteConcurrencyLimiter(1, 8);
+        assertEquals(8, limiter.getLimit());
+
+        // Steady latency while saturated keeps the limit at the maximum
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < limiter.getLimit(); j++) {
+                limiter.acquire();
+            }
+            for (int j = limiter.getInFlight(); j > 0; j--) {
+                limiter.release(1000);
+            }
+        }
+        assertEquals(8, limiter.getLimit());
+
+        // The limit goes down when the latency grows
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(100000);
+        }
+        assertEquals(1, limiter.getLimit());
+
+        // And back up once the latency recovers and the writers are saturated
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j < limiter.getLimit(); j++) {
+                limiter.acquire();
+            }
+            for (int j = limiter.getInFlight(); j > 0; j--) {
+                limiter.release(1000);
+            }
+        }
+        assertEquals(8, limiter.getLimit());
+        assertTrue(limiter.awaitIdle(1, TimeUnit.SECONDS));
     }
 
     private static class LatchedSampleRepository extends MockSampleRepository {
@@ -141,6 +286,8 @@ public class NewtsWriterTest {
         private final Lock lock;
         private final AtomicInteger numThreadsLocked = new AtomicInteger(0);
         private final AtomicInteger numSamplesInserted = new AtomicInteger(0);
+        private final AtomicInteger numBatchesInserted = new AtomicInteger(0);
+        private final AtomicInteger maxBatchSize = new AtomicInteger(0);
 
         public LockedSampleRepository(Lock lock) {
             this.lock = lock;
@@ -151,6 +298,8 @@ public class NewtsWriterTest {
             numThreadsLocked.incrementAndGet();
             lock.lock();
             numSamplesInserted.addAndGet(samples.size());
+            numBatchesInserted.incrementAndGet();
+            maxBatchSize.accumulateAndGet(samples.size(), Math::max);
             lock.unlock();
             numThreadsLocked.decrementAndGet();
         }
@@ -162,6 +311,39 @@ public class NewtsWriterTest {
         public int getNumSamplesInserted() {
             return numSamplesInserted.get();
         }
+
+        public int getNumBatchesInserted() {
+            return numBatchesInserted.get();
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize.get();
+        }
+    }
+
+    private static class DelayedSampleRepository extends MockSampleRepository {
+        private final long delayNanos;
+        private final AtomicInteger numSamplesInserted = new AtomicInteger(0);
+        private final AtomicInteger numBatchesInserted = new AtomicInteger(0);
+
+        public DelayedSampleRepository(long delayNanos) {
+            this.delayNanos = delayNanos;
+        }
+
+        @Override
+        public void insert(Collection<Sample> samples, boolean calculateTimeToLive) {
+            LockSupport.parkNanos(delayNanos);
+            numSamplesInserted.addAndGet(samples.size());
+            numBatchesInserted.incrementAndGet();
+        }
+
+        public int getNumSamplesInserted() {
+            return numSamplesInserted.get();
+        }
+
+        public int getNumBatchesInserted() {
+            return numBatchesInserted.get();
+        }
     }
 
     private static class MockSampleRepository implements SampleRepository {
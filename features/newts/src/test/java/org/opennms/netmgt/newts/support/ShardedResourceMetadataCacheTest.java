@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.newts.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.cassandra.search.EscapableResourceIdSplitter;
+import org.opennms.newts.cassandra.search.ResourceMetadata;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class ShardedResourceMetadataCacheTest {
+
+    private MetricRegistry m_registry = new MetricRegistry();
+
+    @Test
+    public void canGetEntriesWithPrefix() {
+        Context ctx = Context.DEFAULT_CONTEXT;
+        ShardedResourceMetadataCache cache = new ShardedResourceMetadataCache(1024L * 1024L, m_registry, new EscapableResourceIdSplitter());
+
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a").isEmpty());
+
+        Resource resource = new Resource("a:b:c");
+        ResourceMetadata resourceMetadata = new ResourceMetadata();
+        cache.merge(ctx, resource, resourceMetadata);
+
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a").contains("a:b:c"));
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a:b").contains("a:b:c"));
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a:b:c").contains("a:b:c"));
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a:b:c:d").isEmpty());
+        assertTrue(cache.getResourceIdsWithPrefix(new Context("other"), "a").isEmpty());
+    }
+
+    @Test
+    public void canUpdateAndDeleteEntries() {
+        Context ctx = Context.DEFAULT_CONTEXT;
+        ShardedResourceMetadataCache cache = new ShardedResourceMetadataCache(1024L * 1024L, m_registry, new EscapableResourceIdSplitter());
+        Resource resource = new Resource("a:b:c");
+
+        assertFalse(cache.get(ctx, resource).isPresent());
+
+        ResourceMetadata resourceMetadata = new ResourceMetadata();
+        resourceMetadata.putMetric("m1");
+        cache.merge(ctx, resource, resourceMetadata);
+        assertTrue(cache.get(ctx, resource).get().containsMetric("m1"));
+        assertFalse(cache.get(ctx, resource).get().containsMetric("m2"));
+
+        resourceMetadata = new ResourceMetadata();
+        resourceMetadata.putMetric("m2");
+        cache.merge(ctx, resource, resourceMetadata);
+        assertTrue(cache.get(ctx, resource).get().containsMetric("m1"));
+        assertTrue(cache.get(ctx, resource).get().containsMetric("m2"));
+
+        cache.delete(ctx, resource);
+        assertFalse(cache.get(ctx, resource).isPresent());
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a").isEmpty());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEstimatedBytes());
+        // The elements of the resource id are released with it
+        assertEquals(0, (int) m_registry.getGauges().get("cache.segments").getValue());
+    }
+
+    @Test
+    public void canEvictEntriesWhenFull() {
+        final long maxBytes = 256 * 1024;
+        final int numResources = 20000;
+        Context ctx = Context.DEFAULT_CONTEXT;
+        ShardedResourceMetadataCache cache = new ShardedResourceMetadataCache(maxBytes, m_registry, new EscapableResourceIdSplitter());
+
+        ResourceMetadata resourceMetadata = new ResourceMetadata();
+        resourceMetadata.putMetric("ifHCInOctets");
+        for (int k = 0; k < numResources; k++) {
+            cache.merge(ctx, new Resource(String.format("snmp:%d:eth0-x:mib2-interfaces", k)), resourceMetadata);
+        }
+
+        assertTrue(cache.getEstimatedBytes() <= maxBytes);
+        assertTrue(cache.size() < numResources);
+        assertEquals(numResources - cache.size(), m_registry.meter("cache.evictions").getCount());
+
+        // The prefix index only contains the entries that are still cached
+        List<String> resourceIds = cache.getResourceIdsWithPrefix(ctx, "snmp");
+        assertEquals(cache.size(), resourceIds.size());
+        for (String resourceId : resourceIds) {
+            assertTrue(cache.get(ctx, new Resource(resourceId)).isPresent());
+        }
+
+        // Only the elements of the cached entries are kept: the context, "snmp", "eth0-x",
+        // "mib2-interfaces" and the index of every resource
+        assertEquals(cache.size() + 4, (int) m_registry.getGauges().get("cache.segments").getValue());
+
+        // The most recent entry is always kept
+        String lastId = String.format("snmp:%d:eth0-x:mib2-interfaces", numResources - 1);
+        assertTrue(cache.get(ctx, new Resource(lastId)).get().containsMetric("ifHCInOctets"));
+    }
+}
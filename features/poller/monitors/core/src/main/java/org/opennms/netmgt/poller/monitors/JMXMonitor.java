@@ -46,7 +46,7 @@ import org.opennms.netmgt.jmx.connection.JmxConnectionManager;
 import org.opennms.netmgt.jmx.connection.JmxConnectors;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionException;
 import org.opennms.netmgt.jmx.connection.JmxServerConnectionWrapper;
-import org.opennms.netmgt.jmx.impl.connection.connectors.DefaultConnectionManager;
+import org.opennms.netmgt.jmx.impl.connection.connectors.PooledConnectionManager;
 import org.opennms.netmgt.poller.Distributable;
 import org.opennms.netmgt.poller.MonitoredService;
 import org.opennms.netmgt.poller.PollStatus;
@@ -62,6 +62,8 @@ import com.google.common.collect.Maps;
 /**
  * This class computes the response time of making a connection to the remote
  * server. If the connection is successful the reponse time RRD is updated.
+ * The connections are shared with the collectors, so if the remote server is
+ * already connected the response time is the time of a round trip on that connection.
  *
  * @author <A HREF="mailto:mike@opennms.org">Mike Jamison </A>
  * @author <A HREF="http://www.opennms.org/">OpenNMS </A>
@@ -125,7 +127,7 @@ public abstract class JMXMonitor extends AbstractServiceMonitor {
         PollStatus serviceStatus = PollStatus.unavailable();
         try {
             final Timer timer = new Timer();
-            final JmxConnectionManager connectionManager = new DefaultConnectionManager(
+            final JmxConnectionManager connectionManager = new PooledConnectionManager(
                     ParameterMap.getKeyedInteger(map, "retry", 3));
             final JmxConnectionManager.RetryCallback retryCallback = new JmxConnectionManager.RetryCallback() {
                 @Override
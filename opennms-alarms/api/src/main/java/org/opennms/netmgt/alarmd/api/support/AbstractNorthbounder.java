@@ -56,6 +56,12 @@ import org.opennms.netmgt.model.OnmsEventParameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 /**
  * AbstractNorthBounder
  * 
@@ -66,6 +72,9 @@ import org.slf4j.LoggerFactory;
  * 
  * <p>Preserve, accept and discard are called to add the Alarms to the queue as appropriate.</p>
  * 
+ * <p>When a coalescing window is set, repeated updates for the same alarm ID that arrive within
+ * the window are collapsed so that only the latest state of the alarm is forwarded.</p>
+ * 
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @author <a href="mailto:agalue@opennms.org">Alejandro Galue</a>
  */
@@ -85,10 +94,34 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
 
     /** The retry interval. */
     private long m_retryInterval = 1000;
+
+    /** The metrics of this northbounder. */
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    /** The time spent forwarding batches of alarms. */
+    private final Timer m_forwardTimer;
+
+    /** The time between the last occurrence of an alarm and the time it was forwarded. */
+    private final Histogram m_lag;
+
+    /** Exposes the metrics over JMX while the northbounder is running. */
+    private JmxReporter m_jmxReporter;
     
     //JAXBContexts are thread safe, but marshalers are not
     /** JAXBContext for EventParms class */
     private static JAXBContext ONMS_EVENT_PARM_CONTEXT = initOnmsEventParameterContext();
+
+    /** Marshaller for EventParms class, one per thread */
+    private static final ThreadLocal<Marshaller> ONMS_EVENT_PARM_MARSHALLER = ThreadLocal.withInitial(() -> {
+        try {
+            final Marshaller marshaller = ONMS_EVENT_PARM_CONTEXT.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            return marshaller;
+        } catch (JAXBException e) {
+            throw new RuntimeException(e);
+        }
+    });
     
     private static JAXBContext initOnmsEventParameterContext() {
         try {
@@ -106,6 +139,13 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
     protected AbstractNorthbounder(String name) {
         m_name = name;
         m_queue = new AlarmQueue<NorthboundAlarm>(this);
+        m_queue.setCoalescingKey(NorthboundAlarm::getId);
+
+        m_metrics.register(MetricRegistry.name(name, "queued"), (Gauge<Integer>) m_queue::getQueuedCount);
+        m_metrics.register(MetricRegistry.name(name, "coalesced"), (Gauge<Long>) m_queue::getCoalescedCount);
+        m_metrics.register(MetricRegistry.name(name, "dropped"), (Gauge<Long>) m_queue::getDroppedCount);
+        m_forwardTimer = m_metrics.timer(MetricRegistry.name(name, "forward"));
+        m_lag = m_metrics.histogram(MetricRegistry.name(name, "lag"));
         LOG.debug("Creating Northbounder instance {}", getName());
     }
 
@@ -126,6 +166,24 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
         m_queue.setNaglesDelay(delay);
     }
 
+    /**
+     * Sets the coalescing window.
+     *
+     * @param coalescingWindow the new coalescing window in milliseconds, zero disables coalescing
+     */
+    public void setCoalescingWindow(long coalescingWindow) {
+        m_queue.setCoalescingWindow(coalescingWindow);
+    }
+
+    /**
+     * Gets the metrics of this northbounder.
+     *
+     * @return the metric registry
+     */
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
     /**
      * Sets the retry interval.
      *
@@ -172,6 +230,10 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
         this.onPreStart();
         m_stopped = false;
         m_queue.init();
+        m_jmxReporter = JmxReporter.forRegistry(m_metrics)
+                .inDomain("org.opennms.netmgt.alarmd.northbounder")
+                .build();
+        m_jmxReporter.start();
         Thread thread = new Thread(this, getName() + "-Thread");
         thread.start();
         this.onPostStart();
@@ -230,6 +292,10 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
     public final void stop() throws NorthbounderException {
         this.onStop();
         m_stopped = true;
+        if (m_jmxReporter != null) {
+            m_jmxReporter.stop();
+            m_jmxReporter = null;
+        }
     }
 
     /* (non-Javadoc)
@@ -240,9 +306,10 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
         try {
             while (!m_stopped) {
                 List<NorthboundAlarm> alarmsToForward = m_queue.getAlarmsToForward();
-                try {
+                try (Timer.Context context = m_forwardTimer.time()) {
                     forwardAlarms(alarmsToForward);
                     m_queue.forwardSuccessful(alarmsToForward);
+                    updateLag(alarmsToForward);
                 } catch (Exception e) {
                     m_queue.forwardFailed(alarmsToForward);
                     if (!m_stopped) {
@@ -256,6 +323,20 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
         }
     }
 
+    /**
+     * Update the lag using the last occurrence of the forwarded alarms.
+     *
+     * @param alarms the forwarded alarms
+     */
+    private void updateLag(List<NorthboundAlarm> alarms) {
+        final long now = System.currentTimeMillis();
+        for (NorthboundAlarm alarm : alarms) {
+            if (alarm.getLastOccurrence() != null) {
+                m_lag.update(Math.max(0, now - alarm.getLastOccurrence().getTime()));
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.opennms.netmgt.alarmd.api.support.StatusFactory#createSyncLostMessage()
      */
@@ -400,10 +481,7 @@ public abstract class AbstractNorthbounder implements Northbounder, Runnable, St
         try {
             JAXBElement<EventParms> rootElement = new JAXBElement<EventParms>(new QName("eventParms"), EventParms.class, eventParms);
             StringWriter sw = new StringWriter();
-            Marshaller marshaller = ONMS_EVENT_PARM_CONTEXT.createMarshaller();
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
-            marshaller.marshal(rootElement, sw);
+            ONMS_EVENT_PARM_MARSHALLER.get().marshal(rootElement, sw);
             LOG.debug("Adding eventParmsXML mapping with contents {}.", sw);
             mapping.put("eventParmsXml", sw);
         } catch (JAXBException e) {
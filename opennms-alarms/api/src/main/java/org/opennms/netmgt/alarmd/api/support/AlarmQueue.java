@@ -30,10 +30,14 @@ package org.opennms.netmgt.alarmd.api.support;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +46,9 @@ import org.opennms.netmgt.alarmd.api.Preservable;
 /**
  * Based on Matt's queue implementation of event forwarding in opennmsd (OVAPI daemon)
  * When in forwarding state, uses Nagle's algorithm to batch up alarms for forwarding by the NBI.
+ *
+ * When a coalescing key and window are set, alarms that share the same key within
+ * a batch are collapsed so that only their latest state is forwarded.
  * 
  * FIXME: Need to make sure the are reasonable defaults in the configuration just-in-case
  * the NBI implementations don't set the batch size, etc. 
@@ -88,6 +95,7 @@ class AlarmQueue<T extends Preservable> {
          */
         protected void addToPreservedQueue(T a) {
             if (m_preservedQueue.size() >= m_maxPreservedAlarms) {
+                m_dropped.addAndGet(m_nextBatch.size() + m_preservedQueue.size());
                 m_nextBatch.clear();
                 m_preservedQueue.clear();
                 m_preservedQueue.offer(m_statusFactory.createSyncLostMessage());
@@ -102,6 +110,11 @@ class AlarmQueue<T extends Preservable> {
             List<T> alarms = new ArrayList<T>(m_queue.size());
             m_queue.drainTo(alarms);
 
+            for (T a : alarms) {
+                if (!a.isPreserved()) {
+                    m_dropped.incrementAndGet();
+                }
+            }
             addPreservedToPreservedQueue(alarms);
         }
 
@@ -133,6 +146,10 @@ class AlarmQueue<T extends Preservable> {
 
         @Override
         public List<T> getAlarmsToForward() throws InterruptedException {
+            if (isCoalescing()) {
+                return getCoalescedAlarmsToForward();
+            }
+
             List<T> alarms = new ArrayList<T>(m_maxBatchSize);
 
             T a = m_queue.take();
@@ -160,6 +177,58 @@ class AlarmQueue<T extends Preservable> {
             return alarms;
         }
 
+        /**
+         * Gets the alarms to forward, keeping only the latest alarm for each coalescing key.
+         *
+         * @return the alarms to forward
+         * @throws InterruptedException the interrupted exception
+         */
+        private List<T> getCoalescedAlarmsToForward() throws InterruptedException {
+            final Map<Object, T> alarms = new LinkedHashMap<>();
+            final List<T> drained = new ArrayList<T>(m_maxBatchSize);
+
+            drained.add(m_queue.take());
+            m_queue.drainTo(drained, m_maxBatchSize - drained.size());
+            coalesce(drained, alarms);
+
+            long now = System.currentTimeMillis();
+            final long expirationTime = now + Math.max(m_naglesDelay, m_coalescingWindow);
+            while (alarms.size() < m_maxBatchSize && now < expirationTime) {
+                T alarm = m_queue.poll(expirationTime - now, TimeUnit.MILLISECONDS);
+
+                if (alarm != null) {
+                    drained.add(alarm);
+                    m_queue.drainTo(drained, m_maxBatchSize - alarms.size() - drained.size());
+                    coalesce(drained, alarms);
+                }
+
+                now = System.currentTimeMillis();
+            }
+
+            return new ArrayList<T>(alarms.values());
+        }
+
+        /**
+         * Merges the drained alarms into the batch, replacing any alarm with the same key.
+         *
+         * @param drained the drained alarms, cleared once merged
+         * @param alarms the batch of alarms keyed by the coalescing key
+         */
+        private void coalesce(List<T> drained, Map<Object, T> alarms) {
+            for (T alarm : drained) {
+                // Alarms without a key, like the sync lost message, are never coalesced
+                final Object key = m_coalescingKey.apply(alarm);
+                final T previous = alarms.put(key != null ? key : new Object(), alarm);
+                if (previous != null) {
+                    if (previous.isPreserved()) {
+                        alarm.setPreserved(true);
+                    }
+                    m_coalesced.incrementAndGet();
+                }
+            }
+            drained.clear();
+        }
+
         @Override
         public void forwardSuccessful(List<T> alarms) {
             // no need to do anything here
@@ -250,6 +319,18 @@ class AlarmQueue<T extends Preservable> {
     /** The nagles delay. */
     private long m_naglesDelay = 1000;
 
+    /** The coalescing window. */
+    private long m_coalescingWindow = 0;
+
+    /** The function used to determine which alarms can be coalesced. */
+    private Function<T, Object> m_coalescingKey;
+
+    /** The number of alarms that were replaced by a more recent state. */
+    private final AtomicLong m_coalesced = new AtomicLong();
+
+    /** The number of alarms that were discarded without being forwarded. */
+    private final AtomicLong m_dropped = new AtomicLong();
+
     /** The queue. */
     // queue for all alarms to be forwarded
     private BlockingQueue<T> m_queue = new LinkedBlockingQueue<T>();
@@ -345,6 +426,69 @@ class AlarmQueue<T extends Preservable> {
         m_maxBatchSize = maxBatchSize;
     }
 
+    /**
+     * Gets the coalescing window.
+     *
+     * @return the coalescing window
+     */
+    public long getCoalescingWindow() {
+        return m_coalescingWindow;
+    }
+
+    /**
+     * Sets the coalescing window, a value of zero disables coalescing.
+     *
+     * @param coalescingWindow the new coalescing window
+     */
+    public void setCoalescingWindow(long coalescingWindow) {
+        m_coalescingWindow = coalescingWindow;
+    }
+
+    /**
+     * Sets the function used to determine which alarms can be coalesced.
+     *
+     * @param coalescingKey the coalescing key function
+     */
+    public void setCoalescingKey(Function<T, Object> coalescingKey) {
+        m_coalescingKey = coalescingKey;
+    }
+
+    /**
+     * Checks if is coalescing.
+     *
+     * @return true, if alarms with the same key are being coalesced
+     */
+    private boolean isCoalescing() {
+        return m_coalescingKey != null && m_coalescingWindow > 0;
+    }
+
+    /**
+     * Gets the number of coalesced alarms.
+     *
+     * @return the number of alarms that were replaced by a more recent state
+     */
+    public long getCoalescedCount() {
+        return m_coalesced.get();
+    }
+
+    /**
+     * Gets the number of dropped alarms.
+     *
+     * @return the number of alarms that were discarded without being forwarded
+     */
+    public long getDroppedCount() {
+        return m_dropped.get();
+    }
+
+    /**
+     * Gets the number of alarms waiting to be forwarded.
+     *
+     * @return the number of queued alarms
+     */
+    public int getQueuedCount() {
+        return m_queue.size() + m_preservedQueue.size();
+    }
+
     /**
      * Initialization.
      */
@@ -100,6 +100,86 @@ public class AlarmQueueTest implements StatusFactory<NorthboundAlarm>{
         queue.forwardSuccessful(alarms);
     }
 
+    /**
+     * Test coalescing of alarms with the same ID.
+     *
+     * @throws InterruptedException the interrupted exception
+     */
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        AlarmQueue<NorthboundAlarm> queue = new AlarmQueue<NorthboundAlarm>(this);
+        queue.setMaxBatchSize(3);
+        queue.setNaglesDelay(0);
+        queue.setCoalescingWindow(10);
+        queue.setCoalescingKey(NorthboundAlarm::getId);
+        queue.init();
+
+        queue.accept(createAlarm(1, 1));
+        queue.preserve(createAlarm(2, 1));
+        queue.accept(createAlarm(1, 2));
+        queue.accept(createAlarm(2, 2));
+        queue.accept(createAlarm(1, 3));
+        queue.accept(createAlarm(3, 1));
+
+        List<NorthboundAlarm> alarms = queue.getAlarmsToForward();
+        assertNotNull(alarms);
+        assertEquals(3, alarms.size());
+        assertEquals(3, queue.getCoalescedCount());
+
+        // Only the latest state is forwarded, in the order the alarms were first seen
+        assertEquals(Integer.valueOf(1), alarms.get(0).getId());
+        assertEquals(Integer.valueOf(3), alarms.get(0).getCount());
+        assertEquals(Integer.valueOf(2), alarms.get(1).getId());
+        assertEquals(Integer.valueOf(2), alarms.get(1).getCount());
+        assertTrue(alarms.get(1).isPreserved());
+        assertEquals(Integer.valueOf(3), alarms.get(2).getId());
+
+        queue.forwardSuccessful(alarms);
+        assertEquals(0, queue.getQueuedCount());
+    }
+
+    /**
+     * Test that alarms without an ID are never coalesced.
+     *
+     * @throws InterruptedException the interrupted exception
+     */
+    @Test
+    public void testNoCoalescingWithoutId() throws InterruptedException {
+        AlarmQueue<NorthboundAlarm> queue = new AlarmQueue<NorthboundAlarm>(this);
+        queue.setMaxBatchSize(3);
+        queue.setNaglesDelay(0);
+        queue.setCoalescingWindow(10);
+        queue.setCoalescingKey(NorthboundAlarm::getId);
+        queue.init();
+
+        queue.accept(new NorthboundAlarm(new OnmsAlarm()));
+        queue.accept(new NorthboundAlarm(new OnmsAlarm()));
+        queue.accept(createAlarm(1, 1));
+
+        List<NorthboundAlarm> alarms = queue.getAlarmsToForward();
+        assertEquals(3, alarms.size());
+        assertEquals(0, queue.getCoalescedCount());
+        assertNull(alarms.get(0).getId());
+        assertNull(alarms.get(1).getId());
+        assertEquals(Integer.valueOf(1), alarms.get(2).getId());
+    }
+
+    /**
+     * Creates the alarm with a given ID and count.
+     *
+     * @param id the alarm ID
+     * @param count the count
+     * @return the northbound alarm
+     */
+    private NorthboundAlarm createAlarm(int id, int count) {
+        OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setCounter(count);
+        alarm.setUei("uei.opennms.org/test/httpNorthBounder");
+
+        return new NorthboundAlarm(alarm);
+    }
+
     /**
      * Test failure.
      *
@@ -126,6 +126,7 @@ public class EmailNorthbounder extends AbstractNorthbounder implements Initializ
             return;
         }
         setNaglesDelay(getConfig().getNaglesDelay());
+        setCoalescingWindow(getConfig().getCoalescingWindow());
         setMaxBatchSize(getConfig().getBatchSize());
         setMaxPreservedAlarms(getConfig().getQueueSize());
         initialized = true;
@@ -223,6 +223,7 @@ public class HttpNorthbounder extends AbstractNorthbounder {
      */
     public void setConfig(HttpNorthbounderConfig config) {
         m_config = config;
+        setCoalescingWindow(config.getCoalescingWindow());
     }
 
 }
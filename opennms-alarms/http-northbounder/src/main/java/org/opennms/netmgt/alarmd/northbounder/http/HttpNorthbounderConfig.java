@@ -110,6 +110,10 @@ public class HttpNorthbounderConfig implements Serializable, Comparable<HttpNort
     @XmlAttribute(name="fragment", required=false)
     private String m_fragment;
 
+    /** The coalescing window in milliseconds. */
+    @XmlAttribute(name="coalescing-window", required=false)
+    private Integer m_coalescingWindow;
+
     /** The acceptable UEIs. */
     private List<String> m_acceptableUeis;
 
@@ -350,6 +354,24 @@ public class HttpNorthbounderConfig implements Serializable, Comparable<HttpNort
         m_fragment = fragment;
     }
 
+    /**
+     * Gets the coalescing window.
+     *
+     * @return the coalescing window
+     */
+    public Integer getCoalescingWindow() {
+        return m_coalescingWindow == null ? 0 : m_coalescingWindow;
+    }
+
+    /**
+     * Sets the coalescing window.
+     *
+     * @param coalescingWindow the new coalescing window
+     */
+    public void setCoalescingWindow(Integer coalescingWindow) {
+        m_coalescingWindow = coalescingWindow;
+    }
+
     /**
      * Gets the acceptable UEIs.
      *
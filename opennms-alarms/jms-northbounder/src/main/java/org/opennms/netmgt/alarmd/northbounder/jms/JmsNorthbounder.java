@@ -28,6 +28,7 @@
 
 package org.opennms.netmgt.alarmd.northbounder.jms;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -47,7 +48,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.jms.JmsException;
 import org.springframework.jms.core.JmsTemplate;
-import org.springframework.jms.core.MessageCreator;
 
 /**
  * Northbound Interface JMS Implementation
@@ -139,6 +139,7 @@ public class JmsNorthbounder extends AbstractNorthbounder implements Initializin
             m_template.setPubSubDomain(true);
         }
         setNaglesDelay(m_config.getNaglesDelay());
+        setCoalescingWindow(m_config.getCoalescingWindow());
         setMaxBatchSize(m_config.getBatchSize());
         setMaxPreservedAlarms(m_config.getQueueSize());
     }
@@ -148,6 +149,7 @@ public class JmsNorthbounder extends AbstractNorthbounder implements Initializin
      */
     @Override
     public void forwardAlarms(List<NorthboundAlarm> alarms) throws NorthbounderException {
+        final List<NorthboundAlarm> alarmsToSend = new ArrayList<>(alarms.size());
         for (final NorthboundAlarm alarm : alarms) {
             final Integer count = alarm.getCount();
             LOG.debug("Does destination {} take only first occurances? {} Is new alarm? Has count of {}.", m_jmsDestination.getName(), m_jmsDestination.isFirstOccurrenceOnly(), count);
@@ -155,22 +157,48 @@ public class JmsNorthbounder extends AbstractNorthbounder implements Initializin
                 LOG.debug("Skipping because not new alarm.");
                 continue;
             }
-            LOG.debug("Attempting to send a message to {} of type {}", m_jmsDestination.getJmsDestination(), m_jmsDestination.getDestinationType());
-            try {
-                m_template.send(m_jmsDestination.getJmsDestination(), new MessageCreator() {
-                    @Override
-                    public Message createMessage(Session session) throws JMSException {
-                          if (m_jmsDestination.isSendAsObjectMessageEnabled()) {
-                              return session.createObjectMessage(alarm);
-                          } else {
-                              return session.createTextMessage(convertAlarmToText(alarm));
-                          }
+            alarmsToSend.add(alarm);
+        }
+        if (alarmsToSend.isEmpty()) {
+            return;
+        }
+
+        // Send the whole batch using a single session and producer, but each alarm on its own so that
+        // one bad message does not drop the rest of the batch. Alarms which can't be sent are logged
+        // and dropped, as they were when every alarm was sent with its own session.
+        LOG.debug("Attempting to send {} messages to {} of type {}", alarmsToSend.size(), m_jmsDestination.getJmsDestination(), m_jmsDestination.getDestinationType());
+        try {
+            final int sent = m_template.execute(m_jmsDestination.getJmsDestination(), (session, producer) -> {
+                int numSent = 0;
+                for (final NorthboundAlarm alarm : alarmsToSend) {
+                    try {
+                        producer.send(createMessage(session, alarm));
+                        numSent++;
+                    } catch (JMSException e) {
+                        LOG.error("Unable to send alarm {} to northbound JMS because {}", alarm.getId(), e.getLocalizedMessage(), e);
                     }
-                });
-                LOG.debug("Sent message");
-            } catch (JmsException e) {
-                LOG.error("Unable to send alarm to northbound JMS because {}", e.getLocalizedMessage(), e);
-            }
+                }
+                return numSent;
+            });
+            LOG.debug("Sent {} of {} messages", sent, alarmsToSend.size());
+        } catch (JmsException e) {
+            LOG.error("Unable to send {} alarms to northbound JMS because {}", alarmsToSend.size(), e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Creates the message for an alarm.
+     *
+     * @param session the JMS session
+     * @param alarm the alarm
+     * @return the message
+     * @throws JMSException the JMS exception
+     */
+    private Message createMessage(Session session, NorthboundAlarm alarm) throws JMSException {
+        if (m_jmsDestination.isSendAsObjectMessageEnabled()) {
+            return session.createObjectMessage(alarm);
+        } else {
+            return session.createTextMessage(convertAlarmToText(alarm));
         }
     }
 
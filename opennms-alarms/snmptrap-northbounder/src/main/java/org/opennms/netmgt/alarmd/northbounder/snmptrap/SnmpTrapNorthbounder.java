@@ -86,6 +86,7 @@ public class SnmpTrapNorthbounder extends AbstractNorthbounder implements Initia
             return;
         }
         setNaglesDelay(getConfig().getNaglesDelay());
+        setCoalescingWindow(getConfig().getCoalescingWindow());
         setMaxBatchSize(getConfig().getBatchSize());
         setMaxPreservedAlarms(getConfig().getQueueSize());
         initialized = true;
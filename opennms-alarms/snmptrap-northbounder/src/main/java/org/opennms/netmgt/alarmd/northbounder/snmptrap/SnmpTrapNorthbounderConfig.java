@@ -57,6 +57,10 @@ public class SnmpTrapNorthbounderConfig implements Serializable {
     @XmlElement(name = "nagles-delay", required = false, defaultValue = "1000")
     private Integer m_naglesDelay;
 
+    /** The coalescing window. */
+    @XmlElement(name = "coalescing-window", required = false, defaultValue = "0")
+    private Integer m_coalescingWindow;
+
     /** The batch size. */
     @XmlElement(name = "batch-size", required = false, defaultValue = "100")
     private Integer m_batchSize;
@@ -127,6 +131,24 @@ public class SnmpTrapNorthbounderConfig implements Serializable {
         m_naglesDelay = naglesDelay;
     }
 
+    /**
+     * Gets the coalescing window.
+     *
+     * @return the coalescing window
+     */
+    public Integer getCoalescingWindow() {
+        return m_coalescingWindow == null ? 0 : m_coalescingWindow;
+    }
+
+    /**
+     * Sets the coalescing window.
+     *
+     * @param coalescingWindow the new coalescing window
+     */
+    public void setCoalescingWindow(Integer coalescingWindow) {
+        m_coalescingWindow = coalescingWindow;
+    }
+
     /**
      * Gets the batch size.
      *
@@ -90,6 +90,7 @@ public class SyslogNorthbounder extends AbstractNorthbounder implements Initiali
         }
         SyslogUtils.createNorthboundInstance(m_destination);
         setNaglesDelay(getConfig().getNaglesDelay());
+        setCoalescingWindow(getConfig().getCoalescingWindow());
         setMaxBatchSize(getConfig().getBatchSize());
         setMaxPreservedAlarms(getConfig().getQueueSize());
         initialized = true;
@@ -35,10 +35,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.drools.compiler.compiler.DroolsParserException;
 import org.drools.core.RuleBaseConfiguration;
@@ -57,26 +64,55 @@ import org.kie.api.runtime.KieSession;
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.correlation.AbstractCorrelationEngine;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.io.ByteStreams;
 
 /**
  * <p>DroolsCorrelationEngine class.</p>
  *
+ * <p>By default every event is inserted in the session and the rules are fired
+ * on the calling thread, one event at a time. When a batch size is set, or when
+ * the engine is split into more than one partition, events are queued instead and
+ * a worker thread per partition drains its queue, inserts all of the drained events
+ * in order and fires the rules once per batch.</p>
+ *
+ * <p>Each partition has its own {@link KieSession} built from the same {@link KieBase}.
+ * Events are assigned to a partition using the configured partition key (the node id
+ * by default), so partitioning should only be used with rules that never need to
+ * correlate facts across different values of that key.</p>
+ *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @version $Id: $
  */
 public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
     private static final Logger LOG = LoggerFactory.getLogger(DroolsCorrelationEngine.class);
 
+    public static final String PARTITION_KEY_NODEID = "nodeid";
+    public static final String PARTITION_KEY_INTERFACE = "interface";
+    public static final String PARTITION_KEY_UEI = "uei";
+
+    /**
+     * The partition whose session is currently being worked on by this thread,
+     * used to route timers back to the session that created them.
+     */
+    private static final ThreadLocal<Integer> s_currentPartition = new ThreadLocal<>();
+
     private KieBase m_kieBase;
     private KieSession m_kieSession;
+    private final List<KieSession> m_kieSessions = new ArrayList<>();
+    private final List<BlockingQueue<Object>> m_queues = new ArrayList<>();
+    private final List<Thread> m_workers = new ArrayList<>();
+    private final Map<Integer, Integer> m_timerPartitions = new ConcurrentHashMap<>();
+    private volatile boolean m_running = false;
     private List<String> m_interestingEvents;
     private List<Resource> m_rules;
     private Map<String, Object> m_globals = new HashMap<>();
@@ -85,35 +121,194 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
     private String m_eventProcessingMode;
     private boolean m_isStreaming = false;
     private final Meter m_eventsMeter;
+    private final Timer m_fireTimer;
+    private final Histogram m_batchSizes;
     private Boolean m_persistState;
+    private int m_batchSize = 0;
+    private int m_partitions = 1;
+    private String m_partitionKey = PARTITION_KEY_NODEID;
     
     public DroolsCorrelationEngine(final String name, final MetricRegistry metricRegistry) {
         this.m_name = name;
-        final Gauge<Long> factCount = () -> { return getKieSession().getFactCount(); };
+        final Gauge<Long> factCount = () -> { return getFactCount(); };
         metricRegistry.register(MetricRegistry.name(name, "fact-count"), factCount);
         final Gauge<Integer> pendingTasksCount = () -> { return getPendingTasksCount(); };
         metricRegistry.register(MetricRegistry.name(name, "pending-tasks-count"), pendingTasksCount);
+        final Gauge<Integer> queuedCount = () -> { return getQueuedCount(); };
+        metricRegistry.register(MetricRegistry.name(name, "queued-count"), queuedCount);
         m_eventsMeter = metricRegistry.meter(MetricRegistry.name(name, "events"));
+        m_fireTimer = metricRegistry.timer(MetricRegistry.name(name, "fire-all-rules"));
+        m_batchSizes = metricRegistry.histogram(MetricRegistry.name(name, "batch-size"));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void correlate(final Event e) {
+        final int partition = getPartition(e);
+        if (isQueued()) {
+            LOG.debug("Queueing Event {} uei: {} for partition {}", e.getDbid(), e.getUei(), partition);
+            m_queues.get(partition).add(e);
+            return;
+        }
+
+        final KieSession kieSession = m_kieSessions.get(partition);
+        synchronized (kieSession) {
+            LOG.debug("Begin correlation for Event {} uei: {}", e.getDbid(), e.getUei());
+            s_currentPartition.set(partition);
+            try {
+                kieSession.insert(e);
+                if (!m_isStreaming) fireAllRules(kieSession);
+            } finally {
+                s_currentPartition.remove();
+            }
+            m_eventsMeter.mark();
+            LOG.debug("End correlation for Event {} uei: {}", e.getDbid(), e.getUei());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void timerExpired(final Integer timerId) {
+        final Integer partitionForTimer = m_timerPartitions.remove(timerId);
+        final int partition = partitionForTimer != null ? partitionForTimer.intValue() : 0;
+        final TimerExpired expiration  = new TimerExpired(timerId);
+        if (isQueued()) {
+            LOG.debug("Queueing Timer {} for partition {}", timerId, partition);
+            m_queues.get(partition).add(expiration);
+            return;
+        }
+
+        final KieSession kieSession = m_kieSessions.get(partition);
+        synchronized (kieSession) {
+            LOG.info("Begin correlation for Timer {}", timerId);
+            s_currentPartition.set(partition);
+            try {
+                kieSession.insert(expiration);
+                if (!m_isStreaming) fireAllRules(kieSession);
+            } finally {
+                s_currentPartition.remove();
+            }
+            LOG.debug("End correlation for Timer {}", timerId);
+        }
     }
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void correlate(final Event e) {
-        LOG.debug("Begin correlation for Event {} uei: {}", e.getDbid(), e.getUei());
-        m_kieSession.insert(e);
-        if (!m_isStreaming) m_kieSession.fireAllRules();
-        m_eventsMeter.mark();
-        LOG.debug("End correlation for Event {} uei: {}", e.getDbid(), e.getUei());
+    public Integer setTimer(final long millis) {
+        final Integer timerId = super.setTimer(millis);
+        final Integer partition = s_currentPartition.get();
+        if (partition != null && partition.intValue() != 0) {
+            m_timerPartitions.put(timerId, partition);
+        }
+        return timerId;
     }
 
     /** {@inheritDoc} */
     @Override
-    protected synchronized void timerExpired(final Integer timerId) {
-        LOG.info("Begin correlation for Timer {}", timerId);
-        TimerExpired expiration  = new TimerExpired(timerId);
-        m_kieSession.insert(expiration);
-        if (!m_isStreaming) m_kieSession.fireAllRules();
-        LOG.debug("Begin correlation for Timer {}", timerId);
+    public void cancelTimer(final Integer timerId) {
+        super.cancelTimer(timerId);
+        m_timerPartitions.remove(timerId);
+    }
+
+    private void fireAllRules(final KieSession kieSession) {
+        final Timer.Context context = m_fireTimer.time();
+        try {
+            kieSession.fireAllRules();
+        } finally {
+            context.stop();
+        }
+    }
+
+    private boolean isQueued() {
+        return m_batchSize > 0 || m_partitions > 1;
+    }
+
+    /**
+     * Determines the partition that handles the given event, using the
+     * configured partition key. Events without a value for the key are
+     * always handled by the first partition.
+     */
+    protected int getPartition(final Event e) {
+        if (m_partitions <= 1) {
+            return 0;
+        }
+
+        final Object key;
+        if (PARTITION_KEY_NODEID.equals(m_partitionKey)) {
+            key = e.getNodeid();
+        } else if (PARTITION_KEY_INTERFACE.equals(m_partitionKey)) {
+            key = e.getInterface();
+        } else if (PARTITION_KEY_UEI.equals(m_partitionKey)) {
+            key = e.getUei();
+        } else {
+            final Parm parm = e.getParm(m_partitionKey);
+            key = parm != null && parm.getValue() != null ? parm.getValue().getContent() : null;
+        }
+
+        if (key == null) {
+            return 0;
+        }
+        return Math.floorMod(Objects.hashCode(key), m_partitions);
+    }
+
+    private void processQueue(final int partition) {
+        Logging.putPrefix(getClass().getSimpleName() + '-' + getName());
+        s_currentPartition.set(partition);
+
+        final BlockingQueue<Object> queue = m_queues.get(partition);
+        final KieSession kieSession = m_kieSessions.get(partition);
+        final int batchSize = Math.max(1, m_batchSize);
+        final List<Object> batch = new ArrayList<>(batchSize);
+        while (m_running) {
+            try {
+                final Object first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                correlateBatch(kieSession, batch);
+                LOG.debug("Correlated a batch of {} facts on partition {}", batch.size(), partition);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (final Throwable t) {
+                LOG.error("Failed to correlate a batch of {} facts on partition {}", batch.size(), partition, t);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void correlateBatch(final KieSession kieSession, final List<Object> batch) {
+        synchronized (kieSession) {
+            int numEvents = 0;
+            for (final Object fact : batch) {
+                kieSession.insert(fact);
+                if (fact instanceof Event) {
+                    numEvents++;
+                }
+            }
+            if (!m_isStreaming) fireAllRules(kieSession);
+            m_eventsMeter.mark(numEvents);
+        }
+        m_batchSizes.update(batch.size());
+    }
+
+    private long getFactCount() {
+        long factCount = 0;
+        for (final KieSession kieSession : m_kieSessions) {
+            factCount += kieSession.getFactCount();
+        }
+        return factCount;
+    }
+
+    private int getQueuedCount() {
+        int queued = 0;
+        for (final BlockingQueue<Object> queue : m_queues) {
+            queued += queue.size();
+        }
+        return queued;
     }
 
     /** {@inheritDoc} */
@@ -179,22 +374,56 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
         ruleBaseConfig.setEventProcessingMode(eventProcessingOption);
 
         m_kieBase = kContainer.newKieBase(ruleBaseConfig);
-        m_kieSession = m_kieBase.newKieSession();
-        m_kieSession.setGlobal("engine", this);
+        final List<KieSession> kieSessions = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, m_partitions); i++) {
+            final KieSession kieSession = m_kieBase.newKieSession();
+            kieSession.setGlobal("engine", this);
+
+            for (final Map.Entry<String, Object> entry : m_globals.entrySet()) {
+                kieSession.setGlobal(entry.getKey(), entry.getValue());
+            }
+
+            if (m_persistState != null && m_persistState) {
+                unmarshallStateFromDisk(kieSession, getPathToState(i), true);
+            }
 
-        for (final Map.Entry<String, Object> entry : m_globals.entrySet()) {
-            m_kieSession.setGlobal(entry.getKey(), entry.getValue());
+            kieSessions.add(kieSession);
         }
+        startSessions(kieSessions);
+    }
 
-        if (m_persistState != null && m_persistState) {
-            unmarshallStateFromDisk(true);
+    /**
+     * Starts correlating events with the given sessions, one per partition.
+     */
+    protected void startSessions(final List<KieSession> kieSessions) {
+        for (final KieSession kieSession : kieSessions) {
+            m_kieSessions.add(kieSession);
+            m_queues.add(new LinkedBlockingQueue<>());
         }
+        m_kieSession = m_kieSessions.get(0);
 
         if (m_isStreaming) {
-            new Thread(() -> {
-                Logging.putPrefix(getClass().getSimpleName() + '-' + getName());
-                m_kieSession.fireUntilHalt();
-            }, "FireTask").start();
+            for (int i = 0; i < m_kieSessions.size(); i++) {
+                final int partition = i;
+                new Thread(() -> {
+                    Logging.putPrefix(getClass().getSimpleName() + '-' + getName());
+                    s_currentPartition.set(partition);
+                    m_kieSessions.get(partition).fireUntilHalt();
+                }, "FireTask").start();
+            }
+        }
+
+        if (isQueued()) {
+            LOG.info("Correlating events for engine {} in batches of up to {} events using {} partition(s) keyed by {}.",
+                    m_name, Math.max(1, m_batchSize), m_kieSessions.size(), m_partitionKey);
+            m_running = true;
+            for (int i = 0; i < m_kieSessions.size(); i++) {
+                final int partition = i;
+                final Thread worker = new Thread(() -> processQueue(partition), "CorrelationBatchTask-" + m_name + "-" + partition);
+                worker.setDaemon(true);
+                worker.start();
+                m_workers.add(worker);
+            }
         }
     }
 
@@ -210,39 +439,83 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
 
     @Override
     public void tearDown() {
+        stopWorkers();
         if (m_persistState != null && m_persistState) {
             if (getPendingTasksCount() > 0) {
                 LOG.error("Cannot marshall state because there are pending time based tasks running.");
             } else {
-                marshallStateToDisk(true);
+                for (int i = 0; i < m_kieSessions.size(); i++) {
+                    marshallStateToDisk(m_kieSessions.get(i), getPathToState(i), true);
+                }
+            }
+        }
+    }
+
+    private void stopWorkers() {
+        if (!m_running) {
+            return;
+        }
+        m_running = false;
+        for (final Thread worker : m_workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
+
+        // Correlate the facts which were queued while the workers were stopping
+        for (int i = 0; i < m_workers.size(); i++) {
+            final BlockingQueue<Object> queue = m_queues.get(i);
+            if (m_workers.get(i).isAlive()) {
+                LOG.error("Worker of partition {} for engine {} did not stop, dropping {} queued facts.", i, m_name, queue.size());
+                continue;
+            }
+            final List<Object> batch = new ArrayList<>(queue.size());
+            queue.drainTo(batch);
+            if (batch.isEmpty()) {
+                continue;
+            }
+            s_currentPartition.set(i);
+            try {
+                correlateBatch(m_kieSessions.get(i), batch);
+                LOG.debug("Correlated the remaining {} facts on partition {}", batch.size(), i);
+            } catch (final Throwable t) {
+                LOG.error("Failed to correlate the remaining {} facts on partition {}", batch.size(), i, t);
+            } finally {
+                s_currentPartition.remove();
+            }
+        }
+        m_workers.clear();
     }
 
-    private Path getPathToState() {
-        return Paths.get(System.getProperty("java.io.tmpdir"), "opennms.drools." + m_name + ".state");
+    private Path getPathToState(int partition) {
+        // The first partition uses the same file as an engine without partitions
+        final String suffix = partition == 0 ? "" : "." + partition;
+        return Paths.get(System.getProperty("java.io.tmpdir"), "opennms.drools." + m_name + suffix + ".state");
     }
 
-    private void marshallStateToDisk(boolean serialize) {
-        final File stateFile = getPathToState().toFile();
+    private void marshallStateToDisk(KieSession kieSession, Path pathToState, boolean serialize) {
+        final File stateFile = pathToState.toFile();
         LOG.debug("Saving state for engine {} in {} ...", m_name, stateFile);
         final KieMarshallers kMarshallers = KieServices.Factory.get().getMarshallers();
         final ObjectMarshallingStrategy oms = serialize ?
                 kMarshallers.newSerializeMarshallingStrategy() : kMarshallers.newIdentityMarshallingStrategy();
         final Marshaller marshaller = kMarshallers.newMarshaller( m_kieBase, new ObjectMarshallingStrategy[]{ oms } );
         try (FileOutputStream fos = new FileOutputStream(stateFile)) {
-            m_kieSession.halt();
-            marshaller.marshall( fos, m_kieSession );
-            m_kieSession.dispose();
-            m_kieSession.destroy();
+            kieSession.halt();
+            marshaller.marshall( fos, kieSession );
+            kieSession.dispose();
+            kieSession.destroy();
             LOG.info("Sucessfully save state for engine {} in {}.", m_name, stateFile);
         } catch (IOException e) {
             LOG.error("Failed to save state for engine {} in {}.", m_name, stateFile, e);
         }
     }
 
-    private void unmarshallStateFromDisk(boolean serialize) {
-        final File stateFile = getPathToState().toFile();
+    private void unmarshallStateFromDisk(KieSession kieSession, Path pathToState, boolean serialize) {
+        final File stateFile = pathToState.toFile();
         LOG.debug("Restoring state for engine {} from {} ...", m_name, stateFile);
         final KieMarshallers kMarshallers = KieServices.Factory.get().getMarshallers();
         final ObjectMarshallingStrategy oms = serialize ?
@@ -250,7 +523,7 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
         final Marshaller marshaller = kMarshallers.newMarshaller( m_kieBase, new ObjectMarshallingStrategy[]{ oms } );
 
         try (FileInputStream fin = new FileInputStream(stateFile)) {
-            marshaller.unmarshall( fin, m_kieSession );
+            marshaller.unmarshall( fin, kieSession );
             stateFile.delete();
             LOG.info("Sucessfully restored state for engine {} from {}.", m_name, stateFile);
         } catch (IOException | ClassNotFoundException e) {
@@ -259,7 +532,14 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
     }
 
     public Collection<? extends Object> getKieSessionObjects() {
-        return m_kieSession.getObjects();
+        if (m_kieSessions.size() == 1) {
+            return m_kieSession.getObjects();
+        }
+        final List<Object> objects = new ArrayList<>();
+        for (final KieSession kieSession : m_kieSessions) {
+            objects.addAll(kieSession.getObjects());
+        }
+        return Collections.unmodifiableList(objects);
     }
 
     public KieSession getKieSession() {
@@ -283,7 +563,9 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
      * @param value a {@link java.lang.Object} object.
      */
     public void setGlobal(final String name, final Object value) {
-        m_kieSession.setGlobal(name, value);
+        for (final KieSession kieSession : m_kieSessions) {
+            kieSession.setGlobal(name, value);
+        }
     }
 
     public void setAssertBehaviour(String assertBehaviour) {
@@ -306,6 +588,30 @@ public class DroolsCorrelationEngine extends AbstractCorrelationEngine {
         return m_persistState;
     }
 
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public int getPartitions() {
+        return m_partitions;
+    }
+
+    public void setPartitions(int partitions) {
+        m_partitions = partitions;
+    }
+
+    public String getPartitionKey() {
+        return m_partitionKey;
+    }
+
+    public void setPartitionKey(String partitionKey) {
+        m_partitionKey = partitionKey;
+    }
+
     @Override
     public String toString() {
         return String.format("DroolsCorrelationEngine[%s]", m_name);
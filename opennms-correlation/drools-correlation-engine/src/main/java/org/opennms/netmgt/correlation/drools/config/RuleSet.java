@@ -80,6 +80,15 @@ public class RuleSet implements Serializable {
     @XmlAttribute(name = "persist-state")
     private Boolean _persistState;
 
+    @XmlAttribute(name = "batch-size")
+    private Integer _batchSize;
+
+    @XmlAttribute(name = "partitions")
+    private Integer _partitions;
+
+    @XmlAttribute(name = "partition-key")
+    private String _partitionKey;
+
     @XmlElement(name = "rule-file")
     private List<String> _ruleFileList;
 
@@ -123,6 +132,30 @@ public class RuleSet implements Serializable {
         _persistState = persistState;
     }
 
+    public Integer getBatchSize() {
+        return _batchSize == null ? 0 : _batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        _batchSize = batchSize;
+    }
+
+    public Integer getPartitions() {
+        return _partitions == null ? 1 : _partitions;
+    }
+
+    public void setPartitions(Integer partitions) {
+        _partitions = partitions;
+    }
+
+    public String getPartitionKey() {
+        return _partitionKey == null ? DroolsCorrelationEngine.PARTITION_KEY_NODEID : _partitionKey;
+    }
+
+    public void setPartitionKey(String partitionKey) {
+        _partitionKey = partitionKey;
+    }
+
     /**
      *
      *
@@ -705,7 +738,7 @@ public class RuleSet implements Serializable {
     @Override
     public int hashCode() {
         return Objects.hash(_name, _assertBehaviour, _eventProcessingMode, _persistState,
-                _ruleFileList, _eventList, _appContext, _globalList);
+                _batchSize, _partitions, _partitionKey, _ruleFileList, _eventList, _appContext, _globalList);
     }
 
     @Override
@@ -724,6 +757,9 @@ public class RuleSet implements Serializable {
                 && Objects.equals(this._assertBehaviour, other._assertBehaviour)
                 && Objects.equals(this._eventProcessingMode, other._eventProcessingMode)
                 && Objects.equals(this._persistState, other._persistState)
+                && Objects.equals(this._batchSize, other._batchSize)
+                && Objects.equals(this._partitions, other._partitions)
+                && Objects.equals(this._partitionKey, other._partitionKey)
                 && Objects.equals(this._ruleFileList, other._ruleFileList)
                 && Objects.equals(this._eventList, other._eventList)
                 && Objects.equals(this._appContext, other._appContext)
@@ -737,6 +773,9 @@ public class RuleSet implements Serializable {
         engine.setAssertBehaviour(getAssertBehaviour());
         engine.setEventProcessingMode(getEventProcessingMode());
         engine.setPersistState(getPersistState());
+        engine.setBatchSize(getBatchSize());
+        engine.setPartitions(getPartitions());
+        engine.setPartitionKey(getPartitionKey());
         engine.setEventIpcManager(eventIpcManager);
         engine.setScheduler(new ScheduledThreadPoolExecutor(1));
         engine.setInterestingEvents(getInterestingEvents());
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.correlation.drools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class DroolsCorrelationEnginePartitionTest {
+
+    @Test
+    public void canPartitionByNodeId() {
+        final DroolsCorrelationEngine engine = new DroolsCorrelationEngine("partitionTest", new MetricRegistry());
+        engine.setPartitions(4);
+
+        final Set<Integer> partitions = new HashSet<>();
+        for (long nodeId = 1; nodeId <= 64; nodeId++) {
+            final int partition = engine.getPartition(createEvent("uei.opennms.org/test", nodeId));
+            assertTrue(partition >= 0 && partition < 4);
+            // The same node must always end up on the same partition
+            assertEquals(partition, engine.getPartition(createEvent("uei.opennms.org/other", nodeId)));
+            partitions.add(partition);
+        }
+        assertEquals(4, partitions.size());
+
+        // Events without a node id are handled by the first partition
+        assertEquals(0, engine.getPartition(new EventBuilder("uei.opennms.org/test", "test").getEvent()));
+    }
+
+    @Test
+    public void canPartitionByParm() {
+        final DroolsCorrelationEngine engine = new DroolsCorrelationEngine("partitionTest", new MetricRegistry());
+        engine.setPartitions(3);
+        engine.setPartitionKey("service");
+
+        final Event a = new EventBuilder("uei.opennms.org/test", "test").addParam("service", "ICMP").getEvent();
+        final Event b = new EventBuilder("uei.opennms.org/other", "test").addParam("service", "ICMP").getEvent();
+        assertEquals(engine.getPartition(a), engine.getPartition(b));
+    }
+
+    @Test
+    public void usesSinglePartitionByDefault() {
+        final DroolsCorrelationEngine engine = new DroolsCorrelationEngine("partitionTest", new MetricRegistry());
+        for (long nodeId = 1; nodeId <= 16; nodeId++) {
+            assertEquals(0, engine.getPartition(createEvent("uei.opennms.org/test", nodeId)));
+        }
+    }
+
+    @Test
+    public void canCorrelateBatchesPerPartition() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final DroolsCorrelationEngine engine = new DroolsCorrelationEngine("batchTest", metricRegistry);
+        engine.setPartitions(2);
+        engine.setBatchSize(10);
+
+        // Find a node for each of the partitions
+        final long[] nodeIds = new long[2];
+        for (long nodeId = 1; nodeIds[0] == 0 || nodeIds[1] == 0; nodeId++) {
+            final int partition = engine.getPartition(createEvent("uei.opennms.org/test", nodeId));
+            if (nodeIds[partition] == 0) {
+                nodeIds[partition] = nodeId;
+            }
+        }
+
+        // The rules of the first batch only fire once all other events are queued
+        final CountDownLatch queued = new CountDownLatch(1);
+        final List<List<Object>> facts = Arrays.asList(Collections.synchronizedList(new ArrayList<>()), Collections.synchronizedList(new ArrayList<>()));
+        final List<KieSession> kieSessions = Arrays.asList(mockKieSession(queued, facts.get(0)), mockKieSession(queued, facts.get(1)));
+        engine.startSessions(kieSessions);
+
+        final List<List<Event>> events = Arrays.asList(new ArrayList<>(), new ArrayList<>());
+        try {
+            for (int partition = 0; partition < 2; partition++) {
+                final Event e = createEvent("uei.opennms.org/test", nodeIds[partition]);
+                events.get(partition).add(e);
+                engine.correlate(e);
+            }
+            waitFor(() -> facts.get(0).size() == 1 && facts.get(1).size() == 1);
+
+            for (int i = 0; i < 5; i++) {
+                for (int partition = 0; partition < 2; partition++) {
+                    final Event e = createEvent("uei.opennms.org/test", nodeIds[partition]);
+                    events.get(partition).add(e);
+                    engine.correlate(e);
+                }
+            }
+            queued.countDown();
+            waitFor(() -> facts.get(0).size() == 6 && facts.get(1).size() == 6);
+        } finally {
+            engine.tearDown();
+        }
+
+        // Every partition saw its own events in order and fired the rules once per batch
+        for (int partition = 0; partition < 2; partition++) {
+            assertEquals(events.get(partition), facts.get(partition));
+            verify(kieSessions.get(partition), times(2)).fireAllRules();
+        }
+        assertEquals(4, metricRegistry.timer(MetricRegistry.name("batchTest", "fire-all-rules")).getCount());
+        assertEquals(Arrays.asList(1L, 1L, 5L, 5L), toList(metricRegistry.histogram(MetricRegistry.name("batchTest", "batch-size")).getSnapshot().getValues()));
+    }
+
+    @Test
+    public void canCorrelateQueuedEventsOnTearDown() throws Exception {
+        final DroolsCorrelationEngine engine = new DroolsCorrelationEngine("tearDownTest", new MetricRegistry());
+        engine.setBatchSize(10);
+
+        final CountDownLatch stopping = new CountDownLatch(1);
+        final List<Object> facts = Collections.synchronizedList(new ArrayList<>());
+        final KieSession kieSession = mockKieSession(stopping, facts);
+        engine.startSessions(Collections.singletonList(kieSession));
+
+        final List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final Event e = createEvent("uei.opennms.org/test", i);
+            events.add(e);
+            engine.correlate(e);
+            if (i == 0) {
+                waitFor(() -> facts.size() == 1);
+            }
+        }
+
+        // The worker is still busy with the first event when the engine is stopped
+        final Thread tearDown = new Thread(engine::tearDown);
+        tearDown.start();
+        Thread.sleep(100);
+        stopping.countDown();
+        tearDown.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertEquals(events, facts);
+        verify(kieSession, times(2)).fireAllRules();
+    }
+
+    private static KieSession mockKieSession(final CountDownLatch latch, final List<Object> facts) {
+        final KieSession kieSession = mock(KieSession.class);
+        when(kieSession.insert(any())).thenAnswer(invocation -> {
+            facts.add(invocation.getArguments()[0]);
+            return null;
+        });
+        when(kieSession.fireAllRules()).thenAnswer(invocation -> {
+            latch.await(10, TimeUnit.SECONDS);
+            return 0;
+        });
+        return kieSession;
+    }
+
+    private static void waitFor(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<Long> toList(final long[] values) {
+        final List<Long> list = new ArrayList<>(values.length);
+        for (final long value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static Event createEvent(final String uei, final long nodeId) {
+        return new EventBuilder(uei, "test").setNodeid(nodeId).getEvent();
+    }
+}
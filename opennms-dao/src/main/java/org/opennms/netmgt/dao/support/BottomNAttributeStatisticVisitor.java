@@ -47,7 +47,7 @@ import org.springframework.util.Assert;
 public class BottomNAttributeStatisticVisitor implements AttributeStatisticVisitorWithResults, InitializingBean {
 
     private Integer m_count;
-    private SortedSet<AttributeStatistic> m_results = new TreeSet<AttributeStatistic>(new AttributeStatisticComparator());
+    private final TreeSet<AttributeStatistic> m_results = new TreeSet<AttributeStatistic>(new AttributeStatisticComparator());
     protected Comparator<Double> m_comparator = new DoubleComparator();
 
     /**
@@ -63,6 +63,11 @@ public class BottomNAttributeStatisticVisitor implements AttributeStatisticVisit
         Assert.notNull(attribute, "attribute argument must not be null");
         
         m_results.add(new AttributeStatistic(attribute, statistic));
+
+        // Only the first getCount() results are ever reported, so don't hold on to the rest
+        if (m_count != null && m_results.size() > m_count) {
+            m_results.pollLast();
+        }
     }
 
     /**
@@ -36,6 +36,9 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -45,10 +48,13 @@ import org.opennms.core.spring.BeanUtils;
 import org.opennms.netmgt.dao.api.ResourceStorageDao;
 import org.opennms.netmgt.model.OnmsAttribute;
 import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.rrd.PersistedResourceRegistry;
+import org.opennms.netmgt.rrd.RrdResourceIndex;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.opennms.netmgt.rrd.RrdMetaDataUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -62,7 +68,7 @@ import com.google.common.collect.Maps;
  *
  * @author jwhite
  */
-public class FilesystemResourceStorageDao implements ResourceStorageDao, InitializingBean {
+public class FilesystemResourceStorageDao implements ResourceStorageDao, InitializingBean, DisposableBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(FilesystemResourceStorageDao.class);
 
@@ -73,21 +79,82 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     private File m_rrdDirectory;
 
+    private boolean m_indexEnabled = false;
+    private int m_indexThreads = 4;
+    private long m_indexReconcileInterval = TimeUnit.HOURS.toMillis(1);
+
+    private RrdResourceIndex m_resourceIndex;
+
+    private PersistedResourceRegistry m_persistedResourceRegistry;
+    private ScheduledExecutorService m_indexScheduler;
+
     @Override
     public void afterPropertiesSet() throws Exception {
         BeanUtils.assertAutowiring(this);
         setRrdExtension(m_rrdStrategy.getDefaultFileExtension());
+
+        if (m_indexEnabled) {
+            Preconditions.checkState(m_resourceIndex != null, "resourceIndex must be set when the index is enabled");
+            // Build the index in the background, the filesystem is used until it's ready
+            m_indexScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "RrdResourceIndex");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final Runnable rebuild = () -> {
+                try {
+                    rebuildIndex();
+                } catch (Throwable t) {
+                    LOG.error("Failed to index {}", m_rrdDirectory, t);
+                }
+            };
+            if (m_indexReconcileInterval > 0) {
+                m_indexScheduler.scheduleWithFixedDelay(rebuild, 0, m_indexReconcileInterval, TimeUnit.MILLISECONDS);
+            } else {
+                m_indexScheduler.execute(rebuild);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (m_indexScheduler != null) {
+            m_indexScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Scans the RRD directory again and replaces the index with the result.
+     * Does nothing if the index is disabled.
+     */
+    public void rebuildIndex() {
+        if (m_indexEnabled && m_resourceIndex != null) {
+            m_resourceIndex.build(m_indexThreads, RRD_EXTENSION);
+        }
+    }
+
+    /**
+     * @return true if lookups are answered by the index, false if the filesystem is listed
+     */
+    public boolean isIndexReady() {
+        return m_indexEnabled && m_resourceIndex != null && m_resourceIndex.isBuilt();
     }
 
     @Override
     public boolean exists(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth >= 0, "depth must be non-negative");
+        if (isIndexReady()) {
+            return m_resourceIndex.exists(toPath(path), depth);
+        }
         return exists(toPath(path), depth);
     }
 
     @Override
     public boolean existsWithin(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth >= 0, "depth must be non-negative");
+        if (isIndexReady()) {
+            return m_resourceIndex.existsWithin(toPath(path), depth);
+        }
         return existsWithin(toPath(path), depth);
     }
 
@@ -95,6 +162,11 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
     public Set<ResourcePath> children(ResourcePath path, int depth) {
         Preconditions.checkArgument(depth > 0, "depth must be positive");
         final Path root = toPath(path);
+        if (isIndexReady()) {
+            return m_resourceIndex.children(root, depth).stream()
+                .map(name -> ResourcePath.get(path, name))
+                .collect(Collectors.toSet());
+        }
         if (!Files.isDirectory(root)) {
             return Collections.emptySet();
         }
@@ -147,7 +219,15 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
 
     @Override
     public boolean delete(ResourcePath path) {
-        return FileUtils.deleteQuietly(toPath(path).toFile());
+        final Path directory = toPath(path);
+        // Make sure the persisters recreate the files if the resource shows up again
+        if (m_persistedResourceRegistry != null) {
+            m_persistedResourceRegistry.invalidateDirectory(directory.toString());
+        }
+        if (m_resourceIndex != null) {
+            m_resourceIndex.directoryDeleted(directory.toString());
+        }
+        return FileUtils.deleteQuietly(directory.toFile());
     }
 
     private boolean exists(Path root, int depth) {
@@ -192,6 +272,54 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
         return m_rrdDirectory;
     }
 
+    /**
+     * Keep the directories below the RRD directory in memory instead of
+     * listing them every time a resource is looked up.
+     */
+    public void setIndexEnabled(boolean indexEnabled) {
+        m_indexEnabled = indexEnabled;
+    }
+
+    public boolean isIndexEnabled() {
+        return m_indexEnabled;
+    }
+
+    /**
+     * The number of threads scanning the RRD directory when the index is built.
+     */
+    public void setIndexThreads(int indexThreads) {
+        m_indexThreads = indexThreads;
+    }
+
+    public int getIndexThreads() {
+        return m_indexThreads;
+    }
+
+    /**
+     * The number of milliseconds between two rebuilds of the index, which
+     * pick up files that were created or removed behind the persisters'
+     * backs. Zero only builds the index once.
+     */
+    public void setIndexReconcileInterval(long indexReconcileInterval) {
+        m_indexReconcileInterval = indexReconcileInterval;
+    }
+
+    public long getIndexReconcileInterval() {
+        return m_indexReconcileInterval;
+    }
+
+    /**
+     * The index of the RRD directory, shared with the persisters which
+     * report the files they create to it. Only used if the index is enabled.
+     */
+    public void setResourceIndex(RrdResourceIndex resourceIndex) {
+        m_resourceIndex = resourceIndex;
+    }
+
+    public RrdResourceIndex getResourceIndex() {
+        return m_resourceIndex;
+    }
+
     public void setRrdStrategy(RrdStrategy<?, ?> rrdStrategy) {
         m_rrdStrategy = rrdStrategy;
         setRrdExtension(m_rrdStrategy.getDefaultFileExtension());
@@ -201,6 +329,18 @@ public class FilesystemResourceStorageDao implements ResourceStorageDao, Initial
         RRD_EXTENSION = rrdExtension;
     }
 
+    /**
+     * The registry of the persisters writing to this directory, the files
+     * of deleted resources are removed from it.
+     */
+    public void setPersistedResourceRegistry(PersistedResourceRegistry persistedResourceRegistry) {
+        m_persistedResourceRegistry = persistedResourceRegistry;
+    }
+
+    public PersistedResourceRegistry getPersistedResourceRegistry() {
+        return m_persistedResourceRegistry;
+    }
+
     private static Predicate<Path> isRrdFile = new Predicate<Path>() {
         @Override
         public boolean test(Path path) {
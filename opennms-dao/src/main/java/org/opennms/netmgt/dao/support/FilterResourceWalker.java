@@ -39,6 +39,7 @@ import org.opennms.netmgt.model.EntityVisitor;
 import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.OnmsResource;
 import org.opennms.netmgt.model.ResourceVisitor;
+import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
 /**
@@ -54,6 +55,7 @@ public class FilterResourceWalker implements ResourceWalker {
     private String m_filter;
     private ResourceDao m_resourceDao;
     private ResourceVisitor m_visitor;
+    private TransactionOperations m_transactionOperations;
 
     private ResourceTreeWalker m_resourceWalker = new ResourceTreeWalker();
 
@@ -71,8 +73,16 @@ public class FilterResourceWalker implements ResourceWalker {
 
         SortedMap<Integer, String> map = getFilterDao().getNodeMap(m_filter);
         for (final Integer nodeId : map.keySet()) {
-            final OnmsNode node = getNodeDao().load(nodeId);
-            visitor.visitNode(node);
+            if (m_transactionOperations == null) {
+                visitor.visitNode(getNodeDao().load(nodeId));
+                continue;
+            }
+
+            // Walk every node in a transaction of its own
+            m_transactionOperations.execute(status -> {
+                visitor.visitNode(getNodeDao().load(nodeId));
+                return null;
+            });
         }
     }
 
@@ -187,4 +197,19 @@ public class FilterResourceWalker implements ResourceWalker {
     public void setFilter(String filter) {
         m_filter = filter;
     }
+
+    /**
+     * <p>getTransactionOperations</p>
+     *
+     * @return a {@link org.springframework.transaction.support.TransactionOperations} object.
+     */
+    public TransactionOperations getTransactionOperations() {
+        return m_transactionOperations;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTransactionOperations(TransactionOperations transactionOperations) {
+        m_transactionOperations = transactionOperations;
+    }
 }
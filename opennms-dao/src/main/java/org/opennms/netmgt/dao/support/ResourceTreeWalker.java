@@ -29,10 +29,15 @@
 package org.opennms.netmgt.dao.support;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.opennms.netmgt.dao.api.ResourceDao;
 import org.opennms.netmgt.model.OnmsResource;
+import org.opennms.netmgt.model.ResourceId;
 import org.opennms.netmgt.model.ResourceVisitor;
+import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
 /**
@@ -44,12 +49,31 @@ import org.springframework.util.Assert;
 public class ResourceTreeWalker implements ResourceWalker {
     private ResourceDao m_resourceDao;
     private ResourceVisitor m_visitor;
+    private TransactionOperations m_transactionOperations;
 
     /**
      * <p>walk</p>
      */
     public void walk() {
-        walk(m_resourceDao.findTopLevelResources());
+        if (m_transactionOperations == null) {
+            walk(m_resourceDao.findTopLevelResources());
+            return;
+        }
+
+        // Walk every top-level resource in a transaction of its own. The resources are loaded again
+        // by id in that transaction, since the entities they hold can't be used outside of theirs.
+        final List<ResourceId> topLevelResourceIds = m_transactionOperations.execute(status -> m_resourceDao.findTopLevelResources().stream()
+                .map(OnmsResource::getId)
+                .collect(Collectors.toList()));
+        for (final ResourceId resourceId : topLevelResourceIds) {
+            m_transactionOperations.execute(status -> {
+                final OnmsResource resource = m_resourceDao.getResourceById(resourceId);
+                if (resource != null) {
+                    walk(Collections.singleton(resource));
+                }
+                return null;
+            });
+        }
     }
     
     /**
@@ -108,4 +132,19 @@ public class ResourceTreeWalker implements ResourceWalker {
     public void setVisitor(ResourceVisitor visitor) {
         m_visitor = visitor;
     }
+
+    /**
+     * <p>getTransactionOperations</p>
+     *
+     * @return a {@link org.springframework.transaction.support.TransactionOperations} object.
+     */
+    public TransactionOperations getTransactionOperations() {
+        return m_transactionOperations;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTransactionOperations(TransactionOperations transactionOperations) {
+        m_transactionOperations = transactionOperations;
+    }
 }
@@ -31,6 +31,7 @@ package org.opennms.netmgt.dao.support;
 import org.opennms.netmgt.dao.api.ResourceDao;
 import org.opennms.netmgt.model.ResourceVisitor;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.support.TransactionOperations;
 
 public interface ResourceWalker extends InitializingBean {
 
@@ -46,4 +47,10 @@ public interface ResourceWalker extends InitializingBean {
 
 	void setResourceDao(ResourceDao resourceDao);
 
+	/**
+	 * When set, the walker looks the resources up in a series of short
+	 * transactions instead of relying on one held open by the caller.
+	 */
+	void setTransactionOperations(TransactionOperations transactionOperations);
+
 }
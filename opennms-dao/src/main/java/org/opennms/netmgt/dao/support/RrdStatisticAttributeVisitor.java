@@ -41,8 +41,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.function.Supplier;
 
 /**
@@ -142,27 +144,20 @@ public class RrdStatisticAttributeVisitor implements AttributeVisitor, Initializ
     /** {@inheritDoc} */
     @Override
     public void visit(OnmsAttribute attribute) {
+        visit(attribute, m_statisticVisitor);
+    }
+
+    private void visit(OnmsAttribute attribute, AttributeStatisticVisitor statisticVisitor) {
         if (!RrdGraphAttribute.class.isAssignableFrom(attribute.getClass())) {
             // Nothing to do if we can't cast to an RrdGraphAttribute
             return;
         }
 
-        final Source source = new Source();
-        source.setLabel("result");
-        source.setResourceId(attribute.getResource().getId().toString());
-        source.setAttribute(attribute.getName());
-        source.setAggregation(m_consolidationFunction.toUpperCase());
+        final Source source = createSource(attribute, "result");
 
         final FetchResults results;
         try {
-            results = m_fetchStrategy.fetch(m_startTime,
-                                            m_endTime,
-                                            1,
-                                            0,
-                                            null,
-                                            null,
-                                            Collections.singletonList(source),
-                                            false);
+            results = fetch(Collections.singletonList(source));
         } catch (final Exception e) {
             LOG.warn("Failed to fetch statistic: {}", source, e);
             return;
@@ -173,6 +168,83 @@ public class RrdStatisticAttributeVisitor implements AttributeVisitor, Initializ
             return;
         }
 
+        visitStatistic(attribute, source, results, statisticVisitor);
+    }
+
+    /**
+     * Fetches the statistics of all of the given attributes with a single
+     * request and passes them to the given statistic visitor. If the
+     * combined request fails, every attribute is fetched on its own so that
+     * a single broken attribute doesn't take the others down with it.
+     *
+     * <p>This method only reads the configuration of this visitor, so it can
+     * be called from several threads at once as long as the statistic
+     * visitor can.</p>
+     *
+     * @param attributes the attributes to fetch the statistics for
+     * @param statisticVisitor the visitor receiving the statistics
+     */
+    public void visitAll(List<? extends OnmsAttribute> attributes, AttributeStatisticVisitor statisticVisitor) {
+        final List<OnmsAttribute> rrdAttributes = new ArrayList<>(attributes.size());
+        for (OnmsAttribute attribute : attributes) {
+            if (RrdGraphAttribute.class.isAssignableFrom(attribute.getClass())) {
+                rrdAttributes.add(attribute);
+            }
+        }
+
+        if (rrdAttributes.size() <= 1) {
+            for (OnmsAttribute attribute : rrdAttributes) {
+                visit(attribute, statisticVisitor);
+            }
+            return;
+        }
+
+        final List<Source> sources = new ArrayList<>(rrdAttributes.size());
+        for (int i = 0; i < rrdAttributes.size(); i++) {
+            sources.add(createSource(rrdAttributes.get(i), "result" + i));
+        }
+
+        FetchResults results;
+        try {
+            results = fetch(sources);
+        } catch (final Exception e) {
+            LOG.warn("Failed to fetch {} statistics at once, fetching them one by one", sources.size(), e);
+            results = null;
+        }
+
+        if (results == null) {
+            for (OnmsAttribute attribute : rrdAttributes) {
+                visit(attribute, statisticVisitor);
+            }
+            return;
+        }
+
+        for (int i = 0; i < rrdAttributes.size(); i++) {
+            visitStatistic(rrdAttributes.get(i), sources.get(i), results, statisticVisitor);
+        }
+    }
+
+    private Source createSource(OnmsAttribute attribute, String label) {
+        final Source source = new Source();
+        source.setLabel(label);
+        source.setResourceId(attribute.getResource().getId().toString());
+        source.setAttribute(attribute.getName());
+        source.setAggregation(m_consolidationFunction.toUpperCase());
+        return source;
+    }
+
+    private FetchResults fetch(List<Source> sources) throws Exception {
+        return m_fetchStrategy.fetch(m_startTime,
+                                     m_endTime,
+                                     1,
+                                     0,
+                                     null,
+                                     null,
+                                     sources,
+                                     false);
+    }
+
+    private void visitStatistic(OnmsAttribute attribute, Source source, FetchResults results, AttributeStatisticVisitor statisticVisitor) {
         final double[] statistics = results.getColumns().get(source.getLabel());
         if (statistics == null || statistics.length == 0) {
             LOG.warn("Statistic is empty: {}", source);
@@ -204,7 +276,7 @@ public class RrdStatisticAttributeVisitor implements AttributeVisitor, Initializ
             return;
         }
         
-        m_statisticVisitor.visit(attribute, statistic);
+        statisticVisitor.visit(attribute, statistic);
     }
 
     /**
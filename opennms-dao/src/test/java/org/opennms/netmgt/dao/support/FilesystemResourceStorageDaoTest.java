@@ -34,6 +34,8 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Before;
@@ -42,6 +44,10 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.opennms.netmgt.model.OnmsAttribute;
 import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.rrd.PersistedResourceRegistry;
+import org.opennms.netmgt.rrd.RrdAttributeType;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.netmgt.rrd.RrdResourceIndex;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
 
@@ -150,4 +156,63 @@ public class FilesystemResourceStorageDaoTest {
         Set<OnmsAttribute> attributes = m_fsResourceStorageDao.getAttributes(ResourcePath.get("a"));
         assertEquals(1, attributes.size());
     }
+
+    @Test
+    public void deleteInvalidatesPersistedResources() throws IOException {
+        final List<RrdDataSource> dataSources = Collections.singletonList(new RrdDataSource("ds", RrdAttributeType.GAUGE, 600, "U", "U"));
+        final PersistedResourceRegistry registry = new PersistedResourceRegistry(10);
+        m_fsResourceStorageDao.setPersistedResourceRegistry(registry);
+
+        File a = tempFolder.newFolder("a");
+        File b = tempFolder.newFolder("b");
+        new File(a, "ds" + m_rrdFileExtension).createNewFile();
+        new File(b, "ds" + m_rrdFileExtension).createNewFile();
+        registry.created(a.getAbsolutePath(), "ds", dataSources);
+        registry.created(b.getAbsolutePath(), "ds", dataSources);
+
+        // The persisters have to create the files again if the resource shows up again
+        assertTrue(m_fsResourceStorageDao.delete(ResourcePath.get("a")));
+        assertFalse(registry.isCreated(a.getAbsolutePath(), "ds", dataSources));
+        assertTrue(registry.isCreated(b.getAbsolutePath(), "ds", dataSources));
+    }
+
+    @Test
+    public void indexedLookups() throws Exception {
+        File folder = tempFolder.newFolder("a", "b");
+        new File(folder, "ds" + m_rrdFileExtension).createNewFile();
+        tempFolder.newFolder("a", "c");
+
+        RrdResourceIndex index = new RrdResourceIndex(tempFolder.getRoot());
+        m_fsResourceStorageDao.setResourceIndex(index);
+        m_fsResourceStorageDao.setIndexEnabled(true);
+        m_fsResourceStorageDao.setIndexReconcileInterval(0);
+        m_fsResourceStorageDao.afterPropertiesSet();
+        try {
+            // The index is built once in the background
+            for (int i = 0; i < 100 && !m_fsResourceStorageDao.isIndexReady(); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(m_fsResourceStorageDao.isIndexReady());
+
+            assertTrue(m_fsResourceStorageDao.exists(ResourcePath.get("a", "b"), 0));
+            assertFalse(m_fsResourceStorageDao.exists(ResourcePath.get("a", "c"), 0));
+            assertTrue(m_fsResourceStorageDao.existsWithin(ResourcePath.get("a"), 1));
+            assertEquals(1, m_fsResourceStorageDao.children(ResourcePath.get("a"), 1).size());
+
+            // Files created by the persisters show up without rebuilding the index
+            File created = tempFolder.newFolder("a", "c", "d");
+            new File(created, "ds" + m_rrdFileExtension).createNewFile();
+            index.fileCreated(created.getAbsolutePath());
+            assertTrue(m_fsResourceStorageDao.exists(ResourcePath.get("a", "c"), 1));
+            assertEquals(Collections.singleton(ResourcePath.get("a", "c")), m_fsResourceStorageDao.children(ResourcePath.get("a"), 2));
+            assertEquals(Collections.singleton(ResourcePath.get("a", "b")), m_fsResourceStorageDao.children(ResourcePath.get("a"), 1));
+
+            // Deleted resources are gone right away
+            assertTrue(m_fsResourceStorageDao.delete(ResourcePath.get("a", "b")));
+            assertFalse(m_fsResourceStorageDao.exists(ResourcePath.get("a", "b"), 0));
+            assertEquals(0, m_fsResourceStorageDao.children(ResourcePath.get("a"), 1).size());
+        } finally {
+            m_fsResourceStorageDao.destroy();
+        }
+    }
 }
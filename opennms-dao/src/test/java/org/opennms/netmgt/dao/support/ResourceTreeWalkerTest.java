@@ -31,9 +31,11 @@ package org.opennms.netmgt.dao.support;
 import static org.easymock.EasyMock.expect;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
@@ -45,6 +47,8 @@ import org.opennms.netmgt.model.ResourcePath;
 import org.opennms.netmgt.model.ResourceVisitor;
 import org.opennms.test.ThrowableAnticipator;
 import org.opennms.test.mock.EasyMockUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
 
 /**
  * @author <a href="mailto:dj@opennms.org">DJ Gregor</a>
@@ -164,4 +168,39 @@ public class ResourceTreeWalkerTest extends TestCase {
         walker.walk();
         m_mocks.verifyAll();
     }
+
+    public void testWalkTopLevelInTransactions() {
+        final AtomicInteger transactions = new AtomicInteger();
+        ResourceTreeWalker walker = new ResourceTreeWalker();
+        walker.setResourceDao(m_resourceDao);
+        walker.setVisitor(m_visitor);
+        walker.setTransactionOperations(new TransactionOperations() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                transactions.incrementAndGet();
+                return action.doInTransaction(null);
+            }
+        });
+
+        m_mocks.replayAll();
+        walker.afterPropertiesSet();
+        m_mocks.verifyAll();
+
+        MockResourceType resourceType = new MockResourceType();
+        OnmsResource nodeOne = new OnmsResource("1", "Node One", resourceType, new HashSet<OnmsAttribute>(0), new ResourcePath("foo"));
+        OnmsResource nodeTwo = new OnmsResource("2", "Node Two", resourceType, new HashSet<OnmsAttribute>(0), new ResourcePath("foo"));
+        expect(m_resourceDao.findTopLevelResources()).andReturn(Arrays.asList(nodeOne, nodeTwo));
+
+        // Every resource is loaded again in the transaction that walks it, node two is gone by then
+        OnmsResource reloadedNodeOne = new OnmsResource("1", "Node One", resourceType, new HashSet<OnmsAttribute>(0), new ResourcePath("foo"));
+        expect(m_resourceDao.getResourceById(nodeOne.getId())).andReturn(reloadedNodeOne);
+        expect(m_resourceDao.getResourceById(nodeTwo.getId())).andReturn(null);
+        m_visitor.visit(reloadedNodeOne);
+
+        m_mocks.replayAll();
+        walker.walk();
+        m_mocks.verifyAll();
+
+        assertEquals(3, transactions.get());
+    }
 }
@@ -30,7 +30,13 @@ package org.opennms.netmgt.dao.support;
 
 import static org.easymock.EasyMock.expect;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
 import org.opennms.netmgt.measurements.api.FetchResults;
 import org.opennms.netmgt.measurements.api.MeasurementFetchStrategy;
@@ -325,4 +331,56 @@ public class RrdStatisticAttributeVisitorTest extends TestCase {
         attributeVisitor2.visit(attribute);
         m_mocks.verifyAll();
     }
+
+    public void testVisitAllFetchesBatchWithOneRequest() throws Exception {
+        RrdStatisticAttributeVisitor attributeVisitor = new RrdStatisticAttributeVisitor();
+        attributeVisitor.setFetchStrategy(m_fetchStrategy);
+        attributeVisitor.setConsolidationFunction("AVERAGE");
+        attributeVisitor.setStartTime(m_startTime);
+        attributeVisitor.setEndTime(m_endTime);
+        attributeVisitor.setStatisticVisitor(m_statisticVisitor);
+        attributeVisitor.afterPropertiesSet();
+
+        MockResourceType resourceType = new MockResourceType();
+        resourceType.setName("interfaceSnmp");
+
+        OnmsAttribute inOctets = new RrdGraphAttribute("ifInOctets", "something", "something else");
+        OnmsAttribute outOctets = new RrdGraphAttribute("ifOutOctets", "something", "something else");
+        OnmsResource resource = new OnmsResource("1", "Node One", resourceType, new HashSet<OnmsAttribute>(Arrays.asList(inOctets, outOctets)), ResourcePath.get("foo"));
+        inOctets.setResource(resource);
+        outOctets.setResource(resource);
+
+        List<Source> sources = new ArrayList<>();
+        Map<String, double[]> columns = new HashMap<>();
+        int i = 0;
+        for (OnmsAttribute attribute : Arrays.asList(inOctets, outOctets)) {
+            Source source = new Source();
+            source.setLabel("result" + i);
+            source.setResourceId(attribute.getResource().getId().toString());
+            source.setAttribute(attribute.getName());
+            source.setAggregation("AVERAGE");
+            sources.add(source);
+            columns.put(source.getLabel(), new double[] { i + 1.0, Double.NaN });
+            i++;
+        }
+
+        expect(m_fetchStrategy.fetch(m_startTime,
+                                     m_endTime,
+                                     1,
+                                     0,
+                                     null,
+                                     null,
+                                     sources,
+                                     false))
+                .andReturn(new FetchResults(new long[]{m_startTime, m_endTime},
+                                            columns,
+                                            m_endTime - m_startTime,
+                                            Collections.emptyMap()));
+        m_statisticVisitor.visit(inOctets, 1.0);
+        m_statisticVisitor.visit(outOctets, 2.0);
+
+        m_mocks.replayAll();
+        attributeVisitor.visitAll(Arrays.asList(inOctets, outOctets), m_statisticVisitor);
+        m_mocks.verifyAll();
+    }
 }
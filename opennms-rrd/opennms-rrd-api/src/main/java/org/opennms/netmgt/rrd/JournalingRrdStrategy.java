@@ -0,0 +1,727 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides a journaling implementation of RrdStrategy.
+ *
+ * Creates and updates are appended to an {@link RrdJournal} on disk instead
+ * of being written to the round robin databases right away, so collectors
+ * only pay for a sequential write to a memory-mapped file. A background
+ * thread reads the journal in batches, groups the operations of each batch by
+ * file and has a set of applier threads replay them into the delegate
+ * strategy, opening every file only once per batch.
+ *
+ * Operations that were not applied when OpenNMS stopped or crashed are still
+ * in the journal and are applied when the strategy is started again. Since
+ * the journal is only checkpointed after a whole batch, a few operations may
+ * be applied twice after a crash. The delegate rejects these updates because
+ * their timestamps are not newer than the last update of the file, which is
+ * only logged at debug level.
+ *
+ * When the journal reaches the maximum number of segments, new operations
+ * are discarded until the appliers catch up.
+ *
+ * This implementation delegates all the actual writing to another RrdStrategy
+ * implementation. Operations handed to the delegate are considered applied,
+ * so the delegate should not queue them in memory again.
+ */
+public class JournalingRrdStrategy implements RrdStrategy<JournalingRrdStrategy.CreateRequest, String>, Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(JournalingRrdStrategy.class);
+
+    private static final byte CREATE = 1;
+    private static final byte UPDATE = 2;
+    private static final byte NUMERIC_UPDATE = 3;
+
+    private final RrdStrategy<Object, Object> m_delegate;
+
+    private Properties m_configurationProperties;
+
+    private String m_journalDirectory;
+    private int m_segmentSize = 32 * 1024 * 1024;
+    private int m_maxSegments = 64;
+    private int m_batchSize = 10000;
+    private int m_applierThreads = 2;
+    private long m_syncPeriod = 1;
+
+    private volatile RrdJournal m_journal;
+    private Thread m_readerThread;
+    private ExecutorService m_appliers;
+    private ScheduledExecutorService m_syncer;
+    private volatile boolean m_running = false;
+    private volatile boolean m_stopped = false;
+
+    private final AtomicLong m_recordsJournaled = new AtomicLong();
+    private final AtomicLong m_recordsApplied = new AtomicLong();
+    private final AtomicLong m_recordsDropped = new AtomicLong();
+    private final AtomicLong m_recordsReplayed = new AtomicLong();
+    private final AtomicLong m_errors = new AtomicLong();
+    private final AtomicLong m_batchesApplied = new AtomicLong();
+
+    /**
+     * The parameters of a create, they are only turned into a definition of
+     * the delegate strategy when the create is applied.
+     */
+    public static class CreateRequest {
+        private final String m_fileName;
+        private final String m_creator;
+        private final String m_directory;
+        private final String m_rrdName;
+        private final int m_step;
+        private final List<RrdDataSource> m_dataSources;
+        private final List<String> m_rraList;
+
+        CreateRequest(String fileName, String creator, String directory, String rrdName, int step, List<RrdDataSource> dataSources, List<String> rraList) {
+            m_fileName = fileName;
+            m_creator = creator;
+            m_directory = directory;
+            m_rrdName = rrdName;
+            m_step = step;
+            m_dataSources = dataSources;
+            m_rraList = rraList;
+        }
+
+        public String getFileName() {
+            return m_fileName;
+        }
+    }
+
+    /**
+     * A decoded journal record.
+     */
+    private static class Operation {
+        private final byte m_type;
+        private final boolean m_recovered;
+        private CreateRequest m_create;
+        private String m_owner;
+        private String m_data;
+        private long m_timestamp;
+        private double[] m_values;
+
+        private Operation(byte type, boolean recovered) {
+            m_type = type;
+            m_recovered = recovered;
+        }
+    }
+
+    /**
+     * <p>Constructor for JournalingRrdStrategy.</p>
+     *
+     * @param delegate a {@link org.opennms.netmgt.rrd.RrdStrategy} object.
+     */
+    public JournalingRrdStrategy(RrdStrategy<Object, Object> delegate) {
+        if (QueuingRrdStrategy.class.isInstance(delegate)) {
+            throw new IllegalArgumentException("The journal cannot be applied to a queuing strategy, its operations would be checkpointed before they are written.");
+        }
+        m_delegate = delegate;
+    }
+
+    /**
+     * <p>getDelegate</p>
+     *
+     * @return a {@link org.opennms.netmgt.rrd.RrdStrategy} object.
+     */
+    public RrdStrategy<Object, Object> getDelegate() {
+        return m_delegate;
+    }
+
+    /**
+     * <p>getConfigurationProperties</p>
+     *
+     * @return a {@link java.util.Properties} object.
+     */
+    public Properties getConfigurationProperties() {
+        return m_configurationProperties;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConfigurationProperties(final Properties configurationParameters) {
+        m_configurationProperties = configurationParameters;
+    }
+
+    public String getJournalDirectory() {
+        return m_journalDirectory;
+    }
+
+    public void setJournalDirectory(String journalDirectory) {
+        m_journalDirectory = journalDirectory;
+    }
+
+    public int getSegmentSize() {
+        return m_segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        m_segmentSize = segmentSize;
+    }
+
+    public int getMaxSegments() {
+        return m_maxSegments;
+    }
+
+    public void setMaxSegments(int maxSegments) {
+        m_maxSegments = maxSegments;
+    }
+
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public int getApplierThreads() {
+        return m_applierThreads;
+    }
+
+    public void setApplierThreads(int applierThreads) {
+        m_applierThreads = applierThreads;
+    }
+
+    public long getSyncPeriod() {
+        return m_syncPeriod;
+    }
+
+    /**
+     * <p>setSyncPeriod</p>
+     *
+     * @param syncPeriod the number of seconds between two flushes of the journal to disk, 0 to leave it to the OS
+     */
+    public void setSyncPeriod(long syncPeriod) {
+        m_syncPeriod = syncPeriod;
+    }
+
+    /**
+     * Opens the journal and starts applying the operations in it, including
+     * those that were left over from the last run.
+     *
+     * @throws IOException if the journal cannot be opened
+     */
+    public synchronized void start() throws IOException {
+        if (m_journal != null) {
+            return;
+        }
+        if (m_journalDirectory == null) {
+            throw new IllegalStateException("No journal directory has been set");
+        }
+        final RrdJournal journal = new RrdJournal(new File(m_journalDirectory), m_segmentSize, m_maxSegments);
+        journal.open();
+        m_journal = journal;
+        m_running = true;
+        m_stopped = false;
+
+        if (m_applierThreads > 1) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            m_appliers = Executors.newFixedThreadPool(m_applierThreads, r -> {
+                final Thread t = new Thread(r, getClass().getSimpleName() + "-Applier-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        if (m_syncPeriod > 0) {
+            m_syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread t = new Thread(r, getClass().getSimpleName() + "-Sync");
+                t.setDaemon(true);
+                return t;
+            });
+            m_syncer.scheduleWithFixedDelay(m_journal::sync, m_syncPeriod, m_syncPeriod, TimeUnit.SECONDS);
+        }
+
+        m_readerThread = new Thread(this, getClass().getSimpleName() + "-Reader");
+        m_readerThread.setDaemon(true);
+        m_readerThread.start();
+    }
+
+    /**
+     * Stops applying operations and closes the journal. Operations that have
+     * not been applied yet are applied when the strategy is started again,
+     * operations that are appended after this fail.
+     */
+    public void stop() {
+        final Thread readerThread;
+        synchronized (this) {
+            if (!m_running) {
+                return;
+            }
+            m_running = false;
+            m_stopped = true;
+            readerThread = m_readerThread;
+        }
+        try {
+            readerThread.join(TimeUnit.SECONDS.toMillis(30));
+            if (readerThread.isAlive()) {
+                // The current batch is taking too long, interrupt the appliers waiting on it
+                readerThread.interrupt();
+                readerThread.join(TimeUnit.SECONDS.toMillis(5));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (m_appliers != null) {
+            m_appliers.shutdown();
+        }
+        if (m_syncer != null) {
+            // A sync that is still running must be done before the segments are unmapped
+            m_syncer.shutdown();
+            try {
+                if (!m_syncer.awaitTermination(30, TimeUnit.SECONDS)) {
+                    LOG.warn("stop: the journal in {} is still being flushed to disk", m_journalDirectory);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (readerThread.isAlive()) {
+            // The reader may still access the segments, so they must stay mapped.
+            // Whatever it did not checkpoint is applied again on the next start.
+            LOG.error("stop: the journal reader did not stop in time, leaving the journal in {} open", m_journalDirectory);
+            m_journal.sync();
+            return;
+        }
+        synchronized (this) {
+            m_journal.close();
+            // Allow the strategy to be started again
+            m_journal = null;
+            m_appliers = null;
+            m_syncer = null;
+            m_readerThread = null;
+        }
+    }
+
+    //
+    // RrdStrategy Implementation.. These methods just append the calls to the journal
+    //
+
+    /** {@inheritDoc} */
+    @Override
+    public CreateRequest createDefinition(String creator, String directory, String rrdName, int step, List<RrdDataSource> dataSources, List<String> rraList) throws Exception {
+        final String fileName = directory + File.separator + rrdName + m_delegate.getDefaultFileExtension();
+        return new CreateRequest(fileName, creator, directory, rrdName, step, dataSources, rraList);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void createFile(CreateRequest request) throws Exception {
+        if (request == null) {
+            return;
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(request.m_fileName);
+        writeNullableUTF(out, request.m_creator);
+        out.writeUTF(request.m_directory);
+        out.writeUTF(request.m_rrdName);
+        out.writeInt(request.m_step);
+        out.writeInt(request.m_dataSources.size());
+        for (final RrdDataSource ds : request.m_dataSources) {
+            out.writeUTF(ds.getName());
+            out.writeUTF(ds.getType().name());
+            out.writeInt(ds.getHeartBeat());
+            writeNullableUTF(out, ds.getMin());
+            writeNullableUTF(out, ds.getMax());
+        }
+        out.writeInt(request.m_rraList.size());
+        for (final String rra : request.m_rraList) {
+            out.writeUTF(rra);
+        }
+        append(CREATE, bytes.toByteArray());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String openFile(String fileName) throws Exception {
+        return fileName;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String rrdFile, String owner, String data) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(rrdFile);
+        writeNullableUTF(out, owner);
+        out.writeUTF(data);
+        append(UPDATE, bytes.toByteArray());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String rrdFile, String owner, long timestamp, double[] values) throws Exception {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + values.length * 8);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(rrdFile);
+        writeNullableUTF(out, owner);
+        out.writeLong(timestamp);
+        out.writeInt(values.length);
+        for (final double value : values) {
+            out.writeDouble(value);
+        }
+        append(NUMERIC_UPDATE, bytes.toByteArray());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void closeFile(String rrd) throws Exception {
+        // no need to do anything here
+    }
+
+    private void append(final byte type, final byte[] payload) throws IOException {
+        if (m_journal == null && !m_stopped) {
+            start();
+        }
+        final RrdJournal journal = m_journal;
+        if (journal == null) {
+            throw new IOException("The journal in " + m_journalDirectory + " has been stopped");
+        }
+        if (journal.append(type, payload)) {
+            m_recordsJournaled.incrementAndGet();
+        } else if (m_recordsDropped.getAndIncrement() % 10000 == 0) {
+            LOG.warn("append: the journal in {} is full, discarding operations until it is applied. {} operations have been discarded so far.", m_journalDirectory, m_recordsDropped.get());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(String rrdFile, String ds, int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(String rrdFile, String ds, String consolidationFunction, int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, consolidationFunction, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValueInRange(String rrdFile, String ds, int interval, int range) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValueInRange(rrdFile, ds, interval, range);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream createGraph(String command, File workDir) throws IOException, RrdException {
+        return m_delegate.createGraph(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RrdGraphDetails createGraphReturnDetails(String command, File workDir) throws IOException, RrdException {
+        return m_delegate.createGraphReturnDetails(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphLeftOffset() {
+        return m_delegate.getGraphLeftOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphRightOffset() {
+        return m_delegate.getGraphRightOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphTopOffsetWithText() {
+        return m_delegate.getGraphTopOffsetWithText();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getDefaultFileExtension() {
+        return m_delegate.getDefaultFileExtension();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        m_delegate.promoteEnqueuedFiles(rrdFiles);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getStats() {
+        final RrdJournal journal = m_journal;
+        return "JS:\trecordsJournaled=" + getRecordsJournaled() +
+                ", recordsApplied=" + getRecordsApplied() +
+                ", recordsReplayed=" + getRecordsReplayed() +
+                ", recordsDropped=" + getRecordsDropped() +
+                ", errors=" + getErrors() +
+                ", batchesApplied=" + getBatchesApplied() +
+                ", segments=" + (journal == null ? 0 : journal.getSegmentCount()) +
+                ", pendingBytes=" + getPendingBytes() +
+                "\n" + m_delegate.getStats();
+    }
+
+    //
+    // These methods are run by the reader and applier threads
+    //
+
+    /**
+     * <p>run</p>
+     */
+    @Override
+    public void run() {
+        // The journal is cleared once the strategy has stopped
+        final RrdJournal journal = m_journal;
+        while (m_running) {
+            try {
+                final List<RrdJournal.Record> records = journal.read(m_batchSize);
+                if (records.isEmpty()) {
+                    journal.awaitRecords(500);
+                    continue;
+                }
+                applyBatch(records);
+                journal.checkpoint(records.get(records.size() - 1).getEnd());
+                m_batchesApplied.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable t) {
+                LOG.error("run: unexpected error while applying the journal in {}", m_journalDirectory, t);
+            }
+        }
+    }
+
+    private void applyBatch(final List<RrdJournal.Record> records) throws InterruptedException {
+        // Keep the operations for the same file in the order in which they were journaled
+        final Map<String, List<Operation>> operationsByFile = new LinkedHashMap<>();
+        for (final RrdJournal.Record record : records) {
+            try {
+                final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getPayload()));
+                final String fileName = in.readUTF();
+                final Operation op = decode(record.getType(), record.isRecovered(), in);
+                List<Operation> operations = operationsByFile.get(fileName);
+                if (operations == null) {
+                    operations = new ArrayList<>();
+                    operationsByFile.put(fileName, operations);
+                }
+                operations.add(op);
+            } catch (IOException | RuntimeException e) {
+                m_errors.incrementAndGet();
+                LOG.warn("applyBatch: skipping journal record of type {} that cannot be read", record.getType(), e);
+            }
+        }
+
+        if (m_appliers == null) {
+            for (final Map.Entry<String, List<Operation>> entry : operationsByFile.entrySet()) {
+                applyOperations(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+
+        final List<Future<?>> futures = new ArrayList<>(operationsByFile.size());
+        for (final Map.Entry<String, List<Operation>> entry : operationsByFile.entrySet()) {
+            futures.add(m_appliers.submit(() -> applyOperations(entry.getKey(), entry.getValue())));
+        }
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                LOG.error("applyBatch: unexpected error while applying operations", e.getCause());
+            }
+        }
+    }
+
+    private void applyOperations(final String fileName, final List<Operation> operations) {
+        Object rrd = null;
+        try {
+            for (final Operation op : operations) {
+                try {
+                    if (op.m_type == CREATE) {
+                        if (rrd != null) {
+                            m_delegate.closeFile(rrd);
+                            rrd = null;
+                        }
+                        final CreateRequest request = op.m_create;
+                        final Object def = m_delegate.createDefinition(request.m_creator, request.m_directory, request.m_rrdName, request.m_step, request.m_dataSources, request.m_rraList);
+                        m_delegate.createFile(def);
+                    } else {
+                        if (rrd == null) {
+                            rrd = m_delegate.openFile(fileName);
+                        }
+                        if (op.m_type == NUMERIC_UPDATE) {
+                            m_delegate.updateFile(rrd, op.m_owner, op.m_timestamp, op.m_values);
+                        } else {
+                            m_delegate.updateFile(rrd, op.m_owner, op.m_data);
+                        }
+                    }
+                    m_recordsApplied.incrementAndGet();
+                    if (op.m_recovered) {
+                        m_recordsReplayed.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    m_errors.incrementAndGet();
+                    if (op.m_recovered) {
+                        LOG.debug("applyOperations: unable to apply recovered operation to {}, it was probably applied before the restart", fileName, t);
+                    } else {
+                        LOG.warn("applyOperations: unable to apply operation to {}", fileName, t);
+                    }
+                    // Open the file again for the next operation
+                    if (rrd != null) {
+                        closeQuietly(fileName, rrd);
+                        rrd = null;
+                    }
+                }
+            }
+        } finally {
+            if (rrd != null) {
+                closeQuietly(fileName, rrd);
+            }
+        }
+    }
+
+    private void closeQuietly(final String fileName, final Object rrd) {
+        try {
+            m_delegate.closeFile(rrd);
+        } catch (Throwable t) {
+            LOG.error("closeQuietly: unable to close {}", fileName, t);
+        }
+    }
+
+    private static Operation decode(final byte type, final boolean recovered, final DataInputStream in) throws IOException {
+        final Operation op = new Operation(type, recovered);
+        switch (type) {
+        case CREATE: {
+            final String creator = readNullableUTF(in);
+            final String directory = in.readUTF();
+            final String rrdName = in.readUTF();
+            final int step = in.readInt();
+            final int dsCount = in.readInt();
+            final List<RrdDataSource> dataSources = new ArrayList<>(dsCount);
+            for (int i = 0; i < dsCount; i++) {
+                final String name = in.readUTF();
+                final RrdAttributeType dsType = RrdAttributeType.valueOf(in.readUTF());
+                final int heartBeat = in.readInt();
+                final String min = readNullableUTF(in);
+                final String max = readNullableUTF(in);
+                dataSources.add(new RrdDataSource(name, dsType, heartBeat, min, max));
+            }
+            final int rraCount = in.readInt();
+            final List<String> rraList = new ArrayList<>(rraCount);
+            for (int i = 0; i < rraCount; i++) {
+                rraList.add(in.readUTF());
+            }
+            op.m_create = new CreateRequest(null, creator, directory, rrdName, step, dataSources, rraList);
+            break;
+        }
+        case UPDATE:
+            op.m_owner = readNullableUTF(in);
+            op.m_data = in.readUTF();
+            break;
+        case NUMERIC_UPDATE: {
+            op.m_owner = readNullableUTF(in);
+            op.m_timestamp = in.readLong();
+            final double[] values = new double[in.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readDouble();
+            }
+            op.m_values = values;
+            break;
+        }
+        default:
+            throw new IOException("Unknown journal record type " + type);
+        }
+        return op;
+    }
+
+    private static void writeNullableUTF(final DataOutputStream out, final String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    public long getRecordsJournaled() {
+        return m_recordsJournaled.get();
+    }
+
+    public long getRecordsApplied() {
+        return m_recordsApplied.get();
+    }
+
+    public long getRecordsReplayed() {
+        return m_recordsReplayed.get();
+    }
+
+    public long getRecordsDropped() {
+        return m_recordsDropped.get();
+    }
+
+    public long getErrors() {
+        return m_errors.get();
+    }
+
+    public long getBatchesApplied() {
+        return m_batchesApplied.get();
+    }
+
+    /**
+     * <p>getPendingBytes</p>
+     *
+     * @return the number of bytes in the journal that have not been applied yet
+     */
+    public long getPendingBytes() {
+        final RrdJournal journal = m_journal;
+        return journal == null ? 0 : journal.getPendingBytes();
+    }
+}
@@ -99,6 +99,11 @@ public class NullRrdStrategy implements RrdStrategy<Object,Object> {
         // pass
 	}
 
+    @Override
+	public void updateFile(Object rrd, String owner, long timestamp, double[] values) {
+        // pass
+	}
+
     @Override
     public int getGraphLeftOffset() {
         return 0;
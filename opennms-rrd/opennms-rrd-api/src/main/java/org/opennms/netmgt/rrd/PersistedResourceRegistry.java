@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers which RRD and meta data files have already been written, and with
+ * which data sources and meta data, so that persisting the same resource again
+ * doesn't have to check the filesystem on every collection.
+ *
+ * <p>Files are identified by their directory and RRD name, without the file
+ * extension. The least recently used files are forgotten once the registry is
+ * full. Entries have to be invalidated when the files are removed, see
+ * {@link #invalidateDirectory(String)}.</p>
+ */
+public class PersistedResourceRegistry {
+
+    /**
+     * The maximum number of files to remember. Zero disables the registry.
+     */
+    public static final String MAX_ENTRIES_PROPERTY = "org.opennms.rrd.persistedResources.maxEntries";
+
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    private static class Entry {
+        private volatile List<RrdDataSource> m_dataSources;
+        private volatile Map<String, String> m_metaData;
+    }
+
+    private final int m_maxEntries;
+
+    // Guarded by itself, in access order so that the least recently used files are evicted first
+    private final Map<String, Entry> m_entries;
+
+    // Most resources share the same data sources, so only one copy of each list is kept
+    private final ConcurrentMap<List<RrdDataSource>, List<RrdDataSource>> m_layouts = new ConcurrentHashMap<>();
+
+    /**
+     * <p>Constructor for PersistedResourceRegistry.</p>
+     *
+     * @param maxEntries the maximum number of files to remember
+     */
+    public PersistedResourceRegistry(int maxEntries) {
+        m_maxEntries = maxEntries;
+        m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > m_maxEntries;
+            }
+        };
+    }
+
+    /**
+     * <p>isCreated</p>
+     *
+     * @param directory the directory of the RRD file
+     * @param rrdName the name of the RRD file without extension
+     * @param dataSources the data sources the RRD file should have
+     * @return true if the file was already created with the same data sources
+     */
+    public boolean isCreated(final String directory, final String rrdName, final List<RrdDataSource> dataSources) {
+        final Entry entry = getEntry(directory, rrdName);
+        return entry != null && dataSources.equals(entry.m_dataSources);
+    }
+
+    /**
+     * Record that the RRD file has been created with the given data sources.
+     */
+    public void created(final String directory, final String rrdName, final List<RrdDataSource> dataSources) {
+        final Entry entry = getOrCreateEntry(directory, rrdName);
+        if (entry != null) {
+            entry.m_dataSources = intern(Collections.unmodifiableList(new ArrayList<>(dataSources)));
+        }
+    }
+
+    /**
+     * <p>isMetaDataWritten</p>
+     *
+     * @param directory the directory of the meta data file
+     * @param rrdName the name of the RRD file without extension
+     * @param metaData the meta data the file should contain
+     * @return true if the file was already written with the same meta data
+     */
+    public boolean isMetaDataWritten(final String directory, final String rrdName, final Map<String, String> metaData) {
+        final Entry entry = getEntry(directory, rrdName);
+        return entry != null && metaData.equals(entry.m_metaData);
+    }
+
+    /**
+     * Record that the meta data file has been written with the given meta data.
+     */
+    public void metaDataWritten(final String directory, final String rrdName, final Map<String, String> metaData) {
+        final Entry entry = getOrCreateEntry(directory, rrdName);
+        if (entry != null) {
+            entry.m_metaData = Collections.unmodifiableMap(new LinkedHashMap<>(metaData));
+        }
+    }
+
+    /**
+     * Forget about the given RRD file, i.e. after it has been removed.
+     */
+    public void invalidate(final String directory, final String rrdName) {
+        synchronized (m_entries) {
+            m_entries.remove(key(directory, rrdName));
+        }
+    }
+
+    /**
+     * Forget about all of the files in the given directory and its
+     * subdirectories, i.e. after a resource has been deleted.
+     */
+    public void invalidateDirectory(final String directory) {
+        final String prefix = directory.endsWith(File.separator) ? directory : directory + File.separator;
+        synchronized (m_entries) {
+            m_entries.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Forget about all files.
+     */
+    public void clear() {
+        synchronized (m_entries) {
+            m_entries.clear();
+        }
+        m_layouts.clear();
+    }
+
+    /**
+     * <p>size</p>
+     *
+     * @return the number of files remembered
+     */
+    public int size() {
+        synchronized (m_entries) {
+            return m_entries.size();
+        }
+    }
+
+    private Entry getEntry(final String directory, final String rrdName) {
+        synchronized (m_entries) {
+            return m_entries.get(key(directory, rrdName));
+        }
+    }
+
+    private Entry getOrCreateEntry(final String directory, final String rrdName) {
+        if (m_maxEntries <= 0) {
+            return null;
+        }
+        final String key = key(directory, rrdName);
+        synchronized (m_entries) {
+            return m_entries.computeIfAbsent(key, k -> new Entry());
+        }
+    }
+
+    private List<RrdDataSource> intern(final List<RrdDataSource> dataSources) {
+        final List<RrdDataSource> existing = m_layouts.putIfAbsent(dataSources, dataSources);
+        return existing == null ? dataSources : existing;
+    }
+
+    private static String key(final String directory, final String rrdName) {
+        return directory + File.separator + rrdName;
+    }
+}
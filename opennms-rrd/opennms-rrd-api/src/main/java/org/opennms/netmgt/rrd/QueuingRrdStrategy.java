@@ -31,15 +31,21 @@ package org.opennms.netmgt.rrd;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.ListIterator;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opennms.core.logging.Logging;
 import org.slf4j.Logger;
@@ -69,6 +75,14 @@ import org.slf4j.LoggerFactory;
  * collected but will not be output to the rrd files until the next time the
  * file is processed by the write threads.
  *
+ * Each file has its own queue of pending operations which is only locked while
+ * operations are added to or taken from that file, so collector threads
+ * enqueuing work for different files never contend with each other. Files with
+ * work ready to be written are handed to the write threads through concurrent
+ * ready queues, and a file is only ever processed by one write thread at a time.
+ * Consecutive zero valued updates are merged into a single operation under the
+ * lock of the file's queue.
+ *
  * As another performance improving strategy. The queue distinguishes between
  * files with significant vs insignificant updates. Files with only insignificant
  * updates are put at the lowest priority and are only written when the highest
@@ -357,41 +371,79 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         m_writeThreadExitDelay = writeThreadExitDelay;
     }
 
-    LinkedList<String> filesWithSignificantWork = new LinkedList<String>();
+    /**
+     * The pending operations for a single file.  Each file has its own queue
+     * guarded by the queue itself so collector threads enqueuing work for
+     * different files never contend with each other or with the write threads.
+     */
+    static class FileQueue {
+        final String fileName;
+
+        LinkedList<Operation> operations = new LinkedList<Operation>();
+
+        // true while the file is waiting on one of the ready queues
+        boolean ready = false;
+
+        // true while the file has been placed on the significant ready queue
+        boolean significantQueued = false;
+
+        // true while a write thread is processing the file
+        boolean reserved = false;
+
+        // true once the queue is no longer in the index, enqueuers must look it up again
+        boolean removed = false;
+
+        long oldestEnqueueTime = 0;
+
+        FileQueue(final String fileName) {
+            this.fileName = fileName;
+        }
+    }
+
+    final ConcurrentMap<String, FileQueue> pendingFileOperations = new ConcurrentHashMap<String, FileQueue>();
 
-    LinkedList<String> filesWithInsignificantWork = new LinkedList<String>();
+    /*
+     * The ready queues may hold stale or duplicate file names, a file is only
+     * handed to a write thread if its queue is still marked as ready.
+     */
+    final Deque<String> filesWithSignificantWork = new ConcurrentLinkedDeque<String>();
+
+    final Deque<String> filesWithInsignificantWork = new ConcurrentLinkedDeque<String>();
 
-    Map<String, LinkedList<Operation>> pendingFileOperations = new HashMap<String, LinkedList<Operation>>();
+    private final AtomicInteger m_significantFilesQueued = new AtomicInteger();
 
-    Map<Thread, String> fileAssignments = new HashMap<Thread, String>();
+    private final AtomicInteger m_insignificantFilesQueued = new AtomicInteger();
 
-    Set<String> reservedFiles = new HashSet<String>();
+    // one permit per entry added to the ready queues
+    private final Semaphore m_readyFiles = new Semaphore(0);
 
-    private long m_totalOperationsPending = 0;
+    private final AtomicLong m_totalOperationsPending = new AtomicLong();
 
-    private long m_enqueuedOperations = 0;
+    private final AtomicLong m_enqueuedOperations = new AtomicLong();
 
-    private long m_dequeuedOperations = 0;
+    private final AtomicLong m_dequeuedOperations = new AtomicLong();
 
-    private long m_significantOpsEnqueued = 0;
+    private final AtomicLong m_significantOpsEnqueued = new AtomicLong();
 
-    private long m_significantOpsDequeued = 0;
+    private final AtomicLong m_significantOpsDequeued = new AtomicLong();
 
-    private long m_significantOpsCompleted = 0;
+    private final AtomicLong m_significantOpsCompleted = new AtomicLong();
 
-    private long m_dequeuedItems = 0;
+    private final AtomicLong m_dequeuedItems = new AtomicLong();
 
-    private long m_createsCompleted = 0;
+    private final AtomicLong m_dequeuedItemsAge = new AtomicLong();
 
-    private long m_updatesCompleted = 0;
+    private final AtomicLong m_createsCompleted = new AtomicLong();
 
-    private long m_errors = 0;
+    private final AtomicLong m_updatesCompleted = new AtomicLong();
 
-    int threadsRunning = 0;
+    private final AtomicLong m_errors = new AtomicLong();
 
-    private long m_startTime = 0;
+    final AtomicInteger threadsRunning = new AtomicInteger();
 
-    private long m_promotionCount = 0;
+    private final AtomicLong m_startTime = new AtomicLong();
+
+    private final AtomicLong m_promotionCount = new AtomicLong();
 
     long lastLap = System.currentTimeMillis();
 
@@ -477,7 +529,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             m_delegate.createFile(getData());
 
             // keep stats
-            setCreatesCompleted(getCreatesCompleted() + 1);
+            m_createsCompleted.incrementAndGet();
 
             // return the file
             return rrd;
@@ -516,8 +568,47 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             }
 
             // keep stats
-            setUpdatesCompleted(getUpdatesCompleted() + 1);
-            if (getUpdatesCompleted() % m_modulus == 0) {
+            if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
+                logStats();
+            }
+            // return the open rrd for further processing
+            return rrd;
+
+        }
+
+    }
+
+    /**
+     * Represents an update to a rrd file given as a timestamp and numeric
+     * values.
+     */
+    public class NumericUpdateOperation extends Operation {
+
+        final long timeStamp;
+
+        NumericUpdateOperation(String fileName, long timeStamp, double[] values) {
+            super(fileName, UPDATE, values, true);
+            this.timeStamp = timeStamp;
+        }
+
+        @Override
+        Object process(Object rrd) throws Exception {
+            // open the file if we need to
+            if (rrd == null) rrd = m_delegate.openFile(getFileName());
+
+            final double[] values = (double[]) getData();
+
+            try {
+                // process the update
+                m_delegate.updateFile(rrd, "", timeStamp, values);
+            } catch (final Throwable e) {
+                final String error = String.format("Error processing update for file %s: %d:%s", getFileName(), timeStamp, Arrays.toString(values));
+                m_log.debug(error, e);
+                throw new Exception(error, e);
+            }
+
+            // keep stats
+            if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                 logStats();
             }
             // return the open rrd for further processing
@@ -553,18 +644,16 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                 if (rrd == null)
                     rrd = m_delegate.openFile(getFileName());
 
-                String update = ts + ":0";
                 try {
                     // process the update
-                    m_delegate.updateFile(rrd, "", update);
+                    m_delegate.updateFile(rrd, "", ts, new double[] { 0.0 });
                 } catch (Throwable e) {
-                    throw new Exception("Error processing update " + i + " for file " + getFileName() + ": " + update, e);
+                    throw new Exception("Error processing update " + i + " for file " + getFileName() + ": " + ts + ":0", e);
                 }
                 ts += getInterval();
 
                 // keep stats
-                setUpdatesCompleted(getUpdatesCompleted() + 1);
-                if (getUpdatesCompleted() % m_modulus == 0) {
+                if (m_updatesCompleted.incrementAndGet() % m_modulus == 0) {
                     logStats();
                 }
             }
@@ -670,11 +759,28 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return new UpdateOperation(fileName, update);
     }
 
+    /**
+     * <p>makeUpdateOperation</p>
+     *
+     * @param fileName a {@link java.lang.String} object.
+     * @param owner a {@link java.lang.String} object.
+     * @param timestamp a long.
+     * @param values an array of double.
+     * @return a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
+     */
+    Operation makeUpdateOperation(String fileName, String owner, long timestamp, double[] values) {
+        if (values.length == 1 && values[0] == 0.0) {
+            if (timestamp == 0)
+                m_log.debug("ZERO ERROR: created a zero update with ts=0 for file: {}", fileName);
+
+            return new ZeroUpdateOperation(fileName, timestamp);
+        }
+        return new NumericUpdateOperation(fileName, timestamp, values);
+    }
+
     //
     // Queue management functions.
     //
-    // TODO: Put this all in a class of its own. This is really ugly.
-    //
 
     /**
      * Add an operation to the queue.
@@ -682,31 +788,30 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param op a {@link org.opennms.netmgt.rrd.QueuingRrdStrategy.Operation} object.
      */
     private void addOperation(final Operation op) {
-        synchronized (this) {
-            if (queueIsFull()) {
-                m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+        if (queueIsFull()) {
+            m_log.error("RRD Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
 
-            if (op.isSignificant() && sigQueueIsFull()) {
-                m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+        if (op.isSignificant() && sigQueueIsFull()) {
+            m_log.error("RRD Data Significant Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
 
-            if (!op.isSignificant() && inSigQueueIsFull()) {
-                m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
-                return;
-            }
+        if (!op.isSignificant() && inSigQueueIsFull()) {
+            m_log.error("RRD Insignificant Data Queue is Full!! Discarding operation for file {}", op.getFileName());
+            return;
+        }
 
-            storeAssignment(op);
+        // count the operation before it becomes visible to the write threads
+        m_totalOperationsPending.incrementAndGet();
+        m_enqueuedOperations.incrementAndGet();
+        if (op.isSignificant())
+            m_significantOpsEnqueued.incrementAndGet();
 
-            setTotalOperationsPending(getTotalOperationsPending() + 1);
-            setEnqueuedOperations(getEnqueuedOperations() + 1);
-            if (op.isSignificant())
-                setSignificantOpsEnqueued(getSignificantOpsEnqueued() + 1);
-            notifyAll();
-            ensureThreadsStarted();
-        }
+        storeAssignment(op);
+
+        ensureThreadsStarted();
     }
 
 
@@ -734,91 +839,95 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     /**
      * Ensure that we have threads started to process the queue.
      */
-    private synchronized void ensureThreadsStarted() {
-        if (threadsRunning < m_writeThreads) {
-            threadsRunning++;
-            new Thread(this, this.getClass().getSimpleName() + "-" + threadsRunning).start();
+    private void ensureThreadsStarted() {
+        int running;
+        while ((running = threadsRunning.get()) < m_writeThreads) {
+            if (threadsRunning.compareAndSet(running, running + 1)) {
+                new Thread(this, this.getClass().getSimpleName() + "-" + (running + 1)).start();
+                return;
+            }
         }
     }
 
     /**
-     * Get the operations for the next file that should be worked on.
+     * Get the queue of the next file that should be worked on and reserve it
+     * for the current thread.
      *
-     * @return a linkedList of operations to be processed all for the same file.
+     * @return the reserved queue or null if no file became ready in time
      */
-    private LinkedList<Operation> getNext() {
-        LinkedList<Operation> ops = null;
-        synchronized (this) {
+    private FileQueue getNext() {
+        try {
+            if (!m_readyFiles.tryAcquire(Math.max(m_writeThreadSleepTime, 1), TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            return null;
+        }
 
-            // turn in our previous assignment
-            completeAssignment();
+        // initialize start time for stats
+        m_startTime.compareAndSet(0, System.currentTimeMillis());
 
-            String newAssignment;
-            // wait until there is work to do
-            while ((newAssignment = selectNewAssignment()) == null) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
+        promoteAgedFiles();
+
+        return selectNewAssignment();
+    }
+
+    /**
+     * Add the operation to the queue of its file and place the file on the
+     * correct ready queue if it isn't already waiting or being processed.
+     */
+    private void storeAssignment(final Operation op) {
+        while (true) {
+            final FileQueue queue = pendingFileOperations.computeIfAbsent(op.getFileName(), FileQueue::new);
+            synchronized (queue) {
+                if (queue.removed) {
+                    // a write thread just emptied and dropped this queue
+                    continue;
                 }
-            }
 
-            // initialize start time for stats
-            if (getStartTime() == 0)
-                setStartTime(System.currentTimeMillis());
+                if (queue.operations.isEmpty()) {
+                    queue.oldestEnqueueTime = System.currentTimeMillis();
+                }
+                op.addToPendingList(queue.operations);
 
-            // reserve the assignment and take work items
-            ops = takeAssignment(newAssignment);
+                // the write thread re-queues the file when it is done with it
+                if (queue.reserved) {
+                    return;
+                }
 
-            // keep stats
-            if (ops != null) {
-                for(Operation op : ops) {
-                    setTotalOperationsPending(getTotalOperationsPending()-op.getCount());
-                    setDequeuedOperations(getDequeuedOperations() + op.getCount());
-                    if (op.isSignificant()) {
-                        setSignificantOpsDequeued(getSignificantOpsDequeued() + op.getCount());
-                    }
+                // if we aren't prioritizing then every file is counted as significant
+                final boolean significant = !m_prioritizeSignificantUpdates || op.isSignificant();
+                if (!queue.ready) {
+                    queue.ready = true;
+                    queue.significantQueued = significant;
+                    scheduleFile(queue.fileName, significant, false);
+                } else if (significant && !queue.significantQueued) {
+                    // promote the file to the significant list if this is the first
+                    // significant operation
+                    queue.significantQueued = true;
+                    scheduleFile(queue.fileName, true, false);
                 }
-                setDequeuedItems(getDequeuedItems() + 1);
+                return;
             }
         }
-
-        return ops;
-
     }
 
     /**
-     * We need to track which files are being processed by which threads so that
-     * we don't try to process updates for the same file on more than one
-     * thread.
+     * Place the file on a ready queue and wake up a write thread.
      */
-    private synchronized void storeAssignment(Operation op) {
-        // look and see if there a pending ops list for this file
-        LinkedList<Operation> pendingOperations = pendingFileOperations.get(op.getFileName());
-
-        // if not then we create an ops list for the file and add the file to
-        // the work items list
-        if (pendingOperations == null) {
-            pendingOperations = new LinkedList<Operation>();
-            pendingFileOperations.put(op.getFileName(), pendingOperations);
-
-            // add the file to the correct list based on what type of work we
-            // are adding.  (if we aren't prioritizing then every file is counted as
-            // signficant
-            if (!m_prioritizeSignificantUpdates || op.isSignificant())
-                filesWithSignificantWork.addLast(op.getFileName());
-            else
-                filesWithInsignificantWork.addLast(op.getFileName());
-        } else if (m_prioritizeSignificantUpdates && op.isSignificant() && hasOnlyInsignificant(pendingOperations)) {
-            // only do this when we are prioritizing as this bumps files from inSig
-            // up to insig
-            // promote the file to the significant list if this is the first
-            // significant
-            filesWithSignificantWork.addLast(op.getFileName());
+    private void scheduleFile(final String fileName, final boolean significant, final boolean first) {
+        if (significant) {
+            if (first) {
+                filesWithSignificantWork.addFirst(fileName);
+            } else {
+                filesWithSignificantWork.addLast(fileName);
+            }
+            m_significantFilesQueued.incrementAndGet();
+        } else {
+            filesWithInsignificantWork.addLast(fileName);
+            m_insignificantFilesQueued.incrementAndGet();
         }
-
-        promoteAgedFiles();
-
-        op.addToPendingList(pendingOperations);
+        m_readyFiles.release();
     }
 
     /**
@@ -826,13 +935,14 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * necessary
      *
      */
-    private synchronized void promoteAgedFiles() {
+    private void promoteAgedFiles() {
 
         // no need to do this is we aren't prioritizing
         if (!m_prioritizeSignificantUpdates) return;
 
         // the num seconds to update files is 0 then use unfair prioritization
-        if (m_maxInsigUpdateSeconds == 0 || filesWithInsignificantWork.isEmpty())
+        final int insignificantFiles = m_insignificantFilesQueued.get();
+        if (m_maxInsigUpdateSeconds == 0 || insignificantFiles <= 0)
             return;
 
         // calculate the elapsed time we first queued updates
@@ -842,7 +952,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         // calculate the milliseconds between promotions necessary to age
         // insignificant files into
         // the significant queue
-        double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / filesWithInsignificantWork.size());
+        double millisPerPromotion = ((m_maxInsigUpdateSeconds * 1000.0) / insignificantFiles);
 
         // calculate the number of millis since start until the next file needs
         // to be promotoed
@@ -851,17 +961,34 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         // if more time has elapsed than the next promotion time then promote a
         // file
         if (elapsedMillis > nextPromotionMillis) {
-            String file = filesWithInsignificantWork.removeFirst();
-            filesWithSignificantWork.addFirst(file);
-            setPromotionCount(getPromotionCount() + 1);
+            final String file = filesWithInsignificantWork.pollFirst();
+            if (file != null) {
+                m_insignificantFilesQueued.decrementAndGet();
+                filesWithSignificantWork.addFirst(file);
+                m_significantFilesQueued.incrementAndGet();
+                m_promotionCount.incrementAndGet();
+            }
         }
 
     }
 
     /** {@inheritDoc} */
     @Override
-    public synchronized void promoteEnqueuedFiles(Collection<String> rrdFiles) {
-        filesWithSignificantWork.addAll(0, rrdFiles);
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        // walk the files backwards so they end up at the head of the queue in the given order
+        final List<String> files = new ArrayList<String>(rrdFiles);
+        for (final ListIterator<String> it = files.listIterator(files.size()); it.hasPrevious();) {
+            final FileQueue queue = pendingFileOperations.get(it.previous());
+            if (queue == null) {
+                continue;
+            }
+            synchronized (queue) {
+                if (queue.ready) {
+                    queue.significantQueued = true;
+                    scheduleFile(queue.fileName, true, true);
+                }
+            }
+        }
         m_delegate.promoteEnqueuedFiles(rrdFiles);
     }
 
@@ -879,51 +1006,89 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     }
 
     /**
-     * register the file that the currentThread is be working on. This enables
-     * us to ensure that another thread doesn't try to work on operations for
-     * that file.  Note: this is not synchronized as it is called from getNext which
-     * is thread safe
+     * Take the pending operations of a reserved file.  Operations enqueued
+     * for the file from here on are kept until the assignment is completed.
      */
-    private LinkedList<Operation> takeAssignment(String newAssignment) {
+    private LinkedList<Operation> takeAssignment(final FileQueue queue) {
+        final LinkedList<Operation> ops;
+        final long age;
+        synchronized (queue) {
+            ops = queue.operations;
+            queue.operations = new LinkedList<Operation>();
+            age = System.currentTimeMillis() - queue.oldestEnqueueTime;
+        }
 
-        // make the file as reserved by the current thread
-        fileAssignments.put(Thread.currentThread(), newAssignment);
-        reservedFiles.add(newAssignment);
+        // keep stats
+        for (Operation op : ops) {
+            m_totalOperationsPending.addAndGet(-op.getCount());
+            m_dequeuedOperations.addAndGet(op.getCount());
+            if (op.isSignificant()) {
+                m_significantOpsDequeued.addAndGet(op.getCount());
+            }
+        }
+        m_dequeuedItems.incrementAndGet();
+        m_dequeuedItemsAge.addAndGet(age);
 
-        // get the assignments work list and return it
-        return pendingFileOperations.remove(newAssignment);
+        return ops;
     }
 
     /**
-     * Return the name of the next file with available work
+     * Return the queue of the next file with available work, reserved for
+     * the current thread.
      */
-    private String selectNewAssignment() {
-        for (Iterator<String> it = filesWithSignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
+    private FileQueue selectNewAssignment() {
+        String fileName;
+        while ((fileName = pollReadyFile()) != null) {
+            final FileQueue queue = pendingFileOperations.get(fileName);
+            if (queue == null) {
+                continue;
             }
-        }
-        for (Iterator<String> it = filesWithInsignificantWork.iterator(); it.hasNext();) {
-            String fn = it.next();
-            if (!reservedFiles.contains(fn)) {
-                it.remove();
-                return fn;
+            synchronized (queue) {
+                if (!queue.ready || queue.reserved) {
+                    // stale entry, the file was already handed to a write thread
+                    continue;
+                }
+                queue.ready = false;
+                queue.significantQueued = false;
+                queue.reserved = true;
+                return queue;
             }
         }
         return null;
     }
 
+    private String pollReadyFile() {
+        String fileName = filesWithSignificantWork.pollFirst();
+        if (fileName != null) {
+            m_significantFilesQueued.decrementAndGet();
+            return fileName;
+        }
+        fileName = filesWithInsignificantWork.pollFirst();
+        if (fileName != null) {
+            m_insignificantFilesQueued.decrementAndGet();
+        }
+        return fileName;
+    }
+
     /**
      * Record that fact that the current thread has finished process operations
-     * for its current assignment
-     */
-    private synchronized void completeAssignment() {
-        // remove any existing reservation of the current thread
-        String previousAssignment = fileAssignments.remove(Thread.currentThread());
-        if (previousAssignment != null)
-            reservedFiles.remove(previousAssignment);
+     * for its current assignment.  The file is queued again if more operations
+     * arrived while it was being processed.
+     */
+    private void completeAssignment(final FileQueue queue) {
+        synchronized (queue) {
+            queue.reserved = false;
+            if (queue.operations.isEmpty()) {
+                // only keep files with pending work in the index
+                queue.removed = true;
+                pendingFileOperations.remove(queue.fileName, queue);
+            } else {
+                final boolean significant = !m_prioritizeSignificantUpdates || !hasOnlyInsignificant(queue.operations);
+                queue.ready = true;
+                queue.significantQueued = significant;
+                scheduleFile(queue.fileName, significant, false);
+            }
+        }
     }
 
     /**
@@ -1016,6 +1181,12 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         addOperation(makeUpdateOperation((String) rrdFile, owner, data));
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String rrdFile, String owner, long timestamp, double[] values) throws Exception {
+        addOperation(makeUpdateOperation(rrdFile, owner, timestamp, values));
+    }
+
     /** {@inheritDoc} */
     @Override
     public Double fetchLastValue(String rrdFile, String ds, int interval) throws NumberFormatException, RrdException {
@@ -1081,10 +1252,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
             }
         } finally {
-            synchronized (this) {
-                threadsRunning--;
-                completeAssignment();
-            }
+            threadsRunning.decrementAndGet();
         }
     }
 
@@ -1095,19 +1263,21 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
     private void processPendingOperations() {
         Logging.withPrefix(m_category, new Runnable() {
             @Override public void run() {
+                final FileQueue queue = getNext();
+                if (queue == null) {
+                    return;
+                }
+
                 Object rrd = null;
-                String fileName = null;
+                String fileName = queue.fileName;
 
                 try {
-                    final LinkedList<Operation> ops = getNext();
-                    if (ops == null) {
-                        return;
-                    }
+                    final LinkedList<Operation> ops = takeAssignment(queue);
                     // update stats correctly we update them even if an exception occurs
                     // while we are processing
                     for (final Operation op : ops) {
                         if (op.isSignificant()) {
-                            setSignificantOpsCompleted(getSignificantOpsCompleted() + 1);
+                            m_significantOpsCompleted.incrementAndGet();
                         }
 
                     }
@@ -1117,11 +1287,12 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
                         rrd = op.process(rrd);
                     }
                 } catch (final Throwable e) {
-                    setErrors(getErrors() + 1);
+                    m_errors.incrementAndGet();
                     logLapTime("Error updating file " + fileName + ": " + e.getMessage());
                     m_log.debug("Error updating file {}: {}", fileName, e.getMessage(), e);
                 } finally {
                     processClose(rrd);
+                    completeAssignment(queue);
                 }
             }
         });
@@ -1135,13 +1306,12 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
             try {
                 m_delegate.closeFile(rrd);
             } catch (final Throwable e) {
-                setErrors(getErrors() + 1);
+                m_errors.incrementAndGet();
                 logLapTime("Error closing rrd " + rrd + ": " + e.getMessage());
                 m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
             }
         }
     }
-
     /**
      * Print queue statistics.
      *
@@ -1181,8 +1351,12 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
 
         String stats = "\nQS:\t" + "totalOperationsPending=" + getTotalOperationsPending() +
                 ", significantOpsPending=" + (getSignificantOpsEnqueued() - getSignificantOpsCompleted()) +
-                ", filesWithSignificantWork=" + filesWithSignificantWork.size() +
-                ", filesWithInsignificantWork=" + filesWithInsignificantWork.size()
+                ", filesWithPendingWork=" + getFilesWithPendingWork() +
+                ", filesWithSignificantWork=" + m_significantFilesQueued.get() +
+                ", filesWithInsignificantWork=" + m_insignificantFilesQueued.get() +
+                ", largestFileBacklog=" + getLargestFileBacklog() +
+                ", oldestPendingAge=" + getOldestPendingAge() +
+                ", averageQueueAge=" + getAverageQueueAge()
 
                 + "\nQS:\t" + ", createsCompleted=" + getCreatesCompleted() +
                 ", updatesCompleted=" + getUpdatesCompleted() +
@@ -1291,13 +1465,68 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
         return m_delegate.createGraphReturnDetails(command, workDir);
     }
 
+    /**
+     * <p>getFilesWithPendingWork</p>
+     *
+     * @return the number of files with operations waiting to be written or being written.
+     */
+    public long getFilesWithPendingWork() {
+        return pendingFileOperations.size();
+    }
+
+    /**
+     * <p>getLargestFileBacklog</p>
+     *
+     * @return the largest number of operations waiting to be written for a single file.
+     */
+    public long getLargestFileBacklog() {
+        long largest = 0;
+        for (final FileQueue queue : pendingFileOperations.values()) {
+            synchronized (queue) {
+                long backlog = 0;
+                for (final Operation op : queue.operations) {
+                    backlog += op.getCount();
+                }
+                largest = Math.max(largest, backlog);
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * <p>getOldestPendingAge</p>
+     *
+     * @return the number of milliseconds the oldest operation that is still waiting has been queued.
+     */
+    public long getOldestPendingAge() {
+        final long now = System.currentTimeMillis();
+        long oldest = 0;
+        for (final FileQueue queue : pendingFileOperations.values()) {
+            synchronized (queue) {
+                if (!queue.operations.isEmpty()) {
+                    oldest = Math.max(oldest, now - queue.oldestEnqueueTime);
+                }
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * <p>getAverageQueueAge</p>
+     *
+     * @return the average number of milliseconds a file waited between its first enqueued operation and being written.
+     */
+    public long getAverageQueueAge() {
+        return m_dequeuedItemsAge.get() / Math.max(m_dequeuedItems.get(), 1);
+    }
+
     /**
      * <p>getTotalOperationsPending</p>
      *
      * @return a long.
      */
     public long getTotalOperationsPending() {
-        return m_totalOperationsPending;
+        return m_totalOperationsPending.get();
     }
 
     /**
@@ -1306,7 +1535,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param totalOperationsPending a long.
      */
     public void setTotalOperationsPending(long totalOperationsPending) {
-        m_totalOperationsPending = totalOperationsPending;
+        m_totalOperationsPending.set(totalOperationsPending);
     }
 
     /**
@@ -1315,7 +1544,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getCreatesCompleted() {
-        return m_createsCompleted;
+        return m_createsCompleted.get();
     }
 
     /**
@@ -1324,7 +1553,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param createsCompleted a long.
      */
     public void setCreatesCompleted(long createsCompleted) {
-        m_createsCompleted = createsCompleted;
+        m_createsCompleted.set(createsCompleted);
     }
 
     /**
@@ -1333,7 +1562,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getUpdatesCompleted() {
-        return m_updatesCompleted;
+        return m_updatesCompleted.get();
     }
 
     /**
@@ -1342,7 +1571,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param updatesCompleted a long.
      */
     public void setUpdatesCompleted(long updatesCompleted) {
-        m_updatesCompleted = updatesCompleted;
+        m_updatesCompleted.set(updatesCompleted);
     }
 
     /**
@@ -1351,7 +1580,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getErrors() {
-        return m_errors;
+        return m_errors.get();
     }
 
     /**
@@ -1360,7 +1589,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param errors a long.
      */
     public void setErrors(long errors) {
-        m_errors = errors;
+        m_errors.set(errors);
     }
 
     /**
@@ -1369,7 +1598,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getPromotionCount() {
-        return m_promotionCount;
+        return m_promotionCount.get();
     }
 
     /**
@@ -1378,7 +1607,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param promotionCount a long.
      */
     public void setPromotionCount(long promotionCount) {
-        m_promotionCount = promotionCount;
+        m_promotionCount.set(promotionCount);
     }
 
     /**
@@ -1387,7 +1616,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsEnqueued() {
-        return m_significantOpsEnqueued;
+        return m_significantOpsEnqueued.get();
     }
 
     /**
@@ -1396,7 +1625,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsEnqueued a long.
      */
     public void setSignificantOpsEnqueued(long significantOpsEnqueued) {
-        m_significantOpsEnqueued = significantOpsEnqueued;
+        m_significantOpsEnqueued.set(significantOpsEnqueued);
     }
 
     /**
@@ -1405,7 +1634,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsDequeued() {
-        return m_significantOpsDequeued;
+        return m_significantOpsDequeued.get();
     }
 
     /**
@@ -1414,7 +1643,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsDequeued a long.
      */
     public void setSignificantOpsDequeued(long significantOpsDequeued) {
-        m_significantOpsDequeued = significantOpsDequeued;
+        m_significantOpsDequeued.set(significantOpsDequeued);
     }
 
     /**
@@ -1423,7 +1652,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getEnqueuedOperations() {
-        return m_enqueuedOperations;
+        return m_enqueuedOperations.get();
     }
 
     /**
@@ -1432,7 +1661,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param enqueuedOperations a long.
      */
     public void setEnqueuedOperations(long enqueuedOperations) {
-        m_enqueuedOperations = enqueuedOperations;
+        m_enqueuedOperations.set(enqueuedOperations);
     }
 
     /**
@@ -1441,7 +1670,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedOperations() {
-        return m_dequeuedOperations;
+        return m_dequeuedOperations.get();
     }
 
     /**
@@ -1450,7 +1679,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedOperations a long.
      */
     public void setDequeuedOperations(long dequeuedOperations) {
-        m_dequeuedOperations = dequeuedOperations;
+        m_dequeuedOperations.set(dequeuedOperations);
     }
 
     /**
@@ -1459,7 +1688,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getDequeuedItems() {
-        return m_dequeuedItems;
+        return m_dequeuedItems.get();
     }
 
     /**
@@ -1468,7 +1697,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param dequeuedItems a long.
      */
     public void setDequeuedItems(long dequeuedItems) {
-        m_dequeuedItems = dequeuedItems;
+        m_dequeuedItems.set(dequeuedItems);
     }
 
     /**
@@ -1477,7 +1706,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getSignificantOpsCompleted() {
-        return m_significantOpsCompleted;
+        return m_significantOpsCompleted.get();
     }
 
     /**
@@ -1486,7 +1715,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param significantOpsCompleted a long.
      */
     public void setSignificantOpsCompleted(long significantOpsCompleted) {
-        m_significantOpsCompleted = significantOpsCompleted;
+        m_significantOpsCompleted.set(significantOpsCompleted);
     }
 
     /**
@@ -1495,7 +1724,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @return a long.
      */
     public long getStartTime() {
-        return m_startTime;
+        return m_startTime.get();
     }
 
     /**
@@ -1504,7 +1733,7 @@ public class QueuingRrdStrategy implements RrdStrategy<QueuingRrdStrategy.Create
      * @param updateStart a long.
      */
     public void setStartTime(long updateStart) {
-        m_startTime = updateStart;
+        m_startTime.set(updateStart);
     }
 
 
@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.rrd;
 
+import java.util.Objects;
+
 public class RrdDataSource {
     private final String m_name;
     private final RrdAttributeType m_type;
@@ -88,4 +90,25 @@ public class RrdDataSource {
         return m_type;
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(m_name, m_type, m_heartBeat, m_min, m_max);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RrdDataSource)) {
+            return false;
+        }
+        final RrdDataSource other = (RrdDataSource) obj;
+        return Objects.equals(m_name, other.m_name)
+                && Objects.equals(m_type, other.m_type)
+                && m_heartBeat == other.m_heartBeat
+                && Objects.equals(m_min, other.m_min)
+                && Objects.equals(m_max, other.m_max);
+    }
+
 }
@@ -0,0 +1,605 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of records stored in a directory of fixed size,
+ * memory-mapped segment files.
+ *
+ * <p>Any number of threads may append records, they are written to the active
+ * segment in the order in which they were appended. A single reader consumes
+ * the records in the same order and records how far it got with
+ * {@link #checkpoint(Position)}. Segments that lie entirely before the
+ * checkpoint are deleted.</p>
+ *
+ * <p>When the journal is opened, the existing segments are scanned and every
+ * record after the last checkpoint is read again. Each record carries a CRC so
+ * that a record that was only partially written when the system went down ends
+ * the segment instead of being read back.</p>
+ */
+public class RrdJournal implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(RrdJournal.class);
+
+    private static final int MAGIC = 0x4f4e4a4c;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final String CHECKPOINT_FILE_NAME = "checkpoint";
+    private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile("^segment-(\\d{20})\\.jnl$");
+
+    /**
+     * A position in the journal.
+     */
+    public static final class Position {
+        private final long m_segment;
+        private final int m_offset;
+
+        private Position(long segment, int offset) {
+            m_segment = segment;
+            m_offset = offset;
+        }
+
+        public long getSegment() {
+            return m_segment;
+        }
+
+        public int getOffset() {
+            return m_offset;
+        }
+
+        @Override
+        public String toString() {
+            return m_segment + ":" + m_offset;
+        }
+    }
+
+    /**
+     * A record that was read from the journal.
+     */
+    public static final class Record {
+        private final byte m_type;
+        private final byte[] m_payload;
+        private final Position m_end;
+        private final boolean m_recovered;
+
+        private Record(byte type, byte[] payload, Position end, boolean recovered) {
+            m_type = type;
+            m_payload = payload;
+            m_end = end;
+            m_recovered = recovered;
+        }
+
+        public byte getType() {
+            return m_type;
+        }
+
+        public byte[] getPayload() {
+            return m_payload;
+        }
+
+        /**
+         * @return the position right after this record, to be passed to
+         *         {@link RrdJournal#checkpoint(Position)} once the record was handled
+         */
+        public Position getEnd() {
+            return m_end;
+        }
+
+        /**
+         * @return true if the record was written before the journal was
+         *         opened, it may already have been handled before the restart
+         */
+        public boolean isRecovered() {
+            return m_recovered;
+        }
+    }
+
+    private static class Segment {
+        private final long m_id;
+        private final File m_file;
+        private final MappedByteBuffer m_buffer;
+        // Everything before the write position has been completely written
+        private volatile int m_writePosition;
+        private volatile boolean m_sealed = false;
+        // Guarded by the segment, so that the buffer is never flushed once it was unmapped
+        private boolean m_unmapped = false;
+
+        private Segment(long id, File file, MappedByteBuffer buffer, int writePosition) {
+            m_id = id;
+            m_file = file;
+            m_buffer = buffer;
+            m_writePosition = writePosition;
+        }
+
+        private synchronized void force() {
+            if (!m_unmapped) {
+                m_buffer.force();
+            }
+        }
+
+        private synchronized void unmap() {
+            if (!m_unmapped) {
+                m_unmapped = true;
+                RrdJournal.unmap(m_buffer);
+            }
+        }
+    }
+
+    private final File m_directory;
+    private final int m_segmentSize;
+    private final int m_maxSegments;
+
+    private final ConcurrentSkipListMap<Long, Segment> m_segments = new ConcurrentSkipListMap<>();
+    private final Object m_writeLock = new Object();
+    private volatile Segment m_activeSegment;
+
+    // Only used by the reader
+    private Segment m_readSegment;
+    private int m_readOffset;
+    private long m_lastRecoveredSegment = -1;
+
+    private volatile Position m_checkpoint;
+    private volatile boolean m_readerWaiting = false;
+    private final Object m_dataAvailable = new Object();
+
+    /**
+     * <p>Constructor for RrdJournal.</p>
+     *
+     * @param directory the directory that holds the segment files
+     * @param segmentSize the size of each segment file in bytes
+     * @param maxSegments the maximum number of segment files, 0 for no limit
+     */
+    public RrdJournal(File directory, int segmentSize, int maxSegments) {
+        if (segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+        }
+        m_directory = directory;
+        m_segmentSize = segmentSize;
+        m_maxSegments = maxSegments;
+    }
+
+    /**
+     * Opens the journal, recovering the records that are still in the
+     * existing segment files.
+     *
+     * @throws IOException if the journal directory cannot be used
+     */
+    public void open() throws IOException {
+        if (!m_directory.isDirectory() && !m_directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + m_directory);
+        }
+
+        final Position checkpoint = readCheckpoint();
+        long lastId = checkpoint == null ? -1 : checkpoint.getSegment();
+
+        final File[] files = m_directory.listFiles();
+        final Map<Long, File> segmentFiles = new ConcurrentSkipListMap<>();
+        if (files != null) {
+            for (final File file : files) {
+                final Matcher m = SEGMENT_FILE_PATTERN.matcher(file.getName());
+                if (m.matches()) {
+                    segmentFiles.put(Long.valueOf(m.group(1)), file);
+                }
+            }
+        }
+
+        long recoveredBytes = 0;
+        for (final Map.Entry<Long, File> entry : segmentFiles.entrySet()) {
+            final long id = entry.getKey();
+            final File file = entry.getValue();
+            lastId = Math.max(lastId, id);
+            if (checkpoint != null && id < checkpoint.getSegment()) {
+                deleteSegmentFile(file);
+                continue;
+            }
+            final Segment segment = recoverSegment(id, file);
+            if (segment != null) {
+                m_segments.put(id, segment);
+                recoveredBytes += segment.m_writePosition - SEGMENT_HEADER_SIZE;
+                m_lastRecoveredSegment = id;
+            }
+        }
+
+        if (checkpoint != null && m_segments.containsKey(checkpoint.getSegment())) {
+            m_readSegment = m_segments.get(checkpoint.getSegment());
+            m_readOffset = Math.min(checkpoint.getOffset(), m_readSegment.m_writePosition);
+        }
+        m_checkpoint = checkpoint;
+
+        if (!m_segments.isEmpty()) {
+            LOG.info("open: recovered {} journal segments with {} bytes from {}, reading from {}", m_segments.size(), recoveredBytes, m_directory, checkpoint);
+        }
+
+        synchronized (m_writeLock) {
+            m_activeSegment = createSegment(lastId + 1);
+        }
+    }
+
+    /**
+     * Appends a record to the journal.
+     *
+     * @param type the type of the record
+     * @param payload the contents of the record
+     * @return false if the journal is full and the record was not appended
+     * @throws IOException if a new segment file cannot be created
+     */
+    public boolean append(final byte type, final byte[] payload) throws IOException {
+        final int length = payload.length + 1;
+        final int size = RECORD_HEADER_SIZE + length;
+        if (SEGMENT_HEADER_SIZE + size > m_segmentSize) {
+            throw new IOException("Record of " + size + " bytes does not fit into a journal segment of " + m_segmentSize + " bytes");
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+
+        synchronized (m_writeLock) {
+            Segment segment = m_activeSegment;
+            if (segment == null) {
+                throw new IOException("The journal in " + m_directory + " is not open");
+            }
+            int position = segment.m_writePosition;
+            if (position + size > m_segmentSize) {
+                if (m_maxSegments > 0 && m_segments.size() >= m_maxSegments) {
+                    return false;
+                }
+                seal(segment);
+                segment = createSegment(segment.m_id + 1);
+                m_activeSegment = segment;
+                position = segment.m_writePosition;
+            }
+
+            final ByteBuffer buffer = segment.m_buffer.duplicate();
+            buffer.position(position + 4);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(type);
+            buffer.put(payload);
+            // The length goes in last so that a torn record always ends the segment
+            segment.m_buffer.putInt(position, length);
+            segment.m_writePosition = position + size;
+        }
+
+        if (m_readerWaiting) {
+            synchronized (m_dataAvailable) {
+                m_dataAvailable.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next records from the journal. Must only be called by a
+     * single reader thread.
+     *
+     * @param maxRecords the maximum number of records to return
+     * @return the records, empty if there are none that have not been read yet
+     */
+    public List<Record> read(final int maxRecords) {
+        final List<Record> records = new ArrayList<>();
+        if (m_readSegment == null) {
+            final Map.Entry<Long, Segment> first = m_segments.firstEntry();
+            if (first == null) {
+                return records;
+            }
+            m_readSegment = first.getValue();
+            m_readOffset = SEGMENT_HEADER_SIZE;
+        }
+
+        while (records.size() < maxRecords) {
+            // Check if the segment is sealed before looking at its write position, so we don't miss the last records
+            final boolean sealed = m_readSegment.m_sealed;
+            if (m_readOffset >= m_readSegment.m_writePosition) {
+                if (!sealed) {
+                    break;
+                }
+                final Map.Entry<Long, Segment> next = m_segments.higherEntry(m_readSegment.m_id);
+                if (next == null) {
+                    break;
+                }
+                m_readSegment = next.getValue();
+                m_readOffset = SEGMENT_HEADER_SIZE;
+                continue;
+            }
+
+            final ByteBuffer buffer = m_readSegment.m_buffer.duplicate();
+            final int length = buffer.getInt(m_readOffset);
+            final byte type = buffer.get(m_readOffset + RECORD_HEADER_SIZE);
+            final byte[] payload = new byte[length - 1];
+            buffer.position(m_readOffset + RECORD_HEADER_SIZE + 1);
+            buffer.get(payload);
+
+            m_readOffset += RECORD_HEADER_SIZE + length;
+            records.add(new Record(type, payload, new Position(m_readSegment.m_id, m_readOffset), m_readSegment.m_id <= m_lastRecoveredSegment));
+        }
+        return records;
+    }
+
+    /**
+     * Waits until records are appended, or the given time has passed.
+     *
+     * @param millis the maximum time to wait
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public void awaitRecords(final long millis) throws InterruptedException {
+        synchronized (m_dataAvailable) {
+            m_readerWaiting = true;
+            try {
+                if (!hasUnreadRecords()) {
+                    m_dataAvailable.wait(millis);
+                }
+            } finally {
+                m_readerWaiting = false;
+            }
+        }
+    }
+
+    private boolean hasUnreadRecords() {
+        final Segment segment = m_readSegment;
+        if (segment == null) {
+            final Map.Entry<Long, Segment> first = m_segments.firstEntry();
+            return first != null && (first.getValue().m_writePosition > SEGMENT_HEADER_SIZE || m_segments.size() > 1);
+        }
+        return m_readOffset < segment.m_writePosition || segment.m_sealed;
+    }
+
+    /**
+     * Records that everything before the given position has been handled, so
+     * it is not read again when the journal is opened the next time.
+     *
+     * @param position the position of the first record that still has to be handled
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public void checkpoint(final Position position) throws IOException {
+        final File checkpointFile = new File(m_directory, CHECKPOINT_FILE_NAME);
+        final File tmpFile = new File(m_directory, CHECKPOINT_FILE_NAME + ".tmp");
+        try (final RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+            raf.setLength(0);
+            raf.writeLong(position.getSegment());
+            raf.writeInt(position.getOffset());
+            raf.getFD().sync();
+        }
+        Files.move(tmpFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        m_checkpoint = position;
+
+        final Iterator<Segment> it = m_segments.headMap(position.getSegment()).values().iterator();
+        while (it.hasNext()) {
+            final Segment segment = it.next();
+            it.remove();
+            // The reader is past this segment and writers only use the active one, but a sync may still be flushing it
+            segment.unmap();
+            deleteSegmentFile(segment.m_file);
+        }
+    }
+
+    /**
+     * Flushes the records in the active segment to disk.
+     */
+    public void sync() {
+        final Segment segment;
+        synchronized (m_writeLock) {
+            segment = m_activeSegment;
+        }
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    /**
+     * <p>getSegmentCount</p>
+     *
+     * @return the number of segment files in the journal
+     */
+    public int getSegmentCount() {
+        return m_segments.size();
+    }
+
+    /**
+     * <p>getPendingBytes</p>
+     *
+     * @return the number of bytes of records that have been appended after the last checkpoint
+     */
+    public long getPendingBytes() {
+        final Position checkpoint = m_checkpoint;
+        long pending = 0;
+        for (final Segment segment : m_segments.values()) {
+            if (checkpoint != null && segment.m_id < checkpoint.getSegment()) {
+                continue;
+            }
+            final int start = checkpoint != null && segment.m_id == checkpoint.getSegment() ? checkpoint.getOffset() : SEGMENT_HEADER_SIZE;
+            pending += Math.max(0, segment.m_writePosition - start);
+        }
+        return pending;
+    }
+
+    /**
+     * Flushes the active segment to disk, stops accepting records and
+     * unmaps the segment files. Must only be called once the reader has
+     * stopped. Records that have not been read yet are read again when the
+     * journal is opened the next time.
+     */
+    @Override
+    public void close() {
+        synchronized (m_writeLock) {
+            if (m_activeSegment != null) {
+                seal(m_activeSegment);
+                m_activeSegment = null;
+            }
+            m_readSegment = null;
+            final Iterator<Segment> it = m_segments.values().iterator();
+            while (it.hasNext()) {
+                final Segment segment = it.next();
+                it.remove();
+                segment.unmap();
+            }
+        }
+    }
+
+    private Position readCheckpoint() {
+        final File checkpointFile = new File(m_directory, CHECKPOINT_FILE_NAME);
+        if (!checkpointFile.exists()) {
+            return null;
+        }
+        try (final RandomAccessFile raf = new RandomAccessFile(checkpointFile, "r")) {
+            return new Position(raf.readLong(), raf.readInt());
+        } catch (IOException e) {
+            LOG.warn("readCheckpoint: unable to read {}, reading all journal segments", checkpointFile, e);
+            return null;
+        }
+    }
+
+    private Segment createSegment(final long id) throws IOException {
+        final File file = new File(m_directory, String.format("segment-%020d.jnl", id));
+        final MappedByteBuffer buffer;
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(m_segmentSize);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, m_segmentSize);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        final Segment segment = new Segment(id, file, buffer, SEGMENT_HEADER_SIZE);
+        m_segments.put(id, segment);
+        LOG.debug("createSegment: created journal segment {}", file);
+        return segment;
+    }
+
+    private Segment recoverSegment(final long id, final File file) {
+        final MappedByteBuffer buffer;
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final long length = raf.length();
+            if (length < SEGMENT_HEADER_SIZE || length > Integer.MAX_VALUE) {
+                LOG.warn("recoverSegment: ignoring journal segment {} with an invalid size of {} bytes", file, length);
+                return null;
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } catch (IOException e) {
+            LOG.warn("recoverSegment: unable to open journal segment {}", file, e);
+            return null;
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            LOG.warn("recoverSegment: ignoring {}, it is not a journal segment", file);
+            return null;
+        }
+
+        final int capacity = buffer.capacity();
+        final CRC32 crc = new CRC32();
+        int position = SEGMENT_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE < capacity) {
+            final int length = buffer.getInt(position);
+            if (length <= 0 || length > capacity - position - RECORD_HEADER_SIZE) {
+                break;
+            }
+            final ByteBuffer record = buffer.duplicate();
+            record.position(position + RECORD_HEADER_SIZE);
+            record.limit(position + RECORD_HEADER_SIZE + length);
+            crc.reset();
+            crc.update(record);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                LOG.warn("recoverSegment: journal segment {} ends with an incomplete record at offset {}", file, position);
+                break;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        final Segment segment = new Segment(id, file, buffer, position);
+        segment.m_sealed = true;
+        return segment;
+    }
+
+    private static void seal(final Segment segment) {
+        segment.force();
+        segment.m_sealed = true;
+    }
+
+    /**
+     * Releases the mapping of a segment right away instead of waiting for the
+     * buffer to be garbage collected, which keeps the deleted files and their
+     * memory around. The buffer must not be accessed anymore afterwards.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (NoSuchMethodException e) {
+            // Java 8, use the cleaner of the buffer below
+        } catch (Exception e) {
+            LOG.debug("unmap: unable to unmap journal segment, leaving it to the garbage collector", e);
+            return;
+        }
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            LOG.debug("unmap: unable to unmap journal segment, leaving it to the garbage collector", e);
+        }
+    }
+
+    private static void deleteSegmentFile(final File file) {
+        if (!file.delete() && file.exists()) {
+            // The file may still be mapped on some platforms, try again when we exit
+            LOG.debug("deleteSegmentFile: unable to delete {} now, deleting it on exit", file);
+            file.deleteOnExit();
+        } else {
+            LOG.debug("deleteSegmentFile: deleted journal segment {}", file);
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the directories below the RRD directory in memory, together with
+ * whether or not they contain RRD files, so that finding resources doesn't
+ * have to list the directories on disk over and over again.
+ *
+ * <p>The index is built by scanning the RRD directory with several threads,
+ * see {@link #build(int, String)}. Afterwards it is kept current by the
+ * persisters, which report the files they create with
+ * {@link #fileCreated(String)}, and by whoever deletes resources with
+ * {@link #directoryDeleted(String)}, so the same instance has to be shared
+ * with them. Files that are created or removed by other means are picked up
+ * the next time the index is rebuilt.</p>
+ *
+ * <p>Like the other indexes of this kind, a directory that still contains
+ * RRD files is never reported as empty as long as the index is in sync, but
+ * a directory whose last RRD file was removed by hand keeps being reported
+ * until the next rebuild.</p>
+ */
+public class RrdResourceIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(RrdResourceIndex.class);
+
+    private static class Node {
+        private final Map<String, Node> m_children = new ConcurrentHashMap<>();
+        private volatile boolean m_hasRrdFiles = false;
+
+        private Node child(final String name) {
+            return m_children.computeIfAbsent(name, k -> new Node());
+        }
+    }
+
+    private final Path m_root;
+
+    // Null until the index was built for the first time
+    private volatile Node m_tree;
+    // The tree that is currently being built, if any, only changed while holding this
+    private volatile Node m_building;
+    private final Object m_buildLock = new Object();
+
+    private volatile int m_directories;
+    private volatile long m_lastBuildTime;
+
+    /**
+     * <p>Constructor for RrdResourceIndex.</p>
+     *
+     * @param root the RRD directory
+     */
+    public RrdResourceIndex(final File root) {
+        m_root = root.getAbsoluteFile().toPath().normalize();
+    }
+
+    /**
+     * Scans the RRD directory and replaces the index with the result. Changes
+     * that are reported while the scan is running are applied to both the
+     * old and the new index.
+     *
+     * @param threads the number of threads scanning the directories
+     * @param rrdExtension the extension of the RRD files, i.e. ".jrb"
+     */
+    public void build(final int threads, final String rrdExtension) {
+        synchronized (m_buildLock) {
+            doBuild(threads, rrdExtension);
+        }
+    }
+
+    private void doBuild(final int threads, final String rrdExtension) {
+        final long start = System.currentTimeMillis();
+        final Node tree = new Node();
+        synchronized (this) {
+            m_building = tree;
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(new ScanAction(m_root, tree, rrdExtension));
+        } finally {
+            pool.shutdown();
+            synchronized (this) {
+                m_building = null;
+            }
+        }
+
+        synchronized (this) {
+            m_tree = tree;
+        }
+        m_directories = count(tree);
+        m_lastBuildTime = System.currentTimeMillis() - start;
+        LOG.info("Indexed {} directories below {} in {}ms", m_directories, m_root, m_lastBuildTime);
+    }
+
+    /**
+     * <p>isBuilt</p>
+     *
+     * @return true once the index was built, until then it can't answer any questions
+     */
+    public boolean isBuilt() {
+        return m_tree != null;
+    }
+
+    /**
+     * Record that an RRD file was created in the given directory.
+     *
+     * @param directory the absolute path of the directory
+     */
+    public void fileCreated(final String directory) {
+        final Path relative = relativize(directory);
+        if (relative == null) {
+            return;
+        }
+
+        // Most of the time the directory is already known, don't bother taking the lock then
+        final Node tree = m_tree;
+        if (tree != null && m_building == null) {
+            final Node node = find(tree, relative);
+            if (node != null && node.m_hasRrdFiles) {
+                return;
+            }
+        }
+
+        synchronized (this) {
+            markRrdFiles(relative);
+        }
+    }
+
+    private void markRrdFiles(final Path relative) {
+        for (Node tree : new Node[] { m_tree, m_building }) {
+            if (tree != null) {
+                Node node = tree;
+                if (!relative.toString().isEmpty()) {
+                    for (Path name : relative) {
+                        node = node.child(name.toString());
+                    }
+                }
+                node.m_hasRrdFiles = true;
+            }
+        }
+    }
+
+    /**
+     * Forget about the given directory and its subdirectories.
+     *
+     * @param directory the absolute path of the directory
+     */
+    public synchronized void directoryDeleted(final String directory) {
+        final Path relative = relativize(directory);
+        if (relative == null) {
+            return;
+        }
+        for (Node tree : new Node[] { m_tree, m_building }) {
+            if (tree == null) {
+                continue;
+            }
+            if (relative.toString().isEmpty()) {
+                tree.m_children.clear();
+                tree.m_hasRrdFiles = false;
+                continue;
+            }
+            final Node parent = find(tree, relative.getParent());
+            if (parent != null) {
+                parent.m_children.remove(relative.getFileName().toString());
+            }
+        }
+    }
+
+    /**
+     * @param directory the absolute path of the directory
+     * @param depth the number of levels to descend, 0 for the directory itself
+     * @return true if a directory exactly {@code depth} levels below the given one contains RRD files
+     */
+    public boolean exists(final Path directory, final int depth) {
+        return exists(find(directory), depth);
+    }
+
+    /**
+     * @param directory the absolute path of the directory
+     * @param depth the maximum number of levels to descend
+     * @return true if the directory or one at most {@code depth} levels below it contains RRD files
+     */
+    public boolean existsWithin(final Path directory, final int depth) {
+        return existsWithin(find(directory), depth);
+    }
+
+    /**
+     * @param directory the absolute path of the directory
+     * @param depth the number of levels to descend, counting the child itself
+     * @return the names of the subdirectories for which {@link #exists(Path, int)} holds with {@code depth - 1}
+     */
+    public Set<String> children(final Path directory, final int depth) {
+        final Node node = find(directory);
+        if (node == null) {
+            return Collections.emptySet();
+        }
+        return node.m_children.entrySet().stream()
+                .filter(e -> exists(e.getValue(), depth - 1))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * <p>getDirectories</p>
+     *
+     * @return the number of directories found by the last build
+     */
+    public int getDirectories() {
+        return m_directories;
+    }
+
+    /**
+     * <p>getLastBuildTime</p>
+     *
+     * @return the time, in milliseconds, the last build took
+     */
+    public long getLastBuildTime() {
+        return m_lastBuildTime;
+    }
+
+    private static boolean exists(final Node node, final int depth) {
+        if (node == null) {
+            return false;
+        }
+        if (depth == 0) {
+            return node.m_hasRrdFiles;
+        }
+        for (Node child : node.m_children.values()) {
+            if (exists(child, depth - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean existsWithin(final Node node, final int depth) {
+        if (node == null || depth < 0) {
+            return false;
+        }
+        if (node.m_hasRrdFiles) {
+            return true;
+        }
+        for (Node child : node.m_children.values()) {
+            if (existsWithin(child, depth - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Node find(final Path directory) {
+        final Node tree = m_tree;
+        if (tree == null) {
+            throw new IllegalStateException("The index of " + m_root + " hasn't been built yet");
+        }
+        final Path relative = relativize(directory.toString());
+        return relative == null ? null : find(tree, relative);
+    }
+
+    private static Node find(final Node tree, final Path relative) {
+        Node node = tree;
+        if (relative == null || relative.toString().isEmpty()) {
+            return node;
+        }
+        for (Path name : relative) {
+            node = node.m_children.get(name.toString());
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private Path relativize(final String directory) {
+        final Path path = Paths.get(directory).toAbsolutePath().normalize();
+        if (!path.startsWith(m_root)) {
+            return null;
+        }
+        return m_root.relativize(path);
+    }
+
+    private static int count(final Node node) {
+        int count = 1;
+        for (Node child : node.m_children.values()) {
+            count += count(child);
+        }
+        return count;
+    }
+
+    private class ScanAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path m_directory;
+        private final Node m_node;
+        private final String m_rrdExtension;
+
+        private ScanAction(final Path directory, final Node node, final String rrdExtension) {
+            m_directory = directory;
+            m_node = node;
+            m_rrdExtension = rrdExtension;
+        }
+
+        @Override
+        protected void compute() {
+            final List<ScanAction> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(m_directory)) {
+                for (Path entry : stream) {
+                    final String name = entry.getFileName().toString();
+                    final boolean rrdName = name.endsWith(m_rrdExtension);
+                    if (rrdName && m_node.m_hasRrdFiles) {
+                        // There are a lot more RRD files than directories, one of them is enough
+                        continue;
+                    }
+                    if (rrdName && Files.isRegularFile(entry)) {
+                        m_node.m_hasRrdFiles = true;
+                    } else if (Files.isDirectory(entry)) {
+                        subdirectories.add(new ScanAction(entry, m_node.child(name), m_rrdExtension));
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to list {}, it is indexed as empty.", m_directory, e);
+            }
+            invokeAll(subdirectories);
+        }
+    }
+}
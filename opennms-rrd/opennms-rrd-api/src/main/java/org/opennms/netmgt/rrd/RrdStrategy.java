@@ -124,6 +124,25 @@ public interface RrdStrategy<D extends Object,F extends Object> {
      */
     public void updateFile(F rrd, String owner, String data) throws Exception;
 
+    /**
+     * Updates the supplied round robin database with the given values at the
+     * given timestamp. This avoids formatting the values as a string that the
+     * strategy would have to parse again.
+     *
+     * @param rrd
+     *            an rrd object created using openFile
+     * @param owner
+     *            the owner of the rrd
+     * @param timestamp
+     *            the timestamp of the update in seconds since the epoch
+     * @param values
+     *            the values in the order of the data sources of the rrd, unknown
+     *            values are given as {@link Double#NaN}
+     * @throws java.lang.Exception
+     *             if an error occurs updating the file
+     */
+    public void updateFile(F rrd, String owner, long timestamp, double[] values) throws Exception;
+
     /**
      * This closes the supplied round robin database
      *
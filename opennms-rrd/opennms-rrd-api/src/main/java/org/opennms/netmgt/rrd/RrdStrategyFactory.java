@@ -36,7 +36,8 @@ import org.springframework.context.ApplicationContextAware;
  * configured system properties.
  *
  * Optionally wraps the strategy with a queue and/or
- * outputs the metrics to a TCP stream.
+ * outputs the metrics to a TCP stream, and journals
+ * all of the writes before they are handed to it.
  *
  */
 public class RrdStrategyFactory implements ApplicationContextAware {
@@ -47,7 +48,8 @@ public class RrdStrategyFactory implements ApplicationContextAware {
         basicRrdStrategy,
         queuingRrdStrategy,
         tcpAndBasicRrdStrategy,
-        tcpAndQueuingRrdStrategy
+        tcpAndQueuingRrdStrategy,
+        journalingRrdStrategy
     }
 
     @Override
@@ -62,6 +64,11 @@ public class RrdStrategyFactory implements ApplicationContextAware {
      */
     @SuppressWarnings("unchecked")
     public <D, F> RrdStrategy<D, F> getStrategy() {
+        Boolean useJournal = (Boolean) m_context.getBean("useJournal");
+        if (useJournal) {
+            return (RrdStrategy<D, F>) m_context.getBean(StrategyName.journalingRrdStrategy.toString());
+        }
+
         RrdStrategy<D, F> rrdStrategy = null;
         Boolean useQueue = (Boolean) m_context.getBean("useQueue");
         Boolean useTcp = (Boolean) m_context.getBean("useTcp");
@@ -73,11 +80,7 @@ public class RrdStrategyFactory implements ApplicationContextAware {
                 rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.queuingRrdStrategy.toString());
             }
         } else {
-            if (useTcp) {
-                rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.tcpAndBasicRrdStrategy.toString());
-            } else {
-                rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.basicRrdStrategy.toString());
-            }
+            rrdStrategy = getJournaledStrategy();
         }
 
         if (rrdStrategy == null) {
@@ -86,4 +89,24 @@ public class RrdStrategyFactory implements ApplicationContextAware {
 
         return rrdStrategy;
     }
+
+    /**
+     * Returns the strategy that the journal hands the writes to.
+     *
+     * The journal only checkpoints the operations once the strategy has
+     * written them, so the write queue is never used here, even when
+     * it is enabled: operations that are only queued in memory would
+     * be lost on a crash after having been checkpointed.
+     *
+     * @return a {@link org.opennms.netmgt.rrd.RrdStrategy} object.
+     */
+    @SuppressWarnings("unchecked")
+    public <D, F> RrdStrategy<D, F> getJournaledStrategy() {
+        Boolean useTcp = (Boolean) m_context.getBean("useTcp");
+        if (useTcp) {
+            return (RrdStrategy<D, F>) m_context.getBean(StrategyName.tcpAndBasicRrdStrategy.toString());
+        } else {
+            return (RrdStrategy<D, F>) m_context.getBean(StrategyName.basicRrdStrategy.toString());
+        }
+    }
 }
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JournalingRrdStrategyTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    /**
+     * Records the updates, optionally blocking until it is released.
+     */
+    private static class RecordingRrdStrategy extends NullRrdStrategy {
+        private final List<String> m_updates = new ArrayList<>();
+        private final CountDownLatch m_entered = new CountDownLatch(1);
+        private final CountDownLatch m_release;
+
+        private RecordingRrdStrategy(CountDownLatch release) {
+            m_release = release;
+        }
+
+        @Override
+        public Object openFile(String fileName) {
+            return fileName;
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, String data) {
+            m_entered.countDown();
+            try {
+                if (m_release != null) {
+                    m_release.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            synchronized (m_updates) {
+                m_updates.add(rrd + ":" + data);
+            }
+        }
+
+        private List<String> getUpdates() {
+            synchronized (m_updates) {
+                return new ArrayList<>(m_updates);
+            }
+        }
+
+        private List<String> getUpdates(String file) {
+            return getUpdates().stream().filter(u -> u.startsWith(file + ":")).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void appliesUpdatesInOrderForEachFile() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy(null);
+        final JournalingRrdStrategy strategy = createStrategy(m_tempFolder.newFolder(), delegate);
+        strategy.setBatchSize(3);
+        strategy.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                strategy.updateFile("a", null, "N:" + i);
+                strategy.updateFile("b", null, "N:" + i);
+            }
+            awaitUpdates(delegate, 20);
+
+            final List<String> expectedA = new ArrayList<>();
+            final List<String> expectedB = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                expectedA.add("a:N:" + i);
+                expectedB.add("b:N:" + i);
+            }
+            assertEquals(expectedA, delegate.getUpdates("a"));
+            assertEquals(expectedB, delegate.getUpdates("b"));
+            assertEquals(20, strategy.getRecordsJournaled());
+            assertEquals(0, strategy.getRecordsReplayed());
+        } finally {
+            strategy.stop();
+        }
+    }
+
+    @Test
+    public void replaysUpdatesThatWereNotAppliedBeforeCrash() throws Exception {
+        final File dir = m_tempFolder.newFolder();
+
+        // The first strategy gets stuck applying the first batch
+        final CountDownLatch release = new CountDownLatch(1);
+        final RecordingRrdStrategy stuckDelegate = new RecordingRrdStrategy(release);
+        final JournalingRrdStrategy crashed = createStrategy(dir, stuckDelegate);
+        crashed.start();
+        try {
+            crashed.updateFile("a", null, "N:1");
+            crashed.updateFile("a", null, "N:2");
+            crashed.updateFile("b", null, "N:3");
+            assertTrue(stuckDelegate.m_entered.await(10, TimeUnit.SECONDS));
+
+            // Start over on the same journal, as if the first one had crashed
+            final RecordingRrdStrategy delegate = new RecordingRrdStrategy(null);
+            final JournalingRrdStrategy restarted = createStrategy(dir, delegate);
+            restarted.start();
+            try {
+                awaitUpdates(delegate, 3);
+                assertEquals(Arrays.asList("a:N:1", "a:N:2"), delegate.getUpdates("a"));
+                assertEquals(Arrays.asList("b:N:3"), delegate.getUpdates("b"));
+                assertEquals(3, restarted.getRecordsReplayed());
+            } finally {
+                restarted.stop();
+            }
+        } finally {
+            release.countDown();
+            crashed.stop();
+        }
+    }
+
+    @Test
+    public void canBeStartedAgainAfterStop() throws Exception {
+        final RecordingRrdStrategy delegate = new RecordingRrdStrategy(null);
+        final JournalingRrdStrategy strategy = createStrategy(m_tempFolder.newFolder(), delegate);
+        strategy.setSyncPeriod(1);
+        strategy.start();
+        strategy.updateFile("a", null, "N:1");
+        awaitUpdates(delegate, 1);
+        strategy.stop();
+
+        // Operations are refused until the strategy is started again
+        try {
+            strategy.updateFile("a", null, "N:2");
+            fail("The update should have been refused");
+        } catch (IOException e) {
+            // expected
+        }
+
+        strategy.start();
+        try {
+            strategy.updateFile("a", null, "N:3");
+            awaitUpdates(delegate, 2);
+            assertEquals(Arrays.asList("a:N:1", "a:N:3"), delegate.getUpdates("a"));
+        } finally {
+            strategy.stop();
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test(expected=IllegalArgumentException.class)
+    public void rejectsQueuingDelegate() {
+        new JournalingRrdStrategy((RrdStrategy) new QueuingRrdStrategy(new NullRrdStrategy()));
+    }
+
+    private static JournalingRrdStrategy createStrategy(File dir, RecordingRrdStrategy delegate) {
+        final JournalingRrdStrategy strategy = new JournalingRrdStrategy(delegate);
+        strategy.setJournalDirectory(dir.getAbsolutePath());
+        strategy.setSegmentSize(4096);
+        strategy.setSyncPeriod(0);
+        return strategy;
+    }
+
+    private static void awaitUpdates(RecordingRrdStrategy delegate, int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (delegate.getUpdates().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, delegate.getUpdates().size());
+    }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PersistedResourceRegistryTest {
+
+    private static final String DIR = File.separator + "rrd" + File.separator + "snmp" + File.separator + "1";
+
+    private static final List<RrdDataSource> DATA_SOURCES = Arrays.asList(
+            new RrdDataSource("ifInOctets", RrdAttributeType.COUNTER, 600, "U", "U"),
+            new RrdDataSource("ifOutOctets", RrdAttributeType.COUNTER, 600, "U", "U"));
+
+    private static final Map<String, String> META_DATA = Collections.singletonMap("ifInOctets", ".1.3.6.1.2.1.2.2.1.10");
+
+    @Test
+    public void canRememberFiles() {
+        final PersistedResourceRegistry registry = new PersistedResourceRegistry(10);
+        assertFalse(registry.isCreated(DIR, "mib2-interfaces", DATA_SOURCES));
+        assertFalse(registry.isMetaDataWritten(DIR, "mib2-interfaces", META_DATA));
+
+        registry.created(DIR, "mib2-interfaces", DATA_SOURCES);
+        registry.metaDataWritten(DIR, "mib2-interfaces", META_DATA);
+        assertTrue(registry.isCreated(DIR, "mib2-interfaces", DATA_SOURCES));
+        assertTrue(registry.isMetaDataWritten(DIR, "mib2-interfaces", META_DATA));
+        assertEquals(1, registry.size());
+
+        // A different layout or meta data has to be written again
+        assertFalse(registry.isCreated(DIR, "mib2-interfaces", DATA_SOURCES.subList(0, 1)));
+        assertFalse(registry.isMetaDataWritten(DIR, "mib2-interfaces", Collections.emptyMap()));
+        assertFalse(registry.isCreated(DIR, "mib2-tcp", DATA_SOURCES));
+    }
+
+    @Test
+    public void canEvictLeastRecentlyUsedFiles() {
+        final PersistedResourceRegistry registry = new PersistedResourceRegistry(2);
+        registry.created(DIR, "a", DATA_SOURCES);
+        registry.created(DIR, "b", DATA_SOURCES);
+
+        // Use a, so that b is the eldest one
+        assertTrue(registry.isCreated(DIR, "a", DATA_SOURCES));
+        registry.created(DIR, "c", DATA_SOURCES);
+
+        assertEquals(2, registry.size());
+        assertTrue(registry.isCreated(DIR, "a", DATA_SOURCES));
+        assertFalse(registry.isCreated(DIR, "b", DATA_SOURCES));
+        assertTrue(registry.isCreated(DIR, "c", DATA_SOURCES));
+    }
+
+    @Test
+    public void canBeDisabled() {
+        final PersistedResourceRegistry registry = new PersistedResourceRegistry(0);
+        registry.created(DIR, "a", DATA_SOURCES);
+        registry.metaDataWritten(DIR, "a", META_DATA);
+
+        assertEquals(0, registry.size());
+        assertFalse(registry.isCreated(DIR, "a", DATA_SOURCES));
+        assertFalse(registry.isMetaDataWritten(DIR, "a", META_DATA));
+    }
+
+    @Test
+    public void canInvalidateFiles() {
+        final String otherDir = DIR + "0";
+        final String subDir = DIR + File.separator + "ifIndex";
+
+        final PersistedResourceRegistry registry = new PersistedResourceRegistry(10);
+        registry.created(DIR, "a", DATA_SOURCES);
+        registry.created(DIR, "b", DATA_SOURCES);
+        registry.created(subDir, "a", DATA_SOURCES);
+        registry.created(otherDir, "a", DATA_SOURCES);
+
+        registry.invalidate(DIR, "a");
+        assertFalse(registry.isCreated(DIR, "a", DATA_SOURCES));
+        assertTrue(registry.isCreated(DIR, "b", DATA_SOURCES));
+
+        // Only the directory and its subdirectories are invalidated, not its siblings sharing a prefix
+        registry.invalidateDirectory(DIR);
+        assertFalse(registry.isCreated(DIR, "b", DATA_SOURCES));
+        assertFalse(registry.isCreated(subDir, "a", DATA_SOURCES));
+        assertTrue(registry.isCreated(otherDir, "a", DATA_SOURCES));
+        assertEquals(1, registry.size());
+    }
+}
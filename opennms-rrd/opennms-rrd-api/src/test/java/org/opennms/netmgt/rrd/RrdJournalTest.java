@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RrdJournalTest {
+
+    // Segment header + record header + type
+    private static final int FIRST_RECORD_OFFSET = 8;
+    private static final int RECORD_OVERHEAD = 8 + 1;
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @Test
+    public void canReplayRecordsAfterCrash() throws Exception {
+        final File dir = m_tempFolder.newFolder();
+        final RrdJournal journal = new RrdJournal(dir, 4096, 0);
+        journal.open();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(journal.append((byte) 1, payload(i)));
+        }
+        assertEquals(5, journal.read(100).size());
+        // Crash: the records were read but never checkpointed, and the journal is not closed
+
+        final RrdJournal recovered = new RrdJournal(dir, 4096, 0);
+        recovered.open();
+        final List<RrdJournal.Record> records = recovered.read(100);
+        assertEquals(5, records.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(1, records.get(i).getType());
+            assertArrayEquals(payload(i), records.get(i).getPayload());
+            assertTrue(records.get(i).isRecovered());
+        }
+
+        // Records that are appended after the recovery are not flagged
+        recovered.append((byte) 2, payload(5));
+        final List<RrdJournal.Record> newRecords = recovered.read(100);
+        assertEquals(1, newRecords.size());
+        assertFalse(newRecords.get(0).isRecovered());
+        recovered.close();
+        journal.close();
+    }
+
+    @Test
+    public void stopsAtRecordWithBadCrc() throws Exception {
+        final File dir = m_tempFolder.newFolder();
+        final RrdJournal journal = new RrdJournal(dir, 4096, 0);
+        journal.open();
+        for (int i = 0; i < 3; i++) {
+            journal.append((byte) 1, payload(i));
+        }
+        journal.close();
+
+        // Flip a byte of the payload of the last record, as if it was only partially written
+        final int lastRecordOffset = FIRST_RECORD_OFFSET + 2 * (RECORD_OVERHEAD + payload(0).length);
+        corrupt(segmentFile(dir, 0), lastRecordOffset + RECORD_OVERHEAD);
+
+        final RrdJournal recovered = new RrdJournal(dir, 4096, 0);
+        recovered.open();
+        final List<RrdJournal.Record> records = recovered.read(100);
+        assertEquals(2, records.size());
+        assertArrayEquals(payload(1), records.get(1).getPayload());
+        recovered.close();
+    }
+
+    @Test
+    public void stopsAtTornRecord() throws Exception {
+        final File dir = m_tempFolder.newFolder();
+        final RrdJournal journal = new RrdJournal(dir, 4096, 0);
+        journal.open();
+        for (int i = 0; i < 3; i++) {
+            journal.append((byte) 1, payload(i));
+        }
+        journal.close();
+
+        // A length that runs past the end of the segment
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFile(dir, 0), "rw")) {
+            raf.seek(FIRST_RECORD_OFFSET + 2 * (RECORD_OVERHEAD + payload(0).length));
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+
+        final RrdJournal recovered = new RrdJournal(dir, 4096, 0);
+        recovered.open();
+        assertEquals(2, recovered.read(100).size());
+        recovered.close();
+    }
+
+    @Test
+    public void doesNotReadCheckpointedRecordsAgain() throws Exception {
+        final File dir = m_tempFolder.newFolder();
+        final RrdJournal journal = new RrdJournal(dir, 4096, 0);
+        journal.open();
+        for (int i = 0; i < 5; i++) {
+            journal.append((byte) 1, payload(i));
+        }
+        final List<RrdJournal.Record> records = journal.read(3);
+        assertEquals(3, records.size());
+        journal.checkpoint(records.get(2).getEnd());
+        assertEquals(2 * (RECORD_OVERHEAD + payload(0).length), journal.getPendingBytes());
+        journal.close();
+
+        final RrdJournal recovered = new RrdJournal(dir, 4096, 0);
+        recovered.open();
+        final List<RrdJournal.Record> remaining = recovered.read(100);
+        assertEquals(2, remaining.size());
+        assertArrayEquals(payload(3), remaining.get(0).getPayload());
+        assertArrayEquals(payload(4), remaining.get(1).getPayload());
+        recovered.close();
+    }
+
+    @Test
+    public void deletesCheckpointedSegments() throws Exception {
+        final File dir = m_tempFolder.newFolder();
+        // Room for two records per segment
+        final int recordSize = RECORD_OVERHEAD + payload(0).length;
+        final RrdJournal journal = new RrdJournal(dir, FIRST_RECORD_OFFSET + 2 * recordSize, 0);
+        journal.open();
+        for (int i = 0; i < 6; i++) {
+            journal.append((byte) 1, payload(i));
+        }
+        assertEquals(3, journal.getSegmentCount());
+        assertEquals(3, segmentFiles(dir).length);
+
+        // Records are read across segments in order
+        final List<RrdJournal.Record> records = journal.read(100);
+        assertEquals(6, records.size());
+        for (int i = 0; i < 6; i++) {
+            assertArrayEquals(payload(i), records.get(i).getPayload());
+        }
+
+        // Only the segment of the checkpoint is kept
+        journal.checkpoint(records.get(5).getEnd());
+        assertEquals(1, journal.getSegmentCount());
+        assertEquals(1, segmentFiles(dir).length);
+        assertEquals(0, journal.getPendingBytes());
+
+        // The journal keeps working on a new segment
+        journal.append((byte) 1, payload(6));
+        final List<RrdJournal.Record> next = journal.read(100);
+        assertEquals(1, next.size());
+        assertArrayEquals(payload(6), next.get(0).getPayload());
+        journal.close();
+    }
+
+    @Test
+    public void canSyncWhileSegmentsAreReleased() throws Exception {
+        final File dir = m_tempFolder.newFolder();
+        final int recordSize = RECORD_OVERHEAD + payload(0).length;
+        final RrdJournal journal = new RrdJournal(dir, FIRST_RECORD_OFFSET + recordSize, 0);
+        journal.open();
+
+        // Keep flushing while the reader rolls over and deletes the segments
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final Thread syncer = new Thread(() -> {
+            while (!done.get()) {
+                journal.sync();
+            }
+        });
+        syncer.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                assertTrue(journal.append((byte) 1, payload(i)));
+                final List<RrdJournal.Record> records = journal.read(100);
+                journal.checkpoint(records.get(records.size() - 1).getEnd());
+            }
+        } finally {
+            journal.close();
+            done.set(true);
+            syncer.join();
+        }
+        assertEquals(0, journal.getSegmentCount());
+    }
+
+    @Test
+    public void refusesRecordsWhenFull() throws Exception {
+        final File dir = m_tempFolder.newFolder();
+        final int recordSize = RECORD_OVERHEAD + payload(0).length;
+        final RrdJournal journal = new RrdJournal(dir, FIRST_RECORD_OFFSET + recordSize, 2);
+        journal.open();
+        assertTrue(journal.append((byte) 1, payload(0)));
+        assertTrue(journal.append((byte) 1, payload(1)));
+        assertFalse(journal.append((byte) 1, payload(2)));
+
+        // Checkpointing frees up the segments again
+        final List<RrdJournal.Record> records = journal.read(100);
+        journal.checkpoint(records.get(1).getEnd());
+        assertTrue(journal.append((byte) 1, payload(2)));
+        journal.close();
+    }
+
+    private static byte[] payload(int i) {
+        return String.format("record-%04d", i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static File segmentFile(File dir, long id) {
+        return new File(dir, String.format("segment-%020d.jnl", id));
+    }
+
+    private static File[] segmentFiles(File dir) {
+        return dir.listFiles((d, name) -> name.startsWith("segment-"));
+    }
+
+    private static void corrupt(File file, long offset) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            final int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xff);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a bounded number of {@link RrdDb} instances open so that repeated
+ * updates and fetches against the same file don't have to re-open the file
+ * and re-parse its header every time.
+ *
+ * <p>Every acquired file must be released by the same thread. While a file is
+ * acquired it is locked, so updates and fetches against the same file are
+ * serialized. Files that are not in use are closed in least recently used
+ * order once there are more than the maximum number of open files.</p>
+ */
+public class JRobinRrdDbPool {
+    private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdDbPool.class);
+
+    private static class Entry {
+        private final String m_path;
+        private final ReentrantLock m_lock = new ReentrantLock();
+        private RrdDb m_rrdDb;
+        private int m_refCount = 0;
+
+        private Entry(String path) {
+            m_path = path;
+        }
+    }
+
+    private final int m_maxOpenFiles;
+
+    // Guarded by this, iterates from the least to the most recently used file
+    private final Map<String, Entry> m_entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+    private final AtomicLong m_evictions = new AtomicLong();
+
+    /**
+     * <p>Constructor for JRobinRrdDbPool.</p>
+     *
+     * @param maxOpenFiles the maximum number of files to keep open when they are not in use
+     */
+    public JRobinRrdDbPool(int maxOpenFiles) {
+        m_maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * Returns the open {@link RrdDb} for the given file, opening it if necessary.
+     * The file stays locked until it is released with {@link #release(RrdDb)}.
+     *
+     * @param path the path of the file
+     * @return the open file
+     * @throws IOException if the file cannot be opened
+     * @throws RrdException if the file is not a valid RRD
+     */
+    public RrdDb acquire(final String path) throws IOException, RrdException {
+        final Entry entry;
+        synchronized (this) {
+            Entry existing = m_entries.get(path);
+            if (existing == null) {
+                existing = new Entry(path);
+                m_entries.put(path, existing);
+            }
+            existing.m_refCount++;
+            entry = existing;
+        }
+
+        entry.m_lock.lock();
+        try {
+            if (entry.m_rrdDb != null && !new File(path).exists()) {
+                // The file was removed while it was open, don't keep writing to the stale handle
+                LOG.debug("acquire: {} no longer exists, re-opening it", path);
+                closeQuietly(entry.m_rrdDb);
+                entry.m_rrdDb = null;
+            }
+            if (entry.m_rrdDb == null) {
+                m_misses.incrementAndGet();
+                entry.m_rrdDb = new RrdDb(path);
+            } else {
+                m_hits.incrementAndGet();
+            }
+            return entry.m_rrdDb;
+        } catch (IOException | RrdException | RuntimeException e) {
+            entry.m_lock.unlock();
+            dereference(entry);
+            throw e;
+        }
+    }
+
+    /**
+     * Releases a file that was acquired with {@link #acquire(String)}.
+     *
+     * @param rrdDb the file to release
+     */
+    public void release(final RrdDb rrdDb) {
+        final Entry entry;
+        synchronized (this) {
+            entry = m_entries.get(rrdDb.getPath());
+        }
+        if (entry == null || entry.m_rrdDb != rrdDb) {
+            LOG.warn("release: {} was not acquired from the pool, closing it", rrdDb.getPath());
+            closeQuietly(rrdDb);
+            return;
+        }
+        entry.m_lock.unlock();
+        dereference(entry);
+    }
+
+    private void dereference(final Entry entry) {
+        final List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            entry.m_refCount--;
+            if (entry.m_refCount == 0 && entry.m_rrdDb == null) {
+                m_entries.remove(entry.m_path);
+            }
+
+            final Iterator<Entry> it = m_entries.values().iterator();
+            while (m_entries.size() > m_maxOpenFiles && it.hasNext()) {
+                final Entry candidate = it.next();
+                if (candidate.m_refCount == 0) {
+                    it.remove();
+                    evicted.add(candidate);
+                }
+            }
+        }
+
+        // Nobody references the evicted entries anymore, so they can be closed outside of the pool lock
+        for (Entry e : evicted) {
+            if (e.m_rrdDb != null) {
+                m_evictions.incrementAndGet();
+                closeQuietly(e.m_rrdDb);
+            }
+        }
+    }
+
+    /**
+     * Closes all of the files that are not in use.
+     */
+    public void close() {
+        final List<Entry> closed = new ArrayList<>();
+        synchronized (this) {
+            final Iterator<Entry> it = m_entries.values().iterator();
+            while (it.hasNext()) {
+                final Entry entry = it.next();
+                if (entry.m_refCount == 0) {
+                    it.remove();
+                    closed.add(entry);
+                }
+            }
+        }
+        for (Entry entry : closed) {
+            if (entry.m_rrdDb != null) {
+                closeQuietly(entry.m_rrdDb);
+            }
+        }
+    }
+
+    private static void closeQuietly(final RrdDb rrdDb) {
+        try {
+            rrdDb.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close rrd file: {}", rrdDb.getPath(), e);
+        }
+    }
+
+    /**
+     * <p>getOpenFiles</p>
+     *
+     * @return the number of files currently tracked by the pool
+     */
+    public synchronized int getOpenFiles() {
+        return m_entries.size();
+    }
+
+    public long getHits() {
+        return m_hits.get();
+    }
+
+    public long getMisses() {
+        return m_misses.get();
+    }
+
+    public long getEvictions() {
+        return m_evictions.get();
+    }
+
+    /**
+     * <p>getStats</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getStats() {
+        return String.format("openFiles=%d, maxOpenFiles=%d, hits=%d, misses=%d, evictions=%d",
+                getOpenFiles(), m_maxOpenFiles, getHits(), getMisses(), getEvictions());
+    }
+}
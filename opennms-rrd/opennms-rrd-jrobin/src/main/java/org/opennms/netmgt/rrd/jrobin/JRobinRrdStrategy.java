@@ -47,6 +47,7 @@ import org.jrobin.core.FetchData;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
+import org.jrobin.core.RrdNioBackendFactory;
 import org.jrobin.core.Sample;
 import org.jrobin.data.DataProcessor;
 import org.jrobin.data.Plottable;
@@ -62,8 +63,9 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Provides a JRobin based implementation of RrdStrategy. It uses JRobin 1.4 in
- * FILE mode (NIO is too memory consuming for the large number of files that we
- * open)
+ * FILE mode by default (NIO is too memory consuming for the large number of files that we
+ * open). When one of the memory mapped backends is selected, recently used files
+ * are kept open so that each file is only mapped once while it is in use.
  *
  * @author ranger
  * @version $Id: $
@@ -72,6 +74,15 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String MAX_OPEN_FILES_PROPERTY = "org.opennms.rrd.jrobin.maxOpenFiles";
+    private static final String SYNC_PERIOD_PROPERTY = "org.opennms.rrd.jrobin.syncPeriod";
+
+    /**
+     * Memory mapped backends only pay off when the mapping is kept between updates,
+     * so files are kept open by default when one of these is used.
+     */
+    private static final List<String> MAPPED_BACKEND_FACTORIES = Arrays.asList("NIO", "MNIO");
+    private static final int DEFAULT_MAPPED_MAX_OPEN_FILES = 1000;
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -81,6 +92,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
 
     private Properties m_configurationProperties;
 
+    /**
+     * Keeps recently used files open between updates and fetches, null when disabled.
+     */
+    private JRobinRrdDbPool m_pool;
+
     /**
      * An extremely simple Plottable for holding static datasources that
      * can't be represented with an SDEF -- currently used only for PERCENT
@@ -123,12 +139,17 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     @Override
     public void setConfigurationProperties(final Properties configurationParameters) {
         m_configurationProperties = configurationParameters;
+        String factory = null;
+        if (m_configurationProperties == null) {
+            factory = DEFAULT_BACKEND_FACTORY;
+        } else {
+            factory = (String)m_configurationProperties.get(BACKEND_FACTORY_PROPERTY);
+        }
+        final boolean mapped = factory != null && MAPPED_BACKEND_FACTORIES.contains(factory.toUpperCase());
         if(!s_initialized) {
-            String factory = null;
-            if (m_configurationProperties == null) {
-                factory = DEFAULT_BACKEND_FACTORY;
-            } else {
-                factory = (String)m_configurationProperties.get(BACKEND_FACTORY_PROPERTY);
+            if (mapped && m_configurationProperties.getProperty(SYNC_PERIOD_PROPERTY) != null) {
+                // Dirty pages of the mapped files are flushed in the background at this interval
+                RrdNioBackendFactory.setSyncPeriod(Integer.parseInt(m_configurationProperties.getProperty(SYNC_PERIOD_PROPERTY)));
             }
             try {
                 RrdDb.setDefaultFactory(factory);
@@ -137,6 +158,17 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 LOG.error("Could not set default JRobin RRD factory", e);
             }
         }
+
+        if (m_pool != null) {
+            m_pool.close();
+            m_pool = null;
+        }
+        final String defaultMaxOpenFiles = mapped ? Integer.toString(DEFAULT_MAPPED_MAX_OPEN_FILES) : "0";
+        final int maxOpenFiles = m_configurationProperties == null ? 0 : Integer.parseInt(m_configurationProperties.getProperty(MAX_OPEN_FILES_PROPERTY, defaultMaxOpenFiles));
+        if (maxOpenFiles > 0) {
+            LOG.info("Keeping up to {} JRobin files open between updates", maxOpenFiles);
+            m_pool = new JRobinRrdDbPool(maxOpenFiles);
+        }
     }
 
     /**
@@ -147,7 +179,11 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public void closeFile(final RrdDb rrdFile) throws Exception {
-        rrdFile.close();
+        if (m_pool != null) {
+            m_pool.release(rrdFile);
+        } else {
+            rrdFile.close();
+        }
     }
 
     /** {@inheritDoc} */
@@ -213,6 +249,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public RrdDb openFile(final String fileName) throws Exception {
+        if (m_pool != null) {
+            return m_pool.acquire(fileName);
+        }
         return new RrdDb(fileName);
     }
 
@@ -227,6 +266,18 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         sample.setAndUpdate(data);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Creates a sample from the JRobin RrdDb and sets the values directly.
+     */
+    @Override
+    public void updateFile(final RrdDb rrdFile, final String owner, final long timestamp, final double[] values) throws Exception {
+        Sample sample = rrdFile.createSample(timestamp);
+        sample.setValues(values);
+        sample.update();
+    }
+
     /**
      * Initialized the RrdDb to use the FILE factory because the NIO factory
      * uses too much memory for our implementation.
@@ -256,7 +307,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         try {
             long now = System.currentTimeMillis();
             long collectTime = (now - (now % interval)) / 1000L;
-            rrd = new RrdDb(fileName, true);
+            rrd = openFileForFetch(fileName);
             FetchData data = rrd.createFetchRequest(consolidationFunction, collectTime, collectTime).fetchData();
             LOG.debug(data.toString());
             double[] vals = data.getValues(ds);
@@ -270,11 +321,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
             throw new org.opennms.netmgt.rrd.RrdException("Exception occurred fetching data from " + fileName, e);
         } finally {
             if (rrd != null) {
-                try {
-                    rrd.close();
-                } catch (IOException e) {
-                    LOG.error("Failed to close rrd file: {}", fileName, e);
-                }
+                closeFileForFetch(rrd);
             }
         }
     }
@@ -284,7 +331,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     public Double fetchLastValueInRange(final String fileName, final String ds, final int interval, final int range) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
         RrdDb rrd = null;
         try {
-        	rrd = new RrdDb(fileName, true);
+        	rrd = openFileForFetch(fileName);
          	long now = System.currentTimeMillis();
             long latestUpdateTime = (now - (now % interval)) / 1000L;
             long earliestUpdateTime = ((now - (now % interval)) - range) / 1000L;
@@ -312,15 +359,30 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
             throw new org.opennms.netmgt.rrd.RrdException("Exception occurred fetching data from " + fileName, e);
         } finally {
             if (rrd != null) {
-                try {
-                    rrd.close();
-                } catch (IOException e) {
-                    LOG.error("Failed to close rrd file: {}", fileName, e);
-                }
+                closeFileForFetch(rrd);
             }
         }
     }
 
+    private RrdDb openFileForFetch(final String fileName) throws IOException, RrdException {
+        if (m_pool != null) {
+            return m_pool.acquire(fileName);
+        }
+        return new RrdDb(fileName, true);
+    }
+
+    private void closeFileForFetch(final RrdDb rrd) {
+        if (m_pool != null) {
+            m_pool.release(rrd);
+            return;
+        }
+        try {
+            rrd.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close rrd file: {}", rrd.getPath(), e);
+        }
+    }
+
     private Color getColor(final String colorValue) {
         int rVal = Integer.parseInt(colorValue.substring(0, 2), 16);
         int gVal = Integer.parseInt(colorValue.substring(2, 4), 16);
@@ -867,7 +929,7 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
      */
     @Override
     public String getStats() {
-        return "";
+        return m_pool == null ? "" : m_pool.getStats();
     }
 
     /*
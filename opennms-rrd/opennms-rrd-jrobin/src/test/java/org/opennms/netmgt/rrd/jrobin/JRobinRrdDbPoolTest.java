@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JRobinRrdDbPoolTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @Test
+    public void canReuseAndEvictOpenFiles() throws Exception {
+        final String a = createRrd("a.jrb");
+        final String b = createRrd("b.jrb");
+
+        final JRobinRrdDbPool pool = new JRobinRrdDbPool(1);
+
+        RrdDb rrdA = pool.acquire(a);
+        pool.release(rrdA);
+        assertEquals(1, pool.getMisses());
+
+        // The same file is reused
+        assertSame(rrdA, pool.acquire(a));
+        pool.release(rrdA);
+        assertEquals(1, pool.getHits());
+        assertEquals(0, pool.getEvictions());
+
+        // Opening a second file evicts the first one
+        RrdDb rrdB = pool.acquire(b);
+        pool.release(rrdB);
+        assertEquals(2, pool.getMisses());
+        assertEquals(1, pool.getEvictions());
+        assertEquals(1, pool.getOpenFiles());
+
+        pool.close();
+        assertEquals(0, pool.getOpenFiles());
+    }
+
+    @Test
+    public void doesNotEvictFilesInUse() throws Exception {
+        final String a = createRrd("a.jrb");
+        final String b = createRrd("b.jrb");
+
+        final JRobinRrdDbPool pool = new JRobinRrdDbPool(1);
+
+        RrdDb rrdA = pool.acquire(a);
+        RrdDb rrdB = pool.acquire(b);
+        pool.release(rrdB);
+        // a is still in use, so b is the one that was closed
+        assertEquals(1, pool.getEvictions());
+        assertEquals(1, pool.getOpenFiles());
+
+        rrdA.createSample().setAndUpdate("1100:1");
+        pool.release(rrdA);
+        assertEquals(1, pool.getOpenFiles());
+        pool.close();
+    }
+
+    private String createRrd(String name) throws Exception {
+        final String path = new File(m_tempFolder.getRoot(), name).getAbsolutePath();
+        final RrdDef def = new RrdDef(path);
+        def.setStartTime(1000);
+        def.setStep(300);
+        def.addDatasource("bar", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("RRA:AVERAGE:0.5:1:100");
+        new RrdDb(def).close();
+        return path;
+    }
+}
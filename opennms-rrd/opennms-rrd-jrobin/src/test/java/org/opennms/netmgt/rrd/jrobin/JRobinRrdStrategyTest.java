@@ -175,6 +175,18 @@ public class JRobinRrdStrategyTest {
         m_strategy.closeFile(openedFile);
     }
 
+    @Test
+    public void testNumericUpdate() throws Exception {
+        File rrdFile = createRrdFile();
+        long timestamp = System.currentTimeMillis() / 1000;
+
+        RrdDb openedFile = m_strategy.openFile(rrdFile.getAbsolutePath());
+        m_strategy.updateFile(openedFile, "huh?", timestamp, new double[] { 1.234234 });
+        assertEquals(timestamp, openedFile.getLastUpdateTime());
+        assertEquals(1.234234, openedFile.getDatasource("bar").getLastValue(), 0.0);
+        m_strategy.closeFile(openedFile);
+    }
+
     @Test
     public void testSampleSetFloatingPointValueGood() throws Exception {
         File rrdFile = createRrdFile();
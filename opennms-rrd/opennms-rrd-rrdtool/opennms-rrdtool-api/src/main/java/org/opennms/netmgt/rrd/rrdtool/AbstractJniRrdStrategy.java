@@ -51,6 +51,31 @@ public abstract class AbstractJniRrdStrategy<D extends Object,F extends Object>
 	private static final String IGNORABLE_LIBART_WARNING_STRING = "*** attempt to put segment in horiz list twice";
 	private static final String IGNORABLE_LIBART_WARNING_REGEX = "\\*\\*\\* attempt to put segment in horiz list twice\r?\n?";
 
+    /**
+     * Formats a timestamp and values as an rrdtool update argument. Integral
+     * values are written without a fraction so they are accepted for COUNTER
+     * and DERIVE data sources, unknown values are written as U.
+     *
+     * @param timestamp the timestamp in seconds since the epoch
+     * @param values the values in data source order
+     * @return the update argument
+     */
+    protected static String formatUpdate(final long timestamp, final double[] values) {
+        final StringBuilder sb = new StringBuilder(16 + values.length * 12);
+        sb.append(timestamp);
+        for (final double value : values) {
+            sb.append(':');
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                sb.append('U');
+            } else if (value == Math.rint(value) && Math.abs(value) < 0x1p63) {
+                sb.append((long) value);
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -199,6 +199,18 @@ public class JniRrdStrategy extends AbstractJniRrdStrategy<JniRrdStrategy.Create
         rrd.append(data);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Appends the formatted values to the command string like
+     * {@link #updateFile(StringBuffer, String, String)}.
+     */
+    @Override
+    public void updateFile(StringBuffer rrd, String owner, long timestamp, double[] values) throws Exception {
+        rrd.append(' ');
+        rrd.append(formatUpdate(timestamp, values));
+    }
+
     /**
      * Initialized the JNI Interface
      *
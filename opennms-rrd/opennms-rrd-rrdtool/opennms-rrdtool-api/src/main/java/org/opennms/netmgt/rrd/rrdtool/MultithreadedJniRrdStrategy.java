@@ -213,6 +213,17 @@ public class MultithreadedJniRrdStrategy extends AbstractJniRrdStrategy<Multithr
         update.append(data);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The values are formatted straight into an update argument, jrrd2 only
+     * accepts updates as strings.
+     */
+    @Override
+    public void updateFile(UpdateCommand update, String owner, long timestamp, double[] values) throws Exception {
+        update.append(formatUpdate(timestamp, values));
+    }
+
     /**
      * {@inheritDoc}
      *
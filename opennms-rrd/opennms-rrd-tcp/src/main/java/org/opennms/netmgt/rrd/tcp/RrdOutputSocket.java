@@ -106,6 +106,26 @@ public class RrdOutputSocket {
         m_messageCount++;
     }
 
+    /**
+     * <p>addData</p>
+     *
+     * @param filename a {@link java.lang.String} object.
+     * @param owner a {@link java.lang.String} object.
+     * @param timestampInSec a long.
+     * @param values an array of double.
+     */
+    public void addData(String filename, String owner, long timestampInSec, double[] values) {
+        final PerformanceDataReading.Builder reading = PerformanceDataReading.newBuilder()
+                .setPath(filename)
+                .setOwner(owner)
+                .setTimestamp(timestampInSec * 1000);
+        for (final double value : values) {
+            reading.addDblValue(value);
+        }
+        m_messages.addMessage(reading);
+        m_messageCount++;
+    }
+
     /**
      * <p>writeData</p>
      */
@@ -170,6 +170,12 @@ public class TcpRrdStrategy implements RrdStrategy<TcpRrdStrategy.RrdDefinition,
         rrd.getSocket().addData(rrd.getFilename(), owner, data);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(RrdOutputSocketWithFilename rrd, String owner, long timestamp, double[] values) throws Exception {
+        rrd.getSocket().addData(rrd.getFilename(), owner, timestamp, values);
+    }
+
     /**
      * <p>closeFile</p>
      *
@@ -31,6 +31,9 @@ package org.opennms.netmgt.collectd;
 import java.io.File;
 import java.util.Date;
 import java.net.InetAddress;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.core.utils.InetAddressUtils;
@@ -68,6 +71,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.PlatformTransactionManager;
 
+import com.codahale.metrics.Timer;
+
 /**
  * <P>
  * The CollectableService class ...
@@ -139,6 +144,14 @@ class CollectableService implements ReadyRunnable {
 
     private final ResourceStorageDao m_resourceStorageDao;
 
+    /**
+     * Used to collect asynchronously when set, otherwise the collection
+     * blocks the scheduler's thread until it completes
+     */
+    private volatile CollectionLimiter m_collectionLimiter;
+
+    private volatile Timer m_collectionTimer;
+
     /**
      * Constructs a new instance of a CollectableService object.
      *
@@ -322,19 +335,23 @@ class CollectableService implements ReadyRunnable {
 
             @Override
             public void run() {
-                Logging.putThreadContext("service", m_spec.getServiceName());
-                Logging.putThreadContext("ipAddress", m_agent.getAddress().getHostAddress());
-                Logging.putThreadContext("nodeId", Integer.toString(m_agent.getNodeId()));
-                Logging.putThreadContext("nodeLabel", m_agent.getNodeLabel());
-                Logging.putThreadContext("foreignSource", m_agent.getForeignSource());
-                Logging.putThreadContext("foreignId", m_agent.getForeignId());
-                Logging.putThreadContext("sysObjectId", m_agent.getSysObjectId());
+                putThreadContext();
                 doRun();
             }
             
         });
     }
 
+    private void putThreadContext() {
+        Logging.putThreadContext("service", m_spec.getServiceName());
+        Logging.putThreadContext("ipAddress", m_agent.getAddress().getHostAddress());
+        Logging.putThreadContext("nodeId", Integer.toString(m_agent.getNodeId()));
+        Logging.putThreadContext("nodeLabel", m_agent.getNodeLabel());
+        Logging.putThreadContext("foreignSource", m_agent.getForeignSource());
+        Logging.putThreadContext("foreignId", m_agent.getForeignId());
+        Logging.putThreadContext("sysObjectId", m_agent.getSysObjectId());
+    }
+
     private void doRun() {
         // Process any outstanding updates.
         if (processUpdates() == ABORT_COLLECTION) {
@@ -356,27 +373,104 @@ class CollectableService implements ReadyRunnable {
          * that the collection should be skipped.
          */
         if (!m_spec.scheduledOutage(m_agent)) {
-            try {
-                doCollection();
-                updateStatus(CollectionStatus.SUCCEEDED, null);
-            } catch (CollectionTimedOut e) {
-                LOG.info(e.getMessage());
-                updateStatus(CollectionStatus.FAILED, e);
-            } catch (CollectionWarning e) {
-                LOG.warn(e.getMessage(), e);
-                updateStatus(CollectionStatus.FAILED, e);
-            } catch (CollectionUnknown e) {
-                LOG.warn(e.getMessage(), e);
-                // Omit any status updates
-            } catch (CollectionException e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(CollectionStatus.FAILED, e);
-            } catch (Throwable e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(CollectionStatus.FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
+            final CollectionLimiter limiter = m_collectionLimiter;
+            if (limiter != null) {
+                // The service is rescheduled once the collection completes
+                doCollectionAsync(limiter);
+                return;
             }
+
+            logCollectionStarted();
+            final long startTime = System.nanoTime();
+            processCollection(() -> {
+                try {
+                    return m_spec.collect(m_agent);
+                } finally {
+                    updateCollectionTimer(startTime);
+                }
+            });
+        }
+
+        reschedule();
+    }
+
+    /**
+     * Requests the collection without blocking the scheduler's thread. Once the collection
+     * completes, the results are persisted and the service is rescheduled from one of the
+     * scheduler's threads.
+     */
+    private void doCollectionAsync(CollectionLimiter limiter) {
+        logCollectionStarted();
+        final CollectionAgent agent = m_agent;
+        limiter.submit(getHostAddress(), agent.getLocationName(), () -> {
+            final long startTime = System.nanoTime();
+            return m_spec.collectAsync(agent).whenComplete((result, t) -> updateCollectionTimer(startTime));
+        }).whenComplete((result, t) -> {
+            // Persisting and thresholding may block, so don't do it on the thread that completed the collection
+            m_scheduler.schedule(0, new ReadyRunnable() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void run() {
+                    Logging.withPrefix(Collectd.LOG4J_CATEGORY, new Runnable() {
+                        @Override
+                        public void run() {
+                            putThreadContext();
+                            processCollection(() -> {
+                                if (t != null) {
+                                    throw toRuntimeException(t);
+                                }
+                                return result;
+                            });
+                            reschedule();
+                        }
+                    });
+                }
+            });
+        });
+    }
+
+    private static RuntimeException toRuntimeException(Throwable t) {
+        final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException)cause;
+        }
+        return new CollectionException("Collection failed unexpectedly: " + cause.getClass().getSimpleName() + ": " + cause.getMessage(), cause);
+    }
+
+    private void updateCollectionTimer(long startTime) {
+        final Timer timer = m_collectionTimer;
+        if (timer != null) {
+            timer.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
         }
+    }
 
+    private void processCollection(Supplier<CollectionSet> collection) {
+        try {
+            doCollection(collection);
+            updateStatus(CollectionStatus.SUCCEEDED, null);
+        } catch (CollectionTimedOut e) {
+            LOG.info(e.getMessage());
+            updateStatus(CollectionStatus.FAILED, e);
+        } catch (CollectionWarning e) {
+            LOG.warn(e.getMessage(), e);
+            updateStatus(CollectionStatus.FAILED, e);
+        } catch (CollectionUnknown e) {
+            LOG.warn(e.getMessage(), e);
+            // Omit any status updates
+        } catch (CollectionException e) {
+            LOG.error(e.getMessage(), e);
+            updateStatus(CollectionStatus.FAILED, e);
+        } catch (Throwable e) {
+            LOG.error(e.getMessage(), e);
+            updateStatus(CollectionStatus.FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
+        }
+    }
+
+    private void reschedule() {
         // If we are doing strict interval, determine how long the collection
         // has taken, so we can cut that off of the service interval
         long diff = 0;
@@ -418,14 +512,17 @@ class CollectableService implements ReadyRunnable {
         m_status = status;
     }
 
+    private void logCollectionStarted() {
+        LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+    }
+
     /**
      * Perform data collection.
      */
-	private void doCollection() throws CollectionException {
-		LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+	private void doCollection(Supplier<CollectionSet> collection) throws CollectionException {
 		CollectionSet result = null;
 		try {
-		    result = m_spec.collect(m_agent);
+		    result = collection.get();
 		    if (result != null) {
                         Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
                         try {
@@ -661,6 +758,25 @@ class CollectableService implements ReadyRunnable {
         return this;
     }
 
+    /**
+     * <p>setCollectionLimiter</p>
+     *
+     * @param collectionLimiter used to bound the number of concurrent collections when
+     *        collecting asynchronously, or null to collect synchronously
+     */
+    public void setCollectionLimiter(CollectionLimiter collectionLimiter) {
+        m_collectionLimiter = collectionLimiter;
+    }
+
+    /**
+     * <p>setCollectionTimer</p>
+     *
+     * @param collectionTimer updated with the duration of every collection
+     */
+    public void setCollectionTimer(Timer collectionTimer) {
+        m_collectionTimer = collectionTimer;
+    }
+
     public static CollectionSetVisitor wrapResourcesWithTimekeeper(CollectionSetVisitor visitor, TimeKeeper timeKeeper) {
         // Wrap the given visitor and intercept the calls to visit the resources
         final CollectionSetVisitor wrappedVisitor = new CollectionSetVisitorWrapper(visitor) {
@@ -70,6 +70,7 @@ import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventIpcManager;
 import org.opennms.netmgt.events.api.EventListener;
 import org.opennms.netmgt.filter.api.FilterDao;
+import org.opennms.netmgt.jmx.impl.connection.connectors.JmxConnectionPool;
 import org.opennms.netmgt.model.AbstractEntityVisitor;
 import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsMonitoredService;
@@ -80,6 +81,7 @@ import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
 import org.opennms.netmgt.snmp.InetAddrUtils;
+import org.opennms.netmgt.threshd.ThresholdStateStore;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.netmgt.xml.event.Value;
@@ -92,6 +94,9 @@ import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
 /**
  * <p>Collectd class.</p>
  *
@@ -127,6 +132,16 @@ public class Collectd extends AbstractServiceDaemon implements
      * Log4j category
      */
     static final String LOG4J_CATEGORY = "collectd";
+
+    /**
+     * When enabled, collections are requested asynchronously and the scheduler's
+     * threads are only used to start the collections and persist their results.
+     */
+    static final String ASYNC_COLLECTION_SYS_PROP = "org.opennms.netmgt.collectd.asyncCollection";
+
+    static final String MAX_COLLECTIONS_PER_AGENT_SYS_PROP = "org.opennms.netmgt.collectd.maxConcurrentCollectionsPerAgent";
+
+    static final String MAX_COLLECTIONS_PER_LOCATION_SYS_PROP = "org.opennms.netmgt.collectd.maxConcurrentCollectionsPerLocation";
     
     /**
      * Instantiated service collectors specified in config file
@@ -191,6 +206,13 @@ public class Collectd extends AbstractServiceDaemon implements
     @Autowired
     private ResourceStorageDao m_resourceStorageDao;
 
+    private MetricRegistry m_metricRegistry = new MetricRegistry();
+
+    /**
+     * Only set when collecting asynchronously
+     */
+    private volatile CollectionLimiter m_collectionLimiter;
+
     /**
      * Constructor.
      */
@@ -217,6 +239,10 @@ public class Collectd extends AbstractServiceDaemon implements
         // make sure the instrumentation gets initialized
         instrumentation();
         
+        if (Boolean.getBoolean(ASYNC_COLLECTION_SYS_PROP)) {
+            createCollectionLimiter();
+        }
+
         instantiateCollectors();
 
         getScheduler().schedule(0, ifScheduler());
@@ -317,6 +343,27 @@ public class Collectd extends AbstractServiceDaemon implements
         return interfaceScheduler;
     }
 
+    private void createCollectionLimiter() {
+        final int maxPerAgent = Integer.getInteger(MAX_COLLECTIONS_PER_AGENT_SYS_PROP, 1);
+        final int maxPerLocation = Integer.getInteger(MAX_COLLECTIONS_PER_LOCATION_SYS_PROP, 1000);
+        LOG.info("init: Collecting asynchronously with at most {} concurrent collection(s) per agent and {} per location", maxPerAgent, maxPerLocation);
+
+        // Queued collections are started from the scheduler's threads
+        m_collectionLimiter = new CollectionLimiter(maxPerAgent, maxPerLocation, runnable -> getScheduler().schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void run() {
+                Logging.withPrefix(LOG4J_CATEGORY, runnable);
+            }
+        }));
+        m_metricRegistry.register(MetricRegistry.name("collections.active"), (Gauge<Integer>) m_collectionLimiter::getActive);
+        m_metricRegistry.register(MetricRegistry.name("collections.queued"), (Gauge<Integer>) m_collectionLimiter::getQueued);
+    }
+
     private void createScheduler() {
         Logging.withPrefix(LOG4J_CATEGORY, new Runnable() {
             @Override
@@ -354,6 +401,9 @@ public class Collectd extends AbstractServiceDaemon implements
         deinstallMessageSelectors();
 
         setScheduler(null);
+
+        // Don't keep the JMX connections of the collectors open
+        JmxConnectionPool.getInstance().close();
     }
 
     /** {@inheritDoc} */
@@ -527,6 +577,9 @@ public class Collectd extends AbstractServiceDaemon implements
                     m_resourceStorageDao
                 );
 
+                cSvc.setCollectionLimiter(m_collectionLimiter);
+                cSvc.setCollectionTimer(m_metricRegistry.timer(MetricRegistry.name("collections", svcName)));
+
                 // Add new collectable service to the collectable service list.
                 m_collectableServices.add(cSvc);
 
@@ -981,6 +1034,9 @@ public class Collectd extends AbstractServiceDaemon implements
 
         unscheduleNodeAndMarkForDeletion(nodeId);
 
+        // Drop the counter values and threshold states of the node
+        ThresholdStateStore.getInstance().removeNode(nodeId.intValue());
+
         LOG.debug("nodeDeletedHandler: processing of nodeDeleted event for nodeid {} completed.", nodeId);
     }
 
@@ -1451,6 +1507,24 @@ public class Collectd extends AbstractServiceDaemon implements
         LOG.debug("serviceDeletedHandler: processing of serviceDeleted event for {}/{}/{} completed.", nodeId, ipAddr, svcName);
     }
 
+    /**
+     * <p>setMetricRegistry</p>
+     *
+     * @param metricRegistry the registry in which the collection latencies are tracked
+     */
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        m_metricRegistry = metricRegistry;
+    }
+
+    /**
+     * <p>getMetricRegistry</p>
+     *
+     * @return a {@link com.codahale.metrics.MetricRegistry} object.
+     */
+    public MetricRegistry getMetricRegistry() {
+        return m_metricRegistry;
+    }
+
     /**
      * <p>setScheduler</p>
      *
@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounds the number of collections that are in flight at the same time against
+ * a single agent and within a single location.
+ *
+ * Collections that would exceed one of the limits are queued. The collections of
+ * an agent are started in the order they were submitted, and agents that wait for
+ * their location get the next permit of that location in the order they started
+ * waiting. Queued collections are started on the given {@link Executor} so that
+ * completing a collection never runs the next one on the completing thread.
+ *
+ * A limit that is less than 1 disables that limit.
+ */
+public class CollectionLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(CollectionLimiter.class);
+
+    private static class Pending<T> {
+        private final String m_agent;
+        private final String m_location;
+        private final Supplier<CompletableFuture<T>> m_task;
+        private final CompletableFuture<T> m_future = new CompletableFuture<>();
+
+        private Pending(String agent, String location, Supplier<CompletableFuture<T>> task) {
+            m_agent = agent;
+            m_location = location;
+            m_task = task;
+        }
+    }
+
+    /**
+     * The collections queued for one agent. Only the first one can be started, and
+     * while that one waits for its location the agent is queued at the location.
+     */
+    private static class AgentQueue {
+        private final String m_agent;
+        private final Deque<Pending<?>> m_pending = new ArrayDeque<>();
+        private boolean m_waitingForLocation = false;
+
+        private AgentQueue(String agent) {
+            m_agent = agent;
+        }
+    }
+
+    private final int m_maxPerAgent;
+    private final int m_maxPerLocation;
+    private final Executor m_executor;
+
+    // Guarded by this
+    private final Map<String, Integer> m_activeByAgent = new HashMap<>();
+    private final Map<String, Integer> m_activeByLocation = new HashMap<>();
+    private final Map<String, AgentQueue> m_queuedByAgent = new HashMap<>();
+    private final Map<String, Deque<AgentQueue>> m_waitingByLocation = new HashMap<>();
+    private int m_active = 0;
+    private int m_queued = 0;
+
+    /**
+     * <p>Constructor for CollectionLimiter.</p>
+     *
+     * @param maxPerAgent the maximum number of concurrent collections against a single agent
+     * @param maxPerLocation the maximum number of concurrent collections within a single location
+     * @param executor used to start collections that had to be queued
+     */
+    public CollectionLimiter(int maxPerAgent, int maxPerLocation, Executor executor) {
+        m_maxPerAgent = maxPerAgent;
+        m_maxPerLocation = maxPerLocation;
+        m_executor = executor;
+    }
+
+    /**
+     * Starts the given collection, or queues it if either limit has been reached.
+     *
+     * @param agent a key identifying the agent
+     * @param location the location of the agent
+     * @param task starts the collection and returns a future that completes with it
+     * @return a future that completes with the future returned by the task
+     */
+    public <T> CompletableFuture<T> submit(String agent, String location, Supplier<CompletableFuture<T>> task) {
+        final Pending<T> pending = new Pending<>(agent, location, task);
+        final boolean startNow;
+        synchronized (this) {
+            AgentQueue queue = m_queuedByAgent.get(agent);
+            // Don't let new collections jump ahead of the ones already waiting for the same agent,
+            // queued collections are started as soon as permits are released so they can't starve on the location
+            startNow = queue == null && hasAgentCapacity(pending) && hasLocationCapacity(pending);
+            if (startNow) {
+                acquire(pending);
+            } else {
+                if (queue == null) {
+                    queue = new AgentQueue(agent);
+                    m_queuedByAgent.put(agent, queue);
+                }
+                queue.m_pending.add(pending);
+                m_queued++;
+                if (queue.m_pending.size() == 1 && hasAgentCapacity(pending)) {
+                    waitForLocation(queue, pending);
+                }
+                LOG.debug("submit: queued collection for agent {} at location {}, {} collection(s) waiting", agent, location, m_queued);
+            }
+        }
+        if (startNow) {
+            start(pending);
+        }
+        return pending.m_future;
+    }
+
+    private <T> void start(final Pending<T> pending) {
+        CompletableFuture<T> future;
+        try {
+            future = pending.m_task.get();
+        } catch (Throwable t) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+        }
+        future.whenComplete((result, t) -> {
+            release(pending);
+            if (t != null) {
+                pending.m_future.completeExceptionally(t);
+            } else {
+                pending.m_future.complete(result);
+            }
+        });
+    }
+
+    private void release(final Pending<?> done) {
+        final List<Pending<?>> ready = new ArrayList<>();
+        synchronized (this) {
+            m_active--;
+            decrement(m_activeByAgent, done.m_agent);
+            decrement(m_activeByLocation, done.m_location);
+
+            // The location's permit goes to the agents that have been waiting for it the longest
+            final Deque<AgentQueue> waiting = m_waitingByLocation.get(done.m_location);
+            while (waiting != null && !waiting.isEmpty() && hasLocationCapacity(done.m_location)) {
+                final AgentQueue next = waiting.poll();
+                next.m_waitingForLocation = false;
+                startQueued(next, ready);
+                if (next.m_waitingForLocation && waiting.peekLast() == next) {
+                    // Still waiting for this location, keep its place
+                    waiting.pollLast();
+                    waiting.addFirst(next);
+                    break;
+                }
+            }
+            if (waiting != null && waiting.isEmpty()) {
+                m_waitingByLocation.remove(done.m_location);
+            }
+
+            // The agent's permit goes to its next collection, unless that one already waits for its location
+            final AgentQueue queue = m_queuedByAgent.get(done.m_agent);
+            if (queue != null && !queue.m_waitingForLocation) {
+                startQueued(queue, ready);
+            }
+        }
+
+        for (final Pending<?> pending : ready) {
+            try {
+                m_executor.execute(() -> start(pending));
+            } catch (Throwable t) {
+                LOG.warn("release: failed to start queued collection for agent {}", pending.m_agent, t);
+                release(pending);
+                pending.m_future.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Starts the queued collections of the agent as long as there are permits. Stops at the first
+     * one that has to wait, which is retried when one of the agent's collections completes or, if
+     * it waits for its location, when the agent's turn at the location comes.
+     */
+    private void startQueued(final AgentQueue queue, final List<Pending<?>> ready) {
+        while (!queue.m_pending.isEmpty()) {
+            final Pending<?> pending = queue.m_pending.peek();
+            if (!hasAgentCapacity(pending)) {
+                return;
+            }
+            if (!hasLocationCapacity(pending)) {
+                waitForLocation(queue, pending);
+                return;
+            }
+            queue.m_pending.poll();
+            m_queued--;
+            acquire(pending);
+            ready.add(pending);
+        }
+        m_queuedByAgent.remove(queue.m_agent);
+    }
+
+    private void waitForLocation(final AgentQueue queue, final Pending<?> pending) {
+        if (!queue.m_waitingForLocation) {
+            queue.m_waitingForLocation = true;
+            m_waitingByLocation.computeIfAbsent(pending.m_location, k -> new ArrayDeque<>()).add(queue);
+        }
+    }
+
+    private boolean hasAgentCapacity(Pending<?> pending) {
+        return m_maxPerAgent < 1 || count(m_activeByAgent, pending.m_agent) < m_maxPerAgent;
+    }
+
+    private boolean hasLocationCapacity(Pending<?> pending) {
+        return hasLocationCapacity(pending.m_location);
+    }
+
+    private boolean hasLocationCapacity(String location) {
+        return m_maxPerLocation < 1 || count(m_activeByLocation, location) < m_maxPerLocation;
+    }
+
+    private void acquire(Pending<?> pending) {
+        m_active++;
+        increment(m_activeByAgent, pending.m_agent);
+        increment(m_activeByLocation, pending.m_location);
+    }
+
+    private static int count(Map<String, Integer> counts, String key) {
+        final Integer count = counts.get(key);
+        return count == null ? 0 : count;
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+        counts.put(key, count(counts, key) + 1);
+    }
+
+    private static void decrement(Map<String, Integer> counts, String key) {
+        final int count = count(counts, key) - 1;
+        if (count > 0) {
+            counts.put(key, count);
+        } else {
+            counts.remove(key);
+        }
+    }
+
+    /**
+     * <p>getActive</p>
+     *
+     * @return the number of collections currently in flight
+     */
+    public synchronized int getActive() {
+        return m_active;
+    }
+
+    /**
+     * <p>getQueued</p>
+     *
+     * @return the number of collections waiting for one of the limits
+     */
+    public synchronized int getQueued() {
+        return m_queued;
+    }
+}
@@ -33,6 +33,7 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 import org.opennms.core.rpc.api.RpcExceptionHandler;
@@ -43,6 +44,7 @@ import org.opennms.netmgt.collection.api.CollectionInitializationException;
 import org.opennms.netmgt.collection.api.CollectionInstrumentation;
 import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.api.CollectionStatus;
+import org.opennms.netmgt.collection.api.CollectorRequestBuilder;
 import org.opennms.netmgt.collection.api.LocationAwareCollectorClient;
 import org.opennms.netmgt.collection.api.ServiceCollector;
 import org.opennms.netmgt.collection.api.ServiceParameters;
@@ -269,54 +271,94 @@ public class CollectionSpecification {
     public CollectionSet collect(CollectionAgent agent) throws CollectionException {
         m_instrumentation.beginCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
         try {
-            final CollectionSet set = m_locationAwareCollectorClient.collect()
-                .withAgent(agent)
-                .withAttributes(getPropertyMap())
-                .withCollector(getCollector())
-                // Use the service interval as the TTL
-                .withTimeToLive(getService().getInterval())
+            final CollectionSet set = createCollectorRequest(agent)
                 .execute()
                 .get();
-
-            // There are collector implementations that never throw an exception just return a collection failed
-            if (CollectionStatus.FAILED.equals(set.getStatus())) {
-                m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, new CollectionFailed(CollectionStatus.FAILED));
-            }
+            checkCollectionStatus(agent, set);
             return set;
         } catch (InterruptedException|ExecutionException e) {
-            final CollectionException ce = RpcExceptionUtils.handleException(e, new RpcExceptionHandler<CollectionException>() {
-                @Override
-                public CollectionException onInterrupted(Throwable t) {
-                    return new CollectionUnknown("Interrupted.", t);
-                }
+            throw handleCollectionException(agent, e);
+        } finally {
+            m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+        }
+    }
 
-                @Override
-                public CollectionException onTimedOut(Throwable t) {
-                    return new CollectionUnknown("Request timed out.", t);
+    /**
+     * Same as {@link #collect(CollectionAgent)}, but returns as soon as the collection
+     * was requested instead of waiting for it to complete.
+     *
+     * @param agent a {@link org.opennms.netmgt.collection.api.CollectionAgent} object.
+     * @return a future that completes with the collected {@link CollectionSet}, or exceptionally with a {@link CollectionException}
+     */
+    public CompletableFuture<CollectionSet> collectAsync(CollectionAgent agent) {
+        m_instrumentation.beginCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+        CompletableFuture<CollectionSet> future;
+        try {
+            future = createCollectorRequest(agent).execute();
+        } catch (Throwable t) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+        }
+        return future.handle((set, t) -> {
+            try {
+                if (t != null) {
+                    throw handleCollectionException(agent, t);
                 }
+                checkCollectionStatus(agent, set);
+                return set;
+            } finally {
+                m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+            }
+        });
+    }
 
-                @Override
-                public CollectionException onRejected(Throwable t) {
-                    return new CollectionUnknown("Request rejected.", e);
-                }
+    private CollectorRequestBuilder createCollectorRequest(CollectionAgent agent) {
+        return m_locationAwareCollectorClient.collect()
+            .withAgent(agent)
+            .withAttributes(getPropertyMap())
+            .withCollector(getCollector())
+            // Use the service interval as the TTL
+            .withTimeToLive(getService().getInterval());
+    }
 
-                @Override
-                public CollectionException onUnknown(Throwable t) {
-                    if (t instanceof CollectionException) {
-                        return (CollectionException)t;
-                    } else if (t.getCause() != null && t.getCause() instanceof CollectionException) {
-                        return (CollectionException)t.getCause();
-                    }
-                    return new CollectionException("Collection failed.", t);
-                }
-            });
-            m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, ce);
-            throw ce;
-        } finally {
-            m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+    private void checkCollectionStatus(CollectionAgent agent, CollectionSet set) {
+        // There are collector implementations that never throw an exception just return a collection failed
+        if (CollectionStatus.FAILED.equals(set.getStatus())) {
+            m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, new CollectionFailed(CollectionStatus.FAILED));
         }
     }
 
+    private CollectionException handleCollectionException(CollectionAgent agent, Throwable e) {
+        final CollectionException ce = RpcExceptionUtils.handleException(e, new RpcExceptionHandler<CollectionException>() {
+            @Override
+            public CollectionException onInterrupted(Throwable t) {
+                return new CollectionUnknown("Interrupted.", t);
+            }
+
+            @Override
+            public CollectionException onTimedOut(Throwable t) {
+                return new CollectionUnknown("Request timed out.", t);
+            }
+
+            @Override
+            public CollectionException onRejected(Throwable t) {
+                return new CollectionUnknown("Request rejected.", e);
+            }
+
+            @Override
+            public CollectionException onUnknown(Throwable t) {
+                if (t instanceof CollectionException) {
+                    return (CollectionException)t;
+                } else if (t.getCause() != null && t.getCause() instanceof CollectionException) {
+                    return (CollectionException)t.getCause();
+                }
+                return new CollectionException("Collection failed.", t);
+            }
+        });
+        m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, ce);
+        return ce;
+    }
+
     /**
      * <p>scheduledOutage</p>
      *
@@ -361,64 +361,96 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
     }
 
     void collect() throws CollectionException {
+        try {
+            collectAsync().get();
+        } catch (InterruptedException e) {
+            throw toCollectionException(e);
+        } catch (ExecutionException e) {
+            // collectAsync() always completes exceptionally with a CollectionException
+            throw toCollectionException(e.getCause());
+        }
+    }
+
+    /**
+     * Walks the agent without blocking the calling thread. The returned future
+     * completes once the walk and the post-processing of the results are done, or
+     * exceptionally with a {@link CollectionException} if the collection failed.
+     */
+    CompletableFuture<Void> collectAsync() {
         // XXX Should we have a call to hasDataToCollect here?
+        final CompletableFuture<CollectionTracker> future;
         try {
             // now collect the data
             CollectionAgent agent = getCollectionAgent();
             logStartedWalker();
 
-            CompletableFuture<CollectionTracker> future = m_client.walk(getAgentConfig(), getTracker())
-                .withDescription("SnmpCollectors for " + agent.getHostAddress())
-                .withLocation(getCollectionAgent().getLocationName())
-                .withTimeToLive(m_snmpCollection.getServiceParameters().getServiceInterval())
-                .execute();
+            // Walks against the same agent may be merged with the ones of other collections
+            future = SnmpWalkCoalescer.getInstance().walk(m_client, getAgentConfig(), getCollectionAgent().getLocationName(),
+                    getTracker(), "SnmpCollectors for " + agent.getHostAddress(),
+                    m_snmpCollection.getServiceParameters().getServiceInterval());
+        } catch (Throwable t) {
+            final CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(toCollectionException(t));
+            return failed;
+        }
+
+        return future.handle((tracker, t) -> {
+            logFinishedWalker();
+            if (t != null) {
+                throw toCollectionException(t);
+            }
 
-            // wait for collection to finish
             try {
-                future.get();
-            } finally {
-                logFinishedWalker();
+                // Execute POST Updates (add custom parameters)
+                SnmpPropertyExtenderProcessor processor = new SnmpPropertyExtenderProcessor();
+                processor.process(this, m_snmpCollection.getName(), m_agent.getSysObjectId(), m_agent.getHostAddress());
+            } catch (Throwable e) {
+                throw toCollectionException(e);
             }
-
-            // Execute POST Updates (add custom parameters)
-            SnmpPropertyExtenderProcessor processor = new SnmpPropertyExtenderProcessor();
-            processor.process(this, m_snmpCollection.getName(), m_agent.getSysObjectId(), m_agent.getHostAddress());
             m_status = CollectionStatus.SUCCEEDED;
-        } catch (InterruptedException|ExecutionException e) {
-            throw RpcExceptionUtils.handleException(e, new RpcExceptionHandler<CollectionException>() {
-                @Override
-                public CollectionException onInterrupted(Throwable t) {
-                    Thread.currentThread().interrupt();
-                    return new CollectionUnknown(String.format("Collection of SNMP data for interface %s at location %s was interrupted.",
-                            getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
-                }
+            return null;
+        });
+    }
 
-                @Override
-                public CollectionException onTimedOut(Throwable t) {
-                    return new CollectionUnknown(String.format("No response received when remotely collecting SNMP data"
-                            + " for interface %s at location %s.",
-                            getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
-                }
+    private CollectionException toCollectionException(Throwable e) {
+        if (e instanceof CollectionException) {
+            return (CollectionException)e;
+        } else if (e != null && e.getCause() instanceof CollectionException) {
+            return (CollectionException)e.getCause();
+        }
+        return RpcExceptionUtils.handleException(e, new RpcExceptionHandler<CollectionException>() {
+            @Override
+            public CollectionException onInterrupted(Throwable t) {
+                Thread.currentThread().interrupt();
+                return new CollectionUnknown(String.format("Collection of SNMP data for interface %s at location %s was interrupted.",
+                        getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
+            }
 
-                @Override
-                public CollectionException onRejected(Throwable t) {
-                    return new CollectionUnknown(String.format("The request to remotely collect SNMP data"
-                            + " for interface %s at location %s was rejected.",
-                            getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
-                }
+            @Override
+            public CollectionException onTimedOut(Throwable t) {
+                return new CollectionUnknown(String.format("No response received when remotely collecting SNMP data"
+                        + " for interface %s at location %s.",
+                        getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
+            }
 
-                @Override
-                public CollectionException onUnknown(Throwable t) {
-                    if (t instanceof SnmpAgentTimeoutException) {
-                        return new CollectionTimedOut(t.getMessage());
-                    } else if (t.getCause() != null && t.getCause() instanceof SnmpAgentTimeoutException) {
-                        return new CollectionTimedOut(t.getCause().getMessage());
-                    }
-                    return new CollectionWarning(String.format("Unexpected exception when collecting SNMP data for interface %s at location %s.",
-                            getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
+            @Override
+            public CollectionException onRejected(Throwable t) {
+                return new CollectionUnknown(String.format("The request to remotely collect SNMP data"
+                        + " for interface %s at location %s was rejected.",
+                        getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
+            }
+
+            @Override
+            public CollectionException onUnknown(Throwable t) {
+                if (t instanceof SnmpAgentTimeoutException) {
+                    return new CollectionTimedOut(t.getMessage());
+                } else if (t.getCause() != null && t.getCause() instanceof SnmpAgentTimeoutException) {
+                    return new CollectionTimedOut(t.getCause().getMessage());
                 }
-            });
-        }
+                return new CollectionWarning(String.format("Unexpected exception when collecting SNMP data for interface %s at location %s.",
+                        getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
+            }
+        });
     }
 
     boolean checkDisableForceRescan(final String disabledString) {
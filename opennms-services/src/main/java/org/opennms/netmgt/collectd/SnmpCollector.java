@@ -32,6 +32,8 @@ import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.opennms.core.spring.BeanUtils;
 import org.opennms.netmgt.collection.api.AbstractServiceCollector;
@@ -223,47 +225,93 @@ public class SnmpCollector extends AbstractServiceCollector {
     @Override
     public CollectionSet collect(CollectionAgent agent, Map<String, Object> parameters) throws CollectionException {
         try {
-            final ServiceParameters params = new ServiceParameters(parameters);
-            params.logIfAliasConfig();
+            final SnmpCollectionSet collectionSet = createCollectionSet(agent, parameters);
+            collectionSet.collect();
+            return afterCollection(agent, collectionSet);
+        } catch (CollectionException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t);
+        }
+    }
 
-            if (m_client == null) {
-                m_client = BeanUtils.getBean("daoContext", "locationAwareSnmpClient", LocationAwareSnmpClient.class);
+    /**
+     * {@inheritDoc}
+     *
+     * Walks the agent with the asynchronous walker, so that the calling thread is
+     * released while the requests are in flight.
+     */
+    @Override
+    public CompletableFuture<CollectionSet> collectAsync(CollectionAgent agent, Map<String, Object> parameters) {
+        final SnmpCollectionSet collectionSet;
+        try {
+            collectionSet = createCollectionSet(agent, parameters);
+        } catch (Throwable t) {
+            final CompletableFuture<CollectionSet> failed = new CompletableFuture<>();
+            failed.completeExceptionally(toCollectionException(agent, t));
+            return failed;
+        }
+
+        return collectionSet.collectAsync().handle((v, t) -> {
+            if (t != null) {
+                throw toCollectionException(agent, t);
+            }
+            try {
+                return afterCollection(agent, collectionSet);
+            } catch (Throwable e) {
+                throw toCollectionException(agent, e);
             }
-            OnmsSnmpCollection snmpCollection = new OnmsSnmpCollection((SnmpCollectionAgent)agent, params, m_client);
+        });
+    }
 
-            final EventProxy eventProxy = EventIpcManagerFactory.getIpcManager();
-            final ForceRescanState forceRescanState = new ForceRescanState(agent, eventProxy);
+    private SnmpCollectionSet createCollectionSet(CollectionAgent agent, Map<String, Object> parameters) {
+        final ServiceParameters params = new ServiceParameters(parameters);
+        params.logIfAliasConfig();
 
-            SnmpCollectionSet collectionSet = snmpCollection.createCollectionSet((SnmpCollectionAgent)agent);
-            collectionSet.setCollectionTimestamp(new Date());
-            if (!collectionSet.hasDataToCollect()) {
-                LOG.info("agent {} defines no data to collect.  Skipping.", agent);
-                // should we return here?
-            }
+        if (m_client == null) {
+            m_client = BeanUtils.getBean("daoContext", "locationAwareSnmpClient", LocationAwareSnmpClient.class);
+        }
+        OnmsSnmpCollection snmpCollection = new OnmsSnmpCollection((SnmpCollectionAgent)agent, params, m_client);
 
-            collectionSet.collect();
+        SnmpCollectionSet collectionSet = snmpCollection.createCollectionSet((SnmpCollectionAgent)agent);
+        collectionSet.setCollectionTimestamp(new Date());
+        if (!collectionSet.hasDataToCollect()) {
+            LOG.info("agent {} defines no data to collect.  Skipping.", agent);
+            // should we return here?
+        }
+        return collectionSet;
+    }
 
+    private CollectionSet afterCollection(CollectionAgent agent, SnmpCollectionSet collectionSet) {
+        final EventProxy eventProxy = EventIpcManagerFactory.getIpcManager();
+        final ForceRescanState forceRescanState = new ForceRescanState(agent, eventProxy);
+
+        /*
+         * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
+         * {@see http://issues.opennms.org/browse/NMS-1057}
+         */
+        if (System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true")
+                && collectionSet.rescanNeeded()) {
             /*
-             * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
-             * {@see http://issues.opennms.org/browse/NMS-1057}
+             * TODO: the behavior of this object may have been re-factored away.
+             * Verify that this is correct and remove this unused object if it
+             * is no longer needed.  My gut thinks this should be investigated.
              */
-            if (System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true")
-                    && collectionSet.rescanNeeded()) {
-                /*
-                 * TODO: the behavior of this object may have been re-factored away.
-                 * Verify that this is correct and remove this unused object if it
-                 * is no longer needed.  My gut thinks this should be investigated.
-                 */
-                forceRescanState.rescanIndicated();
-            } else {
-                collectionSet.checkForSystemRestart();
-            }
-            return collectionSet;
-        } catch (CollectionException e) {
-            throw e;
-        } catch (Throwable t) {
-            throw new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t);
+            forceRescanState.rescanIndicated();
+        } else {
+            collectionSet.checkForSystemRestart();
+        }
+        return collectionSet;
+    }
+
+    private static CollectionException toCollectionException(CollectionAgent agent, Throwable t) {
+        if (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (t instanceof CollectionException) {
+            return (CollectionException)t;
         }
+        return new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t);
     }
 
     /** {@inheritDoc} */
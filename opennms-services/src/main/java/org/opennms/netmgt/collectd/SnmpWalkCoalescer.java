@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SingleInstanceTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
+import org.opennms.netmgt.snmp.proxy.WalkRequest;
+import org.opennms.netmgt.snmp.proxy.WalkResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges the walks that are requested against the same agent within a short window
+ * into a single walk.
+ *
+ * When an interface is in several packages, or the data collection groups of a node
+ * overlap, the same OIDs would otherwise be walked once per collection. The walk
+ * requests of all the trackers in a batch are de-duplicated on their base OID and
+ * instance, walked once, and the results are handed to every tracker that asked
+ * for them, just like the responses of a remote walk.
+ *
+ * Coalescing is disabled when the window is 0, which is the default.
+ */
+public class SnmpWalkCoalescer {
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpWalkCoalescer.class);
+
+    /**
+     * How long, in milliseconds, to wait for other walks against the same agent
+     * before starting a walk.
+     */
+    public static final String WINDOW_SYS_PROP = "org.opennms.netmgt.collectd.SnmpCollector.coalesceWindow";
+
+    private static final SnmpWalkCoalescer INSTANCE = new SnmpWalkCoalescer(Long.getLong(WINDOW_SYS_PROP, 0L));
+
+    public static SnmpWalkCoalescer getInstance() {
+        return INSTANCE;
+    }
+
+    private static class BatchKey {
+        private final String m_location;
+        private final SnmpAgentConfig m_agentConfig;
+
+        private BatchKey(String location, SnmpAgentConfig agentConfig) {
+            m_location = location;
+            m_agentConfig = agentConfig;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_location, m_agentConfig);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final BatchKey other = (BatchKey) obj;
+            return Objects.equals(m_location, other.m_location)
+                    && Objects.equals(m_agentConfig, other.m_agentConfig);
+        }
+    }
+
+    private static class Member {
+        private final CollectionTracker m_tracker;
+        private final String m_description;
+        private final Long m_timeToLive;
+        private final CompletableFuture<CollectionTracker> m_future = new CompletableFuture<>();
+
+        private Member(CollectionTracker tracker, String description, Long timeToLive) {
+            m_tracker = tracker;
+            m_description = description;
+            m_timeToLive = timeToLive;
+        }
+    }
+
+    private static class Batch {
+        private final BatchKey m_key;
+        private final LocationAwareSnmpClient m_client;
+        private final List<Member> m_members = new ArrayList<>();
+
+        private Batch(BatchKey key, LocationAwareSnmpClient client) {
+            m_key = key;
+            m_client = client;
+        }
+    }
+
+    private final long m_window;
+
+    // Guarded by this
+    private final Map<BatchKey, Batch> m_batches = new HashMap<>();
+
+    private ScheduledExecutorService m_timer;
+
+    /**
+     * <p>Constructor for SnmpWalkCoalescer.</p>
+     *
+     * @param window how long, in milliseconds, to wait for other walks against the same agent
+     */
+    protected SnmpWalkCoalescer(long window) {
+        m_window = window;
+    }
+
+    /**
+     * Walks the given tracker, possibly together with the trackers of other collections
+     * against the same agent.
+     *
+     * @return a future that completes with the given tracker once it has been walked
+     */
+    public CompletableFuture<CollectionTracker> walk(LocationAwareSnmpClient client, SnmpAgentConfig agentConfig, String location,
+            CollectionTracker tracker, String description, Long timeToLive) {
+        if (m_window <= 0) {
+            return execute(client, agentConfig, location, tracker, description, timeToLive);
+        }
+
+        final Member member = new Member(tracker, description, timeToLive);
+        final BatchKey key = new BatchKey(location, agentConfig);
+        synchronized (this) {
+            Batch batch = m_batches.get(key);
+            if (batch == null) {
+                final Batch newBatch = new Batch(key, client);
+                m_batches.put(key, newBatch);
+                getTimer().schedule(() -> flush(newBatch), m_window, TimeUnit.MILLISECONDS);
+                batch = newBatch;
+            }
+            batch.m_members.add(member);
+        }
+        return member.m_future;
+    }
+
+    private synchronized ScheduledExecutorService getTimer() {
+        if (m_timer == null) {
+            m_timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "SnmpWalkCoalescer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return m_timer;
+    }
+
+    private static <T extends CollectionTracker> CompletableFuture<T> execute(LocationAwareSnmpClient client, SnmpAgentConfig agentConfig, String location,
+            T tracker, String description, Long timeToLive) {
+        return client.walk(agentConfig, tracker)
+            .withDescription(description)
+            .withLocation(location)
+            .withTimeToLive(timeToLive)
+            .execute();
+    }
+
+    private void flush(final Batch batch) {
+        synchronized (this) {
+            // No more walks can join the batch once it has been removed
+            m_batches.remove(batch.m_key);
+        }
+
+        try {
+            if (batch.m_members.size() == 1) {
+                final Member member = batch.m_members.get(0);
+                execute(batch.m_client, batch.m_key.m_agentConfig, batch.m_key.m_location, member.m_tracker, member.m_description, member.m_timeToLive)
+                    .whenComplete((tracker, t) -> {
+                        if (t != null) {
+                            member.m_future.completeExceptionally(t);
+                        } else {
+                            member.m_future.complete(tracker);
+                        }
+                    });
+                return;
+            }
+            walkMerged(batch);
+        } catch (Throwable t) {
+            for (Member member : batch.m_members) {
+                member.m_future.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static void walkMerged(final Batch batch) {
+        // Index of the merged walk for every distinct base OID and instance
+        final Map<List<Object>, Integer> indexByWalk = new LinkedHashMap<>();
+        final List<Collectable> trackers = new ArrayList<>();
+        final List<List<SnmpResult>> resultsByIndex = new ArrayList<>();
+        final List<List<WalkRequest>> requestsByMember = new ArrayList<>(batch.m_members.size());
+        Long timeToLive = null;
+        int requested = 0;
+
+        for (Member member : batch.m_members) {
+            final List<WalkRequest> requests = member.m_tracker.getWalkRequests();
+            requestsByMember.add(requests);
+            requested += requests.size();
+            if (member.m_timeToLive != null && (timeToLive == null || member.m_timeToLive > timeToLive)) {
+                timeToLive = member.m_timeToLive;
+            }
+
+            for (WalkRequest request : requests) {
+                final List<Object> walkKey = getWalkKey(request);
+                final Integer index = indexByWalk.get(walkKey);
+                if (index == null) {
+                    final List<SnmpResult> results = new ArrayList<>();
+                    indexByWalk.put(walkKey, trackers.size());
+                    trackers.add(createTracker(request, results));
+                    resultsByIndex.add(results);
+                } else if (request.getInstance() == null) {
+                    final ColumnTracker tracker = (ColumnTracker) trackers.get(index);
+                    tracker.setMaxRepetitions(Math.max(tracker.getMaxRepetitions(), request.getMaxRepetitions()));
+                }
+            }
+        }
+
+        LOG.debug("walkMerged: merged {} walks from {} collections into {} walks for {}",
+                requested, batch.m_members.size(), trackers.size(), batch.m_key.m_agentConfig.getAddress());
+
+        final Member first = batch.m_members.get(0);
+        execute(batch.m_client, batch.m_key.m_agentConfig, batch.m_key.m_location, new AggregateTracker(trackers), first.m_description, timeToLive)
+            .whenComplete((tracker, t) -> {
+                for (int i = 0; i < batch.m_members.size(); i++) {
+                    final Member member = batch.m_members.get(i);
+                    if (t != null) {
+                        member.m_future.completeExceptionally(t);
+                        continue;
+                    }
+                    try {
+                        // Hand each tracker the results it asked for, using its own correlation ids
+                        final List<WalkResponse> responses = new ArrayList<>();
+                        for (WalkRequest request : requestsByMember.get(i)) {
+                            final List<SnmpResult> results = resultsByIndex.get(indexByWalk.get(getWalkKey(request)));
+                            responses.add(new WalkResponse(results, request.getCorrelationId()));
+                        }
+                        member.m_tracker.handleWalkResponses(responses);
+                        member.m_future.complete(member.m_tracker);
+                    } catch (Throwable e) {
+                        member.m_future.completeExceptionally(e);
+                    }
+                }
+            });
+    }
+
+    private static List<Object> getWalkKey(WalkRequest request) {
+        return Arrays.asList(request.getBaseOid(), request.getInstance());
+    }
+
+    private static CollectionTracker createTracker(WalkRequest request, final List<SnmpResult> results) {
+        final CollectionTracker tracker;
+        if (request.getInstance() != null) {
+            tracker = new SingleInstanceTracker(request.getBaseOid(), new SnmpInstId(request.getInstance())) {
+                @Override
+                protected void storeResult(SnmpResult res) {
+                    results.add(res);
+                }
+            };
+        } else {
+            tracker = new ColumnTracker(request.getBaseOid()) {
+                @Override
+                protected void storeResult(SnmpResult res) {
+                    results.add(res);
+                }
+            };
+        }
+        tracker.setMaxRepetitions(request.getMaxRepetitions());
+        return tracker;
+    }
+}
@@ -28,10 +28,21 @@
 
 package org.opennms.netmgt.passive;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.sql.DataSource;
 
@@ -45,12 +56,21 @@ import org.opennms.netmgt.events.api.EventListener;
 import org.opennms.netmgt.model.events.EventUtils;
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * <p>PassiveStatusKeeper class.</p>
  *
+ * <p>Statuses are kept in a concurrent map so that lookups from the poller never block.
+ * A single passive status event may carry several statuses by repeating the group of
+ * passive parameters, each group starting with the node label.</p>
+ *
+ * <p>When a snapshot file is configured, the status table is written to it when the
+ * service stops and read back when it starts again. The snapshot is removed once it
+ * has been loaded, so the outages table is used instead after an unclean shutdown.</p>
+ *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  */
@@ -58,16 +78,20 @@ public class PassiveStatusKeeper extends AbstractServiceDaemon implements EventL
     
     private static final Logger LOG = LoggerFactory.getLogger(PassiveStatusKeeper.class);
     
-    private static PassiveStatusKeeper s_instance = new PassiveStatusKeeper();
+    private static volatile PassiveStatusKeeper s_instance = new PassiveStatusKeeper();
     
     private static final String PASSIVE_STATUS_UEI = "uei.opennms.org/services/passiveServiceStatus";
 
+    private static final int SNAPSHOT_VERSION = 1;
+
     private volatile Map<PassiveStatusKey, PollStatus> m_statusTable = null;
     private volatile EventIpcManager m_eventMgr;
     private volatile boolean m_initialized = false;
 
     private DataSource m_dataSource;
 
+    private File m_snapshotFile = getDefaultSnapshotFile();
+
     
     /**
      * <p>Constructor for PassiveStatusKeeper.</p>
@@ -91,7 +115,7 @@ public class PassiveStatusKeeper extends AbstractServiceDaemon implements EventL
      *
      * @param psk a {@link org.opennms.netmgt.passive.PassiveStatusKeeper} object.
      */
-    public static synchronized void setInstance(PassiveStatusKeeper psk) {
+    public static void setInstance(PassiveStatusKeeper psk) {
         s_instance = psk;
     }
     
@@ -100,7 +124,7 @@ public class PassiveStatusKeeper extends AbstractServiceDaemon implements EventL
      *
      * @return a {@link org.opennms.netmgt.passive.PassiveStatusKeeper} object.
      */
-    public static synchronized PassiveStatusKeeper getInstance() {
+    public static PassiveStatusKeeper getInstance() {
         return s_instance;
     }
 
@@ -115,7 +139,12 @@ public class PassiveStatusKeeper extends AbstractServiceDaemon implements EventL
         checkPreRequisites();
         createMessageSelectorAndSubscribe();
         
-        m_statusTable = new HashMap<PassiveStatusKey, PollStatus>();
+        m_statusTable = new ConcurrentHashMap<PassiveStatusKey, PollStatus>();
+
+        if (loadSnapshot()) {
+            m_initialized = true;
+            return;
+        }
         
         String sql = "select node.nodeLabel AS nodeLabel, ipInterface.ipAddr AS ipAddr, service.serviceName AS serviceName " +
                 "FROM outages " +
@@ -157,11 +186,89 @@ public class PassiveStatusKeeper extends AbstractServiceDaemon implements EventL
      */
     @Override
     protected void onStop() {
+        if (m_initialized) {
+            saveSnapshot();
+        }
         m_initialized = false;
         m_eventMgr = null;
         m_statusTable = null;
     }
 
+    private static File getDefaultSnapshotFile() {
+        final String opennmsHome = System.getProperty("opennms.home");
+        if (opennmsHome == null) {
+            return null;
+        }
+        return Paths.get(opennmsHome, "share", "passive-status.snapshot").toFile();
+    }
+
+    private boolean loadSnapshot() {
+        if (m_snapshotFile == null || !m_snapshotFile.canRead()) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                LOG.warn("Ignoring passive status snapshot {} with an unknown version.", m_snapshotFile);
+                return false;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final PassiveStatusKey key = new PassiveStatusKey(in.readUTF(), in.readUTF(), in.readUTF());
+                final int statusCode = in.readInt();
+                final String reason = in.readBoolean() ? in.readUTF() : null;
+                m_statusTable.put(key, PollStatus.get(statusCode, reason));
+            }
+            LOG.info("Loaded {} passive statuses from snapshot {}.", count, m_snapshotFile);
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Failed to load passive status snapshot {}, loading the status from the outages instead.", m_snapshotFile, e);
+            m_statusTable.clear();
+            return false;
+        } finally {
+            // The snapshot is only valid for the next start
+            if (!m_snapshotFile.delete()) {
+                LOG.warn("Failed to remove passive status snapshot {}.", m_snapshotFile);
+            }
+        }
+    }
+
+    private void saveSnapshot() {
+        if (m_snapshotFile == null || m_statusTable == null) {
+            return;
+        }
+
+        // Services without a status are considered up, so only keep the others
+        final List<Map.Entry<PassiveStatusKey, PollStatus>> entries = new ArrayList<>();
+        for (Map.Entry<PassiveStatusKey, PollStatus> entry : m_statusTable.entrySet()) {
+            final PollStatus status = entry.getValue();
+            if (status.getStatusCode() != PollStatus.SERVICE_AVAILABLE || status.getReason() != null) {
+                entries.add(entry);
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_snapshotFile)))) {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<PassiveStatusKey, PollStatus> entry : entries) {
+                final PassiveStatusKey key = entry.getKey();
+                out.writeUTF(key.getNodeLabel());
+                out.writeUTF(key.getIpAddr());
+                out.writeUTF(key.getServiceName());
+                out.writeInt(entry.getValue().getStatusCode());
+                final String reason = entry.getValue().getReason();
+                out.writeBoolean(reason != null);
+                if (reason != null) {
+                    out.writeUTF(reason);
+                }
+            }
+            LOG.info("Saved {} passive statuses to snapshot {}.", entries.size(), m_snapshotFile);
+        } catch (IOException e) {
+            LOG.warn("Failed to save passive status snapshot {}.", m_snapshotFile, e);
+            m_snapshotFile.delete();
+        }
+    }
+
     /**
      * <p>setStatus</p>
      *
@@ -216,26 +323,49 @@ public class PassiveStatusKeeper extends AbstractServiceDaemon implements EventL
         
         if (isPassiveStatusEvent(e)) {
             LOG.debug("onEvent: received valid registered passive status event: \n", EventUtils.toString(e));
-            PassiveStatusValue statusValue = getPassiveStatusValue(e);
-            setStatus(statusValue.getKey(), statusValue.getStatus());
-            LOG.debug("onEvent: passive status for: {} is: {}", statusValue.getKey(), m_statusTable.get(statusValue.getKey()));
-        } 
-        
-        if (!isPassiveStatusEvent(e))
-        {
+            for (PassiveStatusValue statusValue : getPassiveStatusValues(e)) {
+                setStatus(statusValue.getKey(), statusValue.getStatus());
+                LOG.debug("onEvent: passive status for: {} is: {}", statusValue.getKey(), statusValue.getStatus());
+            }
+        } else {
             LOG.debug("onEvent: received Invalid registered passive status event: \n", EventUtils.toString(e));
         }
     }
 
-    private PassiveStatusValue getPassiveStatusValue(Event e) {
-    		return new PassiveStatusValue(
-    				EventUtils.getParm(e, EventConstants.PARM_PASSIVE_NODE_LABEL),
-    				EventUtils.getParm(e, EventConstants.PARM_PASSIVE_IPADDR),
-    				EventUtils.getParm(e, EventConstants.PARM_PASSIVE_SERVICE_NAME),
-    				PollStatus.decode(EventUtils.getParm(e, EventConstants.PARM_PASSIVE_SERVICE_STATUS),EventUtils.getParm(e,EventConstants.PARM_PASSIVE_REASON_CODE))
-    				);
-    		
-	}
+    /**
+     * Gets all of the passive status values in the event. The passive parameters
+     * may be repeated, in which case every node label parameter starts a new value.
+     */
+    List<PassiveStatusValue> getPassiveStatusValues(Event e) {
+        final List<PassiveStatusValue> values = new ArrayList<>(1);
+        String nodeLabel = null, ipAddr = null, serviceName = null, status = null, reason = null;
+        for (Parm parm : e.getParmCollection()) {
+            final String name = parm.getParmName();
+            final String value = parm.getValue() == null ? null : parm.getValue().getContent();
+            if (EventConstants.PARM_PASSIVE_NODE_LABEL.equals(name)) {
+                addPassiveStatusValue(values, nodeLabel, ipAddr, serviceName, status, reason);
+                nodeLabel = value;
+                ipAddr = serviceName = status = reason = null;
+            } else if (EventConstants.PARM_PASSIVE_IPADDR.equals(name)) {
+                ipAddr = value;
+            } else if (EventConstants.PARM_PASSIVE_SERVICE_NAME.equals(name)) {
+                serviceName = value;
+            } else if (EventConstants.PARM_PASSIVE_SERVICE_STATUS.equals(name)) {
+                status = value;
+            } else if (EventConstants.PARM_PASSIVE_REASON_CODE.equals(name)) {
+                reason = value;
+            }
+        }
+        addPassiveStatusValue(values, nodeLabel, ipAddr, serviceName, status, reason);
+        return values;
+    }
+
+    private static void addPassiveStatusValue(List<PassiveStatusValue> values, String nodeLabel, String ipAddr, String serviceName, String status, String reason) {
+        if (nodeLabel == null || ipAddr == null || serviceName == null || status == null) {
+            return;
+        }
+        values.add(new PassiveStatusValue(nodeLabel, ipAddr, serviceName, PollStatus.decode(status, reason)));
+    }
 
 	boolean isPassiveStatusEvent(Event e) {
 		return PASSIVE_STATUS_UEI.equals(e.getUei()) &&
@@ -280,5 +410,14 @@ public class PassiveStatusKeeper extends AbstractServiceDaemon implements EventL
     public void setDataSource(DataSource dataSource) {
         m_dataSource = dataSource;
     }
+
+    /**
+     * <p>setSnapshotFile</p>
+     *
+     * @param snapshotFile the file used to keep the statuses between restarts, or null to disable snapshots
+     */
+    public void setSnapshotFile(File snapshotFile) {
+        m_snapshotFile = snapshotFile;
+    }
     
 }
@@ -49,6 +49,7 @@ import org.opennms.netmgt.dao.api.MonitoredServiceDao;
 import org.opennms.netmgt.dao.api.OutageDao;
 import org.opennms.netmgt.dao.api.ResourceStorageDao;
 import org.opennms.netmgt.events.api.EventIpcManager;
+import org.opennms.netmgt.jmx.impl.connection.connectors.JmxConnectionPool;
 import org.opennms.netmgt.model.OnmsEvent;
 import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsMonitoredService;
@@ -377,6 +378,9 @@ public class Poller extends AbstractServiceDaemon {
         }
 
         setScheduler(null);
+
+        // Don't keep the JMX connections of the monitors open
+        JmxConnectionPool.getInstance().close();
     }
 
     /**
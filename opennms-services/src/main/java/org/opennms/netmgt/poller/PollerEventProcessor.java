@@ -50,6 +50,7 @@ import org.opennms.netmgt.poller.pollables.PollableInterface;
 import org.opennms.netmgt.poller.pollables.PollableNetwork;
 import org.opennms.netmgt.poller.pollables.PollableNode;
 import org.opennms.netmgt.poller.pollables.PollableService;
+import org.opennms.netmgt.threshd.ThresholdStateStore;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Parm;
 import org.opennms.netmgt.xml.event.Value;
@@ -359,6 +360,8 @@ final class PollerEventProcessor implements EventListener {
 
         getPoller().getQueryManager().closeOutagesForNode(closeDate, event.getDbid(), nodeId.intValue());
 
+        // Drop the latency threshold states of the node
+        ThresholdStateStore.getInstance().removeNode(nodeId.intValue());
 
         PollableNode node = getNetwork().getNode(nodeId.intValue());
         if (node == null) {
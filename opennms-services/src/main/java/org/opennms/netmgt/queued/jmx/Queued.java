@@ -233,6 +233,62 @@ public class Queued extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
         }
     }
 
+    /**
+     * <p>getFilesWithPendingWork</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getFilesWithPendingWork() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getFilesWithPendingWork();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getLargestFileBacklog</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getLargestFileBacklog() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getLargestFileBacklog();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getOldestPendingAge</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getOldestPendingAge() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getOldestPendingAge();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * <p>getAverageQueueAge</p>
+     *
+     * @return a long.
+     */
+    @Override
+    public long getAverageQueueAge() {
+        if (getStatsStatus()) {
+            return getRrdStrategy().getAverageQueueAge();
+        } else {
+            return 0;
+        }
+    }
+
     /**
      * <p>getStartTime</p>
      *
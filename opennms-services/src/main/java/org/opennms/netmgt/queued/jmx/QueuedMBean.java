@@ -109,6 +109,30 @@ public interface QueuedMBean extends BaseOnmsMBean {
 	 * @return a long.
 	 */
 	public long getDequeuedItems();
+	/**
+	 * <p>getFilesWithPendingWork</p>
+	 *
+	 * @return a long.
+	 */
+	public long getFilesWithPendingWork();
+	/**
+	 * <p>getLargestFileBacklog</p>
+	 *
+	 * @return a long.
+	 */
+	public long getLargestFileBacklog();
+	/**
+	 * <p>getOldestPendingAge</p>
+	 *
+	 * @return a long.
+	 */
+	public long getOldestPendingAge();
+	/**
+	 * <p>getAverageQueueAge</p>
+	 *
+	 * @return a long.
+	 */
+	public long getAverageQueueAge();
 	/**
 	 * <p>getStartTime</p>
 	 *
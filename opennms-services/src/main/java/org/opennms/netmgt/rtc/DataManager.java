@@ -659,6 +659,25 @@ public class DataManager implements AvailabilityService, InitializingBean {
         return m_map.getValue(nodeid, category.getLabel(), curTime, rollingWindow);
     }
 
+    /**
+     * Get the down time for the nodeid in the last 'rollingWindow' starting
+     * at current time in the context of the passed category
+     *
+     * @param nodeid
+     *            the node for which the down time is to be calculated
+     * @param category
+     *            the category to which the node should belong to
+     * @param curTime
+     *            the current time
+     * @param rollingWindow
+     *            the window for which the down time is to be calculated
+     * @return the down time for the node summed over its services in the
+     *         context of the passed category
+     */
+    public synchronized long getDownTime(int nodeid, RTCCategory category, long curTime, long rollingWindow) {
+        return m_map.getDownTime(nodeid, category.getLabel(), curTime, rollingWindow);
+    }
+
     /**
      * Get the service count for the nodeid in the context of the passed
      * category
@@ -67,7 +67,11 @@ public class RTCHashMap {
     	List<Integer> nodes = new LinkedList<Integer>();
     	for (Iterator<RTCNodeKey> it = m_map.keySet().iterator(); it.hasNext();) {
 			RTCNodeKey key = it.next();
-			nodes.add(key.getNodeID());
+			// only use the nodeid keys, the nodeid/ip and nodeid/ip/svc keys
+			// would otherwise count every service several times
+			if (key.getIP() == null && key.getSvcName() == null) {
+				nodes.add(key.getNodeID());
+			}
 		}
     	return nodes;
     }
@@ -267,6 +271,36 @@ public class RTCHashMap {
         return RTCUtils.getOutagePercentage(outageTime, rollingWindow, count);
     }
 
+    /**
+     * Get the total down time for the services of a node that belong to the
+     * category in the last 'rollingWindow' starting at current time
+     *
+     * @param nodeid
+     *            the node for which the down time is to be calculated
+     * @param catLabel
+     *            the category to which the node should belong to
+     * @param curTime
+     *            the current time
+     * @param rollingWindow
+     *            the window for which the down time is to be calculated
+     * @return the down time in milliseconds summed over the services
+     */
+    public long getDownTime(int nodeid, String catLabel, long curTime, long rollingWindow) {
+        long outageTime = 0;
+
+        for (RTCNode node : getRTCNodes(nodeid)) {
+            if (node.getNodeID() == nodeid) {
+                try {
+                    outageTime += node.getDownTime(catLabel, curTime, rollingWindow);
+                } catch (NodeNotInCategoryException e) {
+                    continue;
+                }
+            }
+        }
+
+        return outageTime;
+    }
+
     /**
      * Get the count of services for a node in the context of the the specified
      * category
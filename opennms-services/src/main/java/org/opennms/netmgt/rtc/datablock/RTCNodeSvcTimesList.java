@@ -38,10 +38,11 @@ import org.slf4j.LoggerFactory;
  * List of service times. This contains a list of service lost/regained set/pair
  * for the RTCNode.
  *
- * Also maintains the outage/down time each time it is calculated and the time
- * from which this was calculated - this is done so when the outage time for a
- * window is calculated, the same calculations are not done on the node multiple
- * times.
+ * Also maintains a running sum of the down time of all closed outages in the
+ * list, as well as the number of outages that are still open, so that the
+ * outage time for a window can be computed incrementally: only the outages
+ * that straddle the start of the window need to be visited when the window
+ * slides forward.
  *
  * 'Expired' outages are removed during 'add' and 'getDownTime' operations.
  *
@@ -57,6 +58,32 @@ public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
      */
     private final long m_rollingWindow;
 
+    /**
+     * Sum of (regained - lost) for every closed outage in the list
+     */
+    private long m_closedDownTime = 0;
+
+    /**
+     * Number of outages in the list that have not been regained yet
+     */
+    private int m_openOutages = 0;
+
+    /**
+     * Latest lost and regained times seen, used to detect entries that lie
+     * in the future relative to the time at which the down time is requested
+     */
+    private long m_maxLostTime = -1;
+    private long m_maxRegainedTime = -1;
+
+    /**
+     * The last down time that was calculated and the window it was calculated
+     * for, so that the values for a node and for its categories that are
+     * requested for the same time do not walk the outages again
+     */
+    private long m_downTimeCurTime = -1;
+    private long m_downTimeRollingWindow = -1;
+    private long m_downTime = 0;
+
     /**
      * Remove expired outages. Remove all closed outages that are not in the the
      * last 'rollingWindow'
@@ -91,6 +118,9 @@ public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
 
             if (svcTime.hasExpired(startTime)) {
                 iter.remove();
+                // expired outages are always closed
+                m_closedDownTime -= svcTime.getRegainedTime() - svcTime.getLostTime();
+                m_downTimeCurTime = -1;
             }
         }
     }
@@ -122,7 +152,7 @@ public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
             return;
         }
 
-        addLast(new RTCNodeSvcTime(losttime, regainedtime));
+        addOutage(new RTCNodeSvcTime(losttime, regainedtime));
     }
 
     /**
@@ -135,7 +165,58 @@ public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
         // remove expired outages
         removeExpiredOutages();
 
-        addLast(new RTCNodeSvcTime(losttime));
+        addOutage(new RTCNodeSvcTime(losttime));
+    }
+
+    /**
+     * Set the regained time on the last entry in the list if that outage is
+     * still open.
+     *
+     * @param regainedtime
+     *            time at which service was regained
+     * @return true if an open outage was closed, false otherwise
+     */
+    public boolean regainLastSvcTime(long regainedtime) {
+        if (isEmpty()) {
+            return false;
+        }
+
+        final RTCNodeSvcTime svcTime = getLast();
+        if (svcTime.getRegainedTime() != -1) {
+            return false;
+        }
+
+        svcTime.setRegainedTime(regainedtime);
+        m_downTimeCurTime = -1;
+        if (svcTime.getRegainedTime() != -1) {
+            m_openOutages--;
+            m_closedDownTime += svcTime.getRegainedTime() - svcTime.getLostTime();
+            m_maxRegainedTime = Math.max(m_maxRegainedTime, svcTime.getRegainedTime());
+        }
+        return true;
+    }
+
+    /**
+     * Return true if the last entry in the list is an outage that has not
+     * been regained yet.
+     *
+     * @return true if the last outage is still open
+     */
+    public boolean isLastSvcTimeOpen() {
+        return !isEmpty() && getLast().getRegainedTime() == -1;
+    }
+
+    private void addOutage(RTCNodeSvcTime svcTime) {
+        addLast(svcTime);
+        m_downTimeCurTime = -1;
+
+        m_maxLostTime = Math.max(m_maxLostTime, svcTime.getLostTime());
+        if (svcTime.getRegainedTime() == -1) {
+            m_openOutages++;
+        } else {
+            m_closedDownTime += svcTime.getRegainedTime() - svcTime.getLostTime();
+            m_maxRegainedTime = Math.max(m_maxRegainedTime, svcTime.getRegainedTime());
+        }
     }
 
     /**
@@ -149,14 +230,57 @@ public class RTCNodeSvcTimesList extends LinkedList<RTCNodeSvcTime> {
      * @return total down time for all outages for this service
      */
     public long getDownTime(long curTime, long rollingWindow) {
+        if (curTime == m_downTimeCurTime && rollingWindow == m_downTimeRollingWindow) {
+            return m_downTime;
+        }
 
+        m_downTime = calculateDownTime(curTime, rollingWindow);
+        m_downTimeCurTime = curTime;
+        m_downTimeRollingWindow = rollingWindow;
+        return m_downTime;
+    }
+
+    private long calculateDownTime(long curTime, long rollingWindow) {
         // remove expired outages
         removeExpiredOutages(curTime, rollingWindow);
 
-        long outTime = 0;
+        if (isEmpty()) {
+            return 0;
+        }
+
+        // the running sums only hold when there is at most one open outage at the
+        // tail of the list and no outage extends past 'curTime'; otherwise sum up
+        // each outage individually
+        final RTCNodeSvcTime last = getLast();
+        if (m_openOutages > 1
+                || (m_openOutages == 1 && last.getRegainedTime() != -1)
+                || m_maxLostTime > curTime
+                || m_maxRegainedTime > curTime) {
+            long outTime = 0;
+            for (RTCNodeSvcTime svcTime : this) {
+                outTime += svcTime.getDownTime(curTime, rollingWindow);
+            }
+            return outTime;
+        }
+
+        // the start of the rolling window
+        final long startTime = curTime - rollingWindow;
+
+        long outTime = m_closedDownTime;
 
+        // clip the closed outages that started before the window
         for (RTCNodeSvcTime svcTime : this) {
-            outTime += svcTime.getDownTime(curTime, rollingWindow);
+            if (svcTime.getLostTime() >= startTime) {
+                break;
+            }
+            if (svcTime.getRegainedTime() != -1) {
+                outTime -= startTime - svcTime.getLostTime();
+            }
+        }
+
+        // add the outage that is still open
+        if (m_openOutages == 1) {
+            outTime += last.getDownTime(curTime, rollingWindow);
         }
 
         return outTime;
@@ -32,6 +32,7 @@ import java.util.Date;
 
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.rtc.DataManager;
+import org.opennms.netmgt.rtc.RTCUtils;
 import org.opennms.netmgt.rtc.datablock.RTCCategory;
 import org.opennms.netmgt.xml.rtc.EuiLevel;
 import org.opennms.netmgt.xml.rtc.Header;
@@ -99,8 +100,10 @@ public class LegacyEuiLevelMapper {
             // category label
             levelCat.setCatlabel(rtcCat.getLabel());
 
-            // availability value for this category
-            levelCat.setCatvalue(m_dataMgr.getValue(rtcCat, curTime, rWindow));
+            // tally the node values so that the category value
+            // does not have to visit every service a second time
+            long outageTimeInCategory = 0;
+            long numServicesInCategory = 0;
 
             // nodes in this category
             for (int nodeID : m_dataMgr.getNodes(rtcCat)) {
@@ -108,18 +111,28 @@ public class LegacyEuiLevelMapper {
                 Node levelNode = new Node();
                 levelNode.setNodeid(nodeID);
 
+                final long outageTime = m_dataMgr.getDownTime(nodeID, rtcCat, curTime, rWindow);
+                final int numServices = m_dataMgr.getServiceCount(nodeID, rtcCat);
+
                 // value for this node for this category
-                levelNode.setNodevalue(m_dataMgr.getValue(nodeID, rtcCat, curTime, rWindow));
+                levelNode.setNodevalue(RTCUtils.getOutagePercentage(outageTime, rWindow, numServices));
 
                 // node service count
-                levelNode.setNodesvccount(m_dataMgr.getServiceCount(nodeID, rtcCat));
+                levelNode.setNodesvccount(numServices);
 
                 // node service down count
                 levelNode.setNodesvcdowncount(m_dataMgr.getServiceDownCount(nodeID, rtcCat));
 
                 // add the node
                 levelCat.getNode().add(levelNode);
+
+                // update the category statistics
+                outageTimeInCategory += outageTime;
+                numServicesInCategory += numServices;
             }
+
+            // availability value for this category
+            levelCat.setCatvalue(RTCUtils.getOutagePercentage(outageTimeInCategory, rWindow, numServicesInCategory));
         }
 
         // add category
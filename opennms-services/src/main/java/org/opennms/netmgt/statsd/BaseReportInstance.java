@@ -30,6 +30,7 @@ package org.opennms.netmgt.statsd;
 
 import java.util.Date;
 import java.util.SortedSet;
+import java.util.concurrent.Executor;
 
 import org.opennms.netmgt.dao.api.ResourceDao;
 import org.opennms.netmgt.dao.api.RrdDao;
@@ -42,6 +43,7 @@ import org.opennms.netmgt.measurements.api.MeasurementFetchStrategy;
 import org.opennms.netmgt.model.AttributeStatistic;
 import org.opennms.netmgt.model.AttributeStatisticVisitorWithResults;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.support.TransactionOperations;
 
 /**
  * <p>BaseReportInstance class.</p>
@@ -53,6 +55,7 @@ import org.springframework.beans.factory.InitializingBean;
 public abstract class BaseReportInstance extends AbstractReportInstance implements InitializingBean {
     private final AttributeStatisticVisitorWithResults m_attributeStatisticVisitor;
     private final RrdStatisticAttributeVisitor m_rrdVisitor = new RrdStatisticAttributeVisitor();
+    private final ParallelStatisticAttributeVisitor m_fetchingVisitor;
     private final AttributeMatchingResourceVisitor m_attributeVisitor = new AttributeMatchingResourceVisitor();
     private final ResourceTypeFilteringResourceVisitor m_resourceTypeVisitor = new ResourceTypeFilteringResourceVisitor();
     private String m_resourceAttributeKey;
@@ -66,6 +69,7 @@ public abstract class BaseReportInstance extends AbstractReportInstance implemen
      */
     protected BaseReportInstance(AttributeStatisticVisitorWithResults visitor) {
         m_attributeStatisticVisitor = visitor;
+        m_fetchingVisitor = new ParallelStatisticAttributeVisitor(m_rrdVisitor, visitor);
     }
 
     public abstract ResourceWalker getWalker();
@@ -89,10 +93,42 @@ public abstract class BaseReportInstance extends AbstractReportInstance implemen
     @Override
     public void walk() {
         setJobStartedDate(new Date());
+        m_fetchingVisitor.start();
         getWalker().walk();
+        m_fetchingVisitor.finish();
         setJobCompletedDate(new Date());
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public void setExecutor(Executor executor) {
+        m_fetchingVisitor.setExecutor(executor);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setFetchBatchSize(int fetchBatchSize) {
+        m_fetchingVisitor.setBatchSize(fetchBatchSize);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setTransactionOperations(TransactionOperations transactionOperations) {
+        getWalker().setTransactionOperations(transactionOperations);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAttributesFetched() {
+        return m_fetchingVisitor.getAttributesFetched();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getFetchTime() {
+        return m_fetchingVisitor.getFetchTime();
+    }
+
     /**
      * <p>getResults</p>
      *
@@ -246,7 +282,7 @@ public abstract class BaseReportInstance extends AbstractReportInstance implemen
         super.afterPropertiesSet();
         
         m_rrdVisitor.setStatisticVisitor(m_attributeStatisticVisitor);
-        m_attributeVisitor.setAttributeVisitor(m_rrdVisitor);
+        m_attributeVisitor.setAttributeVisitor(m_fetchingVisitor);
         
         if (m_resourceAttributeKey != null && m_resourceAttributeValueMatch != null) {
             m_resourceAttributeVisitor = new ResourceAttributeFilteringResourceVisitor();
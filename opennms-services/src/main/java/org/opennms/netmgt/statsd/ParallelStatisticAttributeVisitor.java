@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.statsd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.netmgt.dao.support.BottomNAttributeStatisticVisitor;
+import org.opennms.netmgt.dao.support.RrdStatisticAttributeVisitor;
+import org.opennms.netmgt.model.AttributeStatistic;
+import org.opennms.netmgt.model.AttributeStatisticVisitor;
+import org.opennms.netmgt.model.AttributeStatisticVisitorWithResults;
+import org.opennms.netmgt.model.AttributeVisitor;
+import org.opennms.netmgt.model.OnmsAttribute;
+import org.opennms.netmgt.model.RrdGraphAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the attributes found while walking the resource tree into
+ * batches and fetches their statistics on an {@link Executor}, so that
+ * walking the resources and fetching the statistics overlap.
+ *
+ * <p>Every batch keeps only the best {@link BottomNAttributeStatisticVisitor#getCount()}
+ * statistics, and those are merged into a single bounded set. Once the walk
+ * is over, {@link #finish()} waits for the outstanding batches and hands the
+ * merged statistics to the report's statistic visitor.</p>
+ *
+ * <p>Without an executor the batches are fetched by the walking thread once
+ * the walk is over, so that none of them is fetched while the walker holds
+ * a transaction open.</p>
+ */
+class ParallelStatisticAttributeVisitor implements AttributeVisitor {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelStatisticAttributeVisitor.class);
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(30);
+
+    static final int MAX_PENDING_BATCHES = 16;
+
+    private final RrdStatisticAttributeVisitor m_rrdVisitor;
+    private final AttributeStatisticVisitorWithResults m_statisticVisitor;
+
+    private Executor m_executor;
+    private int m_batchSize = 50;
+
+    private List<OnmsAttribute> m_batch;
+    private Semaphore m_pendingBatches;
+    private final List<FutureTask<Void>> m_tasks = new ArrayList<>();
+    private StatisticSet m_merged;
+
+    private final AtomicLong m_attributesQueued = new AtomicLong();
+    private final AtomicLong m_attributesFetched = new AtomicLong();
+    private final AtomicLong m_batchesFetched = new AtomicLong();
+    private final AtomicLong m_fetchTime = new AtomicLong();
+    private long m_startedAt;
+    private long m_lastProgress;
+
+    ParallelStatisticAttributeVisitor(RrdStatisticAttributeVisitor rrdVisitor, AttributeStatisticVisitorWithResults statisticVisitor) {
+        m_rrdVisitor = rrdVisitor;
+        m_statisticVisitor = statisticVisitor;
+    }
+
+    void setExecutor(Executor executor) {
+        m_executor = executor;
+    }
+
+    void setBatchSize(int batchSize) {
+        m_batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Prepares for a new walk.
+     */
+    void start() {
+        m_batch = new ArrayList<>(m_batchSize);
+        m_pendingBatches = new Semaphore(MAX_PENDING_BATCHES);
+        m_tasks.clear();
+        m_merged = createStatisticSet();
+        m_attributesQueued.set(0);
+        m_attributesFetched.set(0);
+        m_batchesFetched.set(0);
+        m_fetchTime.set(0);
+        m_startedAt = System.nanoTime();
+        m_lastProgress = m_startedAt;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void visit(OnmsAttribute attribute) {
+        if (!RrdGraphAttribute.class.isAssignableFrom(attribute.getClass())) {
+            // Nothing to do if we can't cast to an RrdGraphAttribute
+            return;
+        }
+
+        m_batch.add(attribute);
+        m_attributesQueued.incrementAndGet();
+        if (m_batch.size() >= m_batchSize) {
+            submitBatch();
+        }
+    }
+
+    /**
+     * Waits for all of the batches to be fetched and passes the merged
+     * statistics to the statistic visitor.
+     */
+    void finish() {
+        if (!m_batch.isEmpty()) {
+            submitBatch();
+        }
+
+        if (m_executor == null) {
+            for (FutureTask<Void> task : m_tasks) {
+                task.run();
+            }
+        }
+
+        try {
+            for (FutureTask<Void> task : m_tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    LOG.warn("Failed to fetch a batch of statistics", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the statistics to be fetched", e);
+        } finally {
+            m_tasks.clear();
+        }
+
+        final long elapsed = System.nanoTime() - m_startedAt;
+        LOG.info("Fetched {} attributes in {} batches in {}ms ({} attributes/s)",
+                 m_attributesFetched.get(), m_batchesFetched.get(), TimeUnit.NANOSECONDS.toMillis(elapsed),
+                 elapsed > 0 ? m_attributesFetched.get() * TimeUnit.SECONDS.toNanos(1) / elapsed : 0);
+
+        for (AttributeStatistic statistic : m_merged.getStatistics()) {
+            m_statisticVisitor.visit(statistic.getAttribute(), statistic.getStatistic());
+        }
+        m_merged = null;
+    }
+
+    private void submitBatch() {
+        final List<OnmsAttribute> batch = m_batch;
+        m_batch = new ArrayList<>(m_batchSize);
+
+        if (m_executor == null) {
+            // Deferred until finish()
+            m_tasks.add(new FutureTask<Void>(() -> fetchBatch(batch), null));
+            return;
+        }
+
+        // Keep the walker from running arbitrarily far ahead of the fetches
+        try {
+            m_pendingBatches.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing statistics to fetch", e);
+        }
+
+        final FutureTask<Void> task = new FutureTask<Void>(() -> {
+            try {
+                fetchBatch(batch);
+            } finally {
+                m_pendingBatches.release();
+            }
+        }, null);
+        m_tasks.add(task);
+
+        try {
+            m_executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Executor rejected the batch, fetching it in the current thread");
+            task.run();
+        }
+
+        logProgress();
+    }
+
+    private void fetchBatch(List<OnmsAttribute> batch) {
+        final StatisticSet statistics = createStatisticSet();
+        final long start = System.nanoTime();
+        m_rrdVisitor.visitAll(batch, statistics);
+        m_fetchTime.addAndGet(System.nanoTime() - start);
+
+        synchronized (m_merged) {
+            m_merged.addAll(statistics.getStatistics());
+        }
+        m_attributesFetched.addAndGet(batch.size());
+        m_batchesFetched.incrementAndGet();
+    }
+
+    private void logProgress() {
+        final long now = System.nanoTime();
+        if (now - m_lastProgress < PROGRESS_INTERVAL) {
+            return;
+        }
+        m_lastProgress = now;
+
+        final long fetched = m_attributesFetched.get();
+        LOG.info("Fetched {} of {} attributes so far ({} attributes/s)",
+                 fetched, m_attributesQueued.get(), fetched * TimeUnit.SECONDS.toNanos(1) / Math.max(1, now - m_startedAt));
+    }
+
+    private StatisticSet createStatisticSet() {
+        if (m_statisticVisitor instanceof BottomNAttributeStatisticVisitor) {
+            final BottomNAttributeStatisticVisitor visitor = (BottomNAttributeStatisticVisitor) m_statisticVisitor;
+            return new StatisticSet(visitor.new AttributeStatisticComparator(), visitor.getCount());
+        }
+        // We don't know which statistics the visitor is going to keep, so it gets all of them
+        return new StatisticSet(null, Integer.MAX_VALUE);
+    }
+
+    long getAttributesFetched() {
+        return m_attributesFetched.get();
+    }
+
+    long getBatchesFetched() {
+        return m_batchesFetched.get();
+    }
+
+    /**
+     * @return the time, in milliseconds, spent fetching statistics summed up over all threads
+     */
+    long getFetchTime() {
+        return TimeUnit.NANOSECONDS.toMillis(m_fetchTime.get());
+    }
+
+    /**
+     * Keeps at most {@code count} statistics, ordered by the given comparator.
+     */
+    private static class StatisticSet implements AttributeStatisticVisitor {
+        private final Collection<AttributeStatistic> m_statistics;
+        private final int m_count;
+
+        private StatisticSet(Comparator<AttributeStatistic> comparator, int count) {
+            m_statistics = comparator == null ? new ArrayList<>() : new TreeSet<>(comparator);
+            m_count = count;
+        }
+
+        @Override
+        public void visit(OnmsAttribute attribute, double statistic) {
+            add(new AttributeStatistic(attribute, statistic));
+        }
+
+        private void add(AttributeStatistic statistic) {
+            m_statistics.add(statistic);
+            if (m_statistics.size() > m_count) {
+                ((TreeSet<AttributeStatistic>) m_statistics).pollLast();
+            }
+        }
+
+        private void addAll(Collection<AttributeStatistic> statistics) {
+            for (AttributeStatistic statistic : statistics) {
+                add(statistic);
+            }
+        }
+
+        private Collection<AttributeStatistic> getStatistics() {
+            return m_statistics;
+        }
+    }
+}
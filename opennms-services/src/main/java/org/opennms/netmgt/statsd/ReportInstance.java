@@ -30,8 +30,10 @@ package org.opennms.netmgt.statsd;
 
 import java.util.Date;
 import java.util.SortedSet;
+import java.util.concurrent.Executor;
 
 import org.opennms.netmgt.model.AttributeStatistic;
+import org.springframework.transaction.support.TransactionOperations;
 
 /**
  * <p>ReportInstance interface.</p>
@@ -213,4 +215,38 @@ public interface ReportInstance {
      * @return a {@link java.lang.String} object.
      */
     String getResourceAttributeValueMatch();
+
+    /**
+     * Sets the executor used to fetch the statistics while the resources
+     * are walked. Without an executor they are fetched by the walking thread
+     * once the walk is over.
+     *
+     * @param executor a {@link java.util.concurrent.Executor} object.
+     */
+    void setExecutor(Executor executor);
+
+    /**
+     * <p>setFetchBatchSize</p>
+     *
+     * @param fetchBatchSize the number of attributes to fetch with a single request
+     */
+    void setFetchBatchSize(int fetchBatchSize);
+
+    /**
+     * Sets the transactions the resources are looked up in while they are
+     * walked. The statistics are fetched outside of them.
+     *
+     * @param transactionOperations a {@link org.springframework.transaction.support.TransactionOperations} object.
+     */
+    void setTransactionOperations(TransactionOperations transactionOperations);
+
+    /**
+     * @return the number of attributes fetched by the last walk
+     */
+    long getAttributesFetched();
+
+    /**
+     * @return the time, in milliseconds, spent fetching statistics during the last walk, summed up over all threads
+     */
+    long getFetchTime();
 }
@@ -29,6 +29,10 @@
 package org.opennms.netmgt.statsd;
 
 import java.text.ParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
 
 import org.opennms.netmgt.daemon.SpringServiceDaemon;
 import org.opennms.netmgt.dao.api.NodeDao;
@@ -88,11 +92,17 @@ public class Statsd implements SpringServiceDaemon {
     private Scheduler m_scheduler;
     private ReportDefinitionBuilder m_reportDefinitionBuilder;
     private volatile EventForwarder m_eventForwarder;
+
+    private int m_fetchThreads = Integer.getInteger("org.opennms.statsd.fetchThreads", Runtime.getRuntime().availableProcessors());
+    private int m_fetchBatchSize = Integer.getInteger("org.opennms.statsd.fetchBatchSize", 50);
+    private ExecutorService m_fetchExecutor;
     
     private long m_reportsStarted = 0;
     private long m_reportsCompleted = 0;
     private long m_reportsPersisted = 0;
     private long m_reportRunTime = 0;
+    private long m_attributesFetched = 0;
+    private long m_attributeFetchTime = 0;
 
     /**
      * <p>handleReloadConfigEvent</p>
@@ -176,6 +186,9 @@ public class Statsd implements SpringServiceDaemon {
             m_scheduler.shutdown();
         }
         LOG.debug("start: lock released (unless reentrant).");
+        if (m_fetchExecutor != null) {
+            m_fetchExecutor.shutdownNow();
+        }
     }
 
     /**
@@ -233,23 +246,34 @@ public class Statsd implements SpringServiceDaemon {
             throw t;
         }
         
+        report.setExecutor(m_fetchExecutor);
+        report.setFetchBatchSize(m_fetchBatchSize);
+
         // FIXME What if the walker or the persister throws an exception ?
+        final long reportStartTime = System.currentTimeMillis();
+        LOG.debug("Starting report {}", report);
+        accountReportStart();
+
+        /*
+         * The resources are looked up in short transactions while they are
+         * walked, the statistics are fetched outside of them and the results
+         * are persisted in a transaction of their own.
+         */
+        report.setTransactionOperations(getTransactionTemplate());
+        report.walk();
+        LOG.debug("Completed report {}", report);
+        accountReportComplete();
+        accountAttributesFetched(report.getAttributesFetched(), report.getFetchTime());
+
         getTransactionTemplate().execute(new TransactionCallbackWithoutResult() {
             @Override
             public void doInTransactionWithoutResult(TransactionStatus status) {
-                long reportStartTime = System.currentTimeMillis();
-                LOG.debug("Starting report {}", report);
-                accountReportStart();
-                report.walk();
-                LOG.debug("Completed report {}", report);
-                accountReportComplete();
-                
                 m_reportPersister.persist(report);
-                LOG.debug("Report {} persisted", report);
-                accountReportPersist();
-                accountReportRunTime(System.currentTimeMillis() - reportStartTime);
             }
         });
+        LOG.debug("Report {} persisted", report);
+        accountReportPersist();
+        accountReportRunTime(System.currentTimeMillis() - reportStartTime);
     }
 
     
@@ -269,6 +293,10 @@ public class Statsd implements SpringServiceDaemon {
         Assert.state(m_scheduler != null, "property scheduler must be set to a non-null value");
         Assert.state(m_reportDefinitionBuilder != null, "property reportDefinitionBuilder must be set to a non-null value");
         Assert.state(m_eventForwarder != null, "eventForwarder property must be set to a non-null value");
+
+        if (m_fetchThreads > 0 && m_fetchExecutor == null) {
+            m_fetchExecutor = Executors.newFixedThreadPool(m_fetchThreads, new LogPreservingThreadFactory("Statsd-Fetcher", m_fetchThreads));
+        }
     }
 
     /**
@@ -295,6 +323,42 @@ public class Statsd implements SpringServiceDaemon {
         this.m_fetchStrategy = fetchStrategy;
     }
 
+    /**
+     * <p>getFetchThreads</p>
+     *
+     * @return the number of threads fetching statistics, shared by all reports
+     */
+    public int getFetchThreads() {
+        return m_fetchThreads;
+    }
+
+    /**
+     * <p>setFetchThreads</p>
+     *
+     * @param fetchThreads the number of threads fetching statistics, 0 to fetch them once the resources have been walked
+     */
+    public void setFetchThreads(int fetchThreads) {
+        m_fetchThreads = fetchThreads;
+    }
+
+    /**
+     * <p>getFetchBatchSize</p>
+     *
+     * @return the number of attributes fetched with a single request
+     */
+    public int getFetchBatchSize() {
+        return m_fetchBatchSize;
+    }
+
+    /**
+     * <p>setFetchBatchSize</p>
+     *
+     * @param fetchBatchSize the number of attributes fetched with a single request
+     */
+    public void setFetchBatchSize(int fetchBatchSize) {
+        m_fetchBatchSize = fetchBatchSize;
+    }
+
     /**
      * <p>getTransactionTemplate</p>
      *
@@ -405,6 +469,11 @@ public class Statsd implements SpringServiceDaemon {
         m_reportRunTime += runtime;
     }
 
+    private synchronized void accountAttributesFetched(long attributes, long fetchTime) {
+        m_attributesFetched += attributes;
+        m_attributeFetchTime += fetchTime;
+    }
+
     public long getReportsStarted() {
         return m_reportsStarted;
     }
@@ -420,4 +489,12 @@ public class Statsd implements SpringServiceDaemon {
     public long getReportRunTime() {
         return m_reportRunTime;
     }
+
+    public long getAttributesFetched() {
+        return m_attributesFetched;
+    }
+
+    public long getAttributeFetchTime() {
+        return m_attributeFetchTime;
+    }
 }
@@ -73,4 +73,16 @@ public class Statsd extends AbstractSpringContextJmxServiceDaemon<org.opennms.ne
         return getDaemon().getReportRunTime();
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public long getAttributesFetched() {
+        return getDaemon().getAttributesFetched();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getAttributeFetchTime() {
+        return getDaemon().getAttributeFetchTime();
+    }
+
 }
@@ -56,4 +56,14 @@ public interface StatsdMBean extends BaseOnmsMBean {
      * @return The time, in milliseconds, spent running reports since Statsd was last started
      */
     public long getReportRunTime();
-    }
+
+    /**
+     * @return The number of attributes whose statistics were fetched since Statsd was last started
+     */
+    public long getAttributesFetched();
+
+    /**
+     * @return The time, in milliseconds, spent fetching statistics summed up over all fetcher threads since Statsd was last started
+     */
+    public long getAttributeFetchTime();
+}
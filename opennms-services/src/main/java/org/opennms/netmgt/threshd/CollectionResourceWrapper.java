@@ -34,7 +34,6 @@ import java.io.File;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.opennms.netmgt.collectd.AliasedResource;
 import org.opennms.netmgt.collectd.IfInfo;
@@ -78,39 +77,11 @@ public class CollectionResourceWrapper {
     private final Map<String, CollectionAttribute> m_attributes;
     private final ResourceStorageDao m_resourceStorageDao;
 
-    /**
-     * Keeps track of both the Double value, and when it was collected, for the static cache of attributes
-     * 
-     * This is necessary for the *correct* calculation of Counter rates, across variable collection times and possible
-     * collection failures (see NMS-4244)
-     */
-    public static class CacheEntry {
-        private final Date m_timestamp;
-        private final Double m_value;
-
-        public CacheEntry(final Date timestamp, final Double value) {
-            if (timestamp == null) {
-                throw new IllegalArgumentException("Illegal null timestamp in cache value");
-            } else if (value == null) {
-                throw new IllegalArgumentException("Illegal null value in cache value");
-            }
-            this.m_timestamp = timestamp;
-            this.m_value = value;
-        }
-
-        public Date getTimestamp() {
-            return m_timestamp;
-        }
-
-        public Double getValue() {
-            return m_value;
-        }
-    }
-
     /*
-     * Holds last values for counter attributes (in order to calculate delta)
+     * Holds last values for counter attributes (in order to calculate delta), kept with the timestamp
+     * they were collected at for the *correct* calculation of counter rates (see NMS-4244)
      */
-    static final ConcurrentHashMap<String, CacheEntry> s_cache = new ConcurrentHashMap<String,CacheEntry>();
+    private static final ThresholdStateStore s_cache = ThresholdStateStore.getInstance();
     
     /*
      * To avoid update static cache on every call of getAttributeValue.
@@ -118,6 +89,16 @@ public class CollectionResourceWrapper {
      * See Bug 3193
      */
     private final Map<String, Double> m_localCache = new HashMap<String,Double>();
+
+    /*
+     * Receives the last value of a counter attribute, guarded by m_localCache.
+     */
+    private final ThresholdStateStore.Slot m_lastCounterValue = new ThresholdStateStore.Slot();
+
+    /*
+     * The resource under which the counter attributes of this resource are kept in the static cache.
+     */
+    private String m_counterResource;
     
     /*
      * Holds interface ifInfo data for interface resource only. This avoid multiple calls to database for same resource.
@@ -403,39 +384,49 @@ public class CollectionResourceWrapper {
             LOG.info("getAttributeValue: can't find numeric value for {} on {}", ds, m_resource);
             return null;
         }
-        // Generating a unique ID for the node/resourceType/resource/metric combination.
-        String id =  "node[" + m_nodeId + "].resourceType[" + m_resource.getResourceTypeName() + "].instance[" + m_resource.getInterfaceLabel() + "].metric[" + ds + "]";
         Double current = numValue.doubleValue();
         if (!AttributeType.COUNTER.equals(m_attributes.get(ds).getType())) {
-            LOG.debug("getAttributeValue: id={}, value= {}", id, current);
+            LOG.debug("getAttributeValue: id={}.metric[{}], value= {}", getCounterResource(), ds, current);
             return current;
         } else {
-            return getCounterValue(id, current);
+            return getCounterValue(ds, current);
+        }
+    }
+
+    /*
+     * Generating a unique ID for the node/resourceType/resource combination.
+     */
+    private String getCounterResource() {
+        if (m_counterResource == null) {
+            m_counterResource = "node[" + m_nodeId + "].resourceType[" + m_resource.getResourceTypeName() + "].instance[" + m_resource.getInterfaceLabel() + "]";
         }
+        return m_counterResource;
     }
 
     /*
      * This will return the rate based on configured collection step
      */
-    private Double getCounterValue(String id, Double current) {
+    private Double getCounterValue(String ds, Double current) {
         synchronized (m_localCache) {
 
-        if (m_localCache.containsKey(id) == false) {
-            // Atomically replace the CacheEntry with the new value
-            // If the sysUpTime was changed, the "last" value must be null (to force update the cache).
-            CacheEntry last = m_counterReset ? null : s_cache.put(id, new CacheEntry(m_collectionTimestamp, current));
-            LOG.debug("getCounterValue: id={}, last={}, current={}", id, (last==null ? last : last.m_value +"@"+ last.m_timestamp), current);
-            if (last == null) {
-                m_localCache.put(id, Double.NaN);
-                if (m_counterReset) {
-                    s_cache.put(id, new CacheEntry(m_collectionTimestamp, current));
-                }
-                LOG.info("getCounterValue: unknown last value for {}, ignoring current", id);
+        if (m_localCache.containsKey(ds) == false) {
+            final String resource = getCounterResource();
+            final long timestamp = m_collectionTimestamp.getTime();
+            final ThresholdStateStore.Slot last = m_lastCounterValue;
+            // Atomically replace the last value with the new value
+            // If the sysUpTime was changed, the last value must be ignored (to force update the cache).
+            final boolean hasLast = s_cache.put(resource, ds, timestamp, current, Double.NaN, last) && !m_counterReset;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("getCounterValue: id={}.metric[{}], last={}, current={}", resource, ds, (hasLast ? last.getFirst() + "@" + new Date(last.getLong()) : null), current);
+            }
+            if (!hasLast) {
+                m_localCache.put(ds, Double.NaN);
+                LOG.info("getCounterValue: unknown last value for {}.metric[{}], ignoring current", resource, ds);
             } else {                
-                Double delta = current.doubleValue() - last.m_value.doubleValue();
+                double delta = current.doubleValue() - last.getFirst();
                 // wrapped counter handling(negative delta), rrd style
                 if (delta < 0) {
-                    double newDelta = delta.doubleValue();
+                    double newDelta = delta;
                     // 2-phase adjustment method
                     // try 32-bit adjustment
                     newDelta += Math.pow(2, 32);
@@ -443,31 +434,31 @@ public class CollectionResourceWrapper {
                         // try 64-bit adjustment
                         newDelta += Math.pow(2, 64) - Math.pow(2, 32);
                     }
-                    LOG.info("getCounterValue: {}(counter) wrapped counter adjusted last={}@{}, current={}, olddelta={}, newdelta={}", id, last.m_value, last.m_timestamp, current, delta, newDelta);
+                    LOG.info("getCounterValue: {}.metric[{}](counter) wrapped counter adjusted last={}@{}, current={}, olddelta={}, newdelta={}", resource, ds, last.getFirst(), new Date(last.getLong()), current, delta, newDelta);
                     delta = newDelta;
                 }
                 // Get the interval between when this current collection was taken, and the last time this
                 // value was collected (and had a counter rate calculated for it).
                 // If the interval is zero, than the current rate must returned as 0.0 since there can be 
                 // no delta across a time interval of zero.
-                long interval = ( m_collectionTimestamp.getTime() - last.m_timestamp.getTime() ) / 1000;
+                long interval = ( timestamp - last.getLong() ) / 1000;
                 if (interval > 0) {
                     final Double value = (delta/interval);
-                    LOG.debug("getCounterValue: id={}, value={}, delta={}, interval={}", id, value, delta, interval);
-                    m_localCache.put(id, value);
+                    LOG.debug("getCounterValue: id={}.metric[{}], value={}, delta={}, interval={}", resource, ds, value, delta, interval);
+                    m_localCache.put(ds, value);
                 } else {
-                    LOG.info("getCounterValue: invalid zero-length rate interval for {}, returning rate of zero", id);
-                    m_localCache.put(id, 0.0);
+                    LOG.info("getCounterValue: invalid zero-length rate interval for {}.metric[{}], returning rate of zero", resource, ds);
+                    m_localCache.put(ds, 0.0);
                     // Restore the original value inside the static cache
-                    s_cache.put(id, last);
+                    s_cache.put(resource, ds, last.getLong(), last.getFirst(), Double.NaN, null);
                 }
             }
         }
-        Double value = m_localCache.get(id);
+        Double value = m_localCache.get(ds);
         // This is just a sanity check, we should never have a value of null for the value at this point
         if (value == null) {
-            LOG.error("getCounterValue: value was not calculated correctly for {}, using NaN", id);
-            m_localCache.put(id, Double.NaN);
+            LOG.error("getCounterValue: value was not calculated correctly for {}.metric[{}], using NaN", getCounterResource(), ds);
+            m_localCache.put(ds, Double.NaN);
             return Double.NaN;
         } else {
             return value;
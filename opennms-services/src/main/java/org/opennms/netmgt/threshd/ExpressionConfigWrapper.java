@@ -35,8 +35,11 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.jexl2.ExpressionImpl;
+import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
 import org.apache.commons.jexl2.MapContext;
+import org.opennms.core.expression.CompiledExpression;
+import org.opennms.core.expression.ExpressionCompiler;
 import org.opennms.netmgt.config.threshd.Expression;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,18 +53,29 @@ import org.slf4j.LoggerFactory;
 public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
     private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapper.class);
 
+    /**
+     * Shared by all of the expressions, the engine is thread-safe once configured.
+     */
+    private static final JexlEngine s_jexl = new JexlEngine();
+
+    private static final JexlContext EMPTY_CONTEXT = new MapContext();
+
+    private static final MathBinding MATH = new MathBinding();
+
     private final Expression m_expression;
     private final Collection<String> m_datasources;
+    private final ExpressionImpl m_jexlExpression;
+    private final CompiledExpression m_compiledExpression;
+
     public ExpressionConfigWrapper(Expression expression) throws ThresholdExpressionException {
         super(expression);
         m_expression = expression;
 
-        JexlEngine expressionParser = new JexlEngine();
         m_datasources = new ArrayList<String>();
         try {
-            ExpressionImpl e = (ExpressionImpl) expressionParser.createExpression(m_expression.getExpression());
-            LOG.trace("List of Variables on the Expression: {}", e.getVariables());
-            for (List<String> list : e.getVariables()) { // Requires JEXL 2.1.x
+            m_jexlExpression = (ExpressionImpl) s_jexl.createExpression(m_expression.getExpression());
+            LOG.trace("List of Variables on the Expression: {}", m_jexlExpression.getVariables());
+            for (List<String> list : m_jexlExpression.getVariables()) { // Requires JEXL 2.1.x
                 if (list.get(0).equalsIgnoreCase("math")) {
                     continue;
                 }
@@ -77,6 +91,30 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
             throw new ThresholdExpressionException("Could not parse threshold expression:" + e.getMessage(), e);
         }
         LOG.trace("Threshold Variables: {}", m_datasources);
+
+        m_compiledExpression = compile(m_expression.getExpression(), m_datasources);
+        LOG.debug("Expression {} is {}", m_expression.getExpression(), m_compiledExpression != null ? "compiled" : "evaluated with JEXL");
+    }
+
+    private static CompiledExpression compile(String expression, Collection<String> datasources) {
+        final ExpressionCompiler compiler = new ExpressionCompiler(ExpressionConfigWrapper::evaluateLiteral);
+        compiler.setBinding("math", Math.class);
+        compiler.setMap("datasources");
+        // Only compile the expression if it agrees with JEXL on the data sources
+        compiler.setVariables(datasources);
+
+        final CompiledExpression compiled = compiler.compile(expression);
+        if (compiled == null || !compiled.hasExactStringValue()) {
+            return null;
+        }
+        return compiled;
+    }
+
+    /**
+     * Uses JEXL to evaluate numeric literals, so that compiled expressions use the same types.
+     */
+    private static Object evaluateLiteral(String literal) {
+        return s_jexl.createExpression(literal).evaluate(EMPTY_CONTEXT);
     }
 
     @Override
@@ -142,15 +180,46 @@ public class ExpressionConfigWrapper extends BaseThresholdDefConfigWrapper {
 
     @Override
     public double evaluate(Map<String, Double> values) throws ThresholdExpressionException {
+        if (m_compiledExpression != null) {
+            final String[] variables = m_compiledExpression.getVariables();
+            final double[] slots = new double[variables.length];
+            boolean[] missing = null;
+            for (int i = 0; i < variables.length; i++) {
+                final Double value = values.get(variables[i]);
+                if (value != null) {
+                    slots[i] = value.doubleValue();
+                } else {
+                    if (missing == null) {
+                        missing = new boolean[variables.length];
+                    }
+                    missing[i] = true;
+                }
+            }
+            try {
+                return m_compiledExpression.evaluate(slots, missing);
+            } catch (CompiledExpression.FallbackException e) {
+                LOG.trace("Evaluating expression {} with JEXL for values {}", m_expression.getExpression(), values);
+            }
+        }
+        return evaluateWithJexl(values);
+    }
+
+    /**
+     * Evaluates the expression with JEXL, even if it was compiled.
+     *
+     * @param values the values of the data sources
+     * @return the value of the expression
+     * @throws ThresholdExpressionException if the expression cannot be evaluated
+     */
+    double evaluateWithJexl(Map<String, Double> values) throws ThresholdExpressionException {
         // Add all of the variable values to the script context
         Map<String,Object> context = new HashMap<String,Object>();
         context.putAll(values);
         context.put("datasources", new HashMap<String, Double>(values)); // To workaround NMS-5019
-        context.put("math", new MathBinding());
+        context.put("math", MATH);
         double result = Double.NaN;
         try {
-            // Fetch an instance of the JEXL script engine to evaluate the script expression
-            Object resultObject = new JexlEngine().createExpression(m_expression.getExpression()).evaluate(new MapContext(context));
+            Object resultObject = m_jexlExpression.evaluate(new MapContext(context));
             result = Double.parseDouble(resultObject.toString());
         } catch (Throwable e) {
             throw new ThresholdExpressionException("Error while evaluating expression " + m_expression.getExpression() + ": " + e.getMessage(), e);
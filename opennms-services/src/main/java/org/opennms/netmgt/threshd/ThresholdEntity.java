@@ -61,6 +61,10 @@ public final class ThresholdEntity implements Cloneable {
     // in the Constructor.  Note that this means we must use a null-key capable map like HashMap
     private Map<String,List<ThresholdEvaluatorState>> m_thresholdEvaluatorStates = new HashMap<String,List<ThresholdEvaluatorState>>();
 
+    // The keys of the persisted states: the resource for each instance and the attribute for each threshold type
+    private final Map<String,String> m_stateResources = new HashMap<String,String>();
+    private final Map<String,String> m_stateAttributes = new HashMap<String,String>();
+
     // the commands for these need to be listed in ThresholdController as well
     static {
         s_thresholdEvaluators = new LinkedList<ThresholdEvaluator>();
@@ -239,6 +243,8 @@ public final class ThresholdEntity implements Cloneable {
             // such as the SiblingColumnStorageStrategy
             instance = resource.getInstanceLabel();
         }
+        // The states of an instance seen for the first time are restored from the state store
+        final boolean restoreStates = resource != null && !m_thresholdEvaluatorStates.containsKey(instance);
         try {
             if (getThresholdEvaluatorStates(instance).size() > 0) {
                 dsValue=getThresholdConfig().evaluate(values);
@@ -252,17 +258,63 @@ public final class ThresholdEntity implements Cloneable {
         
         LOG.debug("evaluate: value= {} against threshold: {}", dsValue, this);
 
-        for (ThresholdEvaluatorState item : getThresholdEvaluatorStates(instance)) {
+        final List<ThresholdEvaluatorState> states = getThresholdEvaluatorStates(instance);
+        final String stateResource = resource == null ? null : getStateResource(resource, instance);
+        if (restoreStates) {
+            restoreStates(stateResource, states);
+        }
+
+        ThresholdStateStore.Slot slot = null;
+        for (ThresholdEvaluatorState item : states) {
             Status status = item.evaluate(dsValue);
             Event event = item.getEventForState(status, date, dsValue, resource);
             if (event != null) {
                 events.add(event);
             }
+            if (stateResource != null && item instanceof PersistentThresholdEvaluatorState) {
+                if (slot == null) {
+                    slot = new ThresholdStateStore.Slot();
+                }
+                ((PersistentThresholdEvaluatorState)item).writeState(slot);
+                ThresholdStateStore.getInstance().put(stateResource, getStateAttribute(item), slot.getLong(), slot.getFirst(), slot.getSecond(), null);
+            }
         }
 
         return events;
     }
 
+    private void restoreStates(String stateResource, List<ThresholdEvaluatorState> states) {
+        final ThresholdStateStore.Slot slot = new ThresholdStateStore.Slot();
+        for (ThresholdEvaluatorState item : states) {
+            if (item instanceof PersistentThresholdEvaluatorState && ThresholdStateStore.getInstance().get(stateResource, getStateAttribute(item), slot)) {
+                LOG.debug("restoreStates: restoring the {} state of {}", item.getThresholdConfig().getType(), stateResource);
+                ((PersistentThresholdEvaluatorState)item).readState(slot);
+            }
+        }
+    }
+
+    /*
+     * The states are kept per thresholding set (node, interface and service) and instance.
+     */
+    private String getStateResource(CollectionResourceWrapper resource, String instance) {
+        String stateResource = m_stateResources.get(instance);
+        if (stateResource == null) {
+            stateResource = "node[" + resource.getNodeId() + "].address[" + resource.getHostAddress() + "].service[" + resource.getServiceName() + "].instance[" + instance + "]";
+            m_stateResources.put(instance, stateResource);
+        }
+        return stateResource;
+    }
+
+    private String getStateAttribute(ThresholdEvaluatorState state) {
+        final BaseThresholdDefConfigWrapper config = state.getThresholdConfig();
+        String stateAttribute = m_stateAttributes.get(config.getType());
+        if (stateAttribute == null) {
+            stateAttribute = "threshold[" + config.getType() + "].dsType[" + config.getDsType() + "].ds[" + config.getDatasourceExpression() + "]";
+            m_stateAttributes.put(config.getType(), stateAttribute);
+        }
+        return stateAttribute;
+    }
+
     /**
      * <p>addThreshold</p>
      *
@@ -328,6 +380,7 @@ public final class ThresholdEntity implements Cloneable {
         if (getThresholdConfig().equals(entity.getThresholdConfig()) == false) {
             sendRearmForTriggeredStates();
             getThresholdConfig().merge(entity.getThresholdConfig());
+            m_stateAttributes.clear();
         }
     }
 
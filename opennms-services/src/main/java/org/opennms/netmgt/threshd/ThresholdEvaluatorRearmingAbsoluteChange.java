@@ -62,7 +62,7 @@ public class ThresholdEvaluatorRearmingAbsoluteChange implements ThresholdEvalua
         return TYPE.equals(type);
     }
     
-    public static class ThresholdEvaluatorStateRearmingAbsoluteChange extends AbstractThresholdEvaluatorState {
+    public static class ThresholdEvaluatorStateRearmingAbsoluteChange extends AbstractThresholdEvaluatorState implements PersistentThresholdEvaluatorState {
         private BaseThresholdDefConfigWrapper m_thresholdConfig;
 
         private double m_lastSample = Double.NaN;
@@ -186,6 +186,18 @@ public class ThresholdEvaluatorRearmingAbsoluteChange implements ThresholdEvalua
             return new ThresholdEvaluatorStateRearmingAbsoluteChange(m_thresholdConfig);
         }
 
+        @Override
+        public void writeState(ThresholdStateStore.Slot slot) {
+            slot.set(m_triggerCount, m_lastSample, m_previousTriggeringSample);
+        }
+
+        @Override
+        public void readState(ThresholdStateStore.Slot slot) {
+            m_triggerCount = (int)slot.getLong();
+            m_lastSample = slot.getFirst();
+            m_previousTriggeringSample = slot.getSecond();
+        }
+
         @Override
         public boolean isTriggered() {
             return wasTriggered(m_previousTriggeringSample); // TODO Is that right ?
@@ -68,7 +68,7 @@ public class ThresholdEvaluatorRelativeChange implements ThresholdEvaluator {
         return TYPE.equals(type);
     }
     
-    public static class ThresholdEvaluatorStateRelativeChange extends AbstractThresholdEvaluatorState {
+    public static class ThresholdEvaluatorStateRelativeChange extends AbstractThresholdEvaluatorState implements PersistentThresholdEvaluatorState {
         private BaseThresholdDefConfigWrapper m_thresholdConfig;
         private double m_multiplier;
 
@@ -183,6 +183,17 @@ public class ThresholdEvaluatorRelativeChange implements ThresholdEvaluator {
             return new ThresholdEvaluatorStateRelativeChange(m_thresholdConfig);
         }
 
+        @Override
+        public void writeState(ThresholdStateStore.Slot slot) {
+            slot.set(0, m_lastSample, m_previousTriggeringSample);
+        }
+
+        @Override
+        public void readState(ThresholdStateStore.Slot slot) {
+            m_lastSample = slot.getFirst();
+            m_previousTriggeringSample = slot.getSecond();
+        }
+
         // FIXME This must be implemented correctly
         @Override
         public boolean isTriggered() {
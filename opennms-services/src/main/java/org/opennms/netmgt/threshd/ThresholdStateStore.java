@@ -0,0 +1,695 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the state that thresholding keeps between two collections: the last
+ * value of every counter attribute and the samples used by the stateful
+ * evaluators (relative change and rearming absolute change).
+ *
+ * <p>Entries are keyed by a resource and an attribute. Both are interned into
+ * int identifiers, so the strings are only kept once no matter how many
+ * entries share them, and the entries themselves live in open addressing
+ * tables of primitive arrays. Every entry holds one long and two doubles whose
+ * meaning is up to the caller.</p>
+ *
+ * <p>Resources are named after the node they belong to, i.e. they start with
+ * <code>node[&lt;nodeId&gt;].</code>, so that the entries of a node can be
+ * removed with {@link #removeNode(int)} when it is deleted.</p>
+ *
+ * <p>When <code>org.opennms.threshd.stateStore.snapshotFile</code> is set the
+ * store is loaded from that file when it is first used, and written back to it
+ * periodically, when {@link #snapshot()} is called and when the JVM shuts down,
+ * so that counter rates and evaluator state survive a restart.</p>
+ */
+public class ThresholdStateStore {
+    private static final Logger LOG = LoggerFactory.getLogger(ThresholdStateStore.class);
+
+    public static final String EXPECTED_ENTRIES_SYS_PROP = "org.opennms.threshd.stateStore.expectedEntries";
+    public static final String SNAPSHOT_FILE_SYS_PROP = "org.opennms.threshd.stateStore.snapshotFile";
+    public static final String SNAPSHOT_INTERVAL_SYS_PROP = "org.opennms.threshd.stateStore.snapshotInterval";
+
+    private static final int SNAPSHOT_MAGIC = 0x54535353;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private static final int SEGMENTS = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final long EMPTY = 0L;
+
+    private static ThresholdStateStore s_instance;
+
+    /**
+     * A reusable holder for the content of an entry.
+     */
+    public static class Slot {
+        private long m_long;
+        private double m_first;
+        private double m_second;
+
+        public long getLong() {
+            return m_long;
+        }
+
+        public double getFirst() {
+            return m_first;
+        }
+
+        public double getSecond() {
+            return m_second;
+        }
+
+        public void set(long l, double first, double second) {
+            m_long = l;
+            m_first = first;
+            m_second = second;
+        }
+    }
+
+    /**
+     * Interns strings into consecutive ids, starting at 1. The ids of released
+     * strings are handed out again.
+     */
+    private static class Dictionary {
+        private final ConcurrentHashMap<String, Integer> m_ids = new ConcurrentHashMap<String, Integer>();
+        // Guarded by this
+        private final List<String> m_names = new ArrayList<String>();
+        // Guarded by this
+        private final Deque<Integer> m_freeIds = new ArrayDeque<Integer>();
+
+        private int lookup(String name) {
+            final Integer id = m_ids.get(name);
+            return id == null ? 0 : id.intValue();
+        }
+
+        private int intern(String name) {
+            final Integer id = m_ids.get(name);
+            if (id != null) {
+                return id.intValue();
+            }
+            synchronized (this) {
+                Integer existing = m_ids.get(name);
+                if (existing == null) {
+                    existing = m_freeIds.pollFirst();
+                    if (existing == null) {
+                        m_names.add(name);
+                        existing = m_names.size();
+                    } else {
+                        m_names.set(existing - 1, name);
+                    }
+                    m_ids.put(name, existing);
+                }
+                return existing.intValue();
+            }
+        }
+
+        private synchronized void release(int id) {
+            m_ids.remove(m_names.get(id - 1));
+            m_names.set(id - 1, null);
+            m_freeIds.addLast(id);
+        }
+
+        /**
+         * Returns the names indexed by id - 1, with null for the released ids.
+         */
+        private synchronized List<String> names() {
+            return new ArrayList<String>(m_names);
+        }
+
+        private synchronized void clear() {
+            m_ids.clear();
+            m_names.clear();
+            m_freeIds.clear();
+        }
+    }
+
+    /**
+     * An open addressing table with linear probing. The key packs the resource id
+     * in the upper and the attribute id in the lower 32 bits, and is never 0.
+     */
+    private static class Segment {
+        private long[] m_keys;
+        private long[] m_longs;
+        private double[] m_firsts;
+        private double[] m_seconds;
+        private int m_size;
+        private int m_threshold;
+
+        private Segment(int expectedEntries) {
+            allocate(tableSizeFor(expectedEntries));
+        }
+
+        private void allocate(int capacity) {
+            m_keys = new long[capacity];
+            m_longs = new long[capacity];
+            m_firsts = new double[capacity];
+            m_seconds = new double[capacity];
+            m_threshold = (int)(capacity * LOAD_FACTOR);
+        }
+
+        private int indexOf(long key) {
+            final int mask = m_keys.length - 1;
+            int i = mix(key) & mask;
+            while (m_keys[i] != EMPTY) {
+                if (m_keys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1 - i;
+        }
+
+        private boolean get(long key, Slot slot) {
+            final int i = indexOf(key);
+            if (i < 0) {
+                return false;
+            }
+            if (slot != null) {
+                slot.set(m_longs[i], m_firsts[i], m_seconds[i]);
+            }
+            return true;
+        }
+
+        private boolean put(long key, long l, double first, double second, Slot previous) {
+            int i = indexOf(key);
+            final boolean existed = i >= 0;
+            if (existed) {
+                if (previous != null) {
+                    previous.set(m_longs[i], m_firsts[i], m_seconds[i]);
+                }
+            } else {
+                if (m_size >= m_threshold) {
+                    resize();
+                    i = indexOf(key);
+                }
+                i = -1 - i;
+                m_keys[i] = key;
+                m_size++;
+            }
+            m_longs[i] = l;
+            m_firsts[i] = first;
+            m_seconds[i] = second;
+            return existed;
+        }
+
+        private boolean remove(long key) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return false;
+            }
+            // Shift the following entries of the probe sequence back so that lookups don't stop at the hole
+            final int mask = m_keys.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (m_keys[j] == EMPTY) {
+                    break;
+                }
+                final int home = mix(m_keys[j]) & mask;
+                if ((j > i && (home <= i || home > j)) || (j < i && (home <= i && home > j))) {
+                    m_keys[i] = m_keys[j];
+                    m_longs[i] = m_longs[j];
+                    m_firsts[i] = m_firsts[j];
+                    m_seconds[i] = m_seconds[j];
+                    i = j;
+                }
+            }
+            m_keys[i] = EMPTY;
+            m_size--;
+            return true;
+        }
+
+        private void resize() {
+            final long[] keys = m_keys;
+            final long[] longs = m_longs;
+            final double[] firsts = m_firsts;
+            final double[] seconds = m_seconds;
+            allocate(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    final int j = -1 - indexOf(keys[i]);
+                    m_keys[j] = keys[i];
+                    m_longs[j] = longs[i];
+                    m_firsts[j] = firsts[i];
+                    m_seconds[j] = seconds[i];
+                }
+            }
+        }
+
+        private void clear() {
+            Arrays.fill(m_keys, EMPTY);
+            m_size = 0;
+        }
+
+        private Segment copy() {
+            final Segment copy = new Segment(0);
+            copy.m_keys = m_keys.clone();
+            copy.m_longs = m_longs.clone();
+            copy.m_firsts = m_firsts.clone();
+            copy.m_seconds = m_seconds.clone();
+            copy.m_size = m_size;
+            copy.m_threshold = m_threshold;
+            return copy;
+        }
+    }
+
+    private final Dictionary m_resources = new Dictionary();
+    private final Dictionary m_attributes = new Dictionary();
+    private final Segment[] m_segments = new Segment[SEGMENTS];
+
+    // Entries are read and written under the read lock, the write lock keeps them
+    // out while ids are released and while a snapshot is taken
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+    private final Object m_snapshotLock = new Object();
+    private File m_snapshotFile;
+    private ScheduledExecutorService m_snapshotter;
+    private Thread m_shutdownHook;
+
+    /**
+     * <p>Constructor for ThresholdStateStore.</p>
+     *
+     * @param expectedEntries the number of entries to size the tables for
+     */
+    public ThresholdStateStore(int expectedEntries) {
+        final int perSegment = Math.max(expectedEntries / SEGMENTS, 16);
+        for (int i = 0; i < SEGMENTS; i++) {
+            m_segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * Returns the store shared by all of the thresholding sets, creating it from
+     * the system properties the first time it is used.
+     *
+     * @return the shared store
+     */
+    public static synchronized ThresholdStateStore getInstance() {
+        if (s_instance == null) {
+            final ThresholdStateStore store = new ThresholdStateStore(Integer.getInteger(EXPECTED_ENTRIES_SYS_PROP, 65536));
+            final String snapshotFile = System.getProperty(SNAPSHOT_FILE_SYS_PROP);
+            if (snapshotFile != null && !snapshotFile.trim().isEmpty()) {
+                store.enableSnapshots(new File(snapshotFile.trim()), Long.getLong(SNAPSHOT_INTERVAL_SYS_PROP, 300000L));
+            }
+            s_instance = store;
+        }
+        return s_instance;
+    }
+
+    /**
+     * Restores the store from the given file, if it exists, and writes it back
+     * to the same file at the given interval and when the JVM shuts down.
+     *
+     * @param snapshotFile the file to restore from and to write to
+     * @param interval the interval between two snapshots in milliseconds, or 0 to only write them on request
+     */
+    public synchronized void enableSnapshots(File snapshotFile, long interval) {
+        m_snapshotFile = snapshotFile;
+        if (snapshotFile.exists()) {
+            try {
+                final int entries = load(snapshotFile);
+                LOG.info("Restored {} thresholding state entries from {}", entries, snapshotFile);
+            } catch (IOException e) {
+                LOG.warn("Failed to restore the thresholding state from {}, starting with an empty state", snapshotFile, e);
+                clear();
+            }
+        }
+        if (interval > 0 && m_snapshotter == null) {
+            m_snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "ThresholdStateStore-Snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            m_snapshotter.scheduleWithFixedDelay(this::snapshot, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        if (m_shutdownHook == null) {
+            // Both collectd and pollerd threshold against this store, so it is written once all of them are done with it
+            m_shutdownHook = new Thread(this::shutdown, "ThresholdStateStore-Shutdown");
+            Runtime.getRuntime().addShutdownHook(m_shutdownHook);
+        }
+    }
+
+    private void shutdown() {
+        synchronized (this) {
+            if (m_snapshotter != null) {
+                m_snapshotter.shutdown();
+                m_snapshotter = null;
+            }
+        }
+        snapshot();
+    }
+
+    /**
+     * Writes the store to the snapshot file, if snapshots are enabled.
+     */
+    public void snapshot() {
+        final File snapshotFile;
+        synchronized (this) {
+            snapshotFile = m_snapshotFile;
+        }
+        if (snapshotFile == null) {
+            return;
+        }
+        // Don't let a periodic snapshot and the final one write the same temporary file
+        synchronized (m_snapshotLock) {
+            try {
+                final int entries = save(snapshotFile);
+                LOG.debug("Wrote {} thresholding state entries to {}", entries, snapshotFile);
+            } catch (IOException e) {
+                LOG.warn("Failed to write the thresholding state to {}", snapshotFile, e);
+            }
+        }
+    }
+
+    /**
+     * Looks up an entry.
+     *
+     * @param resource the resource
+     * @param attribute the attribute
+     * @param slot receives the content of the entry, can be null
+     * @return true if the entry exists
+     */
+    public boolean get(String resource, String attribute, Slot slot) {
+        m_lock.readLock().lock();
+        try {
+            final int resourceId = m_resources.lookup(resource);
+            final int attributeId = m_attributes.lookup(attribute);
+            if (resourceId == 0 || attributeId == 0) {
+                return false;
+            }
+            final long key = key(resourceId, attributeId);
+            final Segment segment = segmentFor(key);
+            synchronized (segment) {
+                return segment.get(key, slot);
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores an entry, replacing any existing one.
+     *
+     * @param resource the resource
+     * @param attribute the attribute
+     * @param l the long value of the entry
+     * @param first the first double value of the entry
+     * @param second the second double value of the entry
+     * @param previous receives the content of the replaced entry, can be null
+     * @return true if an entry was replaced
+     */
+    public boolean put(String resource, String attribute, long l, double first, double second, Slot previous) {
+        m_lock.readLock().lock();
+        try {
+            final long key = key(m_resources.intern(resource), m_attributes.intern(attribute));
+            final Segment segment = segmentFor(key);
+            synchronized (segment) {
+                return segment.put(key, l, first, second, previous);
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param resource the resource
+     * @param attribute the attribute
+     * @return true if the entry existed
+     */
+    public boolean remove(String resource, String attribute) {
+        m_lock.readLock().lock();
+        try {
+            final int resourceId = m_resources.lookup(resource);
+            final int attributeId = m_attributes.lookup(attribute);
+            if (resourceId == 0 || attributeId == 0) {
+                return false;
+            }
+            final long key = key(resourceId, attributeId);
+            final Segment segment = segmentFor(key);
+            synchronized (segment) {
+                return segment.remove(key);
+            }
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all of the entries of the given node and releases the ids of its resources.
+     *
+     * @param nodeId the id of the node
+     * @return the number of entries removed
+     */
+    public int removeNode(int nodeId) {
+        final String prefix = "node[" + nodeId + "].";
+        m_lock.writeLock().lock();
+        try {
+            final Set<Integer> resourceIds = new HashSet<Integer>();
+            final List<String> resources = m_resources.names();
+            for (int i = 0; i < resources.size(); i++) {
+                if (resources.get(i) != null && resources.get(i).startsWith(prefix)) {
+                    resourceIds.add(i + 1);
+                }
+            }
+            if (resourceIds.isEmpty()) {
+                return 0;
+            }
+
+            int removed = 0;
+            for (Segment segment : m_segments) {
+                synchronized (segment) {
+                    final List<Long> keys = new ArrayList<Long>();
+                    for (long key : segment.m_keys) {
+                        if (key != EMPTY && resourceIds.contains((int)(key >>> 32))) {
+                            keys.add(key);
+                        }
+                    }
+                    for (Long key : keys) {
+                        segment.remove(key);
+                    }
+                    removed += keys.size();
+                }
+            }
+            for (Integer resourceId : resourceIds) {
+                m_resources.release(resourceId);
+            }
+            return removed;
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>size</p>
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : m_segments) {
+            synchronized (segment) {
+                size += segment.m_size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Removes all of the entries.
+     */
+    public void clear() {
+        m_lock.writeLock().lock();
+        try {
+            for (Segment segment : m_segments) {
+                synchronized (segment) {
+                    segment.clear();
+                }
+            }
+            m_resources.clear();
+            m_attributes.clear();
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes all of the entries to the given file. The file is replaced atomically.
+     *
+     * @param file the file to write to
+     * @return the number of entries written
+     * @throws IOException if the file cannot be written
+     */
+    public int save(File file) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+        final File tmp = new File(file.getPath() + ".tmp");
+
+        // Copy the tables while no ids are released, so that the dictionaries match the keys, and write them without the lock
+        final List<String> resources;
+        final List<String> attributes;
+        final Segment[] segments = new Segment[SEGMENTS];
+        m_lock.writeLock().lock();
+        try {
+            resources = m_resources.names();
+            attributes = m_attributes.names();
+            for (int i = 0; i < SEGMENTS; i++) {
+                synchronized (m_segments[i]) {
+                    segments[i] = m_segments[i].copy();
+                }
+            }
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+
+        int count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            writeNames(out, resources);
+            writeNames(out, attributes);
+            for (Segment segment : segments) {
+                for (int i = 0; i < segment.m_keys.length; i++) {
+                    if (segment.m_keys[i] != EMPTY) {
+                        out.writeBoolean(true);
+                        out.writeLong(segment.m_keys[i]);
+                        out.writeLong(segment.m_longs[i]);
+                        out.writeDouble(segment.m_firsts[i]);
+                        out.writeDouble(segment.m_seconds[i]);
+                        count++;
+                    }
+                }
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Adds the entries of a file written by {@link #save(File)} to the store.
+     *
+     * @param file the file to read from
+     * @return the number of entries read
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public int load(File file) throws IOException {
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(file + " is not a thresholding state snapshot");
+            }
+            final int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported thresholding state snapshot version " + version + " in " + file);
+            }
+            final String[] resources = readNames(in);
+            final String[] attributes = readNames(in);
+            while (in.readBoolean()) {
+                final long key = in.readLong();
+                final int resourceId = (int)(key >>> 32);
+                final int attributeId = (int)key;
+                if (resourceId < 1 || resourceId > resources.length || attributeId < 1 || attributeId > attributes.length) {
+                    throw new IOException("Invalid key " + key + " in " + file);
+                }
+                put(resources[resourceId - 1], attributes[attributeId - 1], in.readLong(), in.readDouble(), in.readDouble(), null);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            // Released ids are not referenced by any entry
+            out.writeUTF(name == null ? "" : name);
+        }
+    }
+
+    private static String[] readNames(DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid dictionary size " + size);
+        }
+        final String[] names = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = in.readUTF();
+        }
+        return names;
+    }
+
+    private Segment segmentFor(long key) {
+        return m_segments[(mix(key) >>> 28) & (SEGMENTS - 1)];
+    }
+
+    private static long key(int resourceId, int attributeId) {
+        return ((long)resourceId << 32) | (attributeId & 0xffffffffL);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int)h;
+    }
+
+    private static int tableSizeFor(int expectedEntries) {
+        final int needed = (int)Math.ceil(expectedEntries / LOAD_FACTOR);
+        return Math.max(Integer.highestOneBit(Math.max(needed, 2) - 1) << 1, 16);
+    }
+}
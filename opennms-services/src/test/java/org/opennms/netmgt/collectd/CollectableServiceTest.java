@@ -29,10 +29,13 @@
 package org.opennms.netmgt.collectd;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -42,6 +45,7 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdException;
@@ -70,6 +74,7 @@ import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
+import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
 import org.opennms.netmgt.snmp.InetAddrUtils;
 import org.opennms.test.FileAnticipator;
@@ -220,6 +225,66 @@ public class CollectableServiceTest {
                 lastUpdateTimeInSecs < (afterInSecs - (collectionDelayInSecs / 2d)));
     }
 
+    /**
+     * Verifies that a collection that is submitted to the {@link CollectionLimiter}
+     * is persisted and rescheduled once it completes, and not before.
+     */
+    @Test
+    public void collectAsynchronously() throws CollectionInitializationException, CollectionException, IOException {
+        createCollectableService();
+        service.setCollectionLimiter(new CollectionLimiter(1, 0, Runnable::run));
+
+        Long serviceIntervalInMs = 300 * 1000L;
+        when(spec.getInterval()).thenReturn(serviceIntervalInMs);
+        CompletableFuture<CollectionSet> collection = new CompletableFuture<>();
+        when(spec.collectAsync(any())).thenReturn(collection);
+
+        File nodeDir = fileAnticipator.expecting(getSnmpRrdDirectory(), "1");
+        File jrbFile = fileAnticipator.expecting(nodeDir, "myCounter" + rrdStrategy.getDefaultFileExtension());
+        fileAnticipator.expecting(nodeDir, "myCounter" + ".meta");
+
+        service.run();
+        verify(spec, never()).collect(any());
+        verify(scheduler, never()).schedule(any(Long.class), any());
+
+        ArgumentCaptor<CollectionAgent> agent = ArgumentCaptor.forClass(CollectionAgent.class);
+        verify(spec, times(1)).collectAsync(agent.capture());
+        collection.complete(new CollectionSetBuilder(agent.getValue())
+                .withNumericAttribute(new NodeLevelResource(agent.getValue().getNodeId()), "mibGroup", "myCounter", 1000, AttributeType.COUNTER)
+                .build());
+
+        // Persisting is handed off to the scheduler
+        ArgumentCaptor<ReadyRunnable> completion = ArgumentCaptor.forClass(ReadyRunnable.class);
+        verify(scheduler, times(1)).schedule(eq(0L), completion.capture());
+        assertFalse(jrbFile.exists());
+
+        completion.getValue().run();
+        assertTrue("Collection set was not persisted.", jrbFile.exists());
+        verify(scheduler, times(1)).schedule(serviceIntervalInMs, service);
+    }
+
+    /**
+     * Verifies that the service is rescheduled when an asynchronous collection fails.
+     */
+    @Test
+    public void rescheduleWhenAsynchronousCollectionFails() throws CollectionInitializationException, CollectionException, IOException {
+        createCollectableService();
+        service.setCollectionLimiter(new CollectionLimiter(1, 0, Runnable::run));
+
+        Long serviceIntervalInMs = 300 * 1000L;
+        when(spec.getInterval()).thenReturn(serviceIntervalInMs);
+        CompletableFuture<CollectionSet> collection = new CompletableFuture<>();
+        when(spec.collectAsync(any())).thenReturn(collection);
+
+        service.run();
+        collection.completeExceptionally(new CollectionWarning("Agent did not respond.", null));
+
+        ArgumentCaptor<ReadyRunnable> completion = ArgumentCaptor.forClass(ReadyRunnable.class);
+        verify(scheduler, times(1)).schedule(eq(0L), completion.capture());
+        completion.getValue().run();
+        verify(scheduler, times(1)).schedule(serviceIntervalInMs, service);
+    }
+
     private void createCollectableService() throws CollectionInitializationException, IOException {
         // Mock it all!
         OnmsIpInterface iface = mock(OnmsIpInterface.class, RETURNS_DEEP_STUBS);
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+public class CollectionLimiterTest {
+
+    private final List<CompletableFuture<String>> m_started = new ArrayList<>();
+
+    private CompletableFuture<String> submit(CollectionLimiter limiter, String agent, String location) {
+        return limiter.submit(agent, location, () -> {
+            final CompletableFuture<String> future = new CompletableFuture<>();
+            m_started.add(future);
+            return future;
+        });
+    }
+
+    @Test
+    public void canLimitCollectionsPerAgent() {
+        final CollectionLimiter limiter = new CollectionLimiter(1, 0, Runnable::run);
+
+        final CompletableFuture<String> first = submit(limiter, "10.0.0.1", "Default");
+        final CompletableFuture<String> second = submit(limiter, "10.0.0.1", "Default");
+        final CompletableFuture<String> other = submit(limiter, "10.0.0.2", "Default");
+
+        // The second collection against the same agent must wait for the first one
+        assertEquals(2, m_started.size());
+        assertEquals(2, limiter.getActive());
+        assertEquals(1, limiter.getQueued());
+
+        m_started.get(0).complete("first");
+        assertEquals("first", first.getNow(null));
+        assertEquals(3, m_started.size());
+        assertEquals(0, limiter.getQueued());
+
+        m_started.get(2).complete("second");
+        m_started.get(1).complete("other");
+        assertEquals("second", second.getNow(null));
+        assertEquals("other", other.getNow(null));
+        assertEquals(0, limiter.getActive());
+    }
+
+    @Test
+    public void canLimitCollectionsPerLocation() {
+        final CollectionLimiter limiter = new CollectionLimiter(0, 2, Runnable::run);
+
+        submit(limiter, "10.0.0.1", "Default");
+        submit(limiter, "10.0.0.2", "Default");
+        final CompletableFuture<String> queued = submit(limiter, "10.0.0.3", "Default");
+        submit(limiter, "10.0.0.4", "Remote");
+
+        assertEquals(3, m_started.size());
+        assertEquals(1, limiter.getQueued());
+
+        // Failures release the permits too
+        m_started.get(1).completeExceptionally(new RuntimeException("failed"));
+        assertEquals(4, m_started.size());
+        assertFalse(queued.isDone());
+
+        m_started.get(3).complete("done");
+        assertTrue(queued.isDone());
+        assertEquals(2, limiter.getActive());
+    }
+
+    @Test
+    public void startsAgentsWaitingForTheLocationInOrder() {
+        final CollectionLimiter limiter = new CollectionLimiter(1, 1, Runnable::run);
+
+        final CompletableFuture<String> first = submit(limiter, "10.0.0.1", "Default");
+        final CompletableFuture<String> second = submit(limiter, "10.0.0.2", "Default");
+        final CompletableFuture<String> third = submit(limiter, "10.0.0.3", "Default");
+        final CompletableFuture<String> again = submit(limiter, "10.0.0.1", "Default");
+        assertEquals(1, m_started.size());
+        assertEquals(3, limiter.getQueued());
+
+        // The agents that waited for the location first go first, even if the agent itself is free again
+        m_started.get(0).complete("first");
+        assertEquals("first", first.getNow(null));
+        assertEquals(2, m_started.size());
+        m_started.get(1).complete("second");
+        assertEquals("second", second.getNow(null));
+        m_started.get(2).complete("third");
+        assertEquals("third", third.getNow(null));
+        m_started.get(3).complete("again");
+        assertEquals("again", again.getNow(null));
+        assertEquals(0, limiter.getActive());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void canDrainLongQueues() {
+        final int numCollections = 50000;
+        final CollectionLimiter limiter = new CollectionLimiter(1, 10, Runnable::run);
+
+        final List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < numCollections; i++) {
+            results.add(submit(limiter, "agent" + (i % 1000), "Default"));
+        }
+        assertEquals(10, limiter.getActive());
+        assertEquals(numCollections - 10, limiter.getQueued());
+
+        // Every completion only looks at the agent and the location it released
+        for (int i = 0; i < m_started.size(); i++) {
+            m_started.get(i).complete("done");
+        }
+        assertEquals(numCollections, m_started.size());
+        assertEquals(0, limiter.getActive());
+        assertEquals(0, limiter.getQueued());
+        for (CompletableFuture<String> result : results) {
+            assertTrue(result.isDone());
+        }
+    }
+}
@@ -28,6 +28,9 @@
 
 package org.opennms.netmgt.collectd;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
@@ -50,6 +53,7 @@ import org.opennms.netmgt.dao.api.IpInterfaceDao;
 import org.opennms.netmgt.mock.MockDataCollectionConfig;
 import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.rrd.PersistedResourceRegistry;
 import org.opennms.netmgt.rrd.RrdRepository;
 import org.opennms.netmgt.rrd.RrdStrategy;
 import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
@@ -202,6 +206,60 @@ public class RrdPersistOperationBuilderTest {
     }
 
 
+    @Test
+    public void testCommitRecreatesFilesOfDeletedResources() throws Exception {
+        File nodeDir = m_fileAnticipator.expecting(getSnmpRrdDirectory(), m_node.getId().toString());
+        File rrdFile = m_fileAnticipator.expecting(nodeDir, "rrdName" + m_rrdStrategy.getDefaultFileExtension());
+        File metaFile = m_fileAnticipator.expecting(nodeDir, "rrdName" + ".meta");
+
+        RrdRepository repository = createRrdRepository();
+
+        SnmpCollectionAgent agent = getCollectionAgent();
+
+        MockDataCollectionConfig dataCollectionConfig = new MockDataCollectionConfig();
+
+        OnmsSnmpCollection collection = new OnmsSnmpCollection(agent, new ServiceParameters(new HashMap<String, Object>()), dataCollectionConfig, m_locationAwareSnmpClient);
+
+        NodeResourceType resourceType = new NodeResourceType(agent, collection);
+
+        CollectionResource resource = new NodeInfo(resourceType, agent);
+
+        MibObject mibObject = new MibObject();
+        mibObject.setOid(".1.1.1.1");
+        mibObject.setAlias("mibObjectAlias");
+        mibObject.setType("counter");
+        mibObject.setInstance("0");
+        mibObject.setMaxval(null);
+        mibObject.setMinval(null);
+
+        SnmpCollectionSet collectionSet = new SnmpCollectionSet(agent, collection, m_locationAwareSnmpClient);
+
+        SnmpAttributeType attributeType = new NumericAttributeType(resourceType, "some-collection", mibObject, new AttributeGroupType("mibGroup", AttributeGroupType.IF_TYPE_IGNORE));
+
+        PersistedResourceRegistry registry = new PersistedResourceRegistry(10);
+
+        RrdPersistOperationBuilder builder = new RrdPersistOperationBuilder(m_rrdStrategy, repository, resource, "rrdName", false);
+        builder.setPersistedResourceRegistry(registry);
+        builder.declareAttribute(attributeType);
+        builder.setAttributeValue(attributeType, 1);
+        builder.commit();
+
+        assertEquals(1, registry.size());
+        assertTrue(rrdFile.delete());
+        assertTrue(metaFile.delete());
+
+        // Deleting the resource invalidates its directory, so the files have to be written again
+        registry.invalidateDirectory(nodeDir.getAbsolutePath());
+        builder = new RrdPersistOperationBuilder(m_rrdStrategy, repository, resource, "rrdName", false);
+        builder.setPersistedResourceRegistry(registry);
+        builder.declareAttribute(attributeType);
+        builder.setAttributeValue(attributeType, 2);
+        builder.commit();
+
+        assertTrue(rrdFile.exists());
+        assertTrue(metaFile.exists());
+    }
+
     @Test
     public void testCommitWithDeclaredAttributeAndNullValue() throws Exception {
 
@@ -39,6 +39,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
@@ -241,6 +242,37 @@ public class SnmpCollectorIT implements InitializingBean, TestContextAware {
         System.err.println("SECOND COLLECTION FINISHED");
     }
 
+    @Test
+    @JUnitCollector(
+                    datacollectionConfig = "/org/opennms/netmgt/config/datacollection-persistTest-config.xml", 
+                    datacollectionType = "snmp",
+                    anticipateFiles = {
+                            "1",
+                            "1/fw0"
+                    },
+                    anticipateRrds = {
+                            "1/tcpCurrEstab",
+                            "1/fw0/ifInOctets"
+                    }
+            )
+    @JUnitSnmpAgent(resource = "/org/opennms/netmgt/snmp/snmpTestData1.properties")
+    public void testCollectAsync() throws Exception {
+        System.setProperty("org.opennms.netmgt.collectd.SnmpCollector.limitCollectionToInstances", "true");
+
+        // the future is completed by the walker's callback once all of the trackers are finished
+        CollectionSet collectionSet = m_collectionSpecification.collectAsync(m_collectionAgent).get(30, TimeUnit.SECONDS);
+        assertEquals("collection status",
+                     CollectionStatus.SUCCEEDED,
+                     collectionSet.getStatus());
+        CollectorTestUtils.persistCollectionSet(m_rrdStrategy, m_resourceStorageDao, m_collectionSpecification, collectionSet);
+
+        // the agent can be collected again once the previous collection has completed
+        Thread.sleep(1000);
+        assertEquals("collection status",
+                     CollectionStatus.SUCCEEDED,
+                     m_collectionSpecification.collectAsync(m_collectionAgent).get(30, TimeUnit.SECONDS).getStatus());
+    }
+
     @Test
     @Transactional
     @JUnitCollector(
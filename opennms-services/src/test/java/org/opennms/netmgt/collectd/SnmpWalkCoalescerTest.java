@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.collectd;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opennms.netmgt.snmp.AggregateTracker;
+import org.opennms.netmgt.snmp.Collectable;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.ColumnTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.proxy.LocationAwareSnmpClient;
+import org.opennms.netmgt.snmp.proxy.SNMPRequestBuilder;
+import org.opennms.netmgt.snmp.proxy.WalkRequest;
+import org.opennms.netmgt.snmp.proxy.WalkResponse;
+
+public class SnmpWalkCoalescerTest {
+
+    private static final SnmpObjId IF_IN_OCTETS = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10");
+    private static final SnmpObjId IF_OUT_OCTETS = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.16");
+
+    /**
+     * Answers every walk with two instances per requested column.
+     */
+    private static class MockSnmpClient implements LocationAwareSnmpClient {
+        private final List<List<WalkRequest>> m_walks = new ArrayList<>();
+
+        @Override
+        public <T extends CollectionTracker> SNMPRequestBuilder<T> walk(SnmpAgentConfig agent, T tracker) {
+            return new SNMPRequestBuilder<T>() {
+                @Override
+                public SNMPRequestBuilder<T> withLocation(String location) {
+                    return this;
+                }
+
+                @Override
+                public SNMPRequestBuilder<T> withDescription(String string) {
+                    return this;
+                }
+
+                @Override
+                public SNMPRequestBuilder<T> withTimeToLive(Long ttlInMs) {
+                    return this;
+                }
+
+                @Override
+                public SNMPRequestBuilder<T> withTimeToLive(long duration, TimeUnit unit) {
+                    return this;
+                }
+
+                @Override
+                public CompletableFuture<T> execute() {
+                    final List<WalkRequest> requests = tracker.getWalkRequests();
+                    synchronized (m_walks) {
+                        m_walks.add(requests);
+                    }
+                    final List<WalkResponse> responses = new ArrayList<>();
+                    for (WalkRequest request : requests) {
+                        responses.add(new WalkResponse(Arrays.asList(
+                                new SnmpResult(request.getBaseOid(), new SnmpInstId(1), null),
+                                new SnmpResult(request.getBaseOid(), new SnmpInstId(2), null)),
+                                request.getCorrelationId()));
+                    }
+                    tracker.handleWalkResponses(responses);
+                    return CompletableFuture.completedFuture(tracker);
+                }
+            };
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpResult>> walk(SnmpAgentConfig agent, String... oids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpResult>> walk(SnmpAgentConfig agent, SnmpObjId... oids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpResult>> walk(SnmpAgentConfig agent, List<SnmpObjId> oids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<SnmpValue> get(SnmpAgentConfig agent, String oid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<SnmpValue> get(SnmpAgentConfig agent, SnmpObjId oid) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpValue>> get(SnmpAgentConfig agent, String... oids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpValue>> get(SnmpAgentConfig agent, SnmpObjId... oids) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SNMPRequestBuilder<List<SnmpValue>> get(SnmpAgentConfig agent, List<SnmpObjId> oids) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static ColumnTracker createColumnTracker(SnmpObjId base, final List<SnmpResult> results) {
+        return new ColumnTracker(base) {
+            @Override
+            protected void storeResult(SnmpResult res) {
+                results.add(res);
+            }
+        };
+    }
+
+    @Test
+    public void canMergeWalksAgainstTheSameAgent() throws Exception {
+        final MockSnmpClient client = new MockSnmpClient();
+        final SnmpWalkCoalescer coalescer = new SnmpWalkCoalescer(500);
+        final SnmpAgentConfig agentConfig = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+
+        final List<SnmpResult> firstInOctets = new ArrayList<>();
+        final List<SnmpResult> firstOutOctets = new ArrayList<>();
+        final CollectionTracker first = new AggregateTracker(Arrays.<Collectable>asList(
+                createColumnTracker(IF_IN_OCTETS, firstInOctets),
+                createColumnTracker(IF_OUT_OCTETS, firstOutOctets)));
+
+        final List<SnmpResult> secondInOctets = new ArrayList<>();
+        final CollectionTracker second = createColumnTracker(IF_IN_OCTETS, secondInOctets);
+
+        final CompletableFuture<CollectionTracker> firstFuture = coalescer.walk(client, agentConfig, "Default", first, "first", 300000L);
+        final CompletableFuture<CollectionTracker> secondFuture = coalescer.walk(client, agentConfig, "Default", second, "second", 300000L);
+        firstFuture.get(5, TimeUnit.SECONDS);
+        secondFuture.get(5, TimeUnit.SECONDS);
+
+        // A single walk with the distinct columns
+        assertEquals(1, client.m_walks.size());
+        assertEquals(2, client.m_walks.get(0).size());
+
+        // Every tracker gets the results of the columns it asked for
+        assertEquals(2, firstInOctets.size());
+        assertEquals(2, firstOutOctets.size());
+        assertEquals(2, secondInOctets.size());
+        assertEquals(IF_OUT_OCTETS, firstOutOctets.get(0).getBase());
+        assertEquals(IF_IN_OCTETS, secondInOctets.get(0).getBase());
+    }
+
+    @Test
+    public void doesNotMergeWalksWhenDisabled() throws Exception {
+        final MockSnmpClient client = new MockSnmpClient();
+        final SnmpWalkCoalescer coalescer = new SnmpWalkCoalescer(0);
+        final SnmpAgentConfig agentConfig = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+
+        final List<SnmpResult> results = new ArrayList<>();
+        coalescer.walk(client, agentConfig, "Default", createColumnTracker(IF_IN_OCTETS, results), "first", null).get();
+        coalescer.walk(client, agentConfig, "Default", createColumnTracker(IF_IN_OCTETS, results), "second", null).get();
+
+        assertEquals(2, client.m_walks.size());
+        assertEquals(4, results.size());
+    }
+}
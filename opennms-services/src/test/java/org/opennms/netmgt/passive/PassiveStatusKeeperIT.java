@@ -32,13 +32,16 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.opennms.core.db.DataSourceFactory;
 import org.opennms.core.test.MockLogAppender;
 import org.opennms.core.test.db.MockDatabase;
@@ -76,6 +79,9 @@ public class PassiveStatusKeeperIT {
      */
 
 
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
     private PassiveStatusKeeper m_psk;
     private MockEventIpcManager m_eventMgr;
     private MockDatabase m_db;
@@ -228,6 +234,52 @@ public class PassiveStatusKeeperIT {
         assertEquals(PollStatus.down(), PassiveStatusKeeper.getInstance().getStatus("localhost", "127.0.0.1", "PSV2"));
     }
     
+    @Test
+    public void testRestartFromSnapshot() throws Exception {
+        final File snapshotFile = new File(m_tempFolder.getRoot(), "passive-status.snapshot");
+        m_psk.setSnapshotFile(snapshotFile);
+
+        final PollStatus unknown = PollStatus.get(PollStatus.SERVICE_UNKNOWN, "no data");
+        testSetStatus("localhost", "127.0.0.1", "PSV", unknown);
+        testSetStatus("localhost", "127.0.0.1", "PSV2", PollStatus.down());
+
+        m_psk.stop();
+        assertTrue(snapshotFile.exists());
+
+        m_psk.setEventManager(m_eventMgr);
+        m_psk.setDataSource(m_db);
+        m_psk.init();
+        m_psk.start();
+
+        // There are no outages, so these can only come from the snapshot
+        assertEquals(unknown, PassiveStatusKeeper.getInstance().getStatus("localhost", "127.0.0.1", "PSV"));
+        assertEquals(PollStatus.down(), PassiveStatusKeeper.getInstance().getStatus("localhost", "127.0.0.1", "PSV2"));
+        assertFalse(snapshotFile.exists());
+    }
+
+    @Test
+    public void testBulkPassiveStatus() {
+        final List<Parm> parms = new ArrayList<Parm>();
+        parms.add(buildParm(EventConstants.PARM_PASSIVE_NODE_LABEL, "Router"));
+        parms.add(buildParm(EventConstants.PARM_PASSIVE_IPADDR, "192.168.1.1"));
+        parms.add(buildParm(EventConstants.PARM_PASSIVE_SERVICE_NAME, "ICMP"));
+        parms.add(buildParm(EventConstants.PARM_PASSIVE_SERVICE_STATUS, "Down"));
+        parms.add(buildParm(EventConstants.PARM_PASSIVE_NODE_LABEL, "Server"));
+        parms.add(buildParm(EventConstants.PARM_PASSIVE_IPADDR, "192.168.1.3"));
+        parms.add(buildParm(EventConstants.PARM_PASSIVE_SERVICE_NAME, "HTTP"));
+        parms.add(buildParm(EventConstants.PARM_PASSIVE_SERVICE_STATUS, "Down"));
+        parms.add(buildParm(EventConstants.PARM_PASSIVE_REASON_CODE, "timeout"));
+        Event e = createEventWithParms("uei.opennms.org/services/passiveServiceStatus", parms);
+
+        assertEquals(2, m_psk.getPassiveStatusValues(e).size());
+        m_eventMgr.sendNow(e);
+
+        assertTrue(m_psk.getStatus("Router", "192.168.1.1", "ICMP").isDown());
+        PollStatus ps = m_psk.getStatus("Server", "192.168.1.3", "HTTP");
+        assertTrue(ps.isDown());
+        assertEquals("timeout", ps.getReason());
+    }
+
     @Test
     public void testDownPassiveStatus() throws InterruptedException, UnknownHostException {
 
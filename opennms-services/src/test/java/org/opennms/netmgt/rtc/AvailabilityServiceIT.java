@@ -53,6 +53,7 @@ import org.opennms.netmgt.xml.rtc.EuiLevel;
 import org.opennms.netmgt.xml.rtc.Node;
 import org.opennms.test.JUnitConfigurationEnvironment;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.transaction.support.TransactionTemplate;
 
@@ -73,6 +74,7 @@ import com.google.common.collect.Lists;
 public class AvailabilityServiceIT implements TemporaryDatabaseAware<MockDatabase> {
 
     @Autowired
+    @Qualifier("availabilityServiceHibernateImpl")
     private AvailabilityService m_availabilityService;
 
     @Autowired
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+
+public class RTCHashMapTest {
+
+    private static final long WINDOW = 24L * 60L * 60L * 1000L;
+
+    private static final String CATEGORY = "Servers";
+
+    /**
+     * Every service must be counted once in the category value, regardless of
+     * how many keys (node, node/ip, node/ip/service) it is stored under.
+     */
+    @Test
+    public void testCategoryValueCountsEachServiceOnce() {
+        final long now = System.currentTimeMillis();
+        final InetAddress addr1 = InetAddressUtils.addr("10.0.0.1");
+        final InetAddress addr2 = InetAddressUtils.addr("10.0.0.2");
+        final RTCHashMap map = new RTCHashMap(10);
+
+        // node 1 has two services that are up
+        map.add(createNode(1, addr1, "ICMP"));
+        map.add(createNode(1, addr1, "SNMP"));
+
+        // node 2 has a single service that has been down for the whole window
+        final RTCNode down = createNode(2, addr2, "ICMP");
+        down.nodeLostService(now - WINDOW - 1000);
+        map.add(down);
+
+        assertEquals(3, map.getServiceCount(1, CATEGORY) + map.getServiceCount(2, CATEGORY));
+        assertEquals(WINDOW, map.getDownTime(2, CATEGORY, now, WINDOW));
+        assertEquals(100.0 * 2 / 3, map.getValue(CATEGORY, now, WINDOW), 0.0001);
+    }
+
+    private static RTCNode createNode(int nodeid, InetAddress addr, String svcName) {
+        final RTCNode node = new RTCNode(nodeid, addr, svcName, WINDOW);
+        node.addCategory(CATEGORY);
+        return node;
+    }
+}
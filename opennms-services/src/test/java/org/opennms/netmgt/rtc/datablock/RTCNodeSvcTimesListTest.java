@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rtc.datablock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RTCNodeSvcTimesListTest {
+
+    private static final long WINDOW = 24L * 60L * 60L * 1000L;
+
+    /**
+     * Verifies that the running sums match the sum of the individual
+     * outages as the window slides over them.
+     */
+    @Test
+    public void testDownTimeMatchesIndividualOutages() {
+        final long now = System.currentTimeMillis();
+        final RTCNodeSvcTimesList list = new RTCNodeSvcTimesList(WINDOW);
+
+        // straddles the start of the window
+        list.addSvcTime(now - WINDOW - 1000, now - WINDOW + 4000);
+        // fully inside the window
+        list.addSvcTime(now - 10000, now - 5000);
+        // still open
+        list.addSvcTime(now - 2000);
+
+        assertEquals(4000 + 5000 + 2000, list.getDownTime(now, WINDOW));
+        assertEquals(sumIndividually(list, now + 3000), list.getDownTime(now + 3000, WINDOW));
+
+        // the straddling outage expires
+        assertEquals(sumIndividually(list, now + 5000), list.getDownTime(now + 5000, WINDOW));
+        assertEquals(2, list.size());
+    }
+
+    @Test
+    public void testRegainLastSvcTime() {
+        final long now = System.currentTimeMillis();
+        final RTCNodeSvcTimesList list = new RTCNodeSvcTimesList(WINDOW);
+
+        assertFalse(list.regainLastSvcTime(now));
+
+        list.addSvcTime(now - 3000);
+        assertTrue(list.isLastSvcTimeOpen());
+        assertEquals(3000, list.getDownTime(now, WINDOW));
+
+        assertTrue(list.regainLastSvcTime(now - 1000));
+        assertFalse(list.isLastSvcTimeOpen());
+        assertFalse(list.regainLastSvcTime(now));
+        assertEquals(2000, list.getDownTime(now, WINDOW));
+    }
+
+    private static long sumIndividually(RTCNodeSvcTimesList list, long curTime) {
+        long outTime = 0;
+        for (RTCNodeSvcTime svcTime : list) {
+            if (!svcTime.hasExpired(curTime - WINDOW)) {
+                outTime += svcTime.getDownTime(curTime, WINDOW);
+            }
+        }
+        return outTime;
+    }
+}
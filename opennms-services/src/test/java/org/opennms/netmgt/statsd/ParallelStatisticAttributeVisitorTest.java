@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.statsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.support.BottomNAttributeStatisticVisitor;
+import org.opennms.netmgt.dao.support.RrdStatisticAttributeVisitor;
+import org.opennms.netmgt.dao.support.TopNAttributeStatisticVisitor;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.MeasurementFetchStrategy;
+import org.opennms.netmgt.measurements.model.Source;
+import org.opennms.netmgt.mock.MockResourceType;
+import org.opennms.netmgt.model.AttributeStatistic;
+import org.opennms.netmgt.model.OnmsAttribute;
+import org.opennms.netmgt.model.OnmsResource;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.model.RrdGraphAttribute;
+
+public class ParallelStatisticAttributeVisitorTest {
+    private static final int ATTRIBUTES = 1000;
+    private static final int BATCH_SIZE = 10;
+    private static final int COUNT = 20;
+
+    private final List<OnmsAttribute> m_attributes = new ArrayList<>();
+    private final AtomicInteger m_fetches = new AtomicInteger();
+    private final AtomicInteger m_inFlight = new AtomicInteger();
+    private final AtomicInteger m_maxInFlight = new AtomicInteger();
+    private CountDownLatch m_fetchLatch = new CountDownLatch(0);
+    private ExecutorService m_executor;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < ATTRIBUTES; i++) {
+            final OnmsAttribute attribute = new RrdGraphAttribute("a" + i, "", "");
+            attribute.setResource(new OnmsResource("r" + i, "Resource " + i, new MockResourceType(), Collections.singleton(attribute), ResourcePath.get("r" + i)));
+            m_attributes.add(attribute);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        m_fetchLatch.countDown();
+        if (m_executor != null) {
+            m_executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMergedResultsMatchSequentialVisitor() throws Exception {
+        m_executor = Executors.newFixedThreadPool(4);
+
+        final List<String> parallel = walkInParallel(new TopNAttributeStatisticVisitor(), m_executor);
+        assertEquals(walkSequentially(new TopNAttributeStatisticVisitor()), parallel);
+        assertEquals(COUNT, parallel.size());
+    }
+
+    @Test
+    public void testMergedResultsMatchSequentialVisitorForBottomN() throws Exception {
+        m_executor = Executors.newFixedThreadPool(4);
+
+        assertEquals(walkSequentially(new BottomNAttributeStatisticVisitor()), walkInParallel(new BottomNAttributeStatisticVisitor(), m_executor));
+    }
+
+    @Test
+    public void testFetchesAreDeferredWithoutExecutor() throws Exception {
+        final BottomNAttributeStatisticVisitor statisticVisitor = new TopNAttributeStatisticVisitor();
+        statisticVisitor.setCount(COUNT);
+        final ParallelStatisticAttributeVisitor visitor = createVisitor(statisticVisitor, null);
+
+        visitor.start();
+        for (OnmsAttribute attribute : m_attributes) {
+            visitor.visit(attribute);
+        }
+        assertEquals(0, m_fetches.get());
+
+        visitor.finish();
+        assertEquals(ATTRIBUTES / BATCH_SIZE, m_fetches.get());
+        assertEquals(walkSequentially(new TopNAttributeStatisticVisitor()), toStrings(statisticVisitor));
+    }
+
+    @Test(timeout=30000)
+    public void testPendingBatchesAreBounded() throws Exception {
+        m_executor = Executors.newCachedThreadPool();
+        m_fetchLatch = new CountDownLatch(1);
+
+        final BottomNAttributeStatisticVisitor statisticVisitor = new TopNAttributeStatisticVisitor();
+        statisticVisitor.setCount(COUNT);
+        final ParallelStatisticAttributeVisitor visitor = createVisitor(statisticVisitor, m_executor);
+
+        visitor.start();
+        final Thread walker = new Thread(() -> {
+            for (OnmsAttribute attribute : m_attributes) {
+                visitor.visit(attribute);
+            }
+        });
+        walker.start();
+
+        // The walker fills up the pending batches and then has to wait for them
+        while (m_inFlight.get() < ParallelStatisticAttributeVisitor.MAX_PENDING_BATCHES) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertTrue(walker.isAlive());
+        assertEquals(ParallelStatisticAttributeVisitor.MAX_PENDING_BATCHES, m_inFlight.get());
+
+        m_fetchLatch.countDown();
+        walker.join();
+        visitor.finish();
+
+        assertTrue(m_maxInFlight.get() <= ParallelStatisticAttributeVisitor.MAX_PENDING_BATCHES);
+        assertEquals(ATTRIBUTES, visitor.getAttributesFetched());
+        assertEquals(walkSequentially(new TopNAttributeStatisticVisitor()), toStrings(statisticVisitor));
+    }
+
+    private List<String> walkSequentially(BottomNAttributeStatisticVisitor statisticVisitor) {
+        statisticVisitor.setCount(COUNT);
+        final RrdStatisticAttributeVisitor rrdVisitor = createRrdVisitor();
+        rrdVisitor.setStatisticVisitor(statisticVisitor);
+        for (OnmsAttribute attribute : m_attributes) {
+            rrdVisitor.visit(attribute);
+        }
+        return toStrings(statisticVisitor);
+    }
+
+    private List<String> walkInParallel(BottomNAttributeStatisticVisitor statisticVisitor, ExecutorService executor) {
+        statisticVisitor.setCount(COUNT);
+        final ParallelStatisticAttributeVisitor visitor = createVisitor(statisticVisitor, executor);
+        visitor.start();
+        for (OnmsAttribute attribute : m_attributes) {
+            visitor.visit(attribute);
+        }
+        visitor.finish();
+        return toStrings(statisticVisitor);
+    }
+
+    private ParallelStatisticAttributeVisitor createVisitor(BottomNAttributeStatisticVisitor statisticVisitor, ExecutorService executor) {
+        final ParallelStatisticAttributeVisitor visitor = new ParallelStatisticAttributeVisitor(createRrdVisitor(), statisticVisitor);
+        visitor.setExecutor(executor);
+        visitor.setBatchSize(BATCH_SIZE);
+        return visitor;
+    }
+
+    private RrdStatisticAttributeVisitor createRrdVisitor() {
+        final RrdStatisticAttributeVisitor rrdVisitor = new RrdStatisticAttributeVisitor();
+        rrdVisitor.setFetchStrategy(new FakeFetchStrategy());
+        rrdVisitor.setConsolidationFunction("AVERAGE");
+        rrdVisitor.setStartTime(0L);
+        rrdVisitor.setEndTime(1000L);
+        return rrdVisitor;
+    }
+
+    private static List<String> toStrings(BottomNAttributeStatisticVisitor statisticVisitor) {
+        final List<String> results = new ArrayList<>();
+        for (AttributeStatistic statistic : statisticVisitor.getResults()) {
+            results.add(statistic.getAttribute().getName() + "=" + statistic.getStatistic());
+        }
+        return results;
+    }
+
+    /**
+     * Returns a distinct value for every attribute.
+     */
+    private class FakeFetchStrategy implements MeasurementFetchStrategy {
+        @Override
+        public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat, List<Source> sources, boolean relaxed) throws Exception {
+            m_fetches.incrementAndGet();
+            final int inFlight = m_inFlight.incrementAndGet();
+            m_maxInFlight.accumulateAndGet(inFlight, Math::max);
+            try {
+                m_fetchLatch.await(30, TimeUnit.SECONDS);
+
+                final Map<String, double[]> columns = new HashMap<>();
+                for (Source source : sources) {
+                    final int i = Integer.parseInt(source.getAttribute().substring(1));
+                    columns.put(source.getLabel(), new double[] { (i * 37) % ATTRIBUTES });
+                }
+                return new FetchResults(new long[] { start }, columns, step, Collections.emptyMap());
+            } finally {
+                m_inFlight.decrementAndGet();
+            }
+        }
+    }
+}
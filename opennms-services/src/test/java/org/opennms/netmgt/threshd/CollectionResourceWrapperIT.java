@@ -98,7 +98,7 @@ public class CollectionResourceWrapperIT {
 
     @Before
     public void setUp() throws Exception {
-        CollectionResourceWrapper.s_cache.clear();
+        ThresholdStateStore.getInstance().clear();
         MockLogAppender.setupLogging();
     }
 
@@ -157,7 +157,7 @@ public class CollectionResourceWrapperIT {
 
         // Add Counter Attribute
         String attributeName = "myCounter";
-        String attributeId = "node[1].resourceType[node].instance[null].metric[" + attributeName + "]";
+        String resourceId = "node[1].resourceType[node].instance[null]";
         Map<String, CollectionAttribute> attributes = new HashMap<String, CollectionAttribute>();
         SnmpAttribute attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", "1000");
         attributes.put(attribute.getName(), attribute);
@@ -168,10 +168,10 @@ public class CollectionResourceWrapperIT {
         // Get counter value - first time
         CollectionResourceWrapper wrapper = createWrapper(resource, attributes, baseDate);
 
-        Assert.assertFalse(CollectionResourceWrapper.s_cache.containsKey(attributeId));
+        Assert.assertFalse(hasLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
-        Assert.assertEquals(Double.valueOf(1000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(1000.0), getLastValue(resourceId, attributeName));
 
         // Increase counter
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", "2500");
@@ -181,15 +181,15 @@ public class CollectionResourceWrapperIT {
        
         // Get counter value - second time
         // Last value is 1000.0, so 2500-1000/300 = 1500/300 =  5.
-        Assert.assertEquals(Double.valueOf(1000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(1000.0), getLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(5.0), wrapper.getAttributeValue(attributeName));
         //Validate that the cached counter value has been updated
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), getLastValue(resourceId, attributeName));
         //but that calling getAttributeValue doesn't re-calculate the rate inappropriately
         Assert.assertEquals(Double.valueOf(5.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), getLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(5.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), getLastValue(resourceId, attributeName));
 
         // Increase counter
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", "5500");
@@ -199,13 +199,13 @@ public class CollectionResourceWrapperIT {
 
         // Get counter value - third time
         // Last value is 2500.0, so 5500-2500/300 = 3000/300 =  10;
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), getLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(10.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(5500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(5500.0), getLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(10.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(5500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(5500.0), getLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(10.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(5500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(5500.0), getLastValue(resourceId, attributeName));
     }
         
     
@@ -225,7 +225,7 @@ public class CollectionResourceWrapperIT {
 
 		// Add Counter Attribute
 		String attributeName = "myCounter";
-	        String attributeId = "node[1].resourceType[node].instance[null].metric[" + attributeName + "]";
+	        String resourceId = "node[1].resourceType[node].instance[null]";
 		Map<String, CollectionAttribute> attributes = new HashMap<String, CollectionAttribute>();
 		SnmpAttribute attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", "1000");
 		attributes.put(attribute.getName(), attribute);
@@ -238,14 +238,13 @@ public class CollectionResourceWrapperIT {
 		CollectionResourceWrapper wrapper = createWrapper(resource, attributes,
 				baseDate);
 
-		Assert.assertFalse(CollectionResourceWrapper.s_cache
-				.containsKey(attributeId));
+		Assert.assertFalse(hasLastValue(resourceId, attributeName));
 		Assert.assertEquals(Double.valueOf(Double.NaN),
 				wrapper.getAttributeValue(attributeName)); // Last value is null
 		Assert.assertEquals(Double.valueOf(Double.NaN),
 				wrapper.getAttributeValue(attributeName)); // Last value is null
 		Assert.assertEquals(Double.valueOf(1000.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				getLastValue(resourceId, attributeName));
 
         // Increase counter
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", "2500");
@@ -255,13 +254,13 @@ public class CollectionResourceWrapperIT {
        
         // Get counter value - second time
         // Last value is 1000.0, so 2500-1000/300 = 1500/300 =  5.
-        Assert.assertEquals(Double.valueOf(1000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(1000.0), getLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(5.0), wrapper.getAttributeValue(attributeName));
         //Validate that the cached counter value has been updated
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), getLastValue(resourceId, attributeName));
         //but that calling getAttributeValue doesn't re-calculate the rate inappropriately or update the static cache
         Assert.assertEquals(Double.valueOf(5.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(2500.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(2500.0), getLastValue(resourceId, attributeName));
 
 		// Now create a collection that is missing the counter value; we're
 		// expecting null result and no cache updates
@@ -276,10 +275,10 @@ public class CollectionResourceWrapperIT {
 		// No change, so we expect the cache to have (and continue to) remain
 		// the same, and to get no attribute value out
 		Assert.assertEquals(Double.valueOf(2500.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				getLastValue(resourceId, attributeName));
 		Assert.assertNull(wrapper.getAttributeValue(attributeName)); 
 		Assert.assertEquals(Double.valueOf(2500.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				getLastValue(resourceId, attributeName));
 
 		// Now if we collect successfully again, we expect the counter to be the
 		// change divided by two collection cycles
@@ -296,16 +295,16 @@ public class CollectionResourceWrapperIT {
 		// Last value is 5500, but we've had two collection cycles, so
 		// 7300-2500/600 = 4800/600 = 8
 		Assert.assertEquals(Double.valueOf(2500.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				getLastValue(resourceId, attributeName));
 		Assert.assertEquals(Double.valueOf(8.0), wrapper.getAttributeValue(attributeName));
 		Assert.assertEquals(Double.valueOf(7300.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				getLastValue(resourceId, attributeName));
 		Assert.assertEquals(Double.valueOf(8.0), wrapper.getAttributeValue(attributeName));
 		Assert.assertEquals(Double.valueOf(7300.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				getLastValue(resourceId, attributeName));
 		Assert.assertEquals(Double.valueOf(8.0), wrapper.getAttributeValue(attributeName));
 		Assert.assertEquals(Double.valueOf(7300.0),
-				CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+				getLastValue(resourceId, attributeName));
 
 		EasyMock.verify(agent);
 	}
@@ -322,7 +321,7 @@ public class CollectionResourceWrapperIT {
 
         // Add Counter Attribute
         String attributeName = "myCounter";
-        String attributeId = "node[1].resourceType[node].instance[null].metric[" + attributeName + "]";
+        String resourceId = "node[1].resourceType[node].instance[null]";
         Map<String, CollectionAttribute> attributes = new HashMap<String, CollectionAttribute>();
         BigInteger initialValue = new BigDecimal(Math.pow(2, 32) - 20000).toBigInteger();
         SnmpAttribute attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", initialValue);
@@ -330,10 +329,10 @@ public class CollectionResourceWrapperIT {
         
         // Get counter value - first time
         CollectionResourceWrapper wrapper = createWrapper(resource, attributes, baseDate);
-        Assert.assertFalse(CollectionResourceWrapper.s_cache.containsKey(attributeId));
+        Assert.assertFalse(hasLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
-        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), getLastValue(resourceId, attributeName));
 
         // Increase counter
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", new BigInteger("40000"));
@@ -342,13 +341,13 @@ public class CollectionResourceWrapperIT {
 
         // Get counter value - second time (wrap)
         // last = MAX - 20000, new = 40000; then last - new = 60000, rate: 60000/300 = 200
-        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), getLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(200.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(40000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(40000.0), getLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(200.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(40000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(40000.0), getLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(200.0), wrapper.getAttributeValue(attributeName));
-        Assert.assertEquals(Double.valueOf(40000.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(40000.0), getLastValue(resourceId, attributeName));
 
         EasyMock.verify(agent);
     }
@@ -498,7 +497,7 @@ public class CollectionResourceWrapperIT {
         // Add Counter Attribute
         System.err.println("------------------------");
         String attributeName = "myCounter";
-        String attributeId = "node[1].resourceType[node].instance[null].metric[" + attributeName + "]";
+        String resourceId = "node[1].resourceType[node].instance[null]";
         Map<String, CollectionAttribute> attributes = new HashMap<String, CollectionAttribute>();
         BigInteger initialValue = new BigInteger("300");
         SnmpAttribute attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", initialValue);
@@ -506,26 +505,26 @@ public class CollectionResourceWrapperIT {
 
         // Get counter value - first time
         CollectionResourceWrapper wrapper = createWrapper(resource, attributes, baseDate);
-        Assert.assertFalse(CollectionResourceWrapper.s_cache.containsKey(attributeId));
+        Assert.assertFalse(hasLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
         Assert.assertEquals(Double.valueOf(Double.NaN), wrapper.getAttributeValue(attributeName)); // Last value is null
-        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertEquals(Double.valueOf(initialValue.doubleValue()), getLastValue(resourceId, attributeName));
         Assert.assertTrue(wrapper.getAttributeValue(attributeName).isNaN());
 
         // Increase counter
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", new BigInteger("600"));
         attributes.put(attribute.getName(), attribute);
         wrapper = createWrapper(resource, attributes, new Date(baseDate.getTime() + 300000));
-        Assert.assertFalse(CollectionResourceWrapper.s_cache.get(attributeId).getValue().isNaN());
-        Assert.assertEquals(Double.valueOf(300.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertFalse(getLastValue(resourceId, attributeName).isNaN());
+        Assert.assertEquals(Double.valueOf(300.0), getLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(1.0), wrapper.getAttributeValue(attributeName)); // 600 - 300 / 300 = 1.0
 
         // Increase counter again
         attribute = addAttributeToCollectionResource(resource, attributeName, AttributeType.COUNTER, "0", new BigInteger("900"));
         attributes.put(attribute.getName(), attribute);
         wrapper = createWrapper(resource, attributes, new Date(baseDate.getTime() + 600000));
-        Assert.assertFalse(CollectionResourceWrapper.s_cache.get(attributeId).getValue().isNaN());
-        Assert.assertEquals(Double.valueOf(600.0), CollectionResourceWrapper.s_cache.get(attributeId).getValue());
+        Assert.assertFalse(getLastValue(resourceId, attributeName).isNaN());
+        Assert.assertEquals(Double.valueOf(600.0), getLastValue(resourceId, attributeName));
         Assert.assertEquals(Double.valueOf(1.0), wrapper.getAttributeValue(attributeName)); // 900 - 600 / 300 = 1.0
 
         // Emulate a sysUpTime restart
@@ -619,6 +618,15 @@ public class CollectionResourceWrapperIT {
         return mibObject;
     }
 
+    private static boolean hasLastValue(String resourceId, String attributeName) {
+        return ThresholdStateStore.getInstance().get(resourceId, attributeName, null);
+    }
+
+    private static Double getLastValue(String resourceId, String attributeName) {
+        final ThresholdStateStore.Slot slot = new ThresholdStateStore.Slot();
+        return ThresholdStateStore.getInstance().get(resourceId, attributeName, slot) ? slot.getFirst() : null;
+    }
+
     private RrdRepository getRepository() {
         RrdRepository repo = new RrdRepository();
         repo.setRrdBaseDir(tempFolder.getRoot());
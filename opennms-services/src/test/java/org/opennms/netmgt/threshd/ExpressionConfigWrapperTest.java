@@ -28,23 +28,45 @@
 
 package org.opennms.netmgt.threshd;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.Assert;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.opennms.core.test.MockLogAppender;
 import org.opennms.netmgt.config.threshd.Expression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * 
  * @author <a href="mailto:agalue@opennms.org">Alejandro Galue</a>
  */
 public class ExpressionConfigWrapperTest {
-    
+    private static final Logger LOG = LoggerFactory.getLogger(ExpressionConfigWrapperTest.class);
+
+    /**
+     * Typical expressions, as found in thresholds.xml.
+     */
+    private static final List<String> TYPICAL_EXPRESSIONS = Arrays.asList(
+            "ifInOctets * 8 / ifSpeed * 100",
+            "(ifInDiscards + ifInErrors) / (ifInUcastPkts + ifInNUcastPkts + 1.0) * 100.0",
+            "hrStorageUsed / hrStorageSize * 100.0",
+            "datasources['ns-dskTotal'] - datasources['ns-dskUsed']",
+            "math.max((ifInOctets*8/ifSpeed), (ifOutOctets*8/ifSpeed))",
+            "ifSpeed > 0 and ifSpeed < 100000000 ? ((ifInOctets * 8 / ifSpeed) * 100) : (ifHighSpeed > 0 ? (((ifHCInOctets * 8) / (ifHighSpeed * 1000000)) * 100) : 0)",
+            "jnxOperatingState == 2.0 || jnxOperatingState == 3.0 || jnxOperatingState == 7.0 ? 1.0 : 0.0",
+            "math.abs(ifInOctets - ifOutOctets) / 1024",
+            "-ifInOctets % 7 + 0.1");
+
+
     private final String FORMULA = "ifSpeed > 0 and ifSpeed < 100000000 ? ((ifInOctets * 8 / ifSpeed) * 100) : (ifHighSpeed > 0 ? (((ifHCInOctets * 8) / (ifHighSpeed * 1000000)) * 100) : 0)";
 
     private ExpressionConfigWrapper wrapper;
@@ -159,6 +181,130 @@ public class ExpressionConfigWrapperTest {
         Assert.assertEquals(60.0, wrapper.evaluate(values), 0.0);
     }
 
+    @Test
+    public void testCompiledEvaluationMatchesJexl() throws Exception {
+        final String[] datasources = { "ifInOctets", "ifOutOctets", "ifSpeed", "ifHighSpeed", "ifHCInOctets", "ifInDiscards",
+                "ifInErrors", "ifInUcastPkts", "ifInNUcastPkts", "hrStorageUsed", "hrStorageSize", "ns-dskTotal", "ns-dskUsed",
+                "jnxOperatingState" };
+        final double[] candidates = { 0.0, -0.0, 1.0, 2.0, 3.0, 7.0, 1000.0, 100000000.0, 1.5e9, -42.25, Double.NaN };
+        final Random random = new Random(42);
+
+        for (String expression : TYPICAL_EXPRESSIONS) {
+            final Expression exp = new Expression();
+            exp.setExpression(expression);
+            final ExpressionConfigWrapper wrapper = new ExpressionConfigWrapper(exp);
+            for (int i = 0; i < 500; i++) {
+                final Map<String, Double> values = new HashMap<String,Double>();
+                for (String datasource : datasources) {
+                    // Leave some of the data sources without a value
+                    if (random.nextInt(10) > 0) {
+                        values.put(datasource, candidates[random.nextInt(candidates.length)]);
+                    }
+                }
+                Double expected;
+                try {
+                    expected = wrapper.evaluateWithJexl(values);
+                } catch (ThresholdExpressionException e) {
+                    expected = null;
+                }
+                Double actual;
+                try {
+                    actual = wrapper.evaluate(values);
+                } catch (ThresholdExpressionException e) {
+                    actual = null;
+                }
+                Assert.assertEquals(expression + " with " + values, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testManyDatasources() throws Exception {
+        final StringBuilder expression = new StringBuilder("0.5");
+        final Map<String, Double> values = new HashMap<String,Double>();
+        for (int i = 0; i < 100; i++) {
+            expression.append(" + ds").append(i);
+            values.put("ds" + i, (double)i);
+        }
+
+        final Expression exp = new Expression();
+        exp.setExpression(expression.toString());
+        final ExpressionConfigWrapper wrapper = new ExpressionConfigWrapper(exp);
+        Assert.assertEquals(100, wrapper.getRequiredDatasources().size());
+        Assert.assertEquals(4950.5, wrapper.evaluate(values), 0.0);
+
+        // The last data source has no value, which is beyond the first 64 variables
+        values.remove("ds99");
+        Double expected;
+        try {
+            expected = wrapper.evaluateWithJexl(values);
+        } catch (ThresholdExpressionException e) {
+            expected = null;
+        }
+        Double actual;
+        try {
+            actual = wrapper.evaluate(values);
+        } catch (ThresholdExpressionException e) {
+            actual = null;
+        }
+        Assert.assertEquals(expected, actual);
+    }
+
+    /**
+     * Compares the time needed to evaluate the typical expressions with and without JEXL.
+     */
+    @Test
+    @Ignore("benchmark, run it manually to compare the compiled expressions with JEXL")
+    public void testEvaluationBenchmark() throws Exception {
+        // Keep the output of the loops out of the logs
+        MockLogAppender.setupLogging(true, "INFO");
+
+        final Map<String, Double> values = new HashMap<String,Double>();
+        values.put("ifInOctets", 200000.0);
+        values.put("ifOutOctets", 100000.0);
+        values.put("ifSpeed", 10000000.0);
+        values.put("ifHighSpeed", 10.0);
+        values.put("ifHCInOctets", 200000.0);
+        values.put("ifInDiscards", 5.0);
+        values.put("ifInErrors", 1.0);
+        values.put("ifInUcastPkts", 1000.0);
+        values.put("ifInNUcastPkts", 10.0);
+        values.put("hrStorageUsed", 512.0);
+        values.put("hrStorageSize", 1024.0);
+        values.put("ns-dskTotal", 100.0);
+        values.put("ns-dskUsed", 40.0);
+        values.put("jnxOperatingState", 2.0);
+
+        final int iterations = 20000;
+        for (String expression : TYPICAL_EXPRESSIONS) {
+            final Expression exp = new Expression();
+            exp.setExpression(expression);
+            final ExpressionConfigWrapper wrapper = new ExpressionConfigWrapper(exp);
+
+            // Warm up both paths before measuring them
+            double sum = 0;
+            for (int i = 0; i < iterations; i++) {
+                sum += wrapper.evaluate(values) + wrapper.evaluateWithJexl(values);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sum += wrapper.evaluateWithJexl(values);
+            }
+            final long jexlNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sum += wrapper.evaluate(values);
+            }
+            final long compiledNanos = System.nanoTime() - start;
+
+            Assert.assertEquals(wrapper.evaluateWithJexl(values), wrapper.evaluate(values), 0.0);
+            LOG.info("{}: {} ns/evaluation with JEXL, {} ns/evaluation compiled (checksum {})", expression,
+                    jexlNanos / iterations, compiledNanos / iterations, sum);
+        }
+    }
+
     @Test
     public void testFunctions() throws Exception {
         Expression exp = new Expression();
@@ -205,7 +205,7 @@ public class LatencyThresholdingSetIT implements TemporaryDatabaseAware<MockData
         BeanUtils.setStaticApplicationContext(m_context);
 
         // Resets Counters Cache Data
-        CollectionResourceWrapper.s_cache.clear();
+        ThresholdStateStore.getInstance().clear();
 
         MockLogAppender.setupLogging();
 
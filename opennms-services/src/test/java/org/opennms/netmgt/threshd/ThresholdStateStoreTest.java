@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ThresholdStateStoreTest {
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    @Test
+    public void canPutGetAndRemoveEntries() {
+        final ThresholdStateStore store = new ThresholdStateStore(16);
+        final ThresholdStateStore.Slot slot = new ThresholdStateStore.Slot();
+
+        assertFalse(store.get("node[1]", "ifInOctets", slot));
+        assertFalse(store.put("node[1]", "ifInOctets", 1000L, 1.0, Double.NaN, slot));
+        assertTrue(store.put("node[1]", "ifInOctets", 2000L, 2.0, Double.NaN, slot));
+        assertEquals(1000L, slot.getLong());
+        assertEquals(1.0, slot.getFirst(), 0.0);
+
+        // Grow the tables well past their initial size
+        for (int i = 0; i < 10000; i++) {
+            store.put("node[" + (i % 100) + "]", "metric" + i, i, i * 2.0, i * 3.0, null);
+        }
+        assertEquals(10001, store.size());
+
+        for (int i = 0; i < 10000; i += 2) {
+            assertTrue(store.remove("node[" + (i % 100) + "]", "metric" + i));
+        }
+        assertEquals(5001, store.size());
+
+        for (int i = 0; i < 10000; i++) {
+            final boolean present = store.get("node[" + (i % 100) + "]", "metric" + i, slot);
+            assertEquals(i % 2 == 1, present);
+            if (present) {
+                assertEquals(i, slot.getLong());
+                assertEquals(i * 2.0, slot.getFirst(), 0.0);
+                assertEquals(i * 3.0, slot.getSecond(), 0.0);
+            }
+        }
+        assertTrue(store.get("node[1]", "ifInOctets", slot));
+        assertEquals(2.0, slot.getFirst(), 0.0);
+    }
+
+    @Test
+    public void canRestoreFromSnapshot() throws Exception {
+        final File file = new File(m_folder.getRoot(), "threshd/state.bin");
+
+        final ThresholdStateStore store = new ThresholdStateStore(16);
+        store.enableSnapshots(file, 0);
+        store.put("node[1].instance[eth0]", "threshold[relativeChange]", 0L, 10.0, 5.0, null);
+        store.put("node[2].instance[eth0]", "threshold[rearmingAbsoluteChange]", 3L, 1.0, Double.NaN, null);
+        store.snapshot();
+        assertTrue(file.exists());
+
+        final ThresholdStateStore restored = new ThresholdStateStore(16);
+        restored.enableSnapshots(file, 0);
+        assertEquals(2, restored.size());
+
+        final ThresholdStateStore.Slot slot = new ThresholdStateStore.Slot();
+        assertTrue(restored.get("node[1].instance[eth0]", "threshold[relativeChange]", slot));
+        assertEquals(10.0, slot.getFirst(), 0.0);
+        assertEquals(5.0, slot.getSecond(), 0.0);
+        assertTrue(restored.get("node[2].instance[eth0]", "threshold[rearmingAbsoluteChange]", slot));
+        assertEquals(3L, slot.getLong());
+        assertTrue(Double.isNaN(slot.getSecond()));
+        assertFalse(restored.get("node[1].instance[eth0]", "threshold[rearmingAbsoluteChange]", slot));
+    }
+
+    @Test
+    public void canRemoveTheEntriesOfANode() throws Exception {
+        final ThresholdStateStore store = new ThresholdStateStore(16);
+        for (int i = 0; i < 100; i++) {
+            store.put("node[1].instance[" + i + "]", "ifInOctets", i, i, Double.NaN, null);
+            store.put("node[11].instance[" + i + "]", "ifInOctets", i, i, Double.NaN, null);
+        }
+        assertEquals(200, store.size());
+
+        assertEquals(100, store.removeNode(1));
+        assertEquals(0, store.removeNode(1));
+        assertEquals(100, store.size());
+        assertFalse(store.get("node[1].instance[0]", "ifInOctets", null));
+        assertTrue(store.get("node[11].instance[0]", "ifInOctets", null));
+
+        // The ids of the removed resources are reused, and snapshots still match the entries
+        final ThresholdStateStore.Slot slot = new ThresholdStateStore.Slot();
+        store.put("node[2].instance[0]", "ifInOctets", 7L, 7.0, Double.NaN, null);
+        final File file = new File(m_folder.getRoot(), "state.bin");
+        store.save(file);
+        final ThresholdStateStore restored = new ThresholdStateStore(16);
+        assertEquals(101, restored.load(file));
+        assertTrue(restored.get("node[2].instance[0]", "ifInOctets", slot));
+        assertEquals(7L, slot.getLong());
+        assertTrue(restored.get("node[11].instance[99]", "ifInOctets", slot));
+        assertEquals(99L, slot.getLong());
+    }
+
+    @Test
+    public void canClearWhileWriting() throws Exception {
+        final ThresholdStateStore store = new ThresholdStateStore(16);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread writer = new Thread(() -> {
+            final ThresholdStateStore.Slot slot = new ThresholdStateStore.Slot();
+            for (int i = 0; !done.get(); i++) {
+                final String resource = "node[" + (i % 50) + "].instance[" + i + "]";
+                store.put(resource, "ifInOctets", i, i, Double.NaN, null);
+                // Either cleared or still holding the value, but never another resource's
+                if (store.get(resource, "ifInOctets", slot) && slot.getLong() != i) {
+                    failure.set(resource + " had " + slot.getLong());
+                }
+            }
+        });
+        writer.start();
+        for (int i = 0; i < 200; i++) {
+            store.removeNode(i % 50);
+            store.clear();
+        }
+        done.set(true);
+        writer.join();
+        assertNull(failure.get());
+    }
+}
@@ -216,7 +216,7 @@ public class ThresholdingVisitorIT {
     @Before
     public void setUp() throws Exception {
         // Resets Counters Cache Data
-        CollectionResourceWrapper.s_cache.clear();
+        ThresholdStateStore.getInstance().clear();
 
         MockLogAppender.setupLogging();
 
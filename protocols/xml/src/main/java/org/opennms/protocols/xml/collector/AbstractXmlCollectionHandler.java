@@ -56,8 +56,8 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -200,43 +200,128 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
      */
     protected void fillCollectionSet(CollectionAgent agent, CollectionSetBuilder builder, XmlSource source, Document doc) throws XPathExpressionException, ParseException {
         NamespaceContext nc = new DocumentNamespaceResolver(doc);
-        XPath xpath = XPathFactory.newInstance().newXPath();
-        xpath.setNamespaceContext(nc);
-        for (XmlGroup group : source.getXmlGroups()) {
-            LOG.debug("fillCollectionSet: getting resources for XML group {} using XPATH {}", group.getName(), group.getResourceXpath());
-            Date timestamp = getTimeStamp(doc, xpath, group);
-            NodeList resourceList = (NodeList) xpath.evaluate(group.getResourceXpath(), doc, XPathConstants.NODESET);
-            for (int j = 0; j < resourceList.getLength(); j++) {
-                Node resource = resourceList.item(j);
-                String resourceName = getResourceName(xpath, group, resource);
-                final Resource collectionResource = getCollectionResource(agent, resourceName, group.getResourceType(), timestamp);
-                LOG.debug("fillCollectionSet: processing resource {}", collectionResource);
+        XPath xpath = XPathExpressionCache.getXPath(nc);
+        try {
+            for (XmlGroup group : source.getXmlGroups()) {
+                LOG.debug("fillCollectionSet: getting resources for XML group {} using XPATH {}", group.getName(), group.getResourceXpath());
+                Date timestamp = getTimeStamp(doc, xpath, group);
+                NodeList resourceList = (NodeList) XPathExpressionCache.compile(group.getResourceXpath(), nc).evaluate(doc, XPathConstants.NODESET);
+                List<XPathExpression> objectExpressions = new ArrayList<XPathExpression>(group.getXmlObjects().size());
                 for (XmlObject object : group.getXmlObjects()) {
-                    String value = (String) xpath.evaluate(object.getXpath(), resource, XPathConstants.STRING);
-                    builder.withAttribute(collectionResource, group.getName(), object.getName(), value, object.getDataType());
+                    objectExpressions.add(XPathExpressionCache.compile(object.getXpath(), nc));
+                }
+                for (int j = 0; j < resourceList.getLength(); j++) {
+                    Node resource = resourceList.item(j);
+                    String resourceName = getResourceName(nc, group, resource);
+                    final Resource collectionResource = getCollectionResource(agent, resourceName, group.getResourceType(), timestamp);
+                    LOG.debug("fillCollectionSet: processing resource {}", collectionResource);
+                    for (int k = 0; k < objectExpressions.size(); k++) {
+                        XmlObject object = group.getXmlObjects().get(k);
+                        String value = (String) objectExpressions.get(k).evaluate(resource, XPathConstants.STRING);
+                        builder.withAttribute(collectionResource, group.getName(), object.getName(), value, object.getDataType());
+                    }
+                    processXmlResource(builder, collectionResource, resourceName, group.getName());
                 }
-                processXmlResource(builder, collectionResource, resourceName, group.getName());
             }
+        } finally {
+            // Don't keep the document referenced from the thread's XPath
+            XPathExpressionCache.reset();
         }
         LOG.debug("fillCollectionSet: finishing collection set with {} resources and {} attributes on {}", builder.getNumResources(), builder.getNumAttributes(), agent);
     }
 
+    /**
+     * Checks if the source should be read with {@link #fillCollectionSet(CollectionAgent, CollectionSetBuilder, XmlSource, InputStream)}.
+     * <p>This is the case when the request has the parameter <b>streaming</b> set to true
+     * and the XPaths of the source are simple enough to be evaluated without building a DOM
+     * of the whole document.</p>
+     *
+     * @param source the XML source
+     * @return true, if the source should be streamed
+     */
+    protected boolean isStreaming(XmlSource source) {
+        final Request request = source.getRequest();
+        if (request == null || !Boolean.parseBoolean(request.getParameter("streaming"))) {
+            return false;
+        }
+        if (!StreamingXmlResourceParser.supports(source)) {
+            LOG.warn("isStreaming: the XPaths of source url '{}' are too complex to be streamed, parsing the whole document instead", source.getUrl());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fill collection set from the given URL, streaming the document.
+     *
+     * @param urlString the URL string
+     * @param request the request
+     * @param agent the collection agent
+     * @param builder the collection set builder
+     * @param source the XML source
+     * @throws Exception the exception
+     */
+    protected void streamCollectionSet(String urlString, Request request, CollectionAgent agent, CollectionSetBuilder builder, XmlSource source) throws Exception {
+        InputStream is = null;
+        URLConnection c = null;
+        try {
+            URL url = UrlFactory.getUrl(urlString, request);
+            c = url.openConnection();
+            is = c.getInputStream();
+            fillCollectionSet(agent, builder, source, is);
+        } finally {
+            IOUtils.closeQuietly(is);
+            UrlFactory.disconnect(c);
+        }
+    }
+
+    /**
+     * Fill collection set, streaming the document.
+     * <p>The source must be supported by {@link #isStreaming(XmlSource)}.</p>
+     *
+     * @param agent the agent
+     * @param builder the collection set builder
+     * @param source the source
+     * @param is the input stream of the document
+     * @throws Exception the exception
+     */
+    protected void fillCollectionSet(CollectionAgent agent, CollectionSetBuilder builder, XmlSource source, InputStream is) throws Exception {
+        is = preProcessHtml(source.getRequest(), is);
+        is = applyXsltTransformation(source.getRequest(), is);
+        final StreamingXmlResourceParser parser = new StreamingXmlResourceParser(source);
+        final List<List<StreamingXmlResourceParser.ParsedResource>> resources = parser.parse(is);
+        for (int i = 0; i < source.getXmlGroups().size(); i++) {
+            final XmlGroup group = source.getXmlGroups().get(i);
+            final Date timestamp = parseTimeStamp(parser.getTimestamp(i), group);
+            for (StreamingXmlResourceParser.ParsedResource resource : resources.get(i)) {
+                final Resource collectionResource = getCollectionResource(agent, resource.getName(), group.getResourceType(), timestamp);
+                LOG.debug("fillCollectionSet: processing resource {}", collectionResource);
+                for (int k = 0; k < group.getXmlObjects().size(); k++) {
+                    XmlObject object = group.getXmlObjects().get(k);
+                    builder.withAttribute(collectionResource, group.getName(), object.getName(), resource.getValues()[k], object.getDataType());
+                }
+                processXmlResource(builder, collectionResource, resource.getName(), group.getName());
+            }
+        }
+        LOG.debug("fillCollectionSet: finishing streamed collection set with {} resources and {} attributes on {}", builder.getNumResources(), builder.getNumAttributes(), agent);
+    }
+
     /**
      * Gets the resource name.
      *
-     * @param xpath the Xpath
+     * @param nc the namespace context
      * @param group the group
      * @param resource the resource
      * @return the resource name
      * @throws XPathExpressionException the x path expression exception
      */
-    private String getResourceName(XPath xpath, XmlGroup group, Node resource) throws XPathExpressionException {
+    private String getResourceName(NamespaceContext nc, XmlGroup group, Node resource) throws XPathExpressionException {
         // Processing multiple-key resource name.
         if (group.hasMultipleResourceKey()) {
             List<String> keys = new ArrayList<String>();
             for (String key : group.getXmlResourceKey().getKeyXpathList()) {
                 LOG.debug("getResourceName: getting key for resource's name using {}", key);
-                Node keyNode = (Node) xpath.evaluate(key, resource, XPathConstants.NODE);
+                Node keyNode = (Node) XPathExpressionCache.compile(key, nc).evaluate(resource, XPathConstants.NODE);
                 keys.add(keyNode.getNodeValue() == null ? keyNode.getTextContent() : keyNode.getNodeValue());
             }
             return StringUtils.join(keys, "_");
@@ -248,7 +333,7 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
         }
         // Processing single-key resource name.
         LOG.debug("getResourceName: getting key for resource's name using {}", group.getKeyXpath());
-        Node keyNode = (Node) xpath.evaluate(group.getKeyXpath(), resource, XPathConstants.NODE);
+        Node keyNode = (Node) XPathExpressionCache.compile(group.getKeyXpath(), nc).evaluate(resource, XPathConstants.NODE);
         return keyNode.getNodeValue() == null ? keyNode.getTextContent() : keyNode.getNodeValue();
     }
 
@@ -308,16 +393,33 @@ public abstract class AbstractXmlCollectionHandler implements XmlCollectionHandl
         if (group.getTimestampXpath() == null) {
             return null;
         }
-        String pattern = group.getTimestampFormat() == null ? "yyyy-MM-dd HH:mm:ss" : group.getTimestampFormat();
-        LOG.debug("getTimeStamp: retrieving custom timestamp to be used when updating RRDs using XPATH {} and pattern {}", group.getTimestampXpath(), pattern);
-        Node tsNode = (Node) xpath.evaluate(group.getTimestampXpath(), doc, XPathConstants.NODE);
+        LOG.debug("getTimeStamp: retrieving custom timestamp to be used when updating RRDs using XPATH {}", group.getTimestampXpath());
+        Node tsNode = (Node) XPathExpressionCache.compile(group.getTimestampXpath(), xpath.getNamespaceContext()).evaluate(doc, XPathConstants.NODE);
         if (tsNode == null) {
             LOG.warn("getTimeStamp: can't find the custom timestamp using XPATH {}",  group.getTimestampXpath());
             return null;
         }
+        return parseTimeStamp(tsNode.getNodeValue() == null ? tsNode.getTextContent() : tsNode.getNodeValue(), group);
+    }
+
+    /**
+     * Parses the time stamp.
+     *
+     * @param value the value found by the timestamp XPath of the group, may be null
+     * @param group the group
+     * @return the time stamp
+     */
+    protected Date parseTimeStamp(String value, XmlGroup group) {
+        if (group.getTimestampXpath() == null) {
+            return null;
+        }
+        if (value == null) {
+            LOG.warn("getTimeStamp: can't find the custom timestamp using XPATH {}",  group.getTimestampXpath());
+            return null;
+        }
+        String pattern = group.getTimestampFormat() == null ? "yyyy-MM-dd HH:mm:ss" : group.getTimestampFormat();
         Date date = null;
-        String value = tsNode.getNodeValue() == null ? tsNode.getTextContent() : tsNode.getNodeValue();
-        LOG.debug("getTimeStamp: time stamp value is {}", value);
+        LOG.debug("getTimeStamp: time stamp value is {}, using pattern {}", value, pattern);
         try {
             DateTimeFormatter dtf = DateTimeFormat.forPattern(pattern);
             DateTime dateTime = dtf.parseDateTime(value);
@@ -52,6 +52,11 @@ public class DefaultXmlCollectionHandler extends AbstractXmlCollectionHandler {
 
     @Override
     protected void fillCollectionSet(String urlString, Request request, CollectionAgent agent, CollectionSetBuilder builder, XmlSource source) throws Exception {
+        if (isStreaming(source)) {
+            streamCollectionSet(urlString, request, agent, builder, source);
+            LOG.debug("fillCollectionSet: streamed document for source url '{}' collection", urlString);
+            return;
+        }
         final Document doc = getXmlDocument(urlString, request);
         LOG.debug("fillCollectionSet: parsed document for source url '{}' collection", urlString);
         fillCollectionSet(agent, builder, source, doc);
@@ -93,8 +93,12 @@ public class Sftp3gppXmlCollectionHandler extends AbstractXmlCollectionHandler {
                 if (lastFile == null) {
                     lastFile = connection.get3gppFileName();
                     LOG.debug("collect(single): retrieving file from {}{}{} from {}", url.getPath(), File.separatorChar, lastFile, agent.getHostAddress());
-                    Document doc = getXmlDocument(urlStr, request);
-                    fillCollectionSet(agent, builder, source, doc);
+                    if (isStreaming(source)) {
+                        streamCollectionSet(urlStr, request, agent, builder, source);
+                    } else {
+                        Document doc = getXmlDocument(urlStr, request);
+                        fillCollectionSet(agent, builder, source, doc);
+                    }
                     Sftp3gppUtils.setLastFilename(getResourceStorageDao(), getServiceName(), resourcePath, url.getPath(), lastFile);
                     Sftp3gppUtils.deleteFile(connection, lastFile);
                 } else {
@@ -107,9 +111,13 @@ public class Sftp3gppXmlCollectionHandler extends AbstractXmlCollectionHandler {
                             LOG.debug("collect(multiple): retrieving file {} from {}", fileName, agent.getHostAddress());
                             InputStream is = connection.getFile(fileName);
                             try {
-                                Document doc = getXmlDocument(is, request);
-                                IOUtils.closeQuietly(is);
-                                fillCollectionSet(agent, builder, source, doc);
+                                if (isStreaming(source)) {
+                                    fillCollectionSet(agent, builder, source, is);
+                                } else {
+                                    Document doc = getXmlDocument(is, request);
+                                    IOUtils.closeQuietly(is);
+                                    fillCollectionSet(agent, builder, source, doc);
+                                }
                             } finally {
                                 IOUtils.closeQuietly(is);
                             }
@@ -0,0 +1,409 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.xml.collector;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.apache.commons.lang.StringUtils;
+import org.opennms.protocols.xml.config.XmlGroup;
+import org.opennms.protocols.xml.config.XmlObject;
+import org.opennms.protocols.xml.config.XmlSource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Extracts the resources of an XML source while reading the document with
+ * StAX, without building a DOM of the whole document.
+ *
+ * <p>Only sources with simple expressions are supported, see
+ * {@link #supports(XmlSource)}:</p>
+ * <ul>
+ * <li>the resource XPath is an absolute path of element names, each of them
+ * optionally followed by a single <code>[@attribute='value']</code>
+ * predicate,</li>
+ * <li>the timestamp XPath, if any, is an absolute path of element names,
+ * optionally ending with an attribute,</li>
+ * <li>the key and object XPaths only look at the resource element and its
+ * descendants.</li>
+ * </ul>
+ * <p>None of the expressions may use namespace prefixes. Every resource
+ * element is copied into a small DOM of its own, which the key and object
+ * XPaths are evaluated against.</p>
+ */
+final class StreamingXmlResourceParser {
+
+    private static final String NAME = "[A-Za-z_][\\w.\\-]*";
+    private static final Pattern RESOURCE_STEP = Pattern.compile("/(" + NAME + ")(?:\\[@(" + NAME + ")=(?:'([^']*)'|\"([^\"]*)\")\\])?");
+    private static final Pattern RESOURCE_XPATH = Pattern.compile("(?:" + RESOURCE_STEP.pattern() + ")+");
+    private static final Pattern TIMESTAMP_XPATH = Pattern.compile("(?:/" + NAME + ")+(?:/@" + NAME + ")?");
+    // Axes are already ruled out by not allowing colons
+    private static final Pattern NON_LOCAL = Pattern.compile("\\.\\.|\\bid\\s*\\(|\\$");
+
+    /**
+     * A resource found in the document, with the values of the objects of
+     * its group in the order of {@link XmlGroup#getXmlObjects()}.
+     */
+    static class ParsedResource {
+        private final String m_name;
+        private final String[] m_values;
+
+        private ParsedResource(String name, String[] values) {
+            m_name = name;
+            m_values = values;
+        }
+
+        String getName() {
+            return m_name;
+        }
+
+        String[] getValues() {
+            return m_values;
+        }
+    }
+
+    private static class Step {
+        private final String m_name;
+        private final String m_attribute;
+        private final String m_value;
+
+        private Step(String name, String attribute, String value) {
+            m_name = name;
+            m_attribute = attribute;
+            m_value = value;
+        }
+
+        private boolean matches(XMLStreamReader reader) {
+            if (!m_name.equals(reader.getLocalName()) || !StringUtils.isEmpty(reader.getNamespaceURI())) {
+                return false;
+            }
+            return m_attribute == null || m_value.equals(reader.getAttributeValue(XMLConstants.NULL_NS_URI, m_attribute));
+        }
+    }
+
+    private static class GroupState {
+        private final XmlGroup m_group;
+        private final List<Step> m_resourcePath = new ArrayList<>();
+        private final List<Step> m_timestampPath = new ArrayList<>();
+        private final String m_timestampAttribute;
+        private final List<ParsedResource> m_resources = new ArrayList<>();
+
+        private int m_resourceDepth = 0;
+        private int m_timestampDepth = 0;
+        private String m_timestamp;
+        private StringBuilder m_timestampText;
+
+        private GroupState(XmlGroup group) {
+            m_group = group;
+            final Matcher m = RESOURCE_STEP.matcher(group.getResourceXpath());
+            while (m.find()) {
+                m_resourcePath.add(new Step(m.group(1), m.group(2), m.group(3) != null ? m.group(3) : m.group(4)));
+            }
+            String attribute = null;
+            if (group.getTimestampXpath() != null) {
+                for (String name : group.getTimestampXpath().substring(1).split("/")) {
+                    if (name.startsWith("@")) {
+                        attribute = name.substring(1);
+                    } else {
+                        m_timestampPath.add(new Step(name, null, null));
+                    }
+                }
+            }
+            m_timestampAttribute = attribute;
+        }
+    }
+
+    private final List<GroupState> m_groups = new ArrayList<>();
+
+    // The copy of the outermost resource element being read, if any
+    private Document m_document;
+    private Node m_current;
+    private int m_documentDepth;
+    private final List<GroupState> m_pendingGroups = new ArrayList<>();
+    private final List<Element> m_pendingElements = new ArrayList<>();
+
+    StreamingXmlResourceParser(XmlSource source) {
+        for (XmlGroup group : source.getXmlGroups()) {
+            m_groups.add(new GroupState(group));
+        }
+    }
+
+    /**
+     * @param source the XML source
+     * @return true if all of the groups of the source can be extracted while streaming
+     */
+    static boolean supports(XmlSource source) {
+        for (XmlGroup group : source.getXmlGroups()) {
+            if (group.getResourceXpath() == null || !RESOURCE_XPATH.matcher(group.getResourceXpath()).matches()) {
+                return false;
+            }
+            if (group.getTimestampXpath() != null && !TIMESTAMP_XPATH.matcher(group.getTimestampXpath()).matches()) {
+                return false;
+            }
+            final List<String> expressions = new ArrayList<>();
+            if (group.hasMultipleResourceKey()) {
+                expressions.addAll(group.getXmlResourceKey().getKeyXpathList());
+            } else if (group.getKeyXpath() != null) {
+                expressions.add(group.getKeyXpath());
+            }
+            for (XmlObject object : group.getXmlObjects()) {
+                expressions.add(object.getXpath());
+            }
+            for (String expression : expressions) {
+                if (!isLocal(expression)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An expression is local if it only looks at the context node and its
+     * descendants, and doesn't use any namespace prefixes.
+     */
+    static boolean isLocal(String expression) {
+        if (expression == null) {
+            return false;
+        }
+        // Remove the string literals, they may contain anything
+        final String stripped = expression.replaceAll("'[^']*'|\"[^\"]*\"", "''");
+        if (stripped.indexOf(':') >= 0 || NON_LOCAL.matcher(stripped).find()) {
+            return false;
+        }
+        // A slash at the start of a (sub) expression starts from the root of the document
+        char previous = '(';
+        for (char c : stripped.toCharArray()) {
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c == '/' && "([,|=<>+-*".indexOf(previous) >= 0) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the document and returns the resources found for each group.
+     *
+     * @param is the document
+     * @return the resources, in the same order as the groups of the source
+     * @throws XMLStreamException if the document can't be read
+     * @throws XPathExpressionException if a key or object XPath can't be evaluated
+     * @throws ParserConfigurationException if the resource documents can't be created
+     */
+    List<List<ParsedResource>> parse(InputStream is) throws XMLStreamException, XPathExpressionException, ParserConfigurationException {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        final DocumentBuilderFactory documentFactory = DocumentBuilderFactory.newInstance();
+        documentFactory.setNamespaceAware(true);
+        final DocumentBuilder documentBuilder = documentFactory.newDocumentBuilder();
+
+        final XMLStreamReader reader = factory.createXMLStreamReader(is);
+        try {
+            int depth = 0;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    startElement(reader, depth, documentBuilder);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement(depth);
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    characters(reader);
+                    break;
+                default:
+                    break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        final List<List<ParsedResource>> resources = new ArrayList<>(m_groups.size());
+        for (GroupState state : m_groups) {
+            resources.add(state.m_resources);
+        }
+        return resources;
+    }
+
+    /**
+     * @param groupIndex the index of the group in the source
+     * @return the text of the timestamp of the group, or null if it wasn't found
+     */
+    String getTimestamp(int groupIndex) {
+        return m_groups.get(groupIndex).m_timestamp;
+    }
+
+    private void startElement(XMLStreamReader reader, int depth, DocumentBuilder documentBuilder) {
+        if (m_document != null) {
+            final Element element = copyElement(reader);
+            m_current.appendChild(element);
+            m_current = element;
+        }
+
+        for (GroupState state : m_groups) {
+            if (state.m_timestamp == null && state.m_timestampText == null
+                    && state.m_timestampDepth == depth - 1 && depth <= state.m_timestampPath.size()
+                    && state.m_timestampPath.get(depth - 1).matches(reader)) {
+                state.m_timestampDepth = depth;
+                if (depth == state.m_timestampPath.size()) {
+                    if (state.m_timestampAttribute != null) {
+                        state.m_timestamp = reader.getAttributeValue(XMLConstants.NULL_NS_URI, state.m_timestampAttribute);
+                    } else {
+                        state.m_timestampText = new StringBuilder();
+                    }
+                }
+            }
+
+            if (state.m_resourceDepth == depth - 1 && depth <= state.m_resourcePath.size()
+                    && state.m_resourcePath.get(depth - 1).matches(reader)) {
+                state.m_resourceDepth = depth;
+                if (depth == state.m_resourcePath.size()) {
+                    if (m_document == null) {
+                        m_document = documentBuilder.newDocument();
+                        m_documentDepth = depth;
+                        m_current = copyElement(reader);
+                        m_document.appendChild(m_current);
+                    }
+                    m_pendingGroups.add(state);
+                    m_pendingElements.add((Element) m_current);
+                }
+            }
+        }
+    }
+
+    private void endElement(int depth) throws XPathExpressionException {
+        for (GroupState state : m_groups) {
+            if (state.m_resourceDepth == depth) {
+                state.m_resourceDepth--;
+            }
+            if (state.m_timestampDepth == depth) {
+                state.m_timestampDepth--;
+                if (state.m_timestampText != null && depth == state.m_timestampPath.size()) {
+                    state.m_timestamp = state.m_timestampText.toString();
+                    state.m_timestampText = null;
+                }
+            }
+        }
+
+        if (m_document == null) {
+            return;
+        }
+        if (depth > m_documentDepth) {
+            m_current = m_current.getParentNode();
+            return;
+        }
+
+        for (int i = 0; i < m_pendingGroups.size(); i++) {
+            final GroupState state = m_pendingGroups.get(i);
+            state.m_resources.add(evaluate(state.m_group, m_pendingElements.get(i)));
+        }
+        m_pendingGroups.clear();
+        m_pendingElements.clear();
+        m_document = null;
+        m_current = null;
+    }
+
+    private void characters(XMLStreamReader reader) {
+        if (m_document != null) {
+            m_current.appendChild(m_document.createTextNode(reader.getText()));
+        }
+        for (GroupState state : m_groups) {
+            if (state.m_timestampText != null) {
+                state.m_timestampText.append(reader.getText());
+            }
+        }
+    }
+
+    private Element copyElement(XMLStreamReader reader) {
+        final String prefix = reader.getPrefix();
+        final String qualifiedName = StringUtils.isEmpty(prefix) ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+        final Element element = m_document.createElementNS(StringUtils.trimToNull(reader.getNamespaceURI()), qualifiedName);
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            final String attributePrefix = reader.getAttributePrefix(i);
+            final String attributeName = StringUtils.isEmpty(attributePrefix) ? reader.getAttributeLocalName(i) : attributePrefix + ":" + reader.getAttributeLocalName(i);
+            element.setAttributeNS(StringUtils.trimToNull(reader.getAttributeNamespace(i)), attributeName, reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    private static ParsedResource evaluate(XmlGroup group, Element resource) throws XPathExpressionException {
+        final String name;
+        if (group.hasMultipleResourceKey()) {
+            final List<String> keys = new ArrayList<String>();
+            for (String key : group.getXmlResourceKey().getKeyXpathList()) {
+                keys.add(getNodeValue(key, resource));
+            }
+            name = StringUtils.join(keys, "_");
+        } else if (group.getKeyXpath() == null) {
+            name = "node"; // CollectionResource.RESOURCE_TYPE_NODE
+        } else {
+            name = getNodeValue(group.getKeyXpath(), resource);
+        }
+
+        final List<XmlObject> objects = group.getXmlObjects();
+        final String[] values = new String[objects.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (String) XPathExpressionCache.compile(objects.get(i).getXpath(), XPathExpressionCache.NO_NAMESPACES).evaluate(resource, XPathConstants.STRING);
+        }
+        return new ParsedResource(name, values);
+    }
+
+    private static String getNodeValue(String expression, Element resource) throws XPathExpressionException {
+        final Node keyNode = (Node) XPathExpressionCache.compile(expression, XPathExpressionCache.NO_NAMESPACES).evaluate(resource, XPathConstants.NODE);
+        return keyNode.getNodeValue() == null ? keyNode.getTextContent() : keyNode.getNodeValue();
+    }
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.xml.collector;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+/**
+ * Keeps the compiled XPath expressions of the XML collector, so that the
+ * expressions of a group aren't parsed again for every resource.
+ *
+ * <p>Compiled expressions can't be shared between threads, and the namespace
+ * prefixes they use are resolved when they are compiled. The cache is
+ * therefore kept per thread, and expressions using prefixes are cached
+ * together with the namespace URIs the prefixes resolved to. They are compiled
+ * against a copy of these bindings, so that the cache doesn't hold on to the
+ * document the namespace context was built from.</p>
+ */
+final class XPathExpressionCache {
+
+    private static final int MAX_EXPRESSIONS = 1024;
+
+    // A name followed by a single colon, that is a prefix and not an axis like child::
+    private static final Pattern PREFIX = Pattern.compile("(?<![\\w.\\-@$'\"])([A-Za-z_][\\w.\\-]*):(?!:)");
+
+    /**
+     * A namespace context without any prefixes.
+     */
+    static final NamespaceContext NO_NAMESPACES = new NamespaceContext() {
+        @Override
+        public String getNamespaceURI(String prefix) {
+            return XMLConstants.NULL_NS_URI;
+        }
+
+        @Override
+        public String getPrefix(String namespaceURI) {
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Iterator getPrefixes(String namespaceURI) {
+            return Collections.emptyIterator();
+        }
+    };
+
+    private static final ThreadLocal<XPathExpressionCache> s_caches = ThreadLocal.withInitial(XPathExpressionCache::new);
+
+    private final XPath m_xpath = XPathFactory.newInstance().newXPath();
+
+    private final Map<String, XPathExpression> m_expressions = new LinkedHashMap<String, XPathExpression>(64, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, XPathExpression> eldest) {
+            return size() > MAX_EXPRESSIONS;
+        }
+    };
+
+    private XPathExpressionCache() {
+    }
+
+    /**
+     * Returns the XPath instance of the current thread, using the given
+     * namespace context.
+     *
+     * @param nc the namespace context
+     * @return the XPath instance
+     */
+    static XPath getXPath(final NamespaceContext nc) {
+        final XPath xpath = s_caches.get().m_xpath;
+        xpath.setNamespaceContext(nc == null ? NO_NAMESPACES : nc);
+        return xpath;
+    }
+
+    /**
+     * Returns the compiled expression, compiling it if the current thread
+     * hasn't compiled it with the same namespace URIs before.
+     *
+     * @param expression the XPath expression
+     * @param nc the namespace context used to resolve the prefixes
+     * @return the compiled expression
+     * @throws XPathExpressionException if the expression can't be compiled
+     */
+    static XPathExpression compile(final String expression, final NamespaceContext nc) throws XPathExpressionException {
+        return s_caches.get().doCompile(expression, nc);
+    }
+
+    private XPathExpression doCompile(final String expression, final NamespaceContext nc) throws XPathExpressionException {
+        final Map<String, String> bindings = bindings(expression, nc);
+        final String key = key(expression, bindings);
+        XPathExpression compiled = m_expressions.get(key);
+        if (compiled == null) {
+            // Compile against the detached bindings, the compiled expression keeps
+            // a reference to its namespace context and must not pin the document
+            final NamespaceContext previous = m_xpath.getNamespaceContext();
+            m_xpath.setNamespaceContext(bindings.isEmpty() ? NO_NAMESPACES : new BindingsNamespaceContext(bindings));
+            try {
+                compiled = m_xpath.compile(expression);
+            } finally {
+                m_xpath.setNamespaceContext(previous == null ? NO_NAMESPACES : previous);
+            }
+            m_expressions.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Resets the namespace context of the XPath instance of the current thread,
+     * so that it doesn't keep the last document alive.
+     */
+    static void reset() {
+        s_caches.get().m_xpath.setNamespaceContext(NO_NAMESPACES);
+    }
+
+    private static Map<String, String> bindings(final String expression, final NamespaceContext nc) {
+        if (expression.indexOf(':') < 0 || nc == null) {
+            return Collections.emptyMap();
+        }
+        final Map<String, String> bindings = new TreeMap<>();
+        final Matcher m = PREFIX.matcher(expression);
+        while (m.find()) {
+            final String uri = nc.getNamespaceURI(m.group(1));
+            bindings.put(m.group(1), uri == null ? XMLConstants.NULL_NS_URI : uri);
+        }
+        return bindings;
+    }
+
+    private static String key(final String expression, final Map<String, String> bindings) {
+        if (bindings.isEmpty()) {
+            return expression;
+        }
+        final StringBuilder key = new StringBuilder(expression);
+        for (final Map.Entry<String, String> binding : bindings.entrySet()) {
+            key.append('\u0000').append(binding.getKey()).append('=').append(binding.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * A namespace context holding a copy of the prefixes used by an expression.
+     */
+    private static final class BindingsNamespaceContext implements NamespaceContext {
+        private final Map<String, String> m_bindings;
+
+        private BindingsNamespaceContext(final Map<String, String> bindings) {
+            m_bindings = bindings;
+        }
+
+        @Override
+        public String getNamespaceURI(String prefix) {
+            final String uri = m_bindings.get(prefix);
+            return uri == null ? XMLConstants.NULL_NS_URI : uri;
+        }
+
+        @Override
+        public String getPrefix(String namespaceURI) {
+            for (final Map.Entry<String, String> binding : m_bindings.entrySet()) {
+                if (binding.getValue().equals(namespaceURI)) {
+                    return binding.getKey();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Iterator getPrefixes(String namespaceURI) {
+            final String prefix = getPrefix(namespaceURI);
+            return prefix == null ? Collections.emptyIterator() : Collections.singletonList(prefix).iterator();
+        }
+    }
+}
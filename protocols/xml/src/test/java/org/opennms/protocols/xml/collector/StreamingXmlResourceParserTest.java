@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.xml.collector;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opennms.protocols.xml.collector.StreamingXmlResourceParser.ParsedResource;
+import org.opennms.protocols.xml.config.XmlGroup;
+import org.opennms.protocols.xml.config.XmlObject;
+import org.opennms.protocols.xml.config.XmlSource;
+
+/**
+ * The Test Class for StreamingXmlResourceParser.
+ */
+public class StreamingXmlResourceParserTest {
+
+    private static final String XML = "<measCollecFile>"
+            + "<measData>"
+            + "<measInfo measInfoId='ga|msg'>"
+            + "<measValue measObjLdn='ga-1'><r p='1'>10</r><r p='2'>20</r></measValue>"
+            + "<measValue measObjLdn='ga-2'><r p='1'>11</r><r p='2'>21</r></measValue>"
+            + "</measInfo>"
+            + "<measInfo measInfoId='gb|bssgp'>"
+            + "<measValue measObjLdn='gb-1'><r p='1'>30</r></measValue>"
+            + "</measInfo>"
+            + "</measData>"
+            + "<fileFooter><measCollec endTime='2011-10-25T00:45:00-05:00'/></fileFooter>"
+            + "</measCollecFile>";
+
+    /**
+     * Test that resources and timestamps are extracted while streaming.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testParse() throws Exception {
+        final XmlSource source = new XmlSource();
+        source.getXmlGroups().add(createGroup("ga-msg", "/measCollecFile/measData/measInfo[@measInfoId='ga|msg']/measValue", "r[@p=1]", "r[@p=2]"));
+        source.getXmlGroups().add(createGroup("gb-bssgp", "/measCollecFile/measData/measInfo[@measInfoId='gb|bssgp']/measValue", "r[@p=1]"));
+        Assert.assertTrue(StreamingXmlResourceParser.supports(source));
+
+        final StreamingXmlResourceParser parser = new StreamingXmlResourceParser(source);
+        final List<List<ParsedResource>> resources = parser.parse(new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(2, resources.size());
+
+        Assert.assertEquals(2, resources.get(0).size());
+        Assert.assertEquals("ga-1", resources.get(0).get(0).getName());
+        Assert.assertArrayEquals(new String[] { "10", "20" }, resources.get(0).get(0).getValues());
+        Assert.assertEquals("ga-2", resources.get(0).get(1).getName());
+        Assert.assertArrayEquals(new String[] { "11", "21" }, resources.get(0).get(1).getValues());
+
+        Assert.assertEquals(1, resources.get(1).size());
+        Assert.assertEquals("gb-1", resources.get(1).get(0).getName());
+        Assert.assertArrayEquals(new String[] { "30" }, resources.get(1).get(0).getValues());
+
+        Assert.assertEquals("2011-10-25T00:45:00-05:00", parser.getTimestamp(0));
+    }
+
+    /**
+     * Test that sources with XPaths that need the whole document are not streamed.
+     */
+    @Test
+    public void testSupports() {
+        final XmlSource source = new XmlSource();
+        source.getXmlGroups().add(createGroup("descendants", "//measValue", "r[@p=1]"));
+        Assert.assertFalse(StreamingXmlResourceParser.supports(source));
+
+        source.getXmlGroups().clear();
+        source.getXmlGroups().add(createGroup("parent", "/measCollecFile/measData/measInfo/measValue", "../@measInfoId"));
+        Assert.assertFalse(StreamingXmlResourceParser.supports(source));
+
+        Assert.assertTrue(StreamingXmlResourceParser.isLocal("r[@p=1]"));
+        Assert.assertTrue(StreamingXmlResourceParser.isLocal("sum(r)"));
+        Assert.assertFalse(StreamingXmlResourceParser.isLocal("/measCollecFile/fileFooter"));
+        Assert.assertFalse(StreamingXmlResourceParser.isLocal("count(//r)"));
+    }
+
+    private static XmlGroup createGroup(String name, String resourceXpath, String... objectXpaths) {
+        final XmlGroup group = new XmlGroup();
+        group.setName(name);
+        group.setResourceType(name);
+        group.setResourceXpath(resourceXpath);
+        group.setKeyXpath("@measObjLdn");
+        group.setTimestampXpath("/measCollecFile/fileFooter/measCollec/@endTime");
+        for (int i = 0; i < objectXpaths.length; i++) {
+            final XmlObject object = new XmlObject();
+            object.setName(name + i);
+            object.setXpath(objectXpaths[i]);
+            group.addXmlObject(object);
+        }
+        return group;
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2017 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2017 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.protocols.xml.collector;
+
+import java.io.StringReader;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * The Test Class for XPathExpressionCache.
+ */
+public class XPathExpressionCacheTest {
+
+    /**
+     * Test that expressions are cached per namespace binding and don't depend on
+     * the document they were compiled for.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testCompileWithNamespaces() throws Exception {
+        final Document doc1 = parse("<a:root xmlns:a='urn:a'><a:value>1</a:value></a:root>");
+        final Document doc2 = parse("<a:root xmlns:a='urn:a'><a:value>2</a:value></a:root>");
+        final Document doc3 = parse("<a:root xmlns:a='urn:b'><a:value>3</a:value></a:root>");
+
+        final XPathExpression expr1 = XPathExpressionCache.compile("/a:root/a:value", new DocumentNamespaceResolver(doc1));
+        final XPathExpression expr2 = XPathExpressionCache.compile("/a:root/a:value", new DocumentNamespaceResolver(doc2));
+        final XPathExpression expr3 = XPathExpressionCache.compile("/a:root/a:value", new DocumentNamespaceResolver(doc3));
+
+        // Same bindings share the compiled expression, which works for any document
+        Assert.assertSame(expr1, expr2);
+        Assert.assertEquals("2", expr1.evaluate(doc2, XPathConstants.STRING));
+
+        // Other bindings get their own expression
+        Assert.assertNotSame(expr1, expr3);
+        Assert.assertEquals("3", expr3.evaluate(doc3, XPathConstants.STRING));
+        Assert.assertEquals("", expr3.evaluate(doc1, XPathConstants.STRING));
+    }
+
+    /**
+     * Test that the namespace context of the thread's XPath is kept while compiling
+     * and dropped on reset.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testNamespaceContextIsReset() throws Exception {
+        final Document doc = parse("<a:root xmlns:a='urn:a'><a:value>1</a:value></a:root>");
+        final NamespaceContext nc = new DocumentNamespaceResolver(doc);
+
+        final XPath xpath = XPathExpressionCache.getXPath(nc);
+        XPathExpressionCache.compile("/a:root/a:value[. > 0]", nc);
+        Assert.assertSame(nc, xpath.getNamespaceContext());
+
+        XPathExpressionCache.reset();
+        Assert.assertSame(XPathExpressionCache.NO_NAMESPACES, xpath.getNamespaceContext());
+    }
+
+    private static Document parse(final String xml) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+}